@@ -0,0 +1,117 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.SortedSetDocValues;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the facet values of the hits of a query, see option
+ * {@link LuceneIndexWorker#OPTION_FACETS}. Facet values are indexed as
+ * {@link SortedSetDocValues}, so the hits of a segment are counted by ordinal
+ * into an array while the query is collected. The values are only resolved
+ * once per segment, when the counts are merged into the totals.
+ *
+ * An instance is attached to every match found by the query and may be shared
+ * by the searches on several fields.
+ */
+public class LuceneFacets {
+
+    private final String[] dimensions;
+    private final Map<String, Map<String, Integer>> counts = new HashMap<>();
+
+    // state of the current segment
+    private final SortedSetDocValues[] values;
+    private final int[][] segmentCounts;
+
+    public LuceneFacets(String[] dimensions) {
+        this.dimensions = dimensions;
+        this.values = new SortedSetDocValues[dimensions.length];
+        this.segmentCounts = new int[dimensions.length][];
+    }
+
+    /**
+     * Called by the collector when it moves to the next segment.
+     */
+    void setNextReader(AtomicReader reader) throws IOException {
+        finish();
+        for (int i = 0; i < dimensions.length; i++) {
+            values[i] = reader.getSortedSetDocValues(LuceneUtil.FIELD_FACET_PREFIX + dimensions[i]);
+            if (values[i] != null) {
+                segmentCounts[i] = new int[(int) values[i].getValueCount()];
+            }
+        }
+    }
+
+    /**
+     * Count the facet values of a hit in the current segment.
+     */
+    void collect(int doc) {
+        for (int i = 0; i < dimensions.length; i++) {
+            final SortedSetDocValues docValues = values[i];
+            if (docValues != null) {
+                docValues.setDocument(doc);
+                long ord;
+                while ((ord = docValues.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+                    segmentCounts[i][(int) ord]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Merge the counts of the current segment into the totals.
+     */
+    void finish() {
+        for (int i = 0; i < dimensions.length; i++) {
+            if (segmentCounts[i] != null) {
+                final Map<String, Integer> dimensionCounts = counts.computeIfAbsent(dimensions[i], d -> new HashMap<>());
+                final int[] ords = segmentCounts[i];
+                for (int ord = 0; ord < ords.length; ord++) {
+                    if (ords[ord] > 0) {
+                        dimensionCounts.merge(values[i].lookupOrd(ord).utf8ToString(), ords[ord], Integer::sum);
+                    }
+                }
+            }
+            values[i] = null;
+            segmentCounts[i] = null;
+        }
+    }
+
+    public String[] getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Returns the number of hits for every value of the given dimension.
+     *
+     * @param dimension the name of the dimension
+     * @return map of facet values to counts, empty if the dimension was not requested
+     */
+    public Map<String, Integer> getCounts(String dimension) {
+        final Map<String, Integer> dimensionCounts = counts.get(dimension);
+        return dimensionCounts == null ? Collections.emptyMap() : dimensionCounts;
+    }
+}
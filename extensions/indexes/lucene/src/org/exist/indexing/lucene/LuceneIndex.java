@@ -33,9 +33,11 @@ import org.exist.backup.RawDataBackup;
 import org.exist.indexing.AbstractIndex;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.RawBackupSupport;
+import org.exist.management.AgentFactory;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.btree.DBException;
+import org.exist.storage.txn.Txn;
 import org.exist.util.DatabaseConfigurationException;
 import com.evolvedbinary.j8fu.function.Function2E;
 import com.evolvedbinary.j8fu.function.FunctionE;
@@ -68,6 +70,16 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     protected SearcherManager searcherManager = null;
     protected ReaderManager readerManager = null;
 
+    /**
+     * Maximum time in milliseconds before uncommitted writes become visible to other queries
+     */
+    public final static long DEFAULT_REFRESH_MAX_STALE = 1000;
+
+    protected long refreshMaxStale = DEFAULT_REFRESH_MAX_STALE;
+    protected long refreshMinStale = 0;
+    protected NearRealTimeRefresher refresher = null;
+    private RefreshStats refreshStats = null;
+
     public String getDirName() {
         return DIR_NAME;
     }
@@ -88,6 +100,9 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
         if (LOG.isDebugEnabled())
             LOG.debug("Using buffer size: " + bufferSize);
+
+        refreshMaxStale = parseMillis(config, "refresh-max-stale", refreshMaxStale);
+        refreshMinStale = Math.min(parseMillis(config, "refresh-min-stale", refreshMinStale), refreshMaxStale);
         
         NodeList nl = config.getElementsByTagName("analyzer");
         if (nl.getLength() > 0) {
@@ -99,6 +114,25 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
             defaultAnalyzer = new StandardAnalyzer(LUCENE_VERSION_IN_USE);
         if (LOG.isDebugEnabled())
             LOG.debug("Using default analyzer: " + defaultAnalyzer.getClass().getName());
+
+        refreshStats = new RefreshStats(pool.getId(), getDirName());
+        try {
+            AgentFactory.getInstance().addMBean(refreshStats);
+        } catch (DatabaseConfigurationException e) {
+            LOG.warn("Exception while registering JMX IndexRefresh MBean.", e);
+        }
+    }
+
+    private static long parseMillis(Element config, String attribute, long defaultValue) {
+        String param = config.getAttribute(attribute);
+        if (param == null || param.isEmpty())
+            return defaultValue;
+        try {
+            return Math.max(0, Long.parseLong(param));
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid " + attribute + " setting for lucene index: " + param, e);
+            return defaultValue;
+        }
     }
 
     @Override
@@ -125,6 +159,8 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
 
             searcherManager = new SearcherManager(cachedWriter, true, null);
             readerManager = new ReaderManager(cachedWriter, true);
+            refresher = new NearRealTimeRefresher(pool, getDirName(), cachedWriter, searcherManager, readerManager,
+                    refreshMaxStale, refreshMinStale, refreshStats);
         } catch (IOException e) {
             throw new DatabaseConfigurationException("Exception while reading lucene index directory: " +
                 e.getMessage(), e);
@@ -136,6 +172,10 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     @Override
     public synchronized void close() throws DBException {
         try {
+            if (refresher != null) {
+                refresher.close();
+                refresher = null;
+            }
             if (searcherManager != null) {
                 searcherManager.close();
                 searcherManager = null;
@@ -204,6 +244,16 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
         if (writer == null)
             return;
         needsCommit = true;
+        refresher.written(getCurrentTransaction());
+    }
+
+    private Txn getCurrentTransaction() {
+        try {
+            return pool.getActiveBroker().getCurrentTransaction();
+        } catch (RuntimeException e) {
+            // no broker for the current thread: handle the writes as committed
+            return null;
+        }
     }
 
     protected void commit() {
@@ -227,7 +277,7 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     }
 
     public <R> R withReader(FunctionE<IndexReader, R, IOException> fn) throws IOException {
-        readerManager.maybeRefreshBlocking();
+        refresher.awaitReader();
         final DirectoryReader reader = readerManager.acquire();
         try {
             return fn.apply(reader);
@@ -237,7 +287,7 @@ public class LuceneIndex extends AbstractIndex implements RawBackupSupport {
     }
 
     public <R> R withSearcher(Function2E<IndexSearcher, R, IOException, XPathException> consumer) throws IOException, XPathException {
-        searcherManager.maybeRefreshBlocking();
+        refresher.awaitSearcher();
         final IndexSearcher searcher = searcherManager.acquire();
         try {
             return consumer.apply(searcher);
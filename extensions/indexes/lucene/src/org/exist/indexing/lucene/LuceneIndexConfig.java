@@ -20,7 +20,10 @@
  */
 package org.exist.indexing.lucene;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import org.apache.commons.collections.MultiMap;
@@ -49,6 +52,7 @@ public class LuceneIndexConfig {
     private final static String HAS_ATTR_ELEMENT = "has-attribute";
     private final static String MATCH_SIBLING_ATTR_ELEMENT = "match-sibling-attribute";
     private final static String HAS_SIBLING_ATTR_ELEMENT = "has-sibling-attribute";
+    private final static String FACET_ELEMENT = "facet";
 
     public static final String QNAME_ATTR = "qname";
     public static final String MATCH_ATTR = "match";
@@ -71,6 +75,9 @@ public class LuceneIndexConfig {
     // This is for the @attr match boosting
     // and the intention is to do a proper predicate check instead in the future. /ljo
     private MultiMap matchAttrs;
+
+    // maps the name of an attribute to the facet dimension it is indexed in
+    private Map<String, String> facetAttrs;
     protected final static Logger LOG = LogManager.getLogger(LuceneIndexConfig.class);
 
 
@@ -180,6 +187,18 @@ public class LuceneIndexConfig {
                             matchAttrs.put(qname, new MatchAttrData(qname, value, boost, onSibling));
                             break;
                         }
+                        case FACET_ELEMENT: {
+                            final String dimension = configElement.getAttribute("dimension");
+                            final String attribute = configElement.getAttribute("attribute");
+                            if (StringUtils.isEmpty(dimension) || StringUtils.isEmpty(attribute)) {
+                                throw new DatabaseConfigurationException("Lucene configuration element 'facet' needs attributes 'dimension' and 'attribute'");
+                            }
+                            if (facetAttrs == null) {
+                                facetAttrs = new TreeMap<>();
+                            }
+                            facetAttrs.put(attribute, dimension);
+                            break;
+                        }
                     }
                 }
             }
@@ -214,6 +233,9 @@ public class LuceneIndexConfig {
      * if no match, the value from getBoost() is returned
      */
     public float getAttrBoost(Collection<AttrImpl> attributes) {
+        if (matchAttrs == null) {
+            return getBoost();
+        }
         float boost = 0;
         boolean hasBoost = false;
 
@@ -245,6 +267,29 @@ public class LuceneIndexConfig {
 	}
     }
 
+    /**
+     * Get the facet values of a node from the given attributes
+     * (e.g. sibling or child attributes), see the 'facet' configuration element.
+     *
+     * @return map of facet dimensions to values, or null if there are none
+     */
+    public Map<String, List<String>> getFacets(Collection<AttrImpl> attributes) {
+        if (facetAttrs == null) {
+            return null;
+        }
+        Map<String, List<String>> facets = null;
+        for (Attr attr : attributes) {
+            final String dimension = facetAttrs.get(attr.getName());
+            if (dimension != null) {
+                if (facets == null) {
+                    facets = new HashMap<>();
+                }
+                facets.computeIfAbsent(dimension, d -> new ArrayList<>(1)).add(attr.getValue());
+            }
+        }
+        return facets;
+    }
+
     public void setName(String name) {
 		this.name = name;
     }
@@ -338,7 +383,7 @@ public class LuceneIndexConfig {
     }
 
     boolean shouldReindexOnAttributeChange() {
-        return matchAttrs != null;
+        return matchAttrs != null || facetAttrs != null;
     }
 
     private static class MatchAttrData {
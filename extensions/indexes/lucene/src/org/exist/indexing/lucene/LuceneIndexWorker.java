@@ -57,6 +57,8 @@ import org.exist.util.Occurrences;
 import org.exist.util.pool.NodePool;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.*;
+import org.exist.xquery.Constants;
+import org.exist.xquery.modules.lucene.LuceneQueryRewriter;
 import org.exist.xquery.value.IntegerValue;
 import org.exist.xquery.value.NodeValue;
 import org.w3c.dom.Attr;
@@ -84,6 +86,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public static final String OPTION_FILTER_REWRITE = "filter-rewrite";
     public static final String DEFAULT_OPERATOR_OR = "or";
     public static final String OPTION_LOWERCASE_EXPANDED_TERMS = "lowercase-expanded-terms";
+    public static final String OPTION_TOP_K = "top-k";
+    public static final String OPTION_FACETS = "facets";
 
     public static final org.apache.lucene.document.FieldType TYPE_NODE_ID = new org.apache.lucene.document.FieldType();
     static {
@@ -141,7 +145,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     }
 
     public QueryRewriter getQueryRewriter(XQueryContext context) {
-        return null;
+        return new LuceneQueryRewriter(context);
     }
 
     public Object configure(IndexController controller, NodeList configNodes, Map<String, String> namespaces) throws DatabaseConfigurationException {
@@ -438,6 +442,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             final List<QName> definedIndexes = getDefinedIndexes(qnames);
             final NodeSet resultSet = new NewArrayNodeSet();
             final boolean returnAncestor = axis == NodeSet.ANCESTOR;
+            final TopHits topHits = getTopHits(options);
+            final LuceneFacets facets = getFacets(options);
             for (QName qname : definedIndexes) {
                 String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
                 Analyzer analyzer = getAnalyzer(null, qname, context.getBroker(), docs);
@@ -445,16 +451,52 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 try {
                     setOptions(options, parser.getConfiguration());
                     Query query = parser.parse(queryStr);
-                    searchAndProcess(contextId, qname, docs, contextSet, resultSet,
+                    searchAndProcess(contextId, qname, docs, contextSet, resultSet, topHits, facets,
                             returnAncestor, searcher, query, context.getWatchDog());
                 } catch(ParseException e) {
                     throw new XPathException("Lucene query syntax error: " + e.getMessage());
                 }
             }
+            if (topHits != null) {
+                topHits.addTo(resultSet);
+            }
             return resultSet;
         });
     }
 
+    /**
+     * Returns the collector for the best scoring hits if option {@link #OPTION_TOP_K}
+     * is set, null otherwise.
+     */
+    private TopHits getTopHits(Properties options) throws XPathException {
+        if (options == null)
+            return null;
+        String option = options.getProperty(OPTION_TOP_K);
+        if (option == null)
+            return null;
+        try {
+            int k = Integer.parseInt(option.trim());
+            if (k > 0)
+                return new TopHits(k);
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new XPathException("value for option " + OPTION_TOP_K + " needs to be a positive number");
+    }
+
+    /**
+     * Returns the facet counts for the dimensions listed in option {@link #OPTION_FACETS},
+     * or null if the option is not set.
+     */
+    private LuceneFacets getFacets(Properties options) {
+        if (options == null)
+            return null;
+        String option = options.getProperty(OPTION_FACETS);
+        if (option == null || option.trim().isEmpty())
+            return null;
+        return new LuceneFacets(option.trim().split("\\s+"));
+    }
+
     protected void setOptions(Properties options, CommonQueryParserConfiguration parser) throws ParseException {
         if (options == null)
             return;
@@ -515,15 +557,20 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             final List<QName> definedIndexes = getDefinedIndexes(qnames);
             final NodeSet resultSet = new NewArrayNodeSet();
             final boolean returnAncestor = axis == NodeSet.ANCESTOR;
+            final TopHits topHits = getTopHits(options);
+            final LuceneFacets facets = getFacets(options);
             for (QName qname : definedIndexes) {
                 String field = LuceneUtil.encodeQName(qname, index.getBrokerPool().getSymbols());
                 analyzer = getAnalyzer(null, qname, context.getBroker(), docs);
                 Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
                 if (query != null) {
-                    searchAndProcess(contextId, qname, docs, contextSet, resultSet,
+                    searchAndProcess(contextId, qname, docs, contextSet, resultSet, topHits, facets,
                             returnAncestor, searcher, query, context.getWatchDog());
                 }
             }
+            if (topHits != null) {
+                topHits.addTo(resultSet);
+            }
             return resultSet;
         });
     }
@@ -534,21 +581,30 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         return index.withSearcher(searcher -> {
             final NodeSet resultSet = new NewArrayNodeSet();
             final boolean returnAncestor = axis == NodeSet.ANCESTOR;
+            final TopHits topHits = getTopHits(options);
+            final LuceneFacets facets = getFacets(options);
             analyzer = getAnalyzer(field, null, context.getBroker(), docs);
             Query query = queryTranslator.parse(field, queryRoot, analyzer, options);
             if (query != null) {
-                searchAndProcess(contextId, null, docs, contextSet, resultSet,
+                searchAndProcess(contextId, null, docs, contextSet, resultSet, topHits, facets,
                         returnAncestor, searcher, query, context.getWatchDog());
+                if (topHits != null) {
+                    topHits.addTo(resultSet);
+                }
             }
             return resultSet;
         });
     }
 
     private void searchAndProcess(int contextId, QName qname, DocumentSet docs,
-            NodeSet contextSet, NodeSet resultSet, boolean returnAncestor,
+            NodeSet contextSet, NodeSet resultSet, TopHits topHits, LuceneFacets facets, boolean returnAncestor,
             IndexSearcher searcher, Query query, XQueryWatchDog watchDog) throws IOException, TerminatedException {
-        LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, returnAncestor, contextId, watchDog);
+        LuceneHitCollector collector = new LuceneHitCollector(qname, query, docs, contextSet, resultSet, topHits, facets,
+                returnAncestor, contextId, watchDog);
         searcher.search(query, collector);
+        if (facets != null) {
+            facets.finish();
+        }
     }
 
     public NodeSet queryField(XQueryContext context, int contextId, DocumentSet docs, NodeSet contextSet,
@@ -557,14 +613,19 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         return index.withSearcher(searcher -> {
             NodeSet resultSet = new NewArrayNodeSet();
             boolean returnAncestor = axis == NodeSet.ANCESTOR;
+            TopHits topHits = getTopHits(options);
+            LuceneFacets facets = getFacets(options);
             Analyzer analyzer = getAnalyzer(field, null, context.getBroker(), docs);
             LOG.debug("Using analyzer " + analyzer + " for " + queryString);
             QueryParserWrapper parser = getQueryParser(field, analyzer, docs);
             try {
                 setOptions(options, parser.getConfiguration());
                 Query query = parser.parse(queryString);
-                searchAndProcess(contextId, null, docs, contextSet, resultSet,
+                searchAndProcess(contextId, null, docs, contextSet, resultSet, topHits, facets,
                         returnAncestor, searcher, query, context.getWatchDog());
+                if (topHits != null) {
+                    topHits.addTo(resultSet);
+                }
             } catch(ParseException e) {
                 throw new XPathException("Lucene query syntax error: " + e.getMessage());
             }
@@ -861,17 +922,21 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         private final DocumentSet docs;
         private final NodeSet contextSet;
         private final NodeSet resultSet;
+        private final TopHits topHits;
+        private final LuceneFacets facets;
         private final boolean returnAncestor;
         private final int contextId;
         private final Query query;
         private final XQueryWatchDog watchdog;
 
-        private LuceneHitCollector(QName qname, Query query, DocumentSet docs, NodeSet contextSet, NodeSet resultSet, boolean returnAncestor,
-                                   int contextId, XQueryWatchDog watchDog) {
+        private LuceneHitCollector(QName qname, Query query, DocumentSet docs, NodeSet contextSet, NodeSet resultSet, TopHits topHits,
+                                   LuceneFacets facets, boolean returnAncestor, int contextId, XQueryWatchDog watchDog) {
             this.qname = qname;
             this.docs = docs;
             this.contextSet = contextSet;
             this.resultSet = resultSet;
+            this.topHits = topHits;
+            this.facets = facets;
             this.returnAncestor = returnAncestor;
             this.contextId = contextId;
             this.query = query;
@@ -888,6 +953,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             this.reader = atomicReaderContext.reader();
             this.docIdValues = this.reader.getNumericDocValues(FIELD_DOC_ID);
             this.nodeIdValues = this.reader.getBinaryDocValues(LuceneUtil.FIELD_NODE_ID);
+            if (facets != null)
+                facets.setNextReader(this.reader);
         }
 
         @Override
@@ -899,6 +966,11 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         public void collect(int doc) {
             try {
                 float score = scorer.score();
+                // in top-k mode, skip the hit before decoding its node id if it
+                // cannot make it into the result anymore. Facets are counted over
+                // all hits though.
+                if (topHits != null && facets == null && !topHits.isCompetitive(score))
+                    return;
                 int docId = (int) this.docIdValues.get(doc);
                 DocumentImpl storedDocument = docs.getDoc(docId);
                 if (storedDocument == null)
@@ -911,42 +983,116 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 NodeProxy storedNode = new NodeProxy(storedDocument, nodeId);
                 if (qname != null)
                     storedNode.setNodeType(qname.getNameType() == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE);
+                NodeProxy parentNode = null;
+                int sizeHint = Constants.NO_SIZE_HINT;
                 // if a context set is specified, we can directly check if the
                 // matching node is a descendant of one of the nodes
                 // in the context set.
                 if (contextSet != null) {
-                    int sizeHint = contextSet.getSizeHint(storedDocument);
+                    sizeHint = contextSet.getSizeHint(storedDocument);
                     if (returnAncestor) {
-                        NodeProxy parentNode = contextSet.get(storedNode);
+                        parentNode = contextSet.get(storedNode);
                         // NodeProxy parentNode = contextSet.parentWithChild(storedNode, false, true, NodeProxy.UNKNOWN_NODE_LEVEL);
-                        if (parentNode != null) {
-                            LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
-                            match.setScore(score);
-                            parentNode.addMatch(match);
-                            resultSet.add(parentNode, sizeHint);
-                            if (Expression.NO_CONTEXT_ID != contextId) {
-                                parentNode.deepCopyContext(storedNode, contextId);
-                            } else
-                                parentNode.copyContext(storedNode);
-                        }
-                    } else {
-                        LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
-                        match.setScore(score);
-                        storedNode.addMatch(match);
-                        resultSet.add(storedNode, sizeHint);
+                        if (parentNode == null)
+                            return;
                     }
-                } else {
-                    LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
-                    match.setScore(score);
-                    storedNode.addMatch(match);
-                    resultSet.add(storedNode);
                 }
+                if (facets != null)
+                    facets.collect(doc);
+                LuceneMatch match = new LuceneMatch(contextId, nodeId, query);
+                match.setScore(score);
+                match.setFacets(facets);
+                if (topHits != null)
+                    topHits.offer(new TopHit(match, storedNode, parentNode, sizeHint, contextId));
+                else
+                    addHit(resultSet, match, storedNode, parentNode, sizeHint, contextId);
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
+    private static void addHit(NodeSet resultSet, LuceneMatch match, NodeProxy storedNode, NodeProxy parentNode,
+                               int sizeHint, int contextId) {
+        if (parentNode != null) {
+            parentNode.addMatch(match);
+            resultSet.add(parentNode, sizeHint);
+            if (Expression.NO_CONTEXT_ID != contextId) {
+                parentNode.deepCopyContext(storedNode, contextId);
+            } else
+                parentNode.copyContext(storedNode);
+        } else {
+            storedNode.addMatch(match);
+            resultSet.add(storedNode, sizeHint);
+        }
+    }
+
+    private static class TopHit {
+
+        private final LuceneMatch match;
+        private final NodeProxy storedNode;
+        private final NodeProxy parentNode;
+        private final int sizeHint;
+        private final int contextId;
+
+        private TopHit(LuceneMatch match, NodeProxy storedNode, NodeProxy parentNode, int sizeHint, int contextId) {
+            this.match = match;
+            this.storedNode = storedNode;
+            this.parentNode = parentNode;
+            this.sizeHint = sizeHint;
+            this.contextId = contextId;
+        }
+    }
+
+    /**
+     * Bounded priority queue collecting the k best scoring hits of a query,
+     * see option {@link #OPTION_TOP_K}. Hits with equal score are ranked in
+     * document order, so the selected hits are exactly the first k of the
+     * complete result ordered by descending score. Only the selected hits are
+     * added to the result set, together with their matches.
+     *
+     * The queue may be shared by the searches on several fields: every node is
+     * indexed under a single field, so the result does not depend on the order
+     * in which the fields are searched.
+     */
+    private static class TopHits extends org.apache.lucene.util.PriorityQueue<TopHit> {
+
+        private final int k;
+
+        private TopHits(int k) {
+            super(k);
+            this.k = k;
+        }
+
+        /**
+         * Returns false if a hit with the given score will certainly be rejected
+         * by {@link #offer(TopHit)}.
+         */
+        private boolean isCompetitive(float score) {
+            return size() < k || score >= top().match.getScore();
+        }
+
+        private void offer(TopHit hit) {
+            insertWithOverflow(hit);
+        }
+
+        @Override
+        protected boolean lessThan(TopHit a, TopHit b) {
+            final float diff = a.match.getScore() - b.match.getScore();
+            if (diff != 0)
+                return diff < 0;
+            // equal scores: the hit which comes later in document order ranks lower
+            return a.storedNode.compareTo(b.storedNode) > 0;
+        }
+
+        private void addTo(NodeSet resultSet) {
+            TopHit hit;
+            while ((hit = pop()) != null) {
+                addHit(resultSet, hit.match, hit.storedNode, hit.parentNode, hit.sizeHint, hit.contextId);
+            }
+        }
+    }
+
     /**
      * Check index configurations for all collection in the given DocumentSet and return
      * a list of QNames, which have indexes defined on them.
@@ -1148,13 +1294,14 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
      * @param content
      */
     protected void indexText(NodeId nodeId, QName qname, NodePath path, LuceneIndexConfig config, CharSequence content) {
-        PendingDoc pending = new PendingDoc(nodeId, qname, path, content, config.getBoost(), config);
+        PendingDoc pending = new PendingDoc(nodeId, qname, path, content, config.getBoost(), null, config);
         addPending(pending);
     }
 
     /**
      * Adds the passed character sequence to the lucene index.
-     * This version uses the AttrImpl for node specific attribute match boosting.
+     * This version uses the AttrImpl for node specific attribute match boosting
+     * and facet values.
      *
      * @param attribs
      * @param nodeId
@@ -1164,7 +1311,8 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
      * @param content
      */
     protected void indexText(java.util.Collection<AttrImpl> attribs, NodeId nodeId, QName qname, NodePath path, LuceneIndexConfig config, CharSequence content) {
-        PendingDoc pending = new PendingDoc(nodeId, qname, path, content, config.getAttrBoost(attribs), config);
+        PendingDoc pending = new PendingDoc(nodeId, qname, path, content, config.getAttrBoost(attribs),
+                config.getFacets(attribs), config);
         addPending(pending);
     }
     
@@ -1182,16 +1330,18 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         private final NodePath path;
         private final CharSequence text;
         private final float boost;
+        private final Map<String, List<String>> facets;
         private final LuceneIndexConfig idxConf;
 
         private PendingDoc(final NodeId nodeId, final QName qname, final NodePath path, final CharSequence text,
-                final float boost, final LuceneIndexConfig idxConf) {
+                final float boost, final Map<String, List<String>> facets, final LuceneIndexConfig idxConf) {
             this.nodeId = nodeId;
             this.qname = qname;
             this.path = path;
             this.text = text;
             this.idxConf = idxConf;
             this.boost = boost;
+            this.facets = facets;
         }
     }
 
@@ -1282,6 +1432,15 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
                 fDocIdIdx.setIntValue(currentDoc.getDocId());
                 doc.add(fDocIdIdx);
+
+                // facet values are counted from doc values at query time
+                if (pending.facets != null) {
+                    for (final Map.Entry<String, List<String>> facet : pending.facets.entrySet()) {
+                        for (final String value : facet.getValue()) {
+                            doc.add(new SortedSetDocValuesField(LuceneUtil.FIELD_FACET_PREFIX + facet.getKey(), new BytesRef(value)));
+                        }
+                    }
+                }
                 
                 for (final Field meta : metas) {
                     doc.add(meta);
@@ -1512,6 +1671,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
 
         private float score = 0.0f;
         private final Query query;
+        private LuceneFacets facets = null;
 
         public LuceneMatch(int contextId, NodeId nodeId, Query query) {
             super(contextId, nodeId, null);
@@ -1522,6 +1682,7 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             super(copy);
             this.score = copy.score;
             this.query = copy.query;
+            this.facets = copy.facets;
         }
 
         @Override
@@ -1555,6 +1716,18 @@ public class LuceneIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             this.score = score;
         }
 
+        /**
+         * @return the facet counts of the query which generated this match,
+         * or null if no facets were requested
+         */
+        public LuceneFacets getFacets() {
+            return facets;
+        }
+
+        protected void setFacets(LuceneFacets facets) {
+            this.facets = facets;
+        }
+
         // DW: missing hashCode() ?
         @Override
         public boolean equals(Object other) {
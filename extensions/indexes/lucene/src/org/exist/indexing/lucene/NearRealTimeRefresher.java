@@ -0,0 +1,220 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.ReaderManager;
+import org.apache.lucene.index.TrackingIndexWriter;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.util.ThreadInterruptedException;
+import org.exist.Database;
+import org.exist.storage.txn.Txn;
+import org.exist.storage.txn.TxnListener;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.exist.util.ThreadUtils.nameInstanceThread;
+
+/**
+ * Reopens the searcher and reader of a {@link LuceneIndex} in background threads, so queries
+ * no longer reopen them inline after every write.
+ *
+ * Every batch of writes to the index writer is assigned a generation. The writes of a
+ * transaction are published when it commits (writes outside of a transaction immediately),
+ * which wakes up the reopen threads. A query waits for the latest published generation
+ * and for the generation of the writes done by its own thread, i.e. it sees all committed
+ * data and its own uncommitted changes. It only waits if such a reopen is still in progress:
+ * the reopen itself is always done by the background threads and shared by all queries.
+ *
+ * Writes which are not yet published become visible after at most max-stale milliseconds.
+ */
+public class NearRealTimeRefresher implements Closeable {
+
+    private final TrackingIndexWriter writer;
+    private final ControlledRealTimeReopenThread<IndexSearcher> searcherThread;
+    private final ControlledRealTimeReopenThread<DirectoryReader> readerThread;
+    private final RefreshStats stats;
+
+    private final AtomicLong publishedGeneration = new AtomicLong(-1);
+    private final GenerationListener searcherGeneration = new GenerationListener();
+    private final ThreadLocal<PendingWrites> pendingWrites = new ThreadLocal<>();
+
+    public NearRealTimeRefresher(final Database database, final String indexName, final IndexWriter writer,
+            final SearcherManager searcherManager, final ReaderManager readerManager,
+            final long maxStale, final long minStale, final RefreshStats stats) {
+        this.writer = new TrackingIndexWriter(writer);
+        this.stats = stats;
+
+        searcherManager.addListener(searcherGeneration);
+        this.searcherThread = startThread(database, indexName + ".searcher", searcherManager, maxStale, minStale);
+        this.readerThread = startThread(database, indexName + ".reader", readerManager, maxStale, minStale);
+        stats.setRefresher(this);
+    }
+
+    private <T> ControlledRealTimeReopenThread<T> startThread(final Database database, final String name,
+            final ReferenceManager<T> manager, final long maxStale, final long minStale) {
+        manager.addListener(new StatsListener());
+        final ControlledRealTimeReopenThread<T> thread =
+                new ControlledRealTimeReopenThread<>(writer, manager, maxStale / 1000.0, minStale / 1000.0);
+        thread.setName(nameInstanceThread(database, "lucene.refresh." + name));
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Called after a batch of writes to the index writer.
+     *
+     * @param transaction the transaction of the current thread, if any
+     */
+    public void written(@Nullable final Txn transaction) {
+        final long generation = writer.getAndIncrementGeneration();
+        PendingWrites pending = pendingWrites.get();
+        if (pending == null || pending.transaction != transaction) {
+            pending = new PendingWrites(transaction);
+            pendingWrites.set(pending);
+            if (transaction != null) {
+                transaction.registerListener(pending);
+            }
+        }
+        pending.generation = generation;
+        if (transaction == null) {
+            publish(generation);
+        }
+    }
+
+    private void publish(final long generation) {
+        publishedGeneration.accumulateAndGet(generation, Math::max);
+        try {
+            // does not block, just tells the threads to reopen as soon as possible
+            searcherThread.waitForGeneration(generation, 0);
+            readerThread.waitForGeneration(generation, 0);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait until the searcher includes all published writes and the writes of the current thread.
+     */
+    public void awaitSearcher() {
+        await(searcherThread);
+    }
+
+    /**
+     * Wait until the reader includes all published writes and the writes of the current thread.
+     */
+    public void awaitReader() {
+        await(readerThread);
+    }
+
+    private void await(final ControlledRealTimeReopenThread<?> thread) {
+        final PendingWrites pending = pendingWrites.get();
+        final long generation = Math.max(publishedGeneration.get(), pending == null ? -1 : pending.generation);
+        try {
+            // a zero timeout only checks if the generation is already searchable
+            if (!thread.waitForGeneration(generation, 0)) {
+                final long start = System.nanoTime();
+                thread.waitForGeneration(generation);
+                stats.waited(System.nanoTime() - start);
+            }
+        } catch (final InterruptedException e) {
+            throw new ThreadInterruptedException(e);
+        }
+    }
+
+    long getSearcherGeneration() {
+        return searcherGeneration.generation;
+    }
+
+    long getPublishedGeneration() {
+        return publishedGeneration.get();
+    }
+
+    @Override
+    public void close() {
+        stats.setRefresher(null);
+        searcherThread.close();
+        readerThread.close();
+    }
+
+    private class PendingWrites implements TxnListener {
+        private Txn transaction;
+        private volatile long generation = -1;
+
+        private PendingWrites(@Nullable final Txn transaction) {
+            this.transaction = transaction;
+        }
+
+        @Override
+        public void commit() {
+            transaction = null;
+            publish(generation);
+        }
+
+        @Override
+        public void abort() {
+            // the writes are not rolled back in the index writer, so make them visible as well
+            transaction = null;
+            publish(generation);
+        }
+    }
+
+    /**
+     * Tracks the generation which the searcher includes, the writes of a generation are
+     * done before it is assigned, so they are included by any refresh which starts later.
+     */
+    private class GenerationListener implements ReferenceManager.RefreshListener {
+        private long refreshGeneration = -1;
+        private volatile long generation = -1;
+
+        @Override
+        public void beforeRefresh() {
+            refreshGeneration = writer.getGeneration() - 1;
+        }
+
+        @Override
+        public void afterRefresh(final boolean didRefresh) {
+            generation = Math.max(generation, refreshGeneration);
+        }
+    }
+
+    private class StatsListener implements ReferenceManager.RefreshListener {
+        private long start;
+
+        @Override
+        public void beforeRefresh() {
+            start = System.nanoTime();
+        }
+
+        @Override
+        public void afterRefresh(final boolean didRefresh) {
+            if (didRefresh) {
+                stats.refreshed(System.nanoTime() - start);
+            }
+        }
+    }
+}
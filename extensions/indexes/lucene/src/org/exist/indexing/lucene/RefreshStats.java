@@ -0,0 +1,128 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Collects reopen latencies and searcher generations of an index. The statistics survive
+ * closing and reopening the index, so a single instance is registered per index.
+ */
+public class RefreshStats implements RefreshStatsMXBean {
+
+    private final String instanceId;
+    private final String indexName;
+
+    private volatile NearRealTimeRefresher refresher = null;
+
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong refreshTime = new AtomicLong();
+    private final LongAccumulator maxRefreshTime = new LongAccumulator(Math::max, 0);
+    private volatile long lastRefreshTime = 0;
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+
+    public RefreshStats(final String instanceId, final String indexName) {
+        this.instanceId = instanceId;
+        this.indexName = indexName;
+    }
+
+    void setRefresher(final NearRealTimeRefresher refresher) {
+        this.refresher = refresher;
+    }
+
+    void refreshed(final long nanos) {
+        refreshCount.incrementAndGet();
+        refreshTime.addAndGet(nanos);
+        maxRefreshTime.accumulate(nanos);
+        lastRefreshTime = nanos;
+    }
+
+    void waited(final long nanos) {
+        waitCount.incrementAndGet();
+        waitTime.addAndGet(nanos);
+    }
+
+    @Override
+    public ObjectName getName() throws MalformedObjectNameException {
+        return new ObjectName("org.exist.management." + instanceId + ":type=IndexRefresh,name=" + indexName);
+    }
+
+    @Override
+    public String getInstanceId() {
+        return instanceId;
+    }
+
+    @Override
+    public String getIndexName() {
+        return indexName;
+    }
+
+    @Override
+    public long getSearcherGeneration() {
+        final NearRealTimeRefresher current = refresher;
+        return current == null ? -1 : current.getSearcherGeneration();
+    }
+
+    @Override
+    public long getPublishedGeneration() {
+        final NearRealTimeRefresher current = refresher;
+        return current == null ? -1 : current.getPublishedGeneration();
+    }
+
+    @Override
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    @Override
+    public double getLastRefreshTime() {
+        return toMillis(lastRefreshTime);
+    }
+
+    @Override
+    public double getAverageRefreshTime() {
+        final long count = refreshCount.get();
+        return count == 0 ? 0 : toMillis(refreshTime.get() / count);
+    }
+
+    @Override
+    public double getMaxRefreshTime() {
+        return toMillis(maxRefreshTime.get());
+    }
+
+    @Override
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    @Override
+    public double getAverageWaitTime() {
+        final long count = waitCount.get();
+        return count == 0 ? 0 : toMillis(waitTime.get() / count);
+    }
+
+    private static double toMillis(final long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
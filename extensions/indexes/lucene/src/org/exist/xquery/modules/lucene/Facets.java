@@ -0,0 +1,127 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.lucene;
+
+import org.exist.dom.QName;
+import org.exist.dom.persistent.Match;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.indexing.lucene.LuceneFacets;
+import org.exist.indexing.lucene.LuceneIndex;
+import org.exist.indexing.lucene.LuceneIndexWorker;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.functions.map.MapType;
+import org.exist.xquery.value.*;
+
+import java.util.*;
+
+public class Facets extends BasicFunction {
+
+    public final static FunctionSignature[] signatures = {
+        new FunctionSignature(
+            new QName("facets", LuceneModule.NAMESPACE_URI, LuceneModule.PREFIX),
+            "Returns the facet counts of the given dimension for the full-text queries which " +
+            "returned the nodes in $nodes. The dimension has to be listed in the facets option of ft:query " +
+            "and be configured as a facet in the index configuration. If the nodes were returned by " +
+            "several queries, their counts are added up.",
+            new SequenceType[] {
+                new FunctionParameterSequenceType("nodes", Type.NODE, Cardinality.ZERO_OR_MORE,
+                    "the result of one or more calls to ft:query"),
+                new FunctionParameterSequenceType("dimension", Type.STRING, Cardinality.EXACTLY_ONE,
+                    "the facet dimension")
+            },
+            new FunctionReturnSequenceType(Type.MAP, Cardinality.EXACTLY_ONE,
+                "map of facet values to the number of matches having that value")
+        ),
+        new FunctionSignature(
+            new QName("facets", LuceneModule.NAMESPACE_URI, LuceneModule.PREFIX),
+            "Returns the facet counts of the given dimension for the full-text queries which " +
+            "returned the nodes in $nodes, limited to the $count values with the highest counts. " +
+            "The dimension has to be listed in the facets option of ft:query " +
+            "and be configured as a facet in the index configuration. If the nodes were returned by " +
+            "several queries, their counts are added up.",
+            new SequenceType[] {
+                new FunctionParameterSequenceType("nodes", Type.NODE, Cardinality.ZERO_OR_MORE,
+                    "the result of one or more calls to ft:query"),
+                new FunctionParameterSequenceType("dimension", Type.STRING, Cardinality.EXACTLY_ONE,
+                    "the facet dimension"),
+                new FunctionParameterSequenceType("count", Type.INTEGER, Cardinality.ZERO_OR_ONE,
+                    "the maximum number of facet values to return, all if empty")
+            },
+            new FunctionReturnSequenceType(Type.MAP, Cardinality.EXACTLY_ONE,
+                "map of facet values to the number of matches having that value")
+        )
+    };
+
+    public Facets(XQueryContext context, FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(Sequence[] args, Sequence contextSequence) throws XPathException {
+        final String dimension = args[1].getStringValue();
+        int count = Integer.MAX_VALUE;
+        if (args.length > 2 && !args[2].isEmpty()) {
+            count = ((IntegerValue) args[2].itemAt(0)).getInt();
+        }
+
+        // all matches of a query share the same facet counts
+        final Set<LuceneFacets> queries = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final SequenceIterator i = args[0].iterate(); i.hasNext(); ) {
+            final NodeValue node = (NodeValue) i.nextItem();
+            if (node.getImplementationType() != NodeValue.PERSISTENT_NODE) {
+                continue;
+            }
+            Match match = ((NodeProxy) node).getMatches();
+            while (match != null) {
+                if (match.getIndexId().equals(LuceneIndex.ID)) {
+                    final LuceneFacets facets = ((LuceneIndexWorker.LuceneMatch) match).getFacets();
+                    if (facets != null) {
+                        queries.add(facets);
+                    }
+                }
+                match = match.getNextMatch();
+            }
+        }
+
+        final Map<String, Integer> counts = new HashMap<>();
+        for (final LuceneFacets facets : queries) {
+            for (final Map.Entry<String, Integer> entry : facets.getCounts(dimension).entrySet()) {
+                counts.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+        }
+
+        final List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort((e1, e2) -> {
+            final int cmp = Integer.compare(e2.getValue(), e1.getValue());
+            return cmp != 0 ? cmp : e1.getKey().compareTo(e2.getKey());
+        });
+
+        final MapType result = new MapType(context);
+        for (int i = 0; i < entries.size() && i < count; i++) {
+            final Map.Entry<String, Integer> entry = entries.get(i);
+            result.add(new StringValue(entry.getKey()), new IntegerValue(entry.getValue()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.lucene;
+
+import org.exist.xquery.*;
+import org.exist.xquery.Constants.Comparison;
+import org.exist.xquery.functions.fn.FunPosition;
+import org.exist.xquery.value.AtomicValue;
+import org.exist.xquery.value.IntegerValue;
+
+import java.util.List;
+
+/**
+ * Query rewriter for the lucene index. Detects FLWOR expressions which only return the
+ * best scoring matches of ft:query, e.g.
+ *
+ * <pre>
+ * (for $hit in ft:query(//p, "xml")
+ *  order by ft:score($hit) descending
+ *  return $hit)[position() le 10]
+ * </pre>
+ *
+ * and tells the ft:query call to only return the 10 best scoring matches, so the node ids of
+ * all other matches never have to be resolved.
+ */
+public class LuceneQueryRewriter extends QueryRewriter {
+
+    public LuceneQueryRewriter(XQueryContext context) {
+        super(context);
+    }
+
+    @Override
+    public boolean rewriteFilteredExpr(FilteredExpression filtered) throws XPathException {
+        final List<Predicate> predicates = filtered.getPredicates();
+        if (predicates.size() != 1) {
+            return false;
+        }
+        final int k = getPositionLimit(predicates.get(0));
+        if (k < 1) {
+            return false;
+        }
+
+        final Expression expr = unwrap(filtered.getExpression());
+        if (!(expr instanceof ForExpr)) {
+            return false;
+        }
+        final ForExpr forExpr = (ForExpr) expr;
+        // a positional variable would see the reduced input sequence
+        if (forExpr.getPositionalVariable() != null || !(forExpr.getReturnExpression() instanceof OrderByClause)) {
+            return false;
+        }
+        final Query query = getQuery(forExpr.getInputSequence());
+        if (query == null) {
+            return false;
+        }
+
+        final OrderByClause orderBy = (OrderByClause) forExpr.getReturnExpression();
+        final OrderSpec[] orderSpecs = orderBy.getOrderSpecs();
+        if (orderSpecs.length != 1 || (orderSpecs[0].getModifiers() & OrderSpec.DESCENDING_ORDER) == 0 ||
+                !isScore(orderSpecs[0].getSortExpression(), forExpr.getVariable())) {
+            return false;
+        }
+        // every iteration has to return exactly one item, otherwise more than k matches could be needed
+        if (!returnsOneItem(orderBy.getReturnExpression(), forExpr.getVariable())) {
+            return false;
+        }
+
+        query.setTopK(k);
+        return true;
+    }
+
+    /**
+     * Returns the maximum position selected by a predicate like [position() le 10]
+     * or [position() &lt; 11], or -1 if the predicate has a different form.
+     */
+    private static int getPositionLimit(Predicate predicate) {
+        final Expression expr = unwrap(predicate);
+        if (!(expr instanceof GeneralComparison)) {
+            return -1;
+        }
+        final GeneralComparison comparison = (GeneralComparison) expr;
+        final Comparison relation = comparison.getRelation();
+        if (!(relation == Comparison.LT || relation == Comparison.LTEQ)) {
+            return -1;
+        }
+        final Expression left = unwrap(comparison.getLeft());
+        final Expression right = unwrap(comparison.getRight());
+        if (!(left instanceof InternalFunctionCall && ((InternalFunctionCall) left).getFunction() instanceof FunPosition) ||
+                !(right instanceof LiteralValue)) {
+            return -1;
+        }
+        final AtomicValue value = ((LiteralValue) right).getValue();
+        if (!(value instanceof IntegerValue)) {
+            return -1;
+        }
+        final long limit = ((IntegerValue) value).getLong() - (relation == Comparison.LT ? 1 : 0);
+        return limit > Integer.MAX_VALUE ? -1 : (int) limit;
+    }
+
+    private static Query getQuery(Expression expr) {
+        expr = unwrap(expr);
+        if (expr instanceof InternalFunctionCall && ((InternalFunctionCall) expr).getFunction() instanceof Query) {
+            return (Query) ((InternalFunctionCall) expr).getFunction();
+        }
+        return null;
+    }
+
+    private static boolean isScore(Expression expr, String varName) {
+        expr = unwrap(expr);
+        return expr instanceof InternalFunctionCall && ((InternalFunctionCall) expr).getFunction() instanceof Score &&
+                isVariable(((InternalFunctionCall) expr).getArgument(0), varName);
+    }
+
+    private static boolean returnsOneItem(Expression expr, String varName) {
+        expr = unwrap(expr);
+        return expr instanceof ElementConstructor || isVariable(expr, varName);
+    }
+
+    private static boolean isVariable(Expression expr, String varName) {
+        expr = unwrap(expr);
+        return expr instanceof VariableReference &&
+                ((VariableReference) expr).getName().getStringValue().equals(varName);
+    }
+
+    private static Expression unwrap(Expression expr) {
+        while (true) {
+            if (expr instanceof DebuggableExpression) {
+                expr = ((DebuggableExpression) expr).getFirst();
+            } else if ((expr.getClass() == PathExpr.class || expr instanceof Predicate) && expr.getSubExpressionCount() == 1) {
+                expr = expr.getSubExpression(0);
+            } else if (expr instanceof DynamicTypeCheck || expr instanceof DynamicCardinalityCheck) {
+                // the checks wrapped around the arguments of a function call
+                expr = expr.getSubExpression(0);
+            } else {
+                return expr;
+            }
+        }
+    }
+}
@@ -97,7 +97,13 @@ public class Query extends Function implements Optimizable {
                         "   <phrase-slop>number</phrase-slop>\n" +
                         "   <leading-wildcard>yes|no</leading-wildcard>\n" +
                         "   <filter-rewrite>yes|no</filter-rewrite>\n" +
-                        "</options>")
+                        "   <top-k>number</top-k>\n" +
+                        "   <facets>dimension1 dimension2 ...</facets>\n" +
+                        "</options>\n" +
+                        "If top-k is set, only the given number of best scoring matches is returned. It is not " +
+                        "applied if the call is optimized as a predicate of a path expression. " +
+                        "If facets is set, the matches are counted by the values of the given facet dimensions, " +
+                        "which can be retrieved with ft:facets.")
             },
             new FunctionReturnSequenceType(Type.NODE, Cardinality.ZERO_OR_MORE,
                 "all nodes from the input node set matching the query. match highlighting information " +
@@ -112,6 +118,7 @@ public class Query extends Function implements Optimizable {
     private NodeSet preselectResult = null;
     protected boolean optimizeSelf = false;
     protected boolean optimizeChild = false;
+    private int topK = 0;
 
     public Query(XQueryContext context, FunctionSignature signature) {
         super(context, signature);
@@ -190,6 +197,25 @@ public class Query extends Function implements Optimizable {
         }
     }
 
+    /**
+     * Restrict the result to the k best scoring matches, as if option
+     * {@link LuceneIndexWorker#OPTION_TOP_K} was passed. Called by the
+     * {@link LuceneQueryRewriter} if only the k best matches are ever used.
+     *
+     * @param k the number of matches to return
+     */
+    public void setTopK(int k) {
+        this.topK = k;
+    }
+
+    /**
+     * @return the number of best scoring matches the result is restricted to,
+     * or 0 if it is not restricted by the {@link LuceneQueryRewriter}
+     */
+    int getTopK() {
+        return topK;
+    }
+
     public boolean canOptimize(Sequence contextSequence) {
         return contextQName != null;
     }
@@ -221,7 +247,7 @@ public class Query extends Function implements Optimizable {
         Item key = getKey(contextSequence, null);
         List<QName> qnames = new ArrayList<>(1);
         qnames.add(contextQName);
-        Properties options = parseOptions(contextSequence, null);
+        Properties options = parsePreSelectOptions(contextSequence);
         try {
             if (Type.subTypeOf(key.getType(), Type.ELEMENT))
                 preselectResult = index.query(context, getExpressionId(), docs, useContext ? contextSequence.toNodeSet() : null,
@@ -311,9 +337,26 @@ public class Query extends Function implements Optimizable {
         return Type.NODE;
     }
 
+    /**
+     * Parse the options for {@link #preSelect(Sequence, boolean)}. The preselected nodes
+     * are filtered again by the enclosing path expression, so restricting them to the
+     * best scoring matches could lose results: top-k is dropped.
+     */
+    protected Properties parsePreSelectOptions(Sequence contextSequence) throws XPathException {
+        Properties options = parseOptions(contextSequence, null);
+        if (options != null)
+            options.remove(LuceneIndexWorker.OPTION_TOP_K);
+        return options;
+    }
+
     protected Properties parseOptions(Sequence contextSequence, Item contextItem) throws XPathException {
-        if (getArgumentCount() < 3)
-            return null;
+        if (getArgumentCount() < 3) {
+            if (topK == 0)
+                return null;
+            Properties options = new Properties();
+            options.setProperty(LuceneIndexWorker.OPTION_TOP_K, Integer.toString(topK));
+            return options;
+        }
         Properties options = new Properties();
         Sequence optSeq = getArgument(2).eval(contextSequence, contextItem);
         NodeValue optRoot = (NodeValue) optSeq.itemAt(0);
@@ -335,6 +378,8 @@ public class Query extends Function implements Optimizable {
                     }
                 }
             }
+            if (topK > 0 && options.getProperty(LuceneIndexWorker.OPTION_TOP_K) == null)
+                options.setProperty(LuceneIndexWorker.OPTION_TOP_K, Integer.toString(topK));
             return options;
         } catch (XMLStreamException | IOException e) {
             throw new XPathException(this, "Error while parsing options to ft:query: " + e.getMessage(), e);
@@ -114,7 +114,7 @@ public class QueryField extends Query implements Optimizable {
         String field = getArgument(0).eval(contextSequence).getStringValue();
         DocumentSet docs = contextSequence.getDocumentSet();
         Item query = getKey(contextSequence, null);
-        Properties options = parseOptions(contextSequence, null);
+        Properties options = parsePreSelectOptions(contextSequence);
         try {
             if (Type.subTypeOf(query.getType(), Type.ELEMENT))
                 preselectResult = index.queryField(context, getExpressionId(), docs, useContext ? contextSequence.toNodeSet() : null,
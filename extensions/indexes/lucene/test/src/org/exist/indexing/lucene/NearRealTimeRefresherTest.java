@@ -0,0 +1,168 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.lucene;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.ReaderManager;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.RAMDirectory;
+import org.easymock.EasyMock;
+import org.exist.Database;
+import org.exist.storage.txn.Txn;
+import org.exist.storage.txn.TxnListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NearRealTimeRefresherTest {
+
+    // long enough that only the published writes are visible during a test
+    private static final long MAX_STALE = TimeUnit.MINUTES.toMillis(10);
+    private static final long MIN_STALE = 0;
+
+    private RAMDirectory directory;
+    private IndexWriter writer;
+    private SearcherManager searcherManager;
+    private ReaderManager readerManager;
+    private RefreshStats stats;
+    private NearRealTimeRefresher refresher;
+
+    @Before
+    public void setUp() throws IOException {
+        final Database database = EasyMock.createMock(Database.class);
+        expect(database.getId()).andReturn("test").anyTimes();
+        replay(database);
+
+        directory = new RAMDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(LuceneIndex.LUCENE_VERSION_IN_USE, new StandardAnalyzer(LuceneIndex.LUCENE_VERSION_IN_USE)));
+        searcherManager = new SearcherManager(writer, true, new SearcherFactory());
+        readerManager = new ReaderManager(writer, true);
+        stats = new RefreshStats("test", "lucene-test");
+        refresher = new NearRealTimeRefresher(database, "lucene-test", writer, searcherManager, readerManager, MAX_STALE, MIN_STALE, stats);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        refresher.close();
+        searcherManager.close();
+        readerManager.close();
+        writer.close();
+        directory.close();
+    }
+
+    @Test
+    public void publishedWritesAreVisible() throws IOException {
+        assertEquals(0, searchableDocs());
+        assertEquals(0, readableDocs());
+
+        addDocument("1");
+        refresher.written(null);
+
+        assertEquals(1, searchableDocs());
+        assertEquals(1, readableDocs());
+        assertTrue(stats.getSearcherGeneration() >= stats.getPublishedGeneration());
+
+        // once the generation is searchable, queries do not wait for it again
+        final long waits = stats.getWaitCount();
+        assertEquals(1, searchableDocs());
+        assertEquals(waits, stats.getWaitCount());
+    }
+
+    @Test
+    public void uncommittedWritesOnlyVisibleToOwnThread() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        final List<TxnListener> listeners = new ArrayList<>();
+        final Txn transaction = new Txn(null, 1) {
+            @Override
+            public void registerListener(final TxnListener listener) {
+                listeners.add(listener);
+            }
+        };
+
+        addDocument("1");
+        refresher.written(transaction);
+
+        // the writing thread sees its own writes
+        assertEquals(1, searchableDocs());
+
+        final ExecutorService otherThread = Executors.newSingleThreadExecutor();
+        try {
+            // another thread only waits for the published writes, so it does
+            // not reopen the searcher for the second uncommitted write
+            addDocument("2");
+            refresher.written(transaction);
+            assertEquals(1, (int) otherThread.submit(this::searchableDocs).get(1, TimeUnit.MINUTES));
+
+            // committing publishes the writes of the transaction
+            assertEquals(1, listeners.size());
+            listeners.get(0).commit();
+            assertEquals(2, (int) otherThread.submit(this::searchableDocs).get(1, TimeUnit.MINUTES));
+        } finally {
+            otherThread.shutdownNow();
+        }
+    }
+
+    private void addDocument(final String id) throws IOException {
+        final Document doc = new Document();
+        doc.add(new StringField("id", id, Field.Store.YES));
+        writer.addDocument(doc);
+    }
+
+    private int searchableDocs() throws IOException {
+        refresher.awaitSearcher();
+        final IndexSearcher searcher = searcherManager.acquire();
+        try {
+            return searcher.getIndexReader().numDocs();
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private int readableDocs() throws IOException {
+        refresher.awaitReader();
+        final DirectoryReader reader = readerManager.acquire();
+        try {
+            return reader.numDocs();
+        } finally {
+            readerManager.release(reader);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.lucene;
+
+import org.exist.EXistException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.xquery.*;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class LuceneQueryRewriterTest {
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void topKByScore() throws EXistException, PermissionDeniedException, XPathException {
+        assertEquals(10, compileTopK(
+                "(for $p in ft:query(//p, 'xml') " +
+                "order by ft:score($p) descending " +
+                "return $p)[position() le 10]"));
+    }
+
+    @Test
+    public void topKByScoreExclusive() throws EXistException, PermissionDeniedException, XPathException {
+        assertEquals(2, compileTopK(
+                "(for $p in ft:query(//p, 'xml') " +
+                "order by ft:score($p) descending " +
+                "return <hit>{$p}</hit>)[position() < 3]"));
+    }
+
+    @Test
+    public void noTopKWithWhereClause() throws EXistException, PermissionDeniedException, XPathException {
+        assertEquals(0, compileTopK(
+                "(for $p in ft:query(//p, 'xml') " +
+                "where string-length($p) > 3 " +
+                "order by ft:score($p) descending " +
+                "return $p)[position() le 10]"));
+    }
+
+    @Test
+    public void noTopKWithPositionalVariable() throws EXistException, PermissionDeniedException, XPathException {
+        assertEquals(0, compileTopK(
+                "(for $p at $i in ft:query(//p, 'xml') " +
+                "order by ft:score($p) descending " +
+                "return $p)[position() le 10]"));
+    }
+
+    @Test
+    public void noTopKInAscendingOrder() throws EXistException, PermissionDeniedException, XPathException {
+        assertEquals(0, compileTopK(
+                "(for $p in ft:query(//p, 'xml') " +
+                "order by ft:score($p) ascending " +
+                "return $p)[position() le 10]"));
+    }
+
+    /**
+     * Compiles the query and returns the number of matches its ft:query call
+     * was restricted to by the query rewriter.
+     */
+    private static int compileTopK(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            final XQueryContext context = new XQueryContext(pool);
+            final CompiledXQuery compiled = xquery.compile(broker, context, query);
+            final Query ftQuery = findQuery((Expression) compiled);
+            assertNotNull(ftQuery);
+            return ftQuery.getTopK();
+        }
+    }
+
+    private static Query findQuery(final Expression expr) {
+        if (expr instanceof InternalFunctionCall && ((InternalFunctionCall) expr).getFunction() instanceof Query) {
+            return (Query) ((InternalFunctionCall) expr).getFunction();
+        } else if (expr instanceof DebuggableExpression) {
+            return findQuery(((DebuggableExpression) expr).getFirst());
+        } else if (expr instanceof FilteredExpression) {
+            return findQuery(((FilteredExpression) expr).getExpression());
+        } else if (expr instanceof BindingExpression) {
+            return findQuery(((BindingExpression) expr).getInputSequence());
+        }
+        for (int i = 0; i < expr.getSubExpressionCount(); i++) {
+            final Query query = findQuery(expr.getSubExpression(i));
+            if (query != null) {
+                return query;
+            }
+        }
+        return null;
+    }
+}
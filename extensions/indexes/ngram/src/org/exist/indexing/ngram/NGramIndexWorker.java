@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.locks.ReentrantLock;
 
+import javax.annotation.Nullable;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
@@ -361,6 +362,20 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public NodeSet search(final int contextId, final DocumentSet docs, final List<QName> qnames, final String query,
             final String ngram, final XQueryContext context, final NodeSet contextSet, final int axis)
             throws XPathException {
+        return search(contextId, docs, qnames, query, ngram, context, contextSet, axis, null);
+    }
+
+    /**
+     * Search for the given ngram, only returning nodes which are contained in the given set of candidates,
+     * e.g. the nodes matching the previous ngrams of a longer string. The occurrences of other nodes are
+     * skipped without creating matches, documents without candidates are skipped entirely and collections
+     * without candidates are not queried.
+     *
+     * @param candidates the nodes which may be returned, or null to return all matching nodes
+     */
+    public NodeSet search(final int contextId, final DocumentSet docs, final List<QName> qnames, final String query,
+            final String ngram, final XQueryContext context, final NodeSet contextSet, final int axis,
+            @Nullable final NodeSet candidates) throws XPathException {
         final List<QName> searchQnames;
         if (qnames == null || qnames.isEmpty()) {
             searchQnames = getDefinedIndexes(context.getBroker(), docs);
@@ -368,21 +383,25 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             searchQnames = qnames;
         }
 
-        final NodeSet result = new ExtArrayNodeSet(docs.getDocumentCount(), 250);
-        for (final Iterator<Collection> iter = docs.getCollectionIterator(); iter.hasNext(); ) {
-            final int collectionId = iter.next().getId();
-            for (final QName qname : searchQnames) {
-                final NGramQNameKey key = new NGramQNameKey(collectionId, qname, index.getBrokerPool().getSymbols(), query);
-                try (final ManagedLock<ReentrantLock> dbLock = lockManager.acquireBtreeReadLock(index.db.getLockName())) {
-                    final SearchCallback cb = new SearchCallback(contextId, query, ngram, docs, contextSet, context, result, axis == NodeSet.ANCESTOR);
-                    final int op = query.codePointCount(0, query.length()) < getN() ? IndexQuery.TRUNC_RIGHT : IndexQuery.EQ;
-                    index.db.query(new IndexQuery(op, key), cb);
-                } catch (final LockException e) {
-                    LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(index.db.getFile()) + "'", e);
-                } catch (final IOException | BTreeException e) {
-                    LOG.error(e.getMessage() + " in '" + FileUtils.fileName(index.db.getFile()) + "'", e);
+        final DocumentSet searchDocs = candidates == null ? docs : candidates.getDocumentSet();
+        final NodeSet result = new ExtArrayNodeSet(searchDocs.getDocumentCount(), 250);
+        final int op = query.codePointCount(0, query.length()) < getN() ? IndexQuery.TRUNC_RIGHT : IndexQuery.EQ;
+        final SearchCallback cb = new SearchCallback(contextId, query, ngram, searchDocs, contextSet, context, result,
+                axis == NodeSet.ANCESTOR, candidates);
+        try (final ManagedLock<ReentrantLock> dbLock = lockManager.acquireBtreeReadLock(index.db.getLockName())) {
+            for (final Iterator<Collection> iter = searchDocs.getCollectionIterator(); iter.hasNext(); ) {
+                final int collectionId = iter.next().getId();
+                for (final QName qname : searchQnames) {
+                    final NGramQNameKey key = new NGramQNameKey(collectionId, qname, index.getBrokerPool().getSymbols(), query);
+                    try {
+                        index.db.query(new IndexQuery(op, key), cb);
+                    } catch (final IOException | BTreeException e) {
+                        LOG.error(e.getMessage() + " in '" + FileUtils.fileName(index.db.getFile()) + "'", e);
+                    }
                 }
             }
+        } catch (final LockException e) {
+            LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(index.db.getFile()) + "'", e);
         }
 
         result.iterate(); // ensure result is ready to use
@@ -940,10 +959,11 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         private final XQueryContext context;
         private final NodeSet resultSet;
         private final boolean returnAncestor;
+        @Nullable private final NodeSet candidates;
 
         SearchCallback(final int contextId, final String query, final String ngram, final DocumentSet docs,
                        final NodeSet contextSet, final XQueryContext context, final NodeSet result,
-                       final boolean returnAncestor) {
+                       final boolean returnAncestor, @Nullable final NodeSet candidates) {
             this.contextId = contextId;
             this.query = query;
             this.ngram = ngram;
@@ -952,6 +972,7 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             this.contextSet = contextSet;
             this.resultSet = result;
             this.returnAncestor = returnAncestor;
+            this.candidates = candidates;
         }
 
         @Override
@@ -992,20 +1013,24 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                             final int sizeHint = contextSet.getSizeHint(storedDocument);
                             if (returnAncestor) {
                                 final NodeProxy parentNode = contextSet.parentWithChild(nodeProxy, false, true, NodeProxy.UNKNOWN_NODE_LEVEL);
-                                if (parentNode != null) {
+                                if (parentNode != null && isCandidate(parentNode)) {
                                     readMatches(ngram, is, nodeId, freq, parentNode);
                                     resultSet.add(parentNode, sizeHint);
                                 } else {
                                     is.skip(freq);
                                 }
-                            } else {
+                            } else if (isCandidate(nodeProxy)) {
                                 readMatches(ngram, is, nodeId, freq, nodeProxy);
                                 resultSet.add(nodeProxy, sizeHint);
+                            } else {
+                                is.skip(freq);
                             }
                             // otherwise, we add all text nodes without check
-                        } else {
+                        } else if (isCandidate(nodeProxy)) {
                             readMatches(ngram, is, nodeId, freq, nodeProxy);
                             resultSet.add(nodeProxy, Constants.NO_SIZE_HINT);
+                        } else {
+                            is.skip(freq);
                         }
                         context.proceed();
                     }
@@ -1017,6 +1042,10 @@ public class NGramIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
             }
         }
 
+        private boolean isCandidate(final NodeProxy node) {
+            return candidates == null || candidates.get(node) != null;
+        }
+
         private short nameTypeToNodeType(final byte nameType) {
             switch (nameType) {
                 case ElementValue.ELEMENT:
@@ -487,7 +487,7 @@ public class NGramSearch extends Function implements Optimizable {
         LOG.trace("First NGRAM: " + firstNgramm);
         NodeSet result = index.search(getExpressionId(), docs, qnames, firstNgramm, firstNgramm, context, nodeSet, axis);
 
-        for (int i = 1; i < ngrams.length; i++) {
+        for (int i = 1; i < ngrams.length && !result.isEmpty(); i++) {
             String ngram = ngrams[i];
             int len = ngram.codePointCount(0, ngram.length());
             int fillSize = index.getN() - len;
@@ -510,7 +510,8 @@ public class NGramSearch extends Function implements Optimizable {
                 LOG.debug("Filled: " + filledNgram);
             }
 
-            NodeSet nodes = index.search(getExpressionId(), docs, qnames, filledNgram, ngram, context, nodeSet, axis);
+            // only read the occurrences of nodes which contain all previous ngrams
+            NodeSet nodes = index.search(getExpressionId(), docs, qnames, filledNgram, ngram, context, nodeSet, axis, result);
 
             final NodeSet nodesContainingFirstINgrams = result;
 
@@ -533,6 +533,13 @@ public class CustomIndexTest {
             assertNotNull(seq);
             assertEquals(1, seq.getItemCount());
 
+            seq = xquery.execute(broker, "//item[ngram:contains(., 'cabinet1525')]", null);
+            assertNotNull(seq);
+            assertEquals(1, seq.getItemCount());
+
+            seq = xquery.execute(broker, "//item[ngram:contains(., 'chairtable')]", null);
+            assertNotNull(seq);
+            assertEquals(0, seq.getItemCount());
         }
     }
 
@@ -120,6 +120,10 @@ public class ComplexRangeIndexConfigElement extends RangeIndexConfigElement {
         return null;
     }
 
+    public Collection<RangeIndexConfigField> getFields() {
+        return fields.values();
+    }
+
     public RangeIndexConfigField getField(NodePath path) {
         for (RangeIndexConfigField field: fields.values()) {
             if (field.match(path))
@@ -22,10 +22,15 @@ public class ComplexTextCollector implements TextCollector {
 
     @Override
     public void startElement(QName qname, NodePath path) {
+        if (currentField != null) {
+            // nested elements: the content may not be the string value of the field
+            fields.get(fields.size() - 1).verbatim = false;
+        }
         RangeIndexConfigField fieldConf = config.getField(parentPath, path);
         if (fieldConf != null) {
             currentField = fieldConf;
             Field field = new Field(currentField.getName(), false, fieldConf.whitespaceTreatment(), fieldConf.isCaseSensitive());
+            field.verbatim = true;
             fields.add(field);
         }
 
@@ -44,6 +49,7 @@ public class ComplexTextCollector implements TextCollector {
         if (fieldConf != null) {
             Field field = new Field(fieldConf.getName(), true, fieldConf.whitespaceTreatment(), fieldConf.isCaseSensitive());
             field.content.append(attribute.getValue());
+            field.verbatim = true;
             fields.add(0, field);
         }
     }
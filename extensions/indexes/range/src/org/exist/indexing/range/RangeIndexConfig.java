@@ -199,6 +199,48 @@ public class RangeIndexConfig {
         return Type.ITEM;
     }
 
+    /**
+     * Find the name of the field whose match path relative to its parent index
+     * is the given path.
+     *
+     * @param relPath path relative to the indexed node
+     * @return the field name or null if no field or more than one field has this path
+     */
+    public String getFieldByRelativePath(NodePath relPath) {
+        String name = null;
+        for (RangeIndexConfigElement rice : paths.values()) {
+            do {
+                if (rice.isComplex()) {
+                    for (final RangeIndexConfigField field : ((ComplexRangeIndexConfigElement) rice).getFields()) {
+                        if (isSamePath(relPath, field.getRelativePath())) {
+                            if (name != null && !name.equals(field.getName())) {
+                                return null;
+                            }
+                            name = field.getName();
+                        }
+                    }
+                }
+                rice = rice.getNext();
+            } while (rice != null);
+        }
+        return name;
+    }
+
+    // unlike NodePath.equals, distinguishes elements and attributes with the same name
+    private static boolean isSamePath(NodePath path, NodePath other) {
+        if (other == null || path.length() != other.length()) {
+            return false;
+        }
+        for (int i = 0; i < path.length(); i++) {
+            final QName qn1 = path.getComponent(i);
+            final QName qn2 = other.getComponent(i);
+            if (!qn1.equals(qn2) || qn1.getNameType() != qn2.getNameType()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private class PathIterator implements Iterator<RangeIndexConfigElement> {
 
         private RangeIndexConfigElement nextConfig;
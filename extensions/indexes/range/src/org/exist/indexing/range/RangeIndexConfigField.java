@@ -118,6 +118,14 @@ public class RangeIndexConfigField {
         return path;
     }
 
+    /**
+     * @return the match path relative to the parent index or null if the field
+     * indexes the parent node itself
+     */
+    public NodePath getRelativePath() {
+        return relPath;
+    }
+
     public int getType() {
         return type;
     }
@@ -42,6 +42,7 @@ import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
 import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.ByteBlockPool;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.NumericUtils;
 import org.exist.collections.Collection;
@@ -86,6 +87,15 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
     public static final String FIELD_ADDRESS = "address";
     public static final String FIELD_ID = "id";
 
+    /**
+     * Prefix of the sorted doc values fields which store the verbatim value of a
+     * named field, used by "order by" to read sort keys without loading nodes.
+     */
+    public static final String FIELD_SORT_PREFIX = "sort:";
+
+    // longest value lucene accepts for a sorted doc values field
+    private static final int MAX_SORT_KEY_LENGTH = ByteBlockPool.BYTE_BLOCK_SIZE - 2;
+
     private static Set<String> LOAD_FIELDS = new TreeSet<String>();
     static {
         LOAD_FIELDS.add(FIELD_DOC_ID);
@@ -482,17 +492,34 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
                 Field fNodeIdIdx = new Field(FIELD_ID, bts, LuceneIndexWorker.TYPE_NODE_ID);
                 doc.add(fNodeIdIdx);
 
+                // verbatim values of named fields, null if a field occurs more than once
+                Map<String, String> sortKeys = null;
                 for (TextCollector.Field field : pending.getCollector().getFields()) {
                     String contentField;
-                    if (field.isNamed())
+                    if (field.isNamed()) {
                         contentField = field.getName();
-                    else
+                        if (sortKeys == null)
+                            sortKeys = new HashMap<>();
+                        // read the raw content before getContent() normalizes it
+                        sortKeys.put(contentField, sortKeys.containsKey(contentField) || !field.isVerbatim() ?
+                                null : field.getRawContent());
+                    } else
                         contentField = LuceneUtil.encodeQName(pending.getQName(), index.getBrokerPool().getSymbols());
                     Field fld = pending.getConfig().convertToField(contentField, field.getContent().toString());
                     if (fld != null) {
                         doc.add(fld);
                     }
                 }
+                if (sortKeys != null) {
+                    for (Map.Entry<String, String> sortKey : sortKeys.entrySet()) {
+                        if (sortKey.getValue() != null) {
+                            final BytesRef value = new BytesRef(sortKey.getValue());
+                            if (value.length <= MAX_SORT_KEY_LENGTH) {
+                                doc.add(new SortedDocValuesField(FIELD_SORT_PREFIX + sortKey.getKey(), value));
+                            }
+                        }
+                    }
+                }
                 fDocIdIdx.setIntValue(currentDoc.getDocId());
                 doc.add(fDocIdIdx);
 
@@ -511,6 +538,59 @@ public class RangeIndexWorker implements OrderedValuesIndex, QNamedKeysIndex {
         }
     }
 
+    /**
+     * Read the verbatim values of the given field for all nodes of a document
+     * from the sorted doc values, see {@link #FIELD_SORT_PREFIX}.
+     *
+     * @param document the document
+     * @param field name of the field
+     * @return map of node ids to field values. Nodes without a single value for the
+     * field are not contained.
+     */
+    public Map<NodeId, String> getSortKeys(DocumentImpl document, String field) throws IOException, XPathException {
+        return index.withSearcher(searcher -> {
+            final Map<NodeId, String> sortKeys = new TreeMap<>();
+            final int docId = document.getDocId();
+            searcher.search(NumericRangeQuery.newIntRange(FIELD_DOC_ID, docId, docId, true, true), new Collector() {
+                private BinaryDocValues nodeIdValues;
+                private SortedDocValues sortValues;
+
+                @Override
+                public void setScorer(Scorer scorer) throws IOException {
+                    // ignore
+                }
+
+                @Override
+                public void collect(int doc) throws IOException {
+                    if (sortValues == null) {
+                        return;
+                    }
+                    final int ord = sortValues.getOrd(doc);
+                    if (ord < 0) {
+                        return;
+                    }
+                    final BytesRef ref = nodeIdValues.get(doc);
+                    final int units = ByteConversion.byteToShort(ref.bytes, ref.offset);
+                    final NodeId nodeId = index.getBrokerPool().getNodeFactory().createFromData(units, ref.bytes, ref.offset + 2);
+                    sortKeys.put(nodeId, sortValues.lookupOrd(ord).utf8ToString());
+                }
+
+                @Override
+                public void setNextReader(AtomicReaderContext atomicReaderContext) throws IOException {
+                    final AtomicReader reader = atomicReaderContext.reader();
+                    this.nodeIdValues = reader.getBinaryDocValues(FIELD_NODE_ID);
+                    this.sortValues = reader.getSortedDocValues(FIELD_SORT_PREFIX + field);
+                }
+
+                @Override
+                public boolean acceptsDocsOutOfOrder() {
+                    return true;
+                }
+            });
+            return sortKeys;
+        });
+    }
+
     public NodeSet query(int contextId, DocumentSet docs, NodeSet contextSet, List<QName> qnames, AtomicValue[] keys, RangeIndex.Operator operator, int axis) throws IOException, XPathException {
         return index.withSearcher(searcher -> {
             List<QName> definedIndexes = getDefinedIndexes(qnames);
@@ -30,6 +30,7 @@ public interface TextCollector {
         protected final int wsTreatment;
         protected final boolean caseSensitive;
         protected XMLString content;
+        protected boolean verbatim = false;
 
         public Field(XMLString content, int wsTreatment, boolean caseSensitive) {
             this.content = content;
@@ -57,6 +58,21 @@ public interface TextCollector {
             return content.toString();
         }
 
+        /**
+         * Returns the content before whitespace and case normalization are applied
+         * by {@link #getContent()}.
+         */
+        public String getRawContent() {
+            return content.toString();
+        }
+
+        /**
+         * @return true if the raw content is the string value of the field node
+         */
+        public boolean isVerbatim() {
+            return verbatim;
+        }
+
         public String getName() {
             return name;
         }
@@ -0,0 +1,152 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.range;
+
+import org.exist.collections.Collection;
+import org.exist.dom.QName;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.NodeProxy;
+import org.exist.indexing.range.RangeIndex;
+import org.exist.indexing.range.RangeIndexConfig;
+import org.exist.indexing.range.RangeIndexWorker;
+import org.exist.numbering.NodeId;
+import org.exist.storage.IndexSpec;
+import org.exist.storage.NodePath;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.*;
+import org.exist.xquery.value.*;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Replaces an order expression like $x/field in an "order by" clause, see
+ * {@link RangeQueryRewriter#rewriteOrderByClause(OrderByClause)}. If the node bound to $x
+ * has a range index field with the same relative path, the sort key is read from the
+ * sorted doc values of the field instead of loading the node. Otherwise the original
+ * expression is evaluated.
+ */
+public class IndexedSortKey extends Function {
+
+    public final static FunctionSignature signature =
+        new FunctionSignature(
+            new QName("sort-key", RangeIndexModule.NAMESPACE_URI, RangeIndexModule.PREFIX),
+            "Returns the value of the range index field below $node to sort by. " +
+            "This function is only called by the query optimizer.",
+            new SequenceType[] {
+                new FunctionParameterSequenceType("node", Type.ITEM, Cardinality.ZERO_OR_MORE,
+                    "the node whose sort key is returned")
+            },
+            new FunctionReturnSequenceType(Type.ITEM, Cardinality.ZERO_OR_MORE, "the sort key")
+        );
+
+    // the sort keys of the most recently used documents
+    private final static int MAX_CACHED_DOCUMENTS = 16;
+
+    private final NodePath relPath;
+    private final Expression fallback;
+
+    private final Map<XmldbURI, Optional<String>> fields = new HashMap<>();
+    @SuppressWarnings("serial")
+    private final Map<Integer, Map<NodeId, String>> sortKeys =
+        new LinkedHashMap<Integer, Map<NodeId, String>>(MAX_CACHED_DOCUMENTS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Map<NodeId, String>> eldest) {
+                return size() > MAX_CACHED_DOCUMENTS;
+            }
+        };
+
+    public IndexedSortKey(XQueryContext context, Expression node, NodePath relPath, Expression fallback) {
+        super(context, signature);
+        this.relPath = relPath;
+        this.fallback = fallback;
+        steps.add(node);
+    }
+
+    public Expression getFallback() {
+        return fallback;
+    }
+
+    @Override
+    public void analyze(AnalyzeContextInfo contextInfo) throws XPathException {
+        super.analyze(new AnalyzeContextInfo(contextInfo));
+        fallback.analyze(new AnalyzeContextInfo(contextInfo));
+    }
+
+    @Override
+    public Sequence eval(Sequence contextSequence, Item contextItem) throws XPathException {
+        final Sequence input = getArgument(0).eval(contextSequence, contextItem);
+        if (input.hasOne()) {
+            final Item item = input.itemAt(0);
+            if (Type.subTypeOf(item.getType(), Type.NODE) &&
+                    ((NodeValue) item).getImplementationType() == NodeValue.PERSISTENT_NODE) {
+                final String key = getSortKey((NodeProxy) item);
+                if (key != null) {
+                    return new UntypedAtomicValue(key);
+                }
+            }
+        }
+        return fallback.eval(contextSequence, contextItem);
+    }
+
+    private String getSortKey(NodeProxy node) throws XPathException {
+        final DocumentImpl doc = node.getOwnerDocument();
+        final String field = getField(doc.getCollection());
+        if (field == null) {
+            return null;
+        }
+        Map<NodeId, String> keys = sortKeys.get(doc.getDocId());
+        if (keys == null) {
+            final long start = System.currentTimeMillis();
+            final RangeIndexWorker index = (RangeIndexWorker) context.getBroker().getIndexController().getWorkerByIndexId(RangeIndex.ID);
+            try {
+                keys = index.getSortKeys(doc, field);
+            } catch (IOException e) {
+                throw new XPathException(this, "Error while reading sort keys from the range index: " + e.getMessage(), e);
+            }
+            sortKeys.put(doc.getDocId(), keys);
+            if (context.getProfiler().traceFunctions()) {
+                context.getProfiler().traceIndexUsage(context, "new-range", this, PerformanceStats.OPTIMIZED_INDEX, System.currentTimeMillis() - start);
+            }
+        }
+        return keys.get(node.getNodeId());
+    }
+
+    private String getField(Collection collection) {
+        return fields.computeIfAbsent(collection.getURI(), uri -> {
+            final IndexSpec idxConf = collection.getIndexConfiguration(context.getBroker());
+            if (idxConf != null) {
+                final RangeIndexConfig config = (RangeIndexConfig) idxConf.getCustomIndexSpec(RangeIndex.ID);
+                if (config != null) {
+                    return Optional.ofNullable(config.getFieldByRelativePath(relPath));
+                }
+            }
+            return Optional.empty();
+        }).orElse(null);
+    }
+
+    @Override
+    public void resetState(boolean postOptimization) {
+        super.resetState(postOptimization);
+        fallback.resetState(postOptimization);
+        fields.clear();
+        sortKeys.clear();
+    }
+}
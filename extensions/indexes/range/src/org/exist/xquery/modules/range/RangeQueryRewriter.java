@@ -21,7 +21,9 @@
  */
 package org.exist.xquery.modules.range;
 
+import org.exist.dom.QName;
 import org.exist.indexing.range.*;
+import org.exist.storage.ElementValue;
 import org.exist.storage.NodePath;
 import org.exist.xquery.*;
 import org.exist.xquery.Constants.Comparison;
@@ -31,7 +33,9 @@ import java.util.List;
 
 /**
  * Query rewriter for the range index. May replace path expressions like a[b = "c"] or a[b = "c"][d = "e"]
- * with either a[range:equals(b, "c")] or range:field-equals(...).
+ * with either a[range:equals(b, "c")] or range:field-equals(...). Order expressions like
+ * "order by $x/b" are replaced with an {@link IndexedSortKey}, which reads the sort key
+ * from a range index field.
  */
 public class RangeQueryRewriter extends QueryRewriter {
 
@@ -125,6 +129,61 @@ public class RangeQueryRewriter extends QueryRewriter {
         return null;
     }
 
+    @Override
+    public boolean rewriteOrderByClause(OrderByClause orderBy) throws XPathException {
+        boolean rewritten = false;
+        for (OrderSpec spec : orderBy.getOrderSpecs()) {
+            final Expression sortExpr = spec.getSortExpression();
+            Expression expr = sortExpr;
+            if (expr instanceof DebuggableExpression) {
+                expr = ((DebuggableExpression) expr).getFirst();
+            }
+            if (expr.getClass() != PathExpr.class) {
+                continue;
+            }
+            final PathExpr path = (PathExpr) expr;
+            if (path.getLength() < 2 || !(path.getExpression(0) instanceof VariableReference)) {
+                continue;
+            }
+            final NodePath relPath = toRelativePath(path);
+            if (relPath != null) {
+                final IndexedSortKey sortKey = new IndexedSortKey(getContext(), path.getExpression(0), relPath, sortExpr);
+                sortKey.setLocation(sortExpr.getLine(), sortExpr.getColumn());
+                spec.replace(sortExpr, new InternalFunctionCall(sortKey));
+                rewritten = true;
+            }
+        }
+        return rewritten;
+    }
+
+    /**
+     * Returns the path selected by the location steps following the variable in $x/a/@b,
+     * or null if the steps are not simple child or attribute steps.
+     */
+    private static NodePath toRelativePath(PathExpr path) {
+        final NodePath relPath = new NodePath();
+        for (int i = 1; i < path.getLength(); i++) {
+            final Expression expr = path.getExpression(i);
+            if (!(expr instanceof LocationStep)) {
+                return null;
+            }
+            final LocationStep step = (LocationStep) expr;
+            final NodeTest test = step.getTest();
+            if (step.hasPredicates() || test.isWildcardTest() || test.getName() == null) {
+                return null;
+            }
+            final QName name = test.getName();
+            if (step.getAxis() == Constants.ATTRIBUTE_AXIS && i == path.getLength() - 1) {
+                relPath.addComponent(new QName(name.getLocalPart(), name.getNamespaceURI(), name.getPrefix(), ElementValue.ATTRIBUTE));
+            } else if (step.getAxis() == Constants.CHILD_AXIS) {
+                relPath.addComponent(new QName(name.getLocalPart(), name.getNamespaceURI(), name.getPrefix()));
+            } else {
+                return null;
+            }
+        }
+        return relPath;
+    }
+
     protected static Lookup rewrite(Expression expression, NodePath path) throws XPathException {
         ArrayList<Expression> eqArgs = new ArrayList<Expression>(2);
         if (expression instanceof GeneralComparison) {
@@ -26,8 +26,9 @@ package org.exist.indexing.spatial;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -57,7 +58,12 @@ public abstract class AbstractGMLJDBCIndex extends AbstractIndex {
     /**
      * An IndexWorker "pool"
      */
-    protected HashMap<DBBroker, AbstractGMLJDBCIndexWorker> workers = new HashMap<DBBroker, AbstractGMLJDBCIndexWorker>();
+    protected Map<DBBroker, AbstractGMLJDBCIndexWorker> workers = new ConcurrentHashMap<DBBroker, AbstractGMLJDBCIndexWorker>();
+
+    /**
+     * The envelopes of the indexed geometries, used to select the geometries to check in a search
+     */
+    protected final GMLEnvelopeIndex envelopes = new GMLEnvelopeIndex();
 
     /**
      * The connection to the DB that will be needed for global operations 
@@ -98,6 +104,10 @@ public abstract class AbstractGMLJDBCIndex extends AbstractIndex {
         return max_docs_in_context_to_refine_query;
     }
 
+    public GMLEnvelopeIndex getEnvelopeIndex() {
+        return envelopes;
+    }
+
     @Override
     public void open() throws DatabaseConfigurationException {
         //Nothing particular to do : the connection will be opened on request      
@@ -197,8 +207,8 @@ public abstract class AbstractGMLJDBCIndex extends AbstractIndex {
      * to the JDBC database that contains the indexed spatial data. This connection should have been
      * previously acquired by {@link org.exist.indexing.spatial.AbstractGMLJDBCIndex#acquireConnection(DBBroker)} 
      * 
-     * @param broker the broker that will use th connection
-     * 
+     * @param broker the broker that used the connection
+     * @param conn the connection
      */
-    protected abstract void releaseConnection(DBBroker broker) throws SQLException;
+    protected abstract void releaseConnection(DBBroker broker, Connection conn) throws SQLException;
 }
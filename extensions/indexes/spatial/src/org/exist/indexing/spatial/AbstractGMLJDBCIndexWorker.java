@@ -274,8 +274,10 @@ public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
                     break;
             }
             conn.commit();
+            committed();
         } catch (SQLException e) {
             LOG.error("Document: " + currentDoc + " NodeID: " + currentNodeId, e);
+            rolledBack();
             try {
                 if (conn != null)
                     conn.rollback();
@@ -538,6 +540,20 @@ public abstract class AbstractGMLJDBCIndexWorker implements IndexWorker {
         }
     }
 
+    /**
+     * Called after the changes of {@link #flush()} have been committed.
+     */
+    protected void committed() {
+        //Nothing to do by default
+    }
+
+    /**
+     * Called when the changes of {@link #flush()} are rolled back.
+     */
+    protected void rolledBack() {
+        //Nothing to do by default
+    }
+
     protected abstract boolean saveGeometryNode(Geometry geometry, String srsName, DocumentImpl doc, NodeId nodeId, PreparedStatement ps) throws SQLException;
 
     protected abstract boolean removeDocumentNode(DocumentImpl doc, NodeId nodeID, Connection conn) throws SQLException;
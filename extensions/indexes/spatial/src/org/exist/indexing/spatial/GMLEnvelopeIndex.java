@@ -0,0 +1,226 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.spatial;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.exist.indexing.spatial.AbstractGMLJDBCIndex.SpatialOperator;
+import org.exist.numbering.NodeId;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.quadtree.Quadtree;
+
+/**
+ * Keeps the EPSG:4326 envelopes of all indexed geometries in memory, so a spatial
+ * search only has to read the geometries whose envelope may match from the database.
+ *
+ * The envelopes are loaded from the database when the index is opened and updated
+ * by the workers after their changes have been committed. Any number of searches
+ * may query the envelopes concurrently, updates take an exclusive lock.
+ */
+public class GMLEnvelopeIndex {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Quadtree tree = new Quadtree();
+    private final Map<String, List<Entry>> documents = new HashMap<>();
+
+    /**
+     * Adds the envelope of a node, replacing the previous one if any.
+     */
+    public void add(String documentURI, NodeId nodeId, Envelope envelope) {
+        lock.writeLock().lock();
+        try {
+            final List<Entry> entries = documents.computeIfAbsent(documentURI, uri -> new ArrayList<>());
+            removeNode(entries, nodeId);
+            final Entry entry = new Entry(documentURI, nodeId, envelope);
+            entries.add(entry);
+            tree.insert(envelope, entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeNode(String documentURI, NodeId nodeId) {
+        lock.writeLock().lock();
+        try {
+            final List<Entry> entries = documents.get(documentURI);
+            if (entries != null) {
+                removeNode(entries, nodeId);
+                if (entries.isEmpty()) {
+                    documents.remove(documentURI);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeNode(List<Entry> entries, NodeId nodeId) {
+        for (final Iterator<Entry> i = entries.iterator(); i.hasNext(); ) {
+            final Entry entry = i.next();
+            if (entry.nodeId.equals(nodeId)) {
+                tree.remove(entry.envelope, entry);
+                i.remove();
+            }
+        }
+    }
+
+    public void removeDocument(String documentURI) {
+        lock.writeLock().lock();
+        try {
+            final List<Entry> entries = documents.remove(documentURI);
+            if (entries != null) {
+                for (final Entry entry : entries) {
+                    tree.remove(entry.envelope, entry);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the envelopes of all documents whose URI starts with the given
+     * collection URI, like {@link GMLHSQLIndexWorker#removeCollection} does.
+     */
+    public void removeCollection(String collectionURI) {
+        lock.writeLock().lock();
+        try {
+            for (final Iterator<Map.Entry<String, List<Entry>>> i = documents.entrySet().iterator(); i.hasNext(); ) {
+                final Map.Entry<String, List<Entry>> document = i.next();
+                if (document.getKey().startsWith(collectionURI)) {
+                    for (final Entry entry : document.getValue()) {
+                        tree.remove(entry.envelope, entry);
+                    }
+                    i.remove();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            tree = new Quadtree();
+            documents.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return tree.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the nodes whose geometry may be in the given relation to a geometry with the
+     * given envelope. The candidates still have to be checked against the geometry itself.
+     * For {@link SpatialOperator#DISJOINT}, all nodes are returned since even intersecting
+     * envelopes may belong to disjoint geometries.
+     *
+     * @param envelope the envelope of the searched geometry
+     * @param spatialOp the spatial operator
+     * @return the candidate nodes
+     */
+    @SuppressWarnings("unchecked")
+    public List<Entry> query(Envelope envelope, int spatialOp) {
+        final List<Entry> candidates;
+        lock.readLock().lock();
+        try {
+            if (spatialOp == SpatialOperator.DISJOINT) {
+                return (List<Entry>) tree.queryAll();
+            }
+            candidates = (List<Entry>) tree.query(envelope);
+        } finally {
+            lock.readLock().unlock();
+        }
+        //The quadtree returns all entries of the nodes overlapping the envelope
+        final List<Entry> result = new ArrayList<>(candidates.size());
+        for (final Entry entry : candidates) {
+            if (matches(entry.envelope, envelope, spatialOp)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private static boolean matches(Envelope envelope, Envelope searchEnvelope, int spatialOp) {
+        switch (spatialOp) {
+        //BBoxes are equal
+        case SpatialOperator.EQUALS:
+            return envelope.equals(searchEnvelope);
+        //BBoxes intersect themselves
+        case SpatialOperator.INTERSECTS:
+        case SpatialOperator.TOUCHES:
+        case SpatialOperator.CROSSES:
+        case SpatialOperator.OVERLAPS:
+            return envelope.intersects(searchEnvelope);
+        //BBox is fully within
+        case SpatialOperator.WITHIN:
+            return searchEnvelope.contains(envelope);
+        //BBox fully contains
+        case SpatialOperator.CONTAINS:
+            return envelope.contains(searchEnvelope);
+        default:
+            throw new IllegalArgumentException("Unsupported spatial operator:" + spatialOp);
+        }
+    }
+
+    /**
+     * The envelope of an indexed node.
+     */
+    public static class Entry {
+
+        private final String documentURI;
+        private final NodeId nodeId;
+        private final Envelope envelope;
+
+        private Entry(String documentURI, NodeId nodeId, Envelope envelope) {
+            this.documentURI = documentURI;
+            this.nodeId = nodeId;
+            this.envelope = envelope;
+        }
+
+        public String getDocumentURI() {
+            return documentURI;
+        }
+
+        public NodeId getNodeId() {
+            return nodeId;
+        }
+
+        public Envelope getEnvelope() {
+            return envelope;
+        }
+    }
+}
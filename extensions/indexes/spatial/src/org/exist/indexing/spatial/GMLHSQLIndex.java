@@ -33,12 +33,15 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.backup.RawDataBackup;
 import org.exist.indexing.IndexWorker;
 import org.exist.indexing.RawBackupSupport;
+import org.exist.numbering.DLN;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.btree.DBException;
@@ -46,6 +49,8 @@ import org.exist.util.DatabaseConfigurationException;
 import org.exist.util.FileUtils;
 import org.w3c.dom.Element;
 
+import com.vividsolutions.jts.geom.Envelope;
+
 /**
  */
 public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSupport {
@@ -55,8 +60,11 @@ public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSuppo
     public static String db_file_name_prefix = "spatial_index";
     //Keep this upper case ;-)
     public static String TABLE_NAME = "SPATIAL_INDEX_V1";
-    private DBBroker connectionOwner = null;
     private long connectionTimeout = 100000L;
+    private int maxConnections = 4;
+    //The connections which are currently not used by a worker
+    private final LinkedBlockingQueue<Connection> idleConnections = new LinkedBlockingQueue<Connection>();
+    private int openConnections = 0;
     
     @Override
     public void configure(BrokerPool pool, Path dataDir, Element config) throws DatabaseConfigurationException {
@@ -70,6 +78,15 @@ public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSuppo
             }
         }
 
+        param = config.getAttribute("connectionPoolSize");
+        if (param != null && !param.isEmpty()) {
+            try {
+                maxConnections = Math.max(1, Integer.parseInt(param));
+            } catch (NumberFormatException e) {
+                LOG.error("Invalid value for 'connectionPoolSize', using default:" + maxConnections, e);
+            }
+        }
+
         param = config.getAttribute("max_docs_in_context_to_refine_query");
         if (param != null) {
             try {
@@ -85,12 +102,7 @@ public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSuppo
 
     @Override
     public IndexWorker getWorker(DBBroker broker) {
-        AbstractGMLJDBCIndexWorker worker = workers.get(broker);
-        if (worker == null) {
-            worker = new GMLHSQLIndexWorker(this, broker);
-            workers.put(broker, worker);
-        }
-        return worker;
+        return workers.computeIfAbsent(broker, b -> new GMLHSQLIndexWorker(this, b));
     }
 
     @Override
@@ -100,10 +112,14 @@ public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSuppo
     }
 
     @Override
-    protected void shutdownDatabase() throws DBException {
+    protected synchronized void shutdownDatabase() throws DBException {
         try {
             //No need to shutdown if we have opened something
             if (conn != null) {
+                for (final Connection idle : idleConnections) {
+                    if (idle != conn)
+                        idle.close();
+                }
                 Statement stmt = conn.createStatement();
                 stmt.executeQuery("SHUTDOWN");
                 stmt.close();
@@ -115,6 +131,9 @@ public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSuppo
             throw new DBException(e.getMessage());
         } finally {
             conn = null;
+            idleConnections.clear();
+            openConnections = 0;
+            envelopes.clear();
         }
     }
     
@@ -143,6 +162,7 @@ public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSuppo
                 Statement stmt = conn.createStatement(); 
                 int nodeCount = stmt.executeUpdate("DELETE FROM " + GMLHSQLIndex.TABLE_NAME + ";");
                 stmt.close();
+                envelopes.clear();
                 if (LOG.isDebugEnabled())
                     LOG.debug("GML index: " + getDataDir() + "/" + db_file_name_prefix + ". " + nodeCount + " nodes removed");
             }
@@ -153,45 +173,39 @@ public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSuppo
 
     @Override
     protected Connection acquireConnection(DBBroker broker) throws SQLException {
-        //Horrible "locking" mechanism
+        Connection connection;
         synchronized (this) {
-            if (connectionOwner == null) {
-                connectionOwner = broker;
-                if (conn == null)
-                    initializeConnection();
-                return conn;
+            if (conn == null)
+                initializeConnection();
+            connection = idleConnections.poll();
+            if (connection == null && openConnections < maxConnections) {
+                //An embedded HSQL database can be used by several connections of the same VM
+                connection = openConnection();
+                openConnections++;
             }
-            long timeOut_ = connectionTimeout;
-            long waitTime = timeOut_;
-            long start = System.currentTimeMillis();
+        }
+        if (connection == null) {
             try {
-                for (;;) {
-                    wait(waitTime);
-                    if (connectionOwner == null) {
-                        connectionOwner = broker;
-                        if (conn == null)
-                            //We should never get there since the connection should have been initialized
-                            //by the first request from a worker
-                            initializeConnection();
-                        return conn;
-                    }
-                    waitTime = timeOut_ - (System.currentTimeMillis() - start);
-                    if (waitTime <= 0) {
-                        LOG.error("Time out while trying to get connection");
-                    }
-                }
-            } catch (InterruptedException ex) {
-                notify();
-                throw new RuntimeException("interrupted while waiting for lock");
+                connection = idleConnections.poll(connectionTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection");
             }
+            if (connection == null)
+                throw new SQLException("Time out while trying to get connection");
         }
+        return connection;
     }
 
     @Override
-    protected synchronized void releaseConnection(DBBroker broker) throws SQLException {   
-        if (connectionOwner == null)
+    protected void releaseConnection(DBBroker broker, Connection connection) throws SQLException {
+        if (connection == null)
             throw new SQLException("Attempted to release a connection that wasn't acquired");
-        connectionOwner = null;
+        idleConnections.offer(connection);
+    }
+
+    private Connection openConnection() throws SQLException {
+        return DriverManager.getConnection("jdbc:hsqldb:" + getDataDir() + "/" + db_file_name_prefix /* + ";shutdown=true" */, "sa", "");
     }
 
     private void initializeConnection() throws SQLException {
@@ -199,7 +213,9 @@ public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSuppo
         System.setProperty("hsqldb.cache_size_scale", "12");
         System.setProperty("hsqldb.default_table_type", "cached");
         //Get a connection to the DB... and keep it
-        this.conn = DriverManager.getConnection("jdbc:hsqldb:" + getDataDir() + "/" + db_file_name_prefix /* + ";shutdown=true" */, "sa", "");
+        this.conn = openConnection();
+        this.openConnections = 1;
+        this.idleConnections.offer(conn);
         if (LOG.isDebugEnabled())
             LOG.debug("Connected to GML index: " + getDataDir() + "/" + db_file_name_prefix);
         ResultSet rs = null;
@@ -269,6 +285,27 @@ public class GMLHSQLIndex extends AbstractGMLJDBCIndex implements RawBackupSuppo
             if (rs != null)
                 rs.close();
         }
+        loadEnvelopes();
+    }
+
+    private void loadEnvelopes() throws SQLException {
+        envelopes.clear();
+        Statement stmt = conn.createStatement();
+        ResultSet rs = null;
+        try {
+            rs = stmt.executeQuery("SELECT DOCUMENT_URI, NODE_ID_UNITS, NODE_ID, " +
+                "EPSG4326_MINX, EPSG4326_MAXX, EPSG4326_MINY, EPSG4326_MAXY FROM " + TABLE_NAME + ";");
+            while (rs.next()) {
+                envelopes.add(rs.getString(1), new DLN(rs.getInt(2), rs.getBytes(3), 0),
+                    new Envelope(rs.getDouble(4), rs.getDouble(5), rs.getDouble(6), rs.getDouble(7)));
+            }
+        } finally {
+            if (rs != null)
+                rs.close();
+            stmt.close();
+        }
+        if (LOG.isDebugEnabled())
+            LOG.debug("Loaded " + envelopes.size() + " envelopes from GML index: " + getDataDir() + "/" + db_file_name_prefix);
     }
 
 	@Override
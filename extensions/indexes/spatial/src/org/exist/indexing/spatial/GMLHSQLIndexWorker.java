@@ -27,7 +27,10 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -50,7 +53,10 @@ import org.exist.xquery.value.DoubleValue;
 import org.exist.xquery.value.StringValue;
 import org.exist.xquery.value.ValueSequence;
 
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 import com.vividsolutions.jts.io.ParseException;
 import org.exist.util.io.FastByteArrayInputStream;
 import org.exist.xquery.XQueryContext;
@@ -61,6 +67,9 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
 
     private static final Logger LOG = LogManager.getLogger(GMLHSQLIndexWorker.class);
 
+    //Changes to the envelope index, applied once they are committed to the database
+    private final List<Runnable> pendingEnvelopeChanges = new ArrayList<Runnable>();
+
     public GMLHSQLIndexWorker(GMLHSQLIndex index, DBBroker broker) {
         super(index, broker);
         //TODO : evaluate one connection per worker
@@ -124,7 +133,12 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
             /*IS_SIMPLE*/ ps.setBoolean(25, geometry.isSimple());
             //Should always be true (the GML SAX parser makes a too severe check)
             /*IS_VALID*/ ps.setBoolean(26, geometry.isValid());
-            return (ps.executeUpdate() == 1);
+            if (ps.executeUpdate() != 1)
+                return false;
+            final String documentURI = doc.getURI().toString();
+            final Envelope envelope = new Envelope(EPSG4326_geometry.getEnvelopeInternal());
+            pendingEnvelopeChanges.add(() -> index.getEnvelopeIndex().add(documentURI, nodeId, envelope));
+            return true;
         } finally {
             //Let's help the garbage collector...
             geometry = null;
@@ -143,8 +157,12 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
         byte[] bytes = new byte[nodeId.size()];
         nodeId.serialize(bytes, 0);
         ps.setBytes(3, bytes);
+        final String documentURI = doc.getURI().toString();
         try {
-            return (ps.executeUpdate() == 1);
+            final boolean removed = (ps.executeUpdate() == 1);
+            if (removed)
+                pendingEnvelopeChanges.add(() -> index.getEnvelopeIndex().removeNode(documentURI, nodeId));
+            return removed;
         } finally {
             ps.close();
         }
@@ -155,9 +173,12 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
         PreparedStatement ps = conn.prepareStatement(
             "DELETE FROM " + GMLHSQLIndex.TABLE_NAME + " WHERE DOCUMENT_URI = ?;"
         ); 
-        ps.setString(1, doc.getURI().toString());
+        final String documentURI = doc.getURI().toString();
+        ps.setString(1, documentURI);
         try {
-            return ps.executeUpdate();
+            final int nodeCount = ps.executeUpdate();
+            pendingEnvelopeChanges.add(() -> index.getEnvelopeIndex().removeDocument(documentURI));
+            return nodeCount;
         } finally {
             ps.close();
         }
@@ -171,14 +192,29 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
         ps.setInt(1, collection.getURI().toString().length());
         ps.setString(2, collection.getURI().toString());
         try {
-            return ps.executeUpdate();
+            final int nodeCount = ps.executeUpdate();
+            //Not part of a flush : the connection is in auto-commit mode
+            index.getEnvelopeIndex().removeCollection(collection.getURI().toString());
+            return nodeCount;
         } finally {
             ps.close();
         }
     }
 
-    //Since an embedded HSQL has only one connection available (unless I'm totally dumb)
-    //acquire and release the connection from the index, which is *the* connection's owner 
+    @Override
+    protected void committed() {
+        for (final Runnable change : pendingEnvelopeChanges) {
+            change.run();
+        }
+        pendingEnvelopeChanges.clear();
+    }
+
+    @Override
+    protected void rolledBack() {
+        pendingEnvelopeChanges.clear();
+    }
+
+    //Acquire and release the connection from the index, which owns the connection pool
 
     @Override
     protected Connection acquireConnection() throws SQLException {
@@ -187,170 +223,136 @@ public class GMLHSQLIndexWorker extends AbstractGMLJDBCIndexWorker {
 
     @Override
     protected void releaseConnection(Connection conn) throws SQLException {
-        index.releaseConnection(this.broker);
+        index.releaseConnection(this.broker, conn);
     }
 
     @Override
     protected NodeSet search(DBBroker broker, NodeSet contextSet, Geometry EPSG4326_geometry, int spatialOp, Connection conn) throws SQLException {
-        String extraSelection = null;
-        String bboxConstraint = null;
+        final Envelope searchEnvelope = EPSG4326_geometry.getEnvelopeInternal();
+        //Select the candidates by their envelope without touching the database
+        final List<GMLEnvelopeIndex.Entry> candidates = index.getEnvelopeIndex().query(searchEnvelope, spatialOp);
 
-        //TODO : generate it in AbstractGMLJDBCIndexWorker
-        String docConstraint = "";
-        boolean refine_query_on_doc = false;
+        //contextSet == null should be used to scan the whole index
+        Map<String, DocumentImpl> contextDocs = null;
         if (contextSet != null) {
-            if(contextSet.getDocumentSet().getDocumentCount() <= index.getMaxDocsInContextToRefineQuery()) {
-                refine_query_on_doc = true;
-                DocumentImpl doc;
-                Iterator<DocumentImpl> it = contextSet.getDocumentSet().getDocumentIterator();
-                doc  = it.next();
-                docConstraint = "(DOCUMENT_URI = '" + doc.getURI().toString() + "')";
-                while(it.hasNext()) {
-                    doc  = it.next();
-                    docConstraint = docConstraint + " OR (DOCUMENT_URI = '" + doc.getURI().toString() + "')";
-                }
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Refine query on documents is enabled.");
-                }
-            } else {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Refine query on documents is disabled.");
-                }
+            contextDocs = new HashMap<String, DocumentImpl>();
+            for (Iterator<DocumentImpl> i = contextSet.getDocumentSet().getDocumentIterator(); i.hasNext(); ) {
+                DocumentImpl doc = i.next();
+                contextDocs.put(doc.getURI().toString(), doc);
             }
         }
+        Map<String, DocumentImpl> docs = new HashMap<String, DocumentImpl>();
+
+        //Prepare the geometry once for the most common operators
+        PreparedGeometry preparedGeometry = null;
+        if (spatialOp == SpatialOperator.INTERSECTS || spatialOp == SpatialOperator.WITHIN ||
+                spatialOp == SpatialOperator.CONTAINS)
+            preparedGeometry = PreparedGeometryFactory.prepare(EPSG4326_geometry);
 
-        switch (spatialOp) {
-        //BBoxes are equal
-        case SpatialOperator.EQUALS:
-            bboxConstraint = "(EPSG4326_MINX = ? AND EPSG4326_MAXX = ?)" +
-                " AND (EPSG4326_MINY = ? AND EPSG4326_MAXY = ?)";
-            break;
-        //Nothing much we can do with the BBox at this stage
-        case SpatialOperator.DISJOINT:
-            //Retrieve the BBox though...
-            extraSelection = ", EPSG4326_MINX, EPSG4326_MAXX, EPSG4326_MINY, EPSG4326_MAXY";
-            break;
-        //BBoxes intersect themselves
-        case SpatialOperator.INTERSECTS:
-        case SpatialOperator.TOUCHES:
-        case SpatialOperator.CROSSES:
-        case SpatialOperator.OVERLAPS:
-            bboxConstraint = "(EPSG4326_MAXX >= ? AND EPSG4326_MINX <= ?)" +
-            " AND (EPSG4326_MAXY >= ? AND EPSG4326_MINY <= ?)";
-            break;
-        //BBox is fully within
-        case SpatialOperator.WITHIN:
-            bboxConstraint = "(EPSG4326_MINX >= ? AND EPSG4326_MAXX <= ?)" +
-            " AND (EPSG4326_MINY >= ? AND EPSG4326_MAXY <= ?)";
-            break;
-        //BBox fully contains
-        case SpatialOperator.CONTAINS: 
-            bboxConstraint = "(EPSG4326_MINX <= ? AND EPSG4326_MAXX >= ?)" +
-            " AND (EPSG4326_MINY <= ? AND EPSG4326_MAXY >= ?)";
-            break;
-        default:
-            throw new IllegalArgumentException("Unsupported spatial operator:" + spatialOp);
-        }
         PreparedStatement ps = conn.prepareStatement(
-            "SELECT EPSG4326_WKB, DOCUMENT_URI, NODE_ID_UNITS, NODE_ID" + (extraSelection == null ? "" : extraSelection) +
-            " FROM " + GMLHSQLIndex.TABLE_NAME + 
-            (bboxConstraint == null ? 
-                (refine_query_on_doc ? " WHERE " + docConstraint : "") : 
-                " WHERE " +	(refine_query_on_doc ? "(" + docConstraint + ") AND " :	"") + bboxConstraint) + ";"
+            "SELECT EPSG4326_WKB FROM " + GMLHSQLIndex.TABLE_NAME +
+            " WHERE DOCUMENT_URI = ? AND NODE_ID_UNITS = ? AND NODE_ID = ?;"
         );
-        if (bboxConstraint != null) {
-            ps.setDouble(1, EPSG4326_geometry.getEnvelopeInternal().getMinX());
-            ps.setDouble(2, EPSG4326_geometry.getEnvelopeInternal().getMaxX());
-            ps.setDouble(3, EPSG4326_geometry.getEnvelopeInternal().getMinY());
-            ps.setDouble(4, EPSG4326_geometry.getEnvelopeInternal().getMaxY());
-        }
-        ResultSet rs = null;
-        NodeSet result = null;
-        try { 
+        NodeSet result = new ExtArrayNodeSet();
+        try {
             int disjointPostFiltered = 0;
-            rs = ps.executeQuery();
-            result = new ExtArrayNodeSet(); //new ExtArrayNodeSet(docs.getLength(), 250)
-            while (rs.next()) {
-                DocumentImpl doc = null;
-                try {
-                    doc = (DocumentImpl)broker.getXMLResource(XmldbURI.create(rs.getString("DOCUMENT_URI")));        			
-                } catch (PermissionDeniedException e) {
-                    LOG.debug(e);
-                    //Ignore since the broker has no right on the document
+            for (GMLEnvelopeIndex.Entry candidate : candidates) {
+                DocumentImpl doc;
+                if (contextDocs != null) {
+                    doc = contextDocs.get(candidate.getDocumentURI());
+                } else if (docs.containsKey(candidate.getDocumentURI())) {
+                    doc = docs.get(candidate.getDocumentURI());
+                } else {
+                    try {
+                        doc = (DocumentImpl)broker.getXMLResource(XmldbURI.create(candidate.getDocumentURI()));
+                    } catch (PermissionDeniedException e) {
+                        LOG.debug(e);
+                        //Ignore since the broker has no right on the document
+                        doc = null;
+                    }
+                    docs.put(candidate.getDocumentURI(), doc);
+                }
+                if (doc == null)
                     continue;
+                NodeProxy p = new NodeProxy(doc, candidate.getNodeId());
+                //Node is in the context : check if it is accurate
+                //contextSet.contains(p) would have made more sense but there is a problem with
+                //VirtualNodeSet when on the DESCENDANT_OR_SELF axis
+                if (contextSet != null && contextSet.get(p) == null)
+                    continue;
+                boolean geometryMatches = false;
+                if (spatialOp == SpatialOperator.DISJOINT) {
+                    //No BBox intersection : obviously disjoint
+                    if (!candidate.getEnvelope().intersects(searchEnvelope)) {
+                        geometryMatches = true;
+                        disjointPostFiltered++;
+                    }
                 }
-                //contextSet == null should be used to scan the whole index
-                if (contextSet == null || refine_query_on_doc || contextSet.getDocumentSet().contains(doc.getDocId())) {
-                    NodeId nodeId = new DLN(rs.getInt("NODE_ID_UNITS"), rs.getBytes("NODE_ID"), 0); 
-                    NodeProxy p = new NodeProxy(doc, nodeId);
-                    //Node is in the context : check if it is accurate
-                    //contextSet.contains(p) would have made more sense but there is a problem with
-                    //VirtualNodeSet when on the DESCENDANT_OR_SELF axis
-                    if (contextSet == null || contextSet.get(p) != null) {
-                        boolean geometryMatches = false;
-                        if (spatialOp == SpatialOperator.DISJOINT) {
-                            //No BBox intersection : obviously disjoint
-                            if (rs.getDouble("EPSG4326_MAXX") < EPSG4326_geometry.getEnvelopeInternal().getMinX() ||
-                                rs.getDouble("EPSG4326_MINX") > EPSG4326_geometry.getEnvelopeInternal().getMaxX() ||
-                                rs.getDouble("EPSG4326_MAXY") < EPSG4326_geometry.getEnvelopeInternal().getMinY() ||
-                                rs.getDouble("EPSG4326_MINY") > EPSG4326_geometry.getEnvelopeInternal().getMaxY()) {
-                                geometryMatches = true;
-                                disjointPostFiltered++;	
-                            }
-                        }
-                        //Possible match : check the geometry
-                        if (!geometryMatches) {	
-                            try {
-                                Geometry geometry = wkbReader.read(rs.getBytes("EPSG4326_WKB"));
-                                switch (spatialOp) {
-                                case SpatialOperator.EQUALS:
-                                    geometryMatches = geometry.equals(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.DISJOINT:
-                                    geometryMatches = geometry.disjoint(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.INTERSECTS:
-                                    geometryMatches = geometry.intersects(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.TOUCHES:
-                                    geometryMatches = geometry.touches(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.CROSSES:
-                                    geometryMatches = geometry.crosses(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.WITHIN:
-                                    geometryMatches = geometry.within(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.CONTAINS:
-                                    geometryMatches = geometry.contains(EPSG4326_geometry);
-                                    break;
-                                case SpatialOperator.OVERLAPS:
-                                    geometryMatches = geometry.overlaps(EPSG4326_geometry);
-                                    break;
-                                }
-                            } catch (ParseException e) {
-                                //Transforms the exception into an SQLException.
-                                //Very unlikely to happen though...
-                                SQLException ee = new SQLException(e.getMessage());
-                                ee.initCause(e);
-                                throw ee;
-                            }
-                        }
-                        if (geometryMatches)
-                            result.add(p);
+                //Possible match : check the geometry
+                if (!geometryMatches) {
+                    Geometry geometry = readEPSG4326Geometry(ps, candidate);
+                    if (geometry == null)
+                        //Removed in the meantime
+                        continue;
+                    switch (spatialOp) {
+                    case SpatialOperator.EQUALS:
+                        geometryMatches = geometry.equals(EPSG4326_geometry);
+                        break;
+                    case SpatialOperator.DISJOINT:
+                        geometryMatches = geometry.disjoint(EPSG4326_geometry);
+                        break;
+                    case SpatialOperator.INTERSECTS:
+                        geometryMatches = preparedGeometry.intersects(geometry);
+                        break;
+                    case SpatialOperator.TOUCHES:
+                        geometryMatches = geometry.touches(EPSG4326_geometry);
+                        break;
+                    case SpatialOperator.CROSSES:
+                        geometryMatches = geometry.crosses(EPSG4326_geometry);
+                        break;
+                    case SpatialOperator.WITHIN:
+                        geometryMatches = preparedGeometry.contains(geometry);
+                        break;
+                    case SpatialOperator.CONTAINS:
+                        geometryMatches = preparedGeometry.within(geometry);
+                        break;
+                    case SpatialOperator.OVERLAPS:
+                        geometryMatches = geometry.overlaps(EPSG4326_geometry);
+                        break;
                     }
                 }
+                if (geometryMatches)
+                    result.add(p);
             }
             if (LOG.isDebugEnabled()) {
-                LOG.debug(rs.getRow() + " eligible geometries, " + result.getItemCount() + "selected" +
+                LOG.debug(candidates.size() + " eligible geometries, " + result.getItemCount() + "selected" +
                     (spatialOp == SpatialOperator.DISJOINT ? "(" + disjointPostFiltered + " post filtered)" : ""));
             }
             return result;
         } finally {
-            if (rs != null)
-                rs.close();
-            if (ps != null)
-                ps.close();
+            ps.close();
+        }
+    }
+
+    private Geometry readEPSG4326Geometry(PreparedStatement ps, GMLEnvelopeIndex.Entry entry) throws SQLException {
+        ps.setString(1, entry.getDocumentURI());
+        ps.setInt(2, entry.getNodeId().units());
+        byte[] bytes = new byte[entry.getNodeId().size()];
+        entry.getNodeId().serialize(bytes, 0);
+        ps.setBytes(3, bytes);
+        ResultSet rs = ps.executeQuery();
+        try {
+            if (!rs.next())
+                return null;
+            return wkbReader.read(rs.getBytes(1));
+        } catch (ParseException e) {
+            //Transforms the exception into an SQLException.
+            //Very unlikely to happen though...
+            SQLException ee = new SQLException(e.getMessage());
+            ee.initCause(e);
+            throw ee;
+        } finally {
+            rs.close();
         }
     }
 
@@ -0,0 +1,86 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.indexing.spatial;
+
+import java.util.List;
+
+import org.exist.indexing.spatial.AbstractGMLJDBCIndex.SpatialOperator;
+import org.exist.numbering.DLN;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+import static org.junit.Assert.assertEquals;
+
+public class GMLEnvelopeIndexTest {
+
+    private static final String DOC1 = "/db/spatial/test1.xml";
+    private static final String DOC2 = "/db/spatial/test2.xml";
+    private static final String DOC3 = "/db/other/test3.xml";
+
+    private GMLEnvelopeIndex createIndex() {
+        final GMLEnvelopeIndex index = new GMLEnvelopeIndex();
+        index.add(DOC1, new DLN("1.1"), new Envelope(0, 10, 0, 10));
+        index.add(DOC1, new DLN("1.2"), new Envelope(20, 30, 20, 30));
+        index.add(DOC2, new DLN("1.1"), new Envelope(2, 4, 2, 4));
+        index.add(DOC3, new DLN("1.1"), new Envelope(5, 5, 5, 5));
+        return index;
+    }
+
+    @Test
+    public void query() {
+        final GMLEnvelopeIndex index = createIndex();
+        assertEquals(3, index.query(new Envelope(1, 6, 1, 6), SpatialOperator.INTERSECTS).size());
+        assertEquals(2, index.query(new Envelope(1, 6, 1, 6), SpatialOperator.WITHIN).size());
+        assertEquals(1, index.query(new Envelope(1, 6, 1, 6), SpatialOperator.CONTAINS).size());
+        assertEquals(1, index.query(new Envelope(20, 30, 20, 30), SpatialOperator.EQUALS).size());
+        assertEquals(4, index.query(new Envelope(1, 6, 1, 6), SpatialOperator.DISJOINT).size());
+    }
+
+    @Test
+    public void replaceNode() {
+        final GMLEnvelopeIndex index = createIndex();
+        index.add(DOC1, new DLN("1.2"), new Envelope(40, 50, 40, 50));
+        assertEquals(4, index.size());
+        assertEquals(0, index.query(new Envelope(20, 30, 20, 30), SpatialOperator.INTERSECTS).size());
+
+        final List<GMLEnvelopeIndex.Entry> found = index.query(new Envelope(45, 46, 45, 46), SpatialOperator.INTERSECTS);
+        assertEquals(1, found.size());
+        assertEquals(DOC1, found.get(0).getDocumentURI());
+    }
+
+    @Test
+    public void remove() {
+        final GMLEnvelopeIndex index = createIndex();
+        index.removeNode(DOC1, new DLN("1.1"));
+        assertEquals(3, index.size());
+        assertEquals(2, index.query(new Envelope(1, 6, 1, 6), SpatialOperator.INTERSECTS).size());
+
+        index.removeDocument(DOC2);
+        assertEquals(2, index.size());
+
+        index.removeCollection("/db/spatial");
+        assertEquals(1, index.size());
+        assertEquals(DOC3, index.query(new Envelope(0, 10, 0, 10), SpatialOperator.INTERSECTS).get(0).getDocumentURI());
+
+        index.clear();
+        assertEquals(0, index.size());
+    }
+}
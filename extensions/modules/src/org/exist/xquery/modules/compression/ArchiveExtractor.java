@@ -0,0 +1,447 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.compression;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.lock.ManagedDocumentLock;
+import org.exist.storage.txn.TransactionManager;
+import org.exist.storage.txn.Txn;
+import org.exist.util.FileInputSource;
+import org.exist.util.LockException;
+import org.exist.util.MimeTable;
+import org.exist.util.MimeType;
+import org.exist.util.NamedThreadFactory;
+import org.exist.util.StringInputSource;
+import org.exist.util.io.FastByteArrayInputStream;
+import org.exist.util.io.TemporaryFileManager;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.util.URIUtils;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Extracts the entries of a Zip or Tar archive into a Collection of the database.
+ *
+ * <p>The archive is read and decompressed by a separate thread, whilst the calling
+ * thread parses and stores the entries which have already been read. The two are
+ * connected by a bounded queue. Small entries are held in memory, larger entries are
+ * spooled to a temporary file, so the memory used is bounded regardless of the size
+ * of the archive or of its entries.</p>
+ *
+ * <p>Entries with an XML media type (see mime-types.xml) are stored as XML documents,
+ * falling back to a binary document if they are not well-formed, all other entries
+ * are stored as binary documents. Entries are stored in batches, each batch is committed
+ * in a single transaction, so should extraction fail the batches already committed remain
+ * in the database.</p>
+ */
+public class ArchiveExtractor {
+
+    private final static Logger LOG = LogManager.getLogger(ArchiveExtractor.class);
+
+    public final static int DEFAULT_BATCH_SIZE = 100;
+    public final static int DEFAULT_IN_MEMORY_THRESHOLD = 64 * 1024;
+    public final static int DEFAULT_READ_AHEAD = 8;
+
+    private final static Entry END_OF_ARCHIVE = new Entry(null, true, null);
+
+    private final DBBroker broker;
+    private final XmldbURI destCollection;
+    private final int batchSize;
+    private final int inMemoryThreshold;
+    private final int readAhead;
+
+    private final Set<XmldbURI> knownCollections = new HashSet<>();
+
+    /**
+     * @param broker The broker to store the entries with
+     * @param destCollection The Collection to extract the archive into, created if it does not exist
+     */
+    public ArchiveExtractor(final DBBroker broker, final XmldbURI destCollection) {
+        this(broker, destCollection, DEFAULT_BATCH_SIZE, DEFAULT_IN_MEMORY_THRESHOLD, DEFAULT_READ_AHEAD);
+    }
+
+    /**
+     * @param broker The broker to store the entries with
+     * @param destCollection The Collection to extract the archive into, created if it does not exist
+     * @param batchSize The number of entries to store in each transaction
+     * @param inMemoryThreshold The size in bytes up to which an entry is held in memory, larger entries are spooled to disk
+     * @param readAhead The maximum number of entries read ahead of the entry being stored
+     */
+    public ArchiveExtractor(final DBBroker broker, final XmldbURI destCollection, final int batchSize, final int inMemoryThreshold, final int readAhead) {
+        this.broker = broker;
+        this.destCollection = destCollection;
+        this.batchSize = Math.max(1, batchSize);
+        this.inMemoryThreshold = Math.max(0, inMemoryThreshold);
+        this.readAhead = Math.max(1, readAhead);
+    }
+
+    /**
+     * Extracts all entries of the archive.
+     *
+     * The archive is not closed, that is the responsibility of the caller.
+     *
+     * @param archive The archive to extract, e.g. a ZipArchiveInputStream or TarArchiveInputStream
+     *
+     * @return The number of Collections and documents that were stored
+     *
+     * @throws ArchiveExitAttackException if an entry would be extracted outside of the destination Collection
+     * @throws IOException if the archive cannot be read, or an entry cannot be stored
+     */
+    public Result extract(final ArchiveInputStream archive) throws IOException, EXistException, PermissionDeniedException, LockException, TriggerException {
+        final BlockingQueue<Entry> entries = new ArrayBlockingQueue<>(readAhead);
+        final Reader reader = new Reader(archive, entries);
+        final Thread readerThread = new NamedThreadFactory(broker.getBrokerPool(), "compression.extract").newThread(reader);
+        readerThread.start();
+
+        final Result result = new Result();
+        final TransactionManager transactionManager = broker.getBrokerPool().getTransactionManager();
+        try {
+            Txn transaction = transactionManager.beginTransaction();
+            try {
+                mkcol(transaction, destCollection);
+
+                int batched = 0;
+                Entry entry;
+                while ((entry = entries.take()) != END_OF_ARCHIVE) {
+                    try {
+                        store(transaction, entry, result);
+                    } finally {
+                        entry.close();
+                    }
+
+                    if (++batched == batchSize) {
+                        transaction.commit();
+                        transaction.close();
+                        transaction = transactionManager.beginTransaction();
+                        batched = 0;
+                    }
+                }
+
+                if (reader.failure != null) {
+                    if (reader.failure instanceof IOException) {
+                        throw (IOException) reader.failure;
+                    }
+                    throw new IOException("Unable to read the archive: " + reader.failure.getMessage(), reader.failure);
+                }
+
+                transaction.commit();
+            } finally {
+                transaction.close();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted whilst extracting the archive", e);
+        } finally {
+            stop(readerThread, entries);
+        }
+
+        return result;
+    }
+
+    private void store(final Txn transaction, final Entry entry, final Result result) throws IOException, EXistException, PermissionDeniedException, LockException, TriggerException {
+        if (entry.directory) {
+            if (mkcol(transaction, entry.path)) {
+                result.collections++;
+            }
+            return;
+        }
+
+        final XmldbURI collectionUri = entry.path.removeLastSegment();
+        final XmldbURI name = entry.path.lastSegment();
+        if (mkcol(transaction, collectionUri)) {
+            result.collections++;
+        }
+
+        final MimeType mimeType = MimeTable.getInstance().getContentTypeFor(name);
+
+        try (final Collection collection = broker.openCollection(collectionUri, LockMode.WRITE_LOCK)) {
+            if (mimeType != null && mimeType.isXMLType()) {
+                try (final ManagedDocumentLock documentLock = broker.getBrokerPool().getLockManager().acquireDocumentWriteLock(entry.path)) {
+                    final IndexInfo info = collection.validateXMLResource(transaction, broker, name, entry.spool.inputSource());
+                    info.getDocument().getMetadata().setMimeType(mimeType.getName());
+                    collection.store(transaction, broker, info, entry.spool.inputSource());
+                    result.xmlResources++;
+                    result.bytes += entry.spool.size();
+                    return;
+                } catch (final SAXException e) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Entry " + entry.path + " is not well-formed XML, storing as binary: " + e.getMessage());
+                    }
+                }
+            }
+
+            try (final InputStream is = entry.spool.inputStream()) {
+                collection.addBinaryResource(transaction, broker, name, is,
+                        mimeType == null ? MimeType.BINARY_TYPE.getName() : mimeType.getName(), entry.spool.size());
+            }
+            result.binaryResources++;
+            result.bytes += entry.spool.size();
+        }
+    }
+
+    /**
+     * Creates the Collection path if it does not exist.
+     *
+     * @return true if the Collection had not been seen before by this extractor
+     */
+    private boolean mkcol(final Txn transaction, final XmldbURI collectionUri) throws PermissionDeniedException, IOException, TriggerException {
+        if (!knownCollections.add(collectionUri)) {
+            return false;
+        }
+        try (final Collection collection = broker.getOrCreateCollection(transaction, collectionUri)) {
+            return true;
+        }
+    }
+
+    private static void stop(final Thread readerThread, final BlockingQueue<Entry> entries) {
+        if (readerThread.isAlive()) {
+            readerThread.interrupt();
+        }
+
+        boolean interrupted = false;
+        while (readerThread.isAlive()) {
+            try {
+                readerThread.join();
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        // release any entries that were read ahead but not stored
+        Entry entry;
+        while ((entry = entries.poll()) != null) {
+            entry.close();
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Resolves the path of an entry against the destination Collection.
+     */
+    private XmldbURI resolve(final String entryName) throws IOException {
+        String name = entryName;
+        while (name.endsWith("/")) {
+            name = name.substring(0, name.length() - 1);
+        }
+
+        final XmldbURI path;
+        try {
+            path = destCollection.resolveCollectionPath(URIUtils.encodeXmldbUriFor(name));
+        } catch (final URISyntaxException e) {
+            throw new IOException("Invalid name for archive entry: " + entryName, e);
+        }
+
+        if (!path.startsWith(destCollection)) {
+            throw new ArchiveExitAttackException("Detected archive exit attack! Entry: " + entryName);
+        }
+        return path;
+    }
+
+    /**
+     * Reads the entries of the archive, and queues them for storage.
+     */
+    private class Reader implements Runnable {
+        private final ArchiveInputStream archive;
+        private final BlockingQueue<Entry> entries;
+        private volatile Exception failure = null;
+
+        Reader(final ArchiveInputStream archive, final BlockingQueue<Entry> entries) {
+            this.archive = archive;
+            this.entries = entries;
+        }
+
+        @Override
+        public void run() {
+            final byte[] buf = new byte[inMemoryThreshold];
+            try {
+                ArchiveEntry archiveEntry;
+                while ((archiveEntry = archive.getNextEntry()) != null) {
+                    if (!archive.canReadEntryData(archiveEntry)) {
+                        throw new IOException("Unsupported compression for archive entry: " + archiveEntry.getName());
+                    }
+
+                    final XmldbURI path = resolve(archiveEntry.getName());
+                    if (path.equals(destCollection)) {
+                        // e.g. the "./" entry of a tar archive
+                        if (archiveEntry.isDirectory()) {
+                            continue;
+                        }
+                        throw new IOException("Invalid name for archive entry: " + archiveEntry.getName());
+                    }
+
+                    final Entry entry = new Entry(path, archiveEntry.isDirectory(), archiveEntry.isDirectory() ? null : Spool.read(archive, buf));
+                    try {
+                        entries.put(entry);
+                    } catch (final InterruptedException e) {
+                        entry.close();
+                        return;
+                    }
+                }
+            } catch (final IOException | RuntimeException e) {
+                failure = e;
+            } finally {
+                try {
+                    entries.put(END_OF_ARCHIVE);
+                } catch (final InterruptedException e) {
+                    // the extraction has been abandoned
+                }
+            }
+        }
+    }
+
+    private static class Entry implements Closeable {
+        private final XmldbURI path;
+        private final boolean directory;
+        private final Spool spool;
+
+        Entry(final XmldbURI path, final boolean directory, final Spool spool) {
+            this.path = path;
+            this.directory = directory;
+            this.spool = spool;
+        }
+
+        @Override
+        public void close() {
+            if (spool != null) {
+                spool.close();
+            }
+        }
+    }
+
+    /**
+     * The uncompressed data of an entry, either in memory or in a temporary file.
+     */
+    private static class Spool implements Closeable {
+        private final byte[] data;
+        private final Path file;
+        private final long size;
+
+        private Spool(final byte[] data, final Path file, final long size) {
+            this.data = data;
+            this.file = file;
+            this.size = size;
+        }
+
+        /**
+         * Reads the data of an entry, entries smaller than the buffer are held in memory.
+         */
+        static Spool read(final InputStream is, final byte[] buf) throws IOException {
+            final int read = IOUtils.read(is, buf);
+            if (read < buf.length) {
+                return new Spool(Arrays.copyOf(buf, read), null, read);
+            }
+
+            final TemporaryFileManager temporaryFileManager = TemporaryFileManager.getInstance();
+            final Path file = temporaryFileManager.getTemporaryFile();
+            try (final OutputStream os = Files.newOutputStream(file)) {
+                os.write(buf, 0, read);
+                final long size = read + IOUtils.copyLarge(is, os);
+                return new Spool(null, file, size);
+            } catch (final IOException e) {
+                temporaryFileManager.returnTemporaryFile(file);
+                throw e;
+            }
+        }
+
+        long size() {
+            return size;
+        }
+
+        InputStream inputStream() throws IOException {
+            return file == null ? new FastByteArrayInputStream(data) : Files.newInputStream(file);
+        }
+
+        InputSource inputSource() {
+            return file == null ? new StringInputSource(data) : new FileInputSource(file);
+        }
+
+        @Override
+        public void close() {
+            if (file != null) {
+                TemporaryFileManager.getInstance().returnTemporaryFile(file);
+            }
+        }
+    }
+
+    /**
+     * The number of Collections and documents stored by an extraction.
+     */
+    public static class Result {
+        private int collections;
+        private int xmlResources;
+        private int binaryResources;
+        private long bytes;
+
+        public int getCollections() {
+            return collections;
+        }
+
+        public int getXmlResources() {
+            return xmlResources;
+        }
+
+        public int getBinaryResources() {
+            return binaryResources;
+        }
+
+        /**
+         * @return The total uncompressed size of the stored documents
+         */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * Thrown when an entry of an archive would be extracted outside of the destination Collection.
+     */
+    public static class ArchiveExitAttackException extends IOException {
+        public ArchiveExitAttackException(final String message) {
+            super(message);
+        }
+    }
+}
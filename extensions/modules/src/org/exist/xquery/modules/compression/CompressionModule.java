@@ -77,6 +77,12 @@ public class CompressionModule extends AbstractInternalModule {
                     UnTarFunction.FS_UNTAR[1],
                     UnTarFunction.FS_UNTAR[2]
             ),
+            functionDefs(ExtractToCollectionFunction.class,
+                    ExtractToCollectionFunction.FS_UNZIP_TO_COLLECTION[0],
+                    ExtractToCollectionFunction.FS_UNZIP_TO_COLLECTION[1],
+                    ExtractToCollectionFunction.FS_UNTAR_TO_COLLECTION[0],
+                    ExtractToCollectionFunction.FS_UNTAR_TO_COLLECTION[1]
+            ),
             functionDefs(EntryFunctions.class,
                     EntryFunctions.FS_NO_FILTER[0],
                     EntryFunctions.FS_NO_FILTER[1],
@@ -0,0 +1,154 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.compression;
+
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.exist.EXistException;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.QName;
+import org.exist.dom.memtree.MemTreeBuilder;
+import org.exist.security.PermissionDeniedException;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.BinaryValue;
+import org.exist.xquery.value.FunctionParameterSequenceType;
+import org.exist.xquery.value.NodeValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.Type;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+
+import static org.exist.xquery.FunctionDSL.*;
+import static org.exist.xquery.modules.compression.CompressionModule.functionSignatures;
+
+/**
+ * Extracts all of the entries of a Zip or Tar archive into a Collection.
+ *
+ * Unlike compression:unzip and compression:untar the entries are not passed
+ * through user defined functions, they are streamed straight into the database
+ * by an {@link ArchiveExtractor}.
+ */
+public class ExtractToCollectionFunction extends BasicFunction {
+
+    private static final FunctionParameterSequenceType FS_PARAM_COLLECTION = param("collection-uri", Type.STRING, "The Collection to extract the archive into, it is created if it does not exist. Entries are stored at their path within the archive, relative to the Collection.");
+    private static final FunctionParameterSequenceType FS_PARAM_ENCODING = param("encoding", Type.STRING, "The encoding of the entry names eg: UTF8 or Cp437 from https://docs.oracle.com/javase/8/docs/technotes/guides/intl/encoding.doc.html");
+
+    private static final String DESCRIPTION_SUFFIX = " Entries with an XML mime-type are stored as XML documents if they are well-formed, all other entries are stored as binary documents." +
+            " The entries are read ahead and stored in batches of transactions, they are never held in memory as a whole, which makes this function suitable for very large archives." +
+            " Returns a summary of the extraction e.g. <compression:extracted collections=\"2\" xml-resources=\"10\" binary-resources=\"3\" bytes=\"48213\"/>";
+
+    private static final String FS_UNZIP_TO_COLLECTION_NAME = "unzip-to-collection";
+    static final FunctionSignature[] FS_UNZIP_TO_COLLECTION = functionSignatures(
+            FS_UNZIP_TO_COLLECTION_NAME,
+            "UnZip all the resources/folders from the provided data into a Collection." + DESCRIPTION_SUFFIX,
+            returnsOpt(Type.ELEMENT),
+            arities(
+                arity(
+                    param("zip-data", Type.BASE64_BINARY, "The zip file data"),
+                    FS_PARAM_COLLECTION
+                ),
+                arity(
+                    param("zip-data", Type.BASE64_BINARY, "The zip file data"),
+                    FS_PARAM_COLLECTION,
+                    FS_PARAM_ENCODING
+                )
+            )
+    );
+
+    private static final String FS_UNTAR_TO_COLLECTION_NAME = "untar-to-collection";
+    static final FunctionSignature[] FS_UNTAR_TO_COLLECTION = functionSignatures(
+            FS_UNTAR_TO_COLLECTION_NAME,
+            "UnTar all the resources/folders from the provided data into a Collection." + DESCRIPTION_SUFFIX,
+            returnsOpt(Type.ELEMENT),
+            arities(
+                arity(
+                    param("tar-data", Type.BASE64_BINARY, "The tar file data"),
+                    FS_PARAM_COLLECTION
+                ),
+                arity(
+                    param("tar-data", Type.BASE64_BINARY, "The tar file data"),
+                    FS_PARAM_COLLECTION,
+                    FS_PARAM_ENCODING
+                )
+            )
+    );
+
+    public ExtractToCollectionFunction(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+        if (args[0].isEmpty()) {
+            return Sequence.EMPTY_SEQUENCE;
+        }
+
+        final XmldbURI destCollection;
+        try {
+            destCollection = XmldbURI.xmldbUriFor(args[1].getStringValue());
+        } catch (final URISyntaxException e) {
+            throw new XPathException(this, "Invalid Collection URI: " + e.getMessage(), e);
+        }
+
+        final Charset encoding;
+        try {
+            encoding = args.length == 3 && !args[2].isEmpty() ? Charset.forName(args[2].getStringValue()) : StandardCharsets.UTF_8;
+        } catch (final UnsupportedCharsetException e) {
+            throw new XPathException(this, e.getMessage(), e);
+        }
+
+        final BinaryValue archiveData = (BinaryValue) args[0].itemAt(0);
+        final ArchiveExtractor.Result result;
+        try (final InputStream is = archiveData.getInputStream();
+                final ArchiveInputStream archive = isCalledAs(FS_UNZIP_TO_COLLECTION_NAME)
+                        ? new ZipArchiveInputStream(is, encoding.name(), true, true)
+                        : new TarArchiveInputStream(is, encoding.name())) {
+            result = new ArchiveExtractor(context.getBroker(), destCollection).extract(archive);
+        } catch (final ArchiveExtractor.ArchiveExitAttackException e) {
+            throw new XPathException(this, CompressionModule.ARCHIVE_EXIT_ATTACK, e.getMessage());
+        } catch (final IOException | EXistException | PermissionDeniedException | LockException | TriggerException | IllegalArgumentException e) {
+            LOG.error(e.getMessage(), e);
+            throw new XPathException(this, e.getMessage(), e);
+        }
+
+        final MemTreeBuilder builder = context.getDocumentBuilder();
+        builder.startDocument();
+        final int nodeNr = builder.startElement(new QName("extracted", CompressionModule.NAMESPACE_URI, CompressionModule.PREFIX), null);
+        builder.addAttribute(new QName("collections", null, null), String.valueOf(result.getCollections()));
+        builder.addAttribute(new QName("xml-resources", null, null), String.valueOf(result.getXmlResources()));
+        builder.addAttribute(new QName("binary-resources", null, null), String.valueOf(result.getBinaryResources()));
+        builder.addAttribute(new QName("bytes", null, null), String.valueOf(result.getBytes()));
+        builder.endElement();
+        builder.endDocument();
+
+        return (NodeValue) builder.getDocument().getNode(nodeNr);
+    }
+}
@@ -139,9 +139,7 @@ public abstract class BaseHTTPClientFunction extends BasicFunction {
 
         Sequence encodedResponse = null;
 
-        final HttpClient http = HTTPClientModule.httpClient;
-
-        FeaturesAndProperties defaultFeaturesAndProperties = (FeaturesAndProperties) context.getXQueryContextVar(HTTP_MODULE_PERSISTENT_OPTIONS);
+        final FeaturesAndProperties defaultFeaturesAndProperties = getDefaultFeaturesAndProperties(context);
         if (defaultFeaturesAndProperties != null) {
             if (parserFeatures == null) {
                 parserFeatures = defaultFeaturesAndProperties.getFeatures();
@@ -153,25 +151,9 @@ public abstract class BaseHTTPClientFunction extends BasicFunction {
 
         //execute the request
         try {
-
-            //use existing state?
-            if (persistState) {
-                //get existing state
-                final HttpState state = (HttpState) context.getXQueryContextVar(HTTP_MODULE_PERSISTENT_STATE);
-                if (state != null) {
-                    http.setState(state);
-                }
-            }
-
-            //perform the request
-            final int statusCode = http.executeMethod(method);
+            final int statusCode = executeMethod(context, method, persistState);
 
             encodedResponse = encodeResponseAsXML(context, method, statusCode, parserFeatures, parserProperties);
-
-            //persist state?
-            if (persistState) {
-                context.setXQueryContextVar(HTTP_MODULE_PERSISTENT_STATE, http.getState());
-            }
         } catch (final Exception e) {
             LOG.error(e.getMessage(), e);
             encodedResponse = encodeErrorResponse(context, e.getMessage());
@@ -180,6 +162,75 @@ public abstract class BaseHTTPClientFunction extends BasicFunction {
         return encodedResponse;
     }
 
+    /**
+     * Executes a HTTP Method on the shared client.
+     *
+     * The HTTP state is never set on the shared client, as it is used by
+     * concurrent queries. Persistent state is kept in the context of the calling
+     * XQuery and passed with each request instead.
+     *
+     * @param context The context of the calling XQuery
+     * @param method The HTTP method for the request
+     * @param persistState If true existing HTTP state (cookies, credentials,
+     * etc) are re-used and the state is persisted for future HTTP Requests
+     *
+     * @return The status code of the response
+     *
+     * @throws IOException
+     * @throws XPathException if the HTTP client service is not available
+     */
+    protected int executeMethod(final XQueryContext context, final HttpMethod method, final boolean persistState) throws IOException, XPathException {
+        final HTTPClientService clientService = getHTTPClientService(context);
+        final HttpState state = persistState ? getPersistentState(context) : null;
+        return clientService.getHttpClient().executeMethod(null, method, state);
+    }
+
+    /**
+     * Gets the HTTP client service of the database.
+     *
+     * @param context The context of the calling XQuery
+     *
+     * @return The HTTP client service
+     *
+     * @throws XPathException if the service is not registered with the database
+     */
+    protected HTTPClientService getHTTPClientService(final XQueryContext context) throws XPathException {
+        final HTTPClientService clientService = HTTPClientModule.getHTTPClientService(context);
+        if (clientService == null) {
+            throw new XPathException(this, "The HTTP client service is not available");
+        }
+        return clientService;
+    }
+
+    /**
+     * Gets the persistent HTTP state of the calling XQuery, creating it if needed.
+     *
+     * @param context The context of the calling XQuery
+     *
+     * @return The persistent HTTP state
+     *
+     * @throws XPathException if the HTTP client service is not available
+     */
+    protected HttpState getPersistentState(final XQueryContext context) throws XPathException {
+        HttpState state = (HttpState) context.getXQueryContextVar(HTTP_MODULE_PERSISTENT_STATE);
+        if (state == null) {
+            state = getHTTPClientService(context).newHttpState();
+            context.setXQueryContextVar(HTTP_MODULE_PERSISTENT_STATE, state);
+        }
+        return state;
+    }
+
+    /**
+     * Gets the session-wide parser options set by httpclient:set-parser-options.
+     *
+     * @param context The context of the calling XQuery
+     *
+     * @return The parser options, or null if none are set
+     */
+    protected FeaturesAndProperties getDefaultFeaturesAndProperties(final XQueryContext context) {
+        return (FeaturesAndProperties) context.getXQueryContextVar(HTTP_MODULE_PERSISTENT_OPTIONS);
+    }
+
     /**
      * Takes the HTTP Response and encodes it as an XML structure.
      *
@@ -193,7 +244,7 @@ public abstract class BaseHTTPClientFunction extends BasicFunction {
      * @throws XPathException
      * @throws IOException
      */
-    private Sequence encodeResponseAsXML(final XQueryContext context, final HttpMethod method, final int statusCode, final Map<String, Boolean> parserFeatures, final Map<String, String> parserProperties) throws XPathException, IOException {
+    protected Sequence encodeResponseAsXML(final XQueryContext context, final HttpMethod method, final int statusCode, final Map<String, Boolean> parserFeatures, final Map<String, String> parserProperties) throws XPathException, IOException {
 
         final MemTreeBuilder builder = context.getDocumentBuilder();
 
@@ -202,18 +253,7 @@ public abstract class BaseHTTPClientFunction extends BasicFunction {
         builder.addAttribute(new QName("statusCode", null, null), String.valueOf(statusCode));
 
         //Add all the response headers
-        builder.startElement(new QName("headers", NAMESPACE_URI, PREFIX), null);
-
-        final NameValuePair[] headers = method.getResponseHeaders();
-
-        for (final NameValuePair header : headers) {
-            builder.startElement(new QName("header", NAMESPACE_URI, PREFIX), null);
-            builder.addAttribute(new QName("name", null, null), header.getName());
-            builder.addAttribute(new QName("value", null, null), header.getValue());
-            builder.endElement();
-        }
-
-        builder.endElement();
+        addResponseHeaders(method, builder);
 
         if (!(method instanceof HeadMethod || method instanceof OptionsMethod)) { // Head and Options methods never have any response body
 
@@ -230,6 +270,27 @@ public abstract class BaseHTTPClientFunction extends BasicFunction {
         return (NodeValue) builder.getDocument().getDocumentElement();
     }
 
+    /**
+     * Adds the headers of the HTTP Response to the response tree we are building.
+     *
+     * @param method The HTTP Request Method
+     * @param builder The MemTreeBuilder that is being used
+     */
+    protected void addResponseHeaders(final HttpMethod method, final MemTreeBuilder builder) {
+        builder.startElement(new QName("headers", NAMESPACE_URI, PREFIX), null);
+
+        final NameValuePair[] headers = method.getResponseHeaders();
+
+        for (final NameValuePair header : headers) {
+            builder.startElement(new QName("header", NAMESPACE_URI, PREFIX), null);
+            builder.addAttribute(new QName("name", null, null), header.getName());
+            builder.addAttribute(new QName("value", null, null), header.getValue());
+            builder.endElement();
+        }
+
+        builder.endElement();
+    }
+
     /**
      * Takes an exception message and encodes it as an XML response structure.
      *
@@ -241,7 +302,7 @@ public abstract class BaseHTTPClientFunction extends BasicFunction {
      * @throws IOException
      * @throws XPathException
      */
-    private Sequence encodeErrorResponse(final XQueryContext context, final String message) throws IOException, XPathException {
+    protected Sequence encodeErrorResponse(final XQueryContext context, final String message) throws IOException, XPathException {
 
         final MemTreeBuilder builder = context.getDocumentBuilder();
 
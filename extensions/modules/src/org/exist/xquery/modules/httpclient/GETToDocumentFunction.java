@@ -0,0 +1,209 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery.modules.httpclient;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.QName;
+import org.exist.dom.memtree.MemTreeBuilder;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.Txn;
+import org.exist.util.LockException;
+import org.exist.util.MimeTable;
+import org.exist.util.MimeType;
+import org.exist.util.io.TemporaryFileManager;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.FunctionParameterSequenceType;
+import org.exist.xquery.value.NodeValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.Type;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Performs a HTTP Get Method and stores the response body in the database.
+ *
+ * <p>The body is streamed from the connection to a temporary file and from
+ * there into a binary document, so unlike httpclient:get() it is never held
+ * in memory. The collection is only locked once the whole body has been
+ * received, so a slow server does not hold up other writers.</p>
+ */
+public class GETToDocumentFunction extends BaseHTTPClientFunction {
+
+    public final static FunctionSignature signature = new FunctionSignature(
+        new QName("get-to-document", NAMESPACE_URI, PREFIX),
+        "Performs a HTTP GET request and stores the response body as a binary document in the database." +
+        " This method returns the HTTP response encoded as an XML fragment, that looks as follows: <httpclient:response xmlns:httpclient=\"http://exist-db.org/xquery/httpclient\" statusCode=\"200\"><httpclient:headers><httpclient:header name=\"name\" value=\"value\"/>...</httpclient:headers><httpclient:body type=\"stored\" mimetype=\"returned content mimetype\" href=\"/db/path/of/document\"/></httpclient:response>." +
+        " The body is only stored if the status code of the response is 2xx, otherwise the response is encoded as for httpclient:get().",
+        new SequenceType[] {
+            URI_PARAM,
+            PERSIST_PARAM,
+            REQUEST_HEADER_PARAM,
+            new FunctionParameterSequenceType("collection-uri", Type.STRING, Cardinality.EXACTLY_ONE, "The URI of the collection to store the response body into, the collection must exist"),
+            new FunctionParameterSequenceType("resource-name", Type.STRING, Cardinality.EXACTLY_ONE, "The name of the document to store the response body as")
+        },
+        XML_BODY_RETURN
+    );
+
+    public GETToDocumentFunction(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+        // must be a URL
+        if (args[0].isEmpty()) {
+            return Sequence.EMPTY_SEQUENCE;
+        }
+
+        //get the url
+        final String url = args[0].itemAt(0).getStringValue();
+
+        //get the persist state
+        final boolean persistState = args[1].effectiveBooleanValue();
+
+        //get the destination
+        final XmldbURI collectionUri;
+        final XmldbURI resourceName;
+        try {
+            collectionUri = XmldbURI.xmldbUriFor(args[3].getStringValue());
+            resourceName = XmldbURI.xmldbUriFor(args[4].getStringValue());
+        } catch (final URISyntaxException e) {
+            throw new XPathException(this, "Invalid URI for the document: " + e.getMessage(), e);
+        }
+
+        //setup GET request
+        final GetMethod get = new GetMethod(url);
+
+        //setup GET Request Headers
+        if (!args[2].isEmpty()) {
+            setHeaders(get, ((NodeValue) args[2].itemAt(0)).getNode());
+        }
+
+        try {
+            //execute the request
+            final int statusCode = executeMethod(context, get, persistState);
+
+            if (statusCode < 200 || statusCode >= 300) {
+                final FeaturesAndProperties defaultFeaturesAndProperties = getDefaultFeaturesAndProperties(context);
+                return encodeResponseAsXML(context, get, statusCode,
+                        defaultFeaturesAndProperties == null ? null : defaultFeaturesAndProperties.getFeatures(),
+                        defaultFeaturesAndProperties == null ? null : defaultFeaturesAndProperties.getProperties());
+            }
+
+            final Header responseContentType = get.getResponseHeader("Content-Type");
+            MimeType mimeType = getResponseMimeType(responseContentType);
+            if (responseContentType == null) {
+                mimeType = MimeTable.getInstance().getContentTypeFor(resourceName);
+            }
+
+            /*
+             * spool the body to a temporary file before storing it, so that the
+             * collection is not locked whilst the body is read from the server
+             */
+            final TemporaryFileManager temporaryFileManager = TemporaryFileManager.getInstance();
+            final Path body = temporaryFileManager.getTemporaryFile();
+            final XmldbURI documentUri;
+            try {
+                try (final InputStream is = get.getResponseBodyAsStream()) {
+                    if (is != null) {
+                        Files.copy(is, body, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+
+                // return the connection to the pool before storing the body
+                get.releaseConnection();
+
+                documentUri = store(collectionUri, resourceName, body, mimeType);
+            } finally {
+                temporaryFileManager.returnTemporaryFile(body);
+            }
+
+            return encodeStoredResponseAsXML(context, get, statusCode, documentUri, responseContentType);
+        } catch (final IOException ioe) {
+            LOG.error(ioe.getMessage(), ioe);
+            try {
+                return encodeErrorResponse(context, ioe.getMessage());
+            } catch (final IOException e) {
+                throw new XPathException(this, e.getMessage(), e);
+            }
+        } finally {
+            get.releaseConnection();
+        }
+    }
+
+    private XmldbURI store(final XmldbURI collectionUri, final XmldbURI resourceName, final Path body, final MimeType mimeType) throws XPathException, IOException {
+        try (final Txn transaction = context.getBroker().getBrokerPool().getTransactionManager().beginTransaction()) {
+
+            try (final Collection collection = context.getBroker().openCollection(collectionUri, LockMode.WRITE_LOCK)) {
+                if (collection == null) {
+                    throw new XPathException(this, "Collection not found: " + collectionUri);
+                }
+
+                try (final InputStream is = Files.newInputStream(body)) {
+                    collection.addBinaryResource(transaction, context.getBroker(), resourceName, is,
+                            mimeType == null ? MimeType.BINARY_TYPE.getName() : mimeType.getName(), Files.size(body));
+                }
+
+                transaction.commit();
+                return collection.getURI().append(resourceName);
+            }
+        } catch (final PermissionDeniedException | EXistException | LockException | TriggerException e) {
+            throw new XPathException(this, "Cannot store the response body as " + collectionUri.append(resourceName) + ": " + e.getMessage(), e);
+        }
+    }
+
+    private Sequence encodeStoredResponseAsXML(final XQueryContext context, final GetMethod get, final int statusCode, final XmldbURI documentUri, final Header responseContentType) {
+        final MemTreeBuilder builder = context.getDocumentBuilder();
+
+        builder.startDocument();
+        builder.startElement(new QName("response", NAMESPACE_URI, PREFIX), null);
+        builder.addAttribute(new QName("statusCode", null, null), String.valueOf(statusCode));
+
+        //Add all the response headers
+        addResponseHeaders(get, builder);
+
+        builder.startElement(new QName("body", NAMESPACE_URI, PREFIX), null);
+        builder.addAttribute(new QName("type", null, null), "stored");
+        if (responseContentType != null) {
+            builder.addAttribute(new QName("mimetype", null, null), responseContentType.getValue());
+        }
+        builder.addAttribute(new QName("href", null, null), documentUri.toString());
+        builder.endElement();
+
+        builder.endElement();
+
+        return (NodeValue) builder.getDocument().getDocumentElement();
+    }
+}
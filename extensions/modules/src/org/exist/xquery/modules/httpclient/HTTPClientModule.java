@@ -21,21 +21,12 @@
  */
 package org.exist.xquery.modules.httpclient;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
 
-import org.apache.commons.httpclient.*;
-import org.apache.commons.httpclient.auth.AuthScope;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 import org.exist.xquery.AbstractInternalModule;
 import org.exist.xquery.FunctionDef;
+import org.exist.xquery.XQueryContext;
 
 
 /**
@@ -49,8 +40,6 @@ import org.exist.xquery.FunctionDef;
  */
 public class HTTPClientModule extends AbstractInternalModule
 {
-    private final static Logger LOG = LogManager.getLogger(HTTPClientModule.class);
-
     public final static String         NAMESPACE_URI                  = "http://exist-db.org/xquery/httpclient";
 
     public final static String         PREFIX                         = "httpclient";
@@ -60,8 +49,20 @@ public class HTTPClientModule extends AbstractInternalModule
     public final static String         HTTP_MODULE_PERSISTENT_STATE   = "_eXist_httpclient_module_persistent_state";
     public final static String         HTTP_MODULE_PERSISTENT_OPTIONS = "_eXist_httpclient_module_persistent_options";
 
-    final static HttpClient httpClient = setupHttpClient();
-
+    // module parameters (conf.xml) for the connection pool of the HTTPClientService
+    public final static String         MAX_TOTAL_CONNECTIONS_PARAM    = "maxTotalConnections";
+    public final static String         MAX_CONNECTIONS_PER_HOST_PARAM = "maxConnectionsPerHost";
+    public final static String         CONNECTION_TIMEOUT_PARAM       = "connectionTimeout";
+    public final static String         SOCKET_TIMEOUT_PARAM           = "socketTimeout";
+    public final static String         IDLE_CONNECTION_TIMEOUT_PARAM  = "idleConnectionTimeout";
+    public final static String         MAX_CONCURRENT_REQUESTS_PARAM  = "maxConcurrentRequests";
+    public final static String         SEND_ALL_TIMEOUT_PARAM         = "sendAllTimeout";
+
+    public final static int            DEFAULT_MAX_TOTAL_CONNECTIONS    = 200;
+    public final static int            DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+    public final static int            DEFAULT_IDLE_CONNECTION_TIMEOUT  = 60000;
+    public final static int            DEFAULT_MAX_CONCURRENT_REQUESTS  = 16;
+    public final static int            DEFAULT_SEND_ALL_TIMEOUT         = 300000;
 
     private final static FunctionDef[] functions                      = {
         new FunctionDef( GETFunction.signatures[0], GETFunction.class ),
@@ -74,7 +75,9 @@ public class HTTPClientModule extends AbstractInternalModule
         new FunctionDef( HEADFunction.signature, HEADFunction.class ),
         new FunctionDef( OPTIONSFunction.signature, OPTIONSFunction.class ),
         new FunctionDef( ClearFunction.signatures[0], ClearFunction.class ),
-        new FunctionDef( SetOptionsFunction.signatures[0], SetOptionsFunction.class)
+        new FunctionDef( SetOptionsFunction.signatures[0], SetOptionsFunction.class),
+        new FunctionDef( SendAllFunction.signature, SendAllFunction.class ),
+        new FunctionDef( GETToDocumentFunction.signature, GETToDocumentFunction.class )
     };
 	
 
@@ -107,88 +110,14 @@ public class HTTPClientModule extends AbstractInternalModule
         return( RELEASED_IN_VERSION );
     }
 
-    private static HttpClient setupHttpClient() {
-        final HttpConnectionManager httpConnectionManager = new MultiThreadedHttpConnectionManager();
-        final HttpClient client = new HttpClient(httpConnectionManager);
-
-        //config from file if present
-        final String configFile = System.getProperty("http.configfile");
-        if(configFile != null) {
-            final Path f = Paths.get(configFile);
-            if(Files.exists(f)) {
-                setConfigFromFile(f, client);
-            } else {
-                LOG.warn("http.configfile '" + f.toAbsolutePath() + "' does not exist!");
-            }
-        }
-        
-        // Legacy: set the proxy server (if any) from system properties
-        final String proxyHost = System.getProperty("http.proxyHost");
-        if(proxyHost != null) {
-            //TODO: support for http.nonProxyHosts e.g. -Dhttp.nonProxyHosts="*.devonline.gov.uk|*.devon.gov.uk"
-            final ProxyHost proxy = new ProxyHost(proxyHost, Integer.parseInt(System.getProperty("http.proxyPort")));
-            client.getHostConfiguration().setProxyHost(proxy);
-        }
-
-        return client;
-    }
-
-    private static void setConfigFromFile(final Path configFile, final HttpClient http) {
-        if(LOG.isDebugEnabled()) {
-            LOG.debug("http.configfile='" + configFile.toAbsolutePath() + "'");
-        }
-
-        final Properties props = new Properties();
-        try(final InputStream is = Files.newInputStream(configFile)) {
-            if(LOG.isDebugEnabled()) {
-                LOG.debug("Loading proxy settings from " + configFile.toAbsolutePath());
-            }
-
-            props.load(is);
-
-            // Hostname / port
-            final String proxyHost = props.getProperty("proxy.host");
-            final int proxyPort = Integer.parseInt(props.getProperty("proxy.port", "8080"));
-
-            // Username / password
-            final String proxyUser = props.getProperty("proxy.user");
-            final String proxyPassword = props.getProperty("proxy.password");
-
-            // NTLM specifics
-            String proxyDomain = props.getProperty("proxy.ntlm.domain");
-            if ("NONE".equalsIgnoreCase(proxyDomain)) {
-                if(LOG.isDebugEnabled()) {
-                    LOG.debug("Forcing removal NTLM");
-                }
-                proxyDomain = null;
-            }
-
-            // Set scope
-            final AuthScope authScope = new AuthScope(proxyHost, proxyPort);
-
-            // Setup right credentials
-            final Credentials credentials;
-            if (proxyDomain == null) {
-                credentials = new UsernamePasswordCredentials(proxyUser, proxyPassword);
-            } else {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Using NTLM authentication for '" + proxyDomain + "'");
-                }
-                credentials = new NTCredentials(proxyUser, proxyPassword, proxyHost, proxyDomain);
-            }
-
-            // Set details
-            final HttpState state = http.getState();
-            http.getHostConfiguration().setProxy(proxyHost, proxyPort);
-            state.setProxyCredentials(authScope, credentials);
-
-            if (LOG.isDebugEnabled()) {
-                LOG.info("Set proxy: " + proxyUser + "@" + proxyHost + ":"
-                        + proxyPort + (proxyDomain == null ? "" : " (NTLM:'"
-                        + proxyDomain + "')"));
-            }
-        } catch (final IOException ex) {
-            LOG.error("Failed to read proxy configuration from '" + configFile + "'");
-        }
+    /**
+     * Get the HTTP client service of the database.
+     *
+     * @param   context  The Context of the XQuery
+     *
+     * @return  The client service, or null if it is not registered
+     */
+    public static HTTPClientService getHTTPClientService(XQueryContext context) {
+        return context.getBroker().getBrokerPool().getService(HTTPClientService.class).orElse(null);
     }
 }
@@ -0,0 +1,310 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.httpclient;
+
+import org.apache.commons.httpclient.*;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.BrokerPoolService;
+import org.exist.storage.DBBroker;
+import org.exist.util.Configuration;
+import org.exist.util.NamedThreadFactory;
+import org.exist.xquery.XQueryContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.exist.xquery.modules.httpclient.HTTPClientModule.*;
+
+/**
+ * Maintains the HTTP connection pool of a database instance.
+ *
+ * The connection pool, its idle connection thread and the executor of
+ * httpclient:send-all are shared by all queries of the database, and are
+ * configured from the parameters of the httpclient module in conf.xml.
+ * The service is registered with the BrokerPool through
+ * <code>META-INF/services</code>, so that the connections and threads are
+ * released when the database shuts down.
+ */
+public class HTTPClientService implements BrokerPoolService {
+
+    private static final Logger LOG = LogManager.getLogger(HTTPClientService.class);
+
+    private final MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+    private final HttpClient httpClient = new HttpClient(connectionManager);
+
+    private AuthScope proxyAuthScope;
+    private Credentials proxyCredentials;
+
+    private int idleConnectionTimeout = DEFAULT_IDLE_CONNECTION_TIMEOUT;
+    private IdleConnectionTimeoutThread idleConnectionTimeoutThread;
+    private ThreadPoolExecutor requestExecutor;
+    private int sendAllTimeout = DEFAULT_SEND_ALL_TIMEOUT;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void configure(final Configuration configuration) {
+        final Map<String, Map<String, List<?>>> moduleParameters = (Map<String, Map<String, List<?>>>) configuration.getProperty(XQueryContext.PROPERTY_MODULE_PARAMETERS);
+        final Map<String, List<?>> parameters = moduleParameters == null ? null : moduleParameters.get(NAMESPACE_URI);
+        configure(parameters == null ? Collections.emptyMap() : parameters);
+    }
+
+    /**
+     * Configures the connection pool and the executor of httpclient:send-all.
+     *
+     * @param parameters The parameters of the httpclient module
+     */
+    void configure(final Map<String, List<?>> parameters) {
+        final HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setMaxTotalConnections(getIntParameter(parameters, MAX_TOTAL_CONNECTIONS_PARAM, DEFAULT_MAX_TOTAL_CONNECTIONS));
+        params.setDefaultMaxConnectionsPerHost(DEFAULT_MAX_CONNECTIONS_PER_HOST);
+
+        // either a default limit e.g. "50", or a limit for a single host e.g. "http://localhost:8080=100"
+        final List<?> perHostLimits = parameters.get(MAX_CONNECTIONS_PER_HOST_PARAM);
+        if(perHostLimits != null) {
+            for(final Object perHostLimit : perHostLimits) {
+                final String value = perHostLimit.toString().trim();
+                final int idxEquals = value.lastIndexOf('=');
+                try {
+                    if(idxEquals == -1) {
+                        params.setDefaultMaxConnectionsPerHost(Integer.parseInt(value));
+                    } else {
+                        final HostConfiguration hostConfiguration = new HostConfiguration();
+                        hostConfiguration.setHost(new URI(value.substring(0, idxEquals), true));
+                        params.setMaxConnectionsPerHost(hostConfiguration, Integer.parseInt(value.substring(idxEquals + 1).trim()));
+                    }
+                } catch(final NumberFormatException | URIException | IllegalStateException e) {
+                    LOG.warn("Invalid value for HTTPClient module parameter " + MAX_CONNECTIONS_PER_HOST_PARAM + ": " + value);
+                }
+            }
+        }
+
+        final int connectionTimeout = getIntParameter(parameters, CONNECTION_TIMEOUT_PARAM, 0);
+        if(connectionTimeout > 0) {
+            params.setConnectionTimeout(connectionTimeout);
+        }
+
+        final int socketTimeout = getIntParameter(parameters, SOCKET_TIMEOUT_PARAM, 0);
+        if(socketTimeout > 0) {
+            params.setSoTimeout(socketTimeout);
+        }
+
+        idleConnectionTimeout = getIntParameter(parameters, IDLE_CONNECTION_TIMEOUT_PARAM, DEFAULT_IDLE_CONNECTION_TIMEOUT);
+        sendAllTimeout = Math.max(0, getIntParameter(parameters, SEND_ALL_TIMEOUT_PARAM, DEFAULT_SEND_ALL_TIMEOUT));
+
+        // idle threads are discarded, so that the executor never holds up the shutdown of the JVM
+        final int maxConcurrentRequests = Math.max(1, getIntParameter(parameters, MAX_CONCURRENT_REQUESTS_PARAM, DEFAULT_MAX_CONCURRENT_REQUESTS));
+        requestExecutor = new ThreadPoolExecutor(maxConcurrentRequests, maxConcurrentRequests,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new NamedThreadFactory(null, null, "httpclient.send-all"));
+        requestExecutor.allowCoreThreadTimeOut(true);
+
+        setupProxy();
+    }
+
+    @Override
+    public void startMultiUser(final BrokerPool brokerPool) {
+        // close the keep-alive connections which have not been used for a while
+        if(idleConnectionTimeout > 0) {
+            idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+            idleConnectionTimeoutThread.setName("instance." + brokerPool.getId() + ".httpclient.idle-connection-timeout");
+            idleConnectionTimeoutThread.setConnectionTimeout(idleConnectionTimeout);
+            idleConnectionTimeoutThread.setTimeoutInterval(Math.max(1000, idleConnectionTimeout / 4));
+            idleConnectionTimeoutThread.addConnectionManager(connectionManager);
+            idleConnectionTimeoutThread.start();
+        }
+    }
+
+    @Override
+    public void stop(final DBBroker systemBroker) {
+        close();
+    }
+
+    @Override
+    public void shutdown() {
+        close();
+    }
+
+    private synchronized void close() {
+        if(idleConnectionTimeoutThread != null) {
+            idleConnectionTimeoutThread.shutdown();
+            idleConnectionTimeoutThread = null;
+        }
+        if(requestExecutor != null) {
+            requestExecutor.shutdownNow();
+        }
+        connectionManager.shutdown();
+    }
+
+    /**
+     * Gets the client which performs the requests of all queries.
+     *
+     * The HTTP state of the client is never changed by a query, persistent
+     * state is passed with each request instead.
+     *
+     * @return The client
+     */
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Creates a new HTTP state for a series of persistent requests.
+     *
+     * The state is initialised with the proxy credentials (if any) of the shared client,
+     * but is otherwise independent of the state of any other query.
+     *
+     * @return A new HTTP state
+     */
+    public HttpState newHttpState() {
+        final HttpState state = new HttpState();
+        if(proxyAuthScope != null) {
+            state.setProxyCredentials(proxyAuthScope, proxyCredentials);
+        }
+        return state;
+    }
+
+    /**
+     * Gets the executor on which the requests of httpclient:send-all are performed.
+     *
+     * @return The executor shared by all queries
+     */
+    public ExecutorService getRequestExecutor() {
+        return requestExecutor;
+    }
+
+    /**
+     * Gets the maximum time that httpclient:send-all waits for its requests to complete.
+     *
+     * @return The timeout in milliseconds, or 0 if the wait is only limited by the query watchdog
+     */
+    public int getSendAllTimeout() {
+        return sendAllTimeout;
+    }
+
+    private static int getIntParameter(final Map<String, List<?>> parameters, final String paramName, final int defaultValue) {
+        final List<?> values = parameters.get(paramName);
+        if(values == null || values.isEmpty()) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(values.get(0).toString().trim());
+        } catch(final NumberFormatException e) {
+            LOG.warn("Invalid value for HTTPClient module parameter " + paramName + ": " + values.get(0) + ", using default: " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private void setupProxy() {
+        //config from file if present
+        final String configFile = System.getProperty("http.configfile");
+        if(configFile != null) {
+            final Path f = Paths.get(configFile);
+            if(Files.exists(f)) {
+                setConfigFromFile(f);
+            } else {
+                LOG.warn("http.configfile '" + f.toAbsolutePath() + "' does not exist!");
+            }
+        }
+
+        // Legacy: set the proxy server (if any) from system properties
+        final String proxyHost = System.getProperty("http.proxyHost");
+        if(proxyHost != null) {
+            //TODO: support for http.nonProxyHosts e.g. -Dhttp.nonProxyHosts="*.devonline.gov.uk|*.devon.gov.uk"
+            final ProxyHost proxy = new ProxyHost(proxyHost, Integer.parseInt(System.getProperty("http.proxyPort")));
+            httpClient.getHostConfiguration().setProxyHost(proxy);
+        }
+    }
+
+    private void setConfigFromFile(final Path configFile) {
+        if(LOG.isDebugEnabled()) {
+            LOG.debug("http.configfile='" + configFile.toAbsolutePath() + "'");
+        }
+
+        final Properties props = new Properties();
+        try(final InputStream is = Files.newInputStream(configFile)) {
+            if(LOG.isDebugEnabled()) {
+                LOG.debug("Loading proxy settings from " + configFile.toAbsolutePath());
+            }
+
+            props.load(is);
+
+            // Hostname / port
+            final String proxyHost = props.getProperty("proxy.host");
+            final int proxyPort = Integer.parseInt(props.getProperty("proxy.port", "8080"));
+
+            // Username / password
+            final String proxyUser = props.getProperty("proxy.user");
+            final String proxyPassword = props.getProperty("proxy.password");
+
+            // NTLM specifics
+            String proxyDomain = props.getProperty("proxy.ntlm.domain");
+            if ("NONE".equalsIgnoreCase(proxyDomain)) {
+                if(LOG.isDebugEnabled()) {
+                    LOG.debug("Forcing removal NTLM");
+                }
+                proxyDomain = null;
+            }
+
+            // Set scope
+            final AuthScope authScope = new AuthScope(proxyHost, proxyPort);
+
+            // Setup right credentials
+            final Credentials credentials;
+            if (proxyDomain == null) {
+                credentials = new UsernamePasswordCredentials(proxyUser, proxyPassword);
+            } else {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Using NTLM authentication for '" + proxyDomain + "'");
+                }
+                credentials = new NTCredentials(proxyUser, proxyPassword, proxyHost, proxyDomain);
+            }
+
+            // Set details
+            httpClient.getHostConfiguration().setProxy(proxyHost, proxyPort);
+            httpClient.getState().setProxyCredentials(authScope, credentials);
+            proxyAuthScope = authScope;
+            proxyCredentials = credentials;
+
+            if (LOG.isDebugEnabled()) {
+                LOG.info("Set proxy: " + proxyUser + "@" + proxyHost + ":"
+                        + proxyPort + (proxyDomain == null ? "" : " (NTLM:'"
+                        + proxyDomain + "')"));
+            }
+        } catch (final IOException ex) {
+            LOG.error("Failed to read proxy configuration from '" + configFile + "'");
+        }
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xquery.modules.httpclient;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.methods.DeleteMethod;
+import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.HeadMethod;
+import org.apache.commons.httpclient.methods.OptionsMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.exist.dom.QName;
+import org.exist.util.serializer.DOMSerializer;
+import org.exist.util.serializer.ExtendedDOMSerializer;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.FunctionParameterSequenceType;
+import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.NodeValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.Type;
+import org.exist.xquery.value.ValueSequence;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.transform.TransformerException;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Performs several HTTP requests concurrently.
+ *
+ * <p>The requests are performed on the shared executor of the {@link HTTPClientService}, each
+ * response body is buffered by the worker so that its connection is returned
+ * to the pool straight away, the responses are then encoded by the calling
+ * thread once all of the requests have completed.</p>
+ */
+public class SendAllFunction extends BaseHTTPClientFunction {
+
+    public final static FunctionSignature signature = new FunctionSignature(
+        new QName("send-all", NAMESPACE_URI, PREFIX),
+        "Performs several HTTP requests concurrently, and returns once all of them have completed." +
+        " Each request is described by an element that looks as follows: <httpclient:request method=\"GET|HEAD|OPTIONS|DELETE|POST|PUT\" href=\"url\"><httpclient:headers><httpclient:header name=\"name\" value=\"value\"/>...</httpclient:headers><httpclient:body mimetype=\"mimetype\">content</httpclient:body></httpclient:request>" +
+        " where the headers and body are optional. If the body contains an element it will be serialized, otherwise the text of the body is sent." +
+        " The responses are returned in the order of the requests, encoded as for httpclient:get(). If a request fails its response has the statusCode 500." +
+        " The number of requests performed at the same time is limited by the maxConcurrentRequests parameter of the module." +
+        " Requests which have not completed within the sendAllTimeout parameter of the module, or when the query is terminated, are aborted.",
+        new SequenceType[] {
+            new FunctionParameterSequenceType("requests", Type.ELEMENT, Cardinality.ZERO_OR_MORE, "The requests to perform"),
+            PERSIST_PARAM
+        },
+        new FunctionReturnSequenceType(Type.ELEMENT, Cardinality.ZERO_OR_MORE, "the responses, in the order of the requests")
+    );
+
+    private final static long WATCHDOG_POLL_INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    public SendAllFunction(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+        if (args[0].isEmpty()) {
+            return Sequence.EMPTY_SEQUENCE;
+        }
+
+        //get the persist state
+        final boolean persistState = args[1].effectiveBooleanValue();
+
+        //setup the requests
+        final List<HttpMethod> methods = new ArrayList<>(args[0].getItemCount());
+        for (final SequenceIterator i = args[0].iterate(); i.hasNext(); ) {
+            methods.add(createMethod(((NodeValue) i.nextItem()).getNode()));
+        }
+
+        final HTTPClientService clientService = getHTTPClientService(context);
+        final HttpState state = persistState ? getPersistentState(context) : null;
+        final ExecutorService executor = clientService.getRequestExecutor();
+        final List<Future<Integer>> statusCodes = new ArrayList<>(methods.size());
+        try {
+            for (final HttpMethod method : methods) {
+                statusCodes.add(executor.submit(() -> executeAndBuffer(clientService.getHttpClient(), method, state)));
+            }
+        } catch (final RejectedExecutionException e) {
+            // the database is shutting down
+            cancelAll(methods, statusCodes);
+            throw new XPathException(this, "The HTTP requests could not be performed: " + e.getMessage(), e);
+        }
+
+        //wait for all of the requests to complete, or for the timeout to expire
+        try {
+            awaitAll(statusCodes, clientService.getSendAllTimeout());
+        } catch (final InterruptedException ie) {
+            cancelAll(methods, statusCodes);
+            Thread.currentThread().interrupt();
+            throw new XPathException(this, "Interrupted whilst waiting for the HTTP requests to complete", ie);
+        } catch (final XPathException e) {
+            // the query was terminated by its watchdog
+            cancelAll(methods, statusCodes);
+            throw e;
+        }
+        cancelAll(methods, statusCodes);
+
+        final FeaturesAndProperties defaultFeaturesAndProperties = getDefaultFeaturesAndProperties(context);
+        final Map<String, Boolean> parserFeatures = defaultFeaturesAndProperties == null ? null : defaultFeaturesAndProperties.getFeatures();
+        final Map<String, String> parserProperties = defaultFeaturesAndProperties == null ? null : defaultFeaturesAndProperties.getProperties();
+
+        final ValueSequence responses = new ValueSequence(methods.size());
+        for (int i = 0; i < methods.size(); i++) {
+            try {
+                try {
+                    final int statusCode = statusCodes.get(i).get();
+                    responses.addAll(encodeResponseAsXML(context, methods.get(i), statusCode, parserFeatures, parserProperties));
+                } catch (final ExecutionException ee) {
+                    final Throwable cause = ee.getCause();
+                    LOG.error(cause.getMessage(), cause);
+                    responses.addAll(encodeErrorResponse(context, cause.getMessage()));
+                } catch (final CancellationException ce) {
+                    final String message = "The request did not complete within " + clientService.getSendAllTimeout() + "ms";
+                    LOG.warn(message);
+                    responses.addAll(encodeErrorResponse(context, message));
+                }
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new XPathException(this, "Interrupted whilst waiting for the HTTP requests to complete", ie);
+            } catch (final IOException ioe) {
+                throw new XPathException(this, ioe.getMessage(), ioe);
+            }
+        }
+
+        return responses;
+    }
+
+    /**
+     * Waits for the requests to complete.
+     *
+     * The wait is bounded by the send-all timeout of the module, the watchdog
+     * of the query is checked periodically so that a query which is killed or
+     * has exceeded its own limits does not wait for slow servers.
+     *
+     * @param statusCodes The pending results of the requests
+     * @param timeout The maximum time to wait in milliseconds, or 0 to only be limited by the watchdog
+     *
+     * @throws XPathException if the query was terminated by its watchdog
+     * @throws InterruptedException if the calling thread was interrupted
+     */
+    private void awaitAll(final List<Future<Integer>> statusCodes, final int timeout) throws XPathException, InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        for (final Future<Integer> statusCode : statusCodes) {
+            while (!statusCode.isDone()) {
+                context.proceed(this);
+
+                long wait = WATCHDOG_POLL_INTERVAL;
+                if (timeout > 0) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return;
+                    }
+                    wait = Math.min(wait, remaining);
+                }
+
+                try {
+                    statusCode.get(wait, TimeUnit.NANOSECONDS);
+                } catch (final TimeoutException | ExecutionException e) {
+                    // checked again by the loop, or reported when the response is encoded
+                }
+            }
+        }
+    }
+
+    /**
+     * Cancels the requests which have not yet completed.
+     *
+     * Aborting the method closes its connection, so that a worker which is
+     * blocked reading from a stalled server is released.
+     */
+    private static void cancelAll(final List<HttpMethod> methods, final List<Future<Integer>> statusCodes) {
+        for (int i = 0; i < statusCodes.size(); i++) {
+            final Future<Integer> statusCode = statusCodes.get(i);
+            if (!statusCode.isDone()) {
+                statusCode.cancel(true);
+                methods.get(i).abort();
+            }
+        }
+    }
+
+    /**
+     * Executes a HTTP Method and reads the response body into memory, so that
+     * the connection can be released before the response is encoded.
+     *
+     * @param httpClient The client to perform the request with
+     * @param method The HTTP method for the request
+     * @param state The HTTP state to use, or null to use the state of the shared client
+     *
+     * @return The status code of the response
+     *
+     * @throws IOException
+     */
+    private static int executeAndBuffer(final HttpClient httpClient, final HttpMethod method, final HttpState state) throws IOException {
+        try {
+            final int statusCode = httpClient.executeMethod(null, method, state);
+            method.getResponseBody();
+            return statusCode;
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * Creates a HTTP Method from a request element.
+     *
+     * @param request The request element e.g.
+     * <httpclient:request method="POST" href="http://localhost/"><httpclient:body>content</httpclient:body></httpclient:request>
+     *
+     * @return The HTTP Method
+     *
+     * @throws XPathException if the request element is not valid
+     */
+    private HttpMethod createMethod(final Node request) throws XPathException {
+        if (request.getNodeType() != Node.ELEMENT_NODE || !request.getLocalName().equals("request")) {
+            throw new XPathException(this, "Expected a httpclient:request element, but found: " + request.getNodeName());
+        }
+
+        final String href = ((Element) request).getAttribute("href");
+        if (href == null || href.isEmpty()) {
+            throw new XPathException(this, "The href attribute is missing for the request");
+        }
+
+        String methodName = ((Element) request).getAttribute("method");
+        if (methodName == null || methodName.isEmpty()) {
+            methodName = "GET";
+        }
+
+        final HttpMethod method;
+        try {
+            switch (methodName.toUpperCase()) {
+                case "GET":
+                    method = new GetMethod(href);
+                    break;
+
+                case "HEAD":
+                    method = new HeadMethod(href);
+                    break;
+
+                case "OPTIONS":
+                    method = new OptionsMethod(href);
+                    break;
+
+                case "DELETE":
+                    method = new DeleteMethod(href);
+                    break;
+
+                case "POST":
+                    method = new PostMethod(href);
+                    break;
+
+                case "PUT":
+                    method = new PutMethod(href);
+                    break;
+
+                default:
+                    throw new XPathException(this, "Unsupported HTTP method for the request: " + methodName);
+            }
+        } catch (final IllegalArgumentException | IllegalStateException e) {
+            throw new XPathException(this, "Invalid URL for the request: " + href, e);
+        }
+
+        final NodeList children = request.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            final Node child = children.item(i);
+
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                if (child.getLocalName().equals("headers")) {
+                    setHeaders(method, child);
+                } else if (child.getLocalName().equals("body")) {
+                    if (!(method instanceof EntityEnclosingMethod)) {
+                        throw new XPathException(this, "A body may only be sent with a POST or PUT request");
+                    }
+                    ((EntityEnclosingMethod) method).setRequestEntity(createRequestEntity((Element) child));
+                }
+            }
+        }
+
+        return method;
+    }
+
+    private RequestEntity createRequestEntity(final Element body) throws XPathException {
+        String mimeType = body.getAttribute("mimetype");
+        if (mimeType != null && mimeType.isEmpty()) {
+            mimeType = null;
+        }
+
+        Element payload = null;
+        final NodeList children = body.getChildNodes();
+        for (int i = 0; i < children.getLength() && payload == null; i++) {
+            if (children.item(i).getNodeType() == Node.ELEMENT_NODE) {
+                payload = (Element) children.item(i);
+            }
+        }
+
+        try {
+            if (payload != null) {
+                //serialize the node
+                final StringWriter writer = new StringWriter();
+                final DOMSerializer serializer = new ExtendedDOMSerializer(context.getBroker(), writer, new Properties());
+                serializer.serialize(payload);
+                return new StringRequestEntity(writer.toString(), mimeType != null ? mimeType : "application/xml; charset=utf-8", "UTF-8");
+            } else {
+                return new StringRequestEntity(body.getTextContent(), mimeType != null ? mimeType : "text/text; charset=utf-8", "UTF-8");
+            }
+        } catch (final TransformerException | IOException e) {
+            throw new XPathException(this, e.getMessage(), e);
+        }
+    }
+}
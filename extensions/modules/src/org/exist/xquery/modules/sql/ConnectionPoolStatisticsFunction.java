@@ -0,0 +1,86 @@
+/*
+ *  eXist SQL Module Extension
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.sql;
+
+import org.exist.dom.QName;
+import org.exist.dom.memtree.MemTreeBuilder;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.NodeValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.Type;
+
+/**
+ * eXist SQL Module Extension ConnectionPoolStatisticsFunction.
+ *
+ * <p>Reports the state and usage metrics of the JDBC Connection pools.</p>
+ */
+public class ConnectionPoolStatisticsFunction extends BasicFunction {
+
+    public final static FunctionSignature signature = new FunctionSignature(
+            new QName("get-connection-pool-statistics", SQLModule.NAMESPACE_URI, SQLModule.PREFIX),
+            "Returns the state and usage metrics of the JDBC Connection pools used by sql:get-pooled-connection(). " +
+            "e.g. <sql:pools><sql:pool url=\"jdbc:h2:/data/etl\" active=\"2\" idle=\"6\" borrowed=\"1021\" created=\"8\" " +
+            "destroyed=\"0\" validation-failures=\"0\" timeouts=\"0\" total-wait-time=\"12\" statement-cache-hits=\"998\" " +
+            "statement-cache-misses=\"23\"/></sql:pools>. Times are in milliseconds.",
+            null,
+            new FunctionReturnSequenceType(Type.ELEMENT, Cardinality.EXACTLY_ONE, "the statistics of the connection pools")
+    );
+
+    public ConnectionPoolStatisticsFunction(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+        final MemTreeBuilder builder = context.getDocumentBuilder();
+        builder.startDocument();
+        final int nodeNr = builder.startElement(new QName("pools", SQLModule.NAMESPACE_URI, SQLModule.PREFIX), null);
+
+        final JDBCConnectionPoolService poolService = SQLModule.getConnectionPoolService(context);
+        if(poolService != null) {
+            for(final JDBCConnectionPool pool : poolService.getPools()) {
+                builder.startElement(new QName("pool", SQLModule.NAMESPACE_URI, SQLModule.PREFIX), null);
+                builder.addAttribute(new QName("url", null, null), pool.getUrl());
+                builder.addAttribute(new QName("active", null, null), String.valueOf(pool.getNumActive()));
+                builder.addAttribute(new QName("idle", null, null), String.valueOf(pool.getNumIdle()));
+                builder.addAttribute(new QName("borrowed", null, null), String.valueOf(pool.getBorrowedCount()));
+                builder.addAttribute(new QName("created", null, null), String.valueOf(pool.getCreatedCount()));
+                builder.addAttribute(new QName("destroyed", null, null), String.valueOf(pool.getDestroyedCount()));
+                builder.addAttribute(new QName("validation-failures", null, null), String.valueOf(pool.getValidationFailureCount()));
+                builder.addAttribute(new QName("timeouts", null, null), String.valueOf(pool.getTimeoutCount()));
+                builder.addAttribute(new QName("total-wait-time", null, null), String.valueOf(pool.getTotalWaitTime()));
+                builder.addAttribute(new QName("statement-cache-hits", null, null), String.valueOf(pool.getStatementCacheHits()));
+                builder.addAttribute(new QName("statement-cache-misses", null, null), String.valueOf(pool.getStatementCacheMisses()));
+                builder.endElement();
+            }
+        }
+
+        builder.endElement();
+        builder.endDocument();
+
+        return (NodeValue) builder.getDocument().getNode(nodeNr);
+    }
+}
@@ -214,92 +214,7 @@ public class ExecuteFunction extends BasicFunction
                 builder.addAttribute( new QName( "count", null, null ), String.valueOf( -1 ) );
 
                 while( rs.next() ) {
-                    builder.startElement( new QName( "row", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
-                    builder.addAttribute( new QName( "index", null, null ), String.valueOf( rs.getRow() ) );
-
-                    // get each tuple in the row
-                    for( int i = 0; i < iColumns; i++ ) {
-                        String columnName = rsmd.getColumnLabel( i + 1 );
-
-                        if( columnName != null ) {
-
-                            String colElement = "field";
-
-                            if(makeNodeFromColumnName && columnName.length() > 0 ) {
-                                // use column names as the XML node
-
-                                /**
-                                 * Spaces in column names are replaced with
-                                 * underscore's
-                                 */
-                                colElement = SQLUtils.escapeXmlAttr( columnName.replace( ' ', '_' ) );
-                            }
-
-                            builder.startElement( new QName( colElement, SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
-
-                            if(!makeNodeFromColumnName || columnName.length() <= 0) {
-                                String name;
-
-                                if( columnName.length() > 0 ) {
-                                    name = SQLUtils.escapeXmlAttr( columnName );
-                                } else {
-                                    name = "Column: " + String.valueOf( i + 1 );
-                                }
-
-                                builder.addAttribute( new QName( "name", null, null ), name );
-                            }
-
-                            builder.addAttribute( new QName( TYPE_ATTRIBUTE_NAME, SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), rsmd.getColumnTypeName( i + 1 ) );
-                            builder.addAttribute( new QName( TYPE_ATTRIBUTE_NAME, Namespaces.SCHEMA_NS, "xs" ), Type.getTypeName( SQLUtils.sqlTypeToXMLType( rsmd.getColumnType( i + 1 ) ) ) );
-
-                            //get the content
-                            if(rsmd.getColumnType(i+1) == Types.SQLXML) {
-                                //parse sqlxml value
-                                try {
-                                    final SQLXML sqlXml = rs.getSQLXML(i+1);
-                                    
-                                    if(rs.wasNull()) {
-                                        // Add a null indicator attribute if the value was SQL Null
-                                        builder.addAttribute( new QName( "null", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), "true" );
-                                    } else {
-                                        InputSource src = new InputSource(sqlXml.getCharacterStream());
-                                        final XMLReaderPool parserPool = context.getBroker().getBrokerPool().getParserPool();
-                                        XMLReader reader = null;
-                                        try {
-                                            reader = parserPool.borrowXMLReader();
-
-                                            SAXAdapter adapter = new AppendingSAXAdapter(builder);
-                                            reader.setContentHandler(adapter);
-                                            reader.setProperty(Namespaces.SAX_LEXICAL_HANDLER, adapter);
-                                            reader.parse(src);
-                                        } finally {
-                                            if (reader != null) {
-                                                parserPool.returnXMLReader(reader);
-                                            }
-                                        }
-                                    }
-                                } catch(Exception e) {
-                                    throw new XPathException("Could not parse column of type SQLXML: " + e.getMessage(), e);
-                                }
-                            } else {
-                                //otherwise assume string value
-                                final String colValue = rs.getString(i + 1);
-                                
-                                if(rs.wasNull()) {
-                                    // Add a null indicator attribute if the value was SQL Null
-                                    builder.addAttribute( new QName( "null", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), "true" );
-                                } else {
-                                    if(colValue != null) {
-                                        builder.characters( colValue );
-                                    }
-                                }
-                            }
-
-                            builder.endElement();
-                        }
-                    }
-
-                    builder.endElement();
+                    addRow( context, builder, rs, rsmd, iColumns, makeNodeFromColumnName );
                     iRow++;
                 }
 
@@ -435,7 +350,110 @@ public class ExecuteFunction extends BasicFunction
         }
     }
     
-    private void setParametersOnPreparedStatement( Statement stmt, Element parametersElement ) throws SQLException, XPathException
+    /**
+     * Adds the current row of a result set as a <code>sql:row</code> element.
+     *
+     * @param   context                 The Context of the calling XQuery
+     * @param   builder                 The builder to add the row to
+     * @param   rs                      The result set, positioned on the row
+     * @param   rsmd                    The meta data of the result set
+     * @param   iColumns                The number of columns in the result set
+     * @param   makeNodeFromColumnName  Whether the xml nodes should be formed from the column names
+     *
+     * @throws  SQLException    if the row could not be read
+     * @throws  XPathException  if a column of type SQLXML could not be parsed
+     */
+    static void addRow( XQueryContext context, MemTreeBuilder builder, ResultSet rs, ResultSetMetaData rsmd, int iColumns, boolean makeNodeFromColumnName ) throws SQLException, XPathException
+    {
+        builder.startElement( new QName( "row", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
+        builder.addAttribute( new QName( "index", null, null ), String.valueOf( rs.getRow() ) );
+
+        // get each tuple in the row
+        for( int i = 0; i < iColumns; i++ ) {
+            String columnName = rsmd.getColumnLabel( i + 1 );
+
+            if( columnName != null ) {
+
+                String colElement = "field";
+
+                if(makeNodeFromColumnName && columnName.length() > 0 ) {
+                    // use column names as the XML node
+
+                    /**
+                     * Spaces in column names are replaced with
+                     * underscore's
+                     */
+                    colElement = SQLUtils.escapeXmlAttr( columnName.replace( ' ', '_' ) );
+                }
+
+                builder.startElement( new QName( colElement, SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), null );
+
+                if(!makeNodeFromColumnName || columnName.length() <= 0) {
+                    String name;
+
+                    if( columnName.length() > 0 ) {
+                        name = SQLUtils.escapeXmlAttr( columnName );
+                    } else {
+                        name = "Column: " + String.valueOf( i + 1 );
+                    }
+
+                    builder.addAttribute( new QName( "name", null, null ), name );
+                }
+
+                builder.addAttribute( new QName( TYPE_ATTRIBUTE_NAME, SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), rsmd.getColumnTypeName( i + 1 ) );
+                builder.addAttribute( new QName( TYPE_ATTRIBUTE_NAME, Namespaces.SCHEMA_NS, "xs" ), Type.getTypeName( SQLUtils.sqlTypeToXMLType( rsmd.getColumnType( i + 1 ) ) ) );
+
+                //get the content
+                if(rsmd.getColumnType(i+1) == Types.SQLXML) {
+                    //parse sqlxml value
+                    try {
+                        final SQLXML sqlXml = rs.getSQLXML(i+1);
+                        
+                        if(rs.wasNull()) {
+                            // Add a null indicator attribute if the value was SQL Null
+                            builder.addAttribute( new QName( "null", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), "true" );
+                        } else {
+                            InputSource src = new InputSource(sqlXml.getCharacterStream());
+                            final XMLReaderPool parserPool = context.getBroker().getBrokerPool().getParserPool();
+                            XMLReader reader = null;
+                            try {
+                                reader = parserPool.borrowXMLReader();
+
+                                SAXAdapter adapter = new AppendingSAXAdapter(builder);
+                                reader.setContentHandler(adapter);
+                                reader.setProperty(Namespaces.SAX_LEXICAL_HANDLER, adapter);
+                                reader.parse(src);
+                            } finally {
+                                if (reader != null) {
+                                    parserPool.returnXMLReader(reader);
+                                }
+                            }
+                        }
+                    } catch(Exception e) {
+                        throw new XPathException("Could not parse column of type SQLXML: " + e.getMessage(), e);
+                    }
+                } else {
+                    //otherwise assume string value
+                    final String colValue = rs.getString(i + 1);
+                    
+                    if(rs.wasNull()) {
+                        // Add a null indicator attribute if the value was SQL Null
+                        builder.addAttribute( new QName( "null", SQLModule.NAMESPACE_URI, SQLModule.PREFIX ), "true" );
+                    } else {
+                        if(colValue != null) {
+                            builder.characters( colValue );
+                        }
+                    }
+                }
+
+                builder.endElement();
+            }
+        }
+
+        builder.endElement();
+    }
+
+    static void setParametersOnPreparedStatement( Statement stmt, Element parametersElement ) throws SQLException, XPathException
     {
         final String ns = parametersElement.getNamespaceURI();
         if (ns != null && ns.equals(SQLModule.NAMESPACE_URI) && parametersElement.getLocalName().equals(PARAMETERS_ELEMENT_NAME)) {
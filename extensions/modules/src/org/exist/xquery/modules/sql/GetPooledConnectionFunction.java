@@ -0,0 +1,130 @@
+/*
+ *  eXist SQL Module Extension
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.sql;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.exist.dom.QName;
+import org.exist.util.ParametersExtractor;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.IntegerValue;
+import org.exist.xquery.value.NodeValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceType;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static org.exist.xquery.modules.sql.GetConnectionFunction.*;
+
+/**
+ * eXist SQL Module Extension GetPooledConnectionFunction.
+ *
+ * <p>Get a connection to a SQL Database from a connection pool. The pool is shared
+ * by all queries connecting to the same database with the same credentials, the
+ * connection is returned to the pool when the query finishes.</p>
+ *
+ * @see GetConnectionFunction
+ */
+public class GetPooledConnectionFunction extends BasicFunction {
+
+    private static final Logger logger = LogManager.getLogger(GetPooledConnectionFunction.class);
+
+    public final static FunctionSignature[] signatures = {
+            new FunctionSignature(
+                    new QName("get-pooled-connection", SQLModule.NAMESPACE_URI, SQLModule.PREFIX),
+                    "Borrows a connection to a SQL Database from a connection pool. The connection is returned to the pool when the query completes.",
+                    new SequenceType[] { JDBC_DRIVER_CLASSNAME_PARAM, JDBC_URL_PARAM },
+                    RETURN_TYPE),
+
+            new FunctionSignature(
+                    new QName("get-pooled-connection", SQLModule.NAMESPACE_URI, SQLModule.PREFIX),
+                    "Borrows a connection to a SQL Database from a connection pool. The connection is returned to the pool when the query completes.",
+                    new SequenceType[] { JDBC_DRIVER_CLASSNAME_PARAM, JDBC_URL_PARAM, JDBC_PROPERTIES_PARAM },
+                    RETURN_TYPE),
+
+            new FunctionSignature(
+                    new QName("get-pooled-connection", SQLModule.NAMESPACE_URI, SQLModule.PREFIX),
+                    "Borrows a connection to a SQL Database from a connection pool. The connection is returned to the pool when the query completes.",
+                    new SequenceType[] { JDBC_DRIVER_CLASSNAME_PARAM, JDBC_URL_PARAM, JDBC_USERNAME_PARAM, JDBC_PASSWORD_PARAM },
+                    RETURN_TYPE)
+    };
+
+    public GetPooledConnectionFunction(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+        // was a db driver and url specified?
+        if(args[0].isEmpty() || args[1].isEmpty()) {
+            return Sequence.EMPTY_SEQUENCE;
+        }
+
+        final JDBCConnectionPoolService poolService = SQLModule.getConnectionPoolService(context);
+        if(poolService == null) {
+            throw new XPathException(this, "sql:get-pooled-connection() The JDBC Connection pool service is not available");
+        }
+
+        final SQLModule module = (SQLModule) context.getModule(SQLModule.NAMESPACE_URI);
+
+        // get the db connection details
+        final String dbDriver = args[0].getStringValue();
+        final String dbURL = args[1].getStringValue();
+
+        final StringBuilder key = new StringBuilder(dbDriver).append('\u0000').append(dbURL);
+        final JDBCConnectionPool.ConnectionFactory connectionFactory;
+        if(args.length == 3) {
+            final Properties props = ParametersExtractor.parseProperties(((NodeValue) args[2].itemAt(0)).getNode());
+            key.append('\u0000').append(new TreeMap<>(props));
+            connectionFactory = () -> DriverManager.getConnection(dbURL, props);
+        } else if(args.length == 4) {
+            final String dbUser = args[2].getStringValue();
+            final String dbPassword = args[3].getStringValue();
+            key.append('\u0000').append(dbUser).append('\u0000').append(dbPassword);
+            connectionFactory = () -> DriverManager.getConnection(dbURL, dbUser, dbPassword);
+        } else {
+            connectionFactory = () -> DriverManager.getConnection(dbURL);
+        }
+
+        try {
+            // load the driver
+            Class.forName(dbDriver);
+
+            final Connection con = poolService.borrowConnection(key.toString(), dbURL, module.getPoolConfig(), connectionFactory);
+
+            // store the Connection and return the uid handle of the Connection, it is closed (i.e. returned to the pool) on module reset
+            return new IntegerValue(SQLModule.storeConnection(context, con));
+        } catch(final ClassNotFoundException cnfe) {
+            logger.error("sql:get-pooled-connection() Cannot find database driver class: " + dbDriver, cnfe);
+            throw new XPathException(this, "sql:get-pooled-connection() Cannot find database driver class: " + dbDriver, cnfe);
+        } catch(final SQLException sqle) {
+            logger.error("sql:get-pooled-connection() Cannot connect to database: " + dbURL, sqle);
+            throw new XPathException(this, "sql:get-pooled-connection() Cannot connect to database: " + dbURL, sqle);
+        }
+    }
+}
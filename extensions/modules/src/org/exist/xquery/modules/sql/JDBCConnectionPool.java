@@ -0,0 +1,303 @@
+/*
+ *  eXist SQL Module Extension
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.sql;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of JDBC Connections to a single database URL.
+ *
+ * Connections handed out by {@link #borrowConnection()} are proxies,
+ * calling {@link Connection#close()} on them returns the physical
+ * connection to the pool. Each physical connection keeps a small
+ * cache of PreparedStatements, see {@link PooledConnection}.
+ */
+public class JDBCConnectionPool {
+
+    private static final Logger LOG = LogManager.getLogger(JDBCConnectionPool.class);
+
+    /**
+     * Opens a new physical connection to the database
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection connect() throws SQLException;
+    }
+
+    private final String url;
+    private final Config config;
+    private final GenericObjectPool<PooledConnection> pool;
+
+    // metrics
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong validationFailures = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitTime = new AtomicLong();
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    public JDBCConnectionPool(final String url, final Config config, final ConnectionFactory connectionFactory) {
+        this.url = url;
+        this.config = config;
+        this.pool = new GenericObjectPool<>(new PooledConnectionFactory(connectionFactory));
+        pool.setMaxActive(config.getMaxActive());
+        pool.setMaxIdle(config.getMaxIdle());
+        pool.setMaxWait(config.getMaxWait());
+        pool.setWhenExhaustedAction(GenericObjectPool.WHEN_EXHAUSTED_BLOCK);
+        pool.setTestOnBorrow(true);
+        pool.setLifo(true);
+        if(config.getIdleTimeout() > 0) {
+            pool.setMinEvictableIdleTimeMillis(config.getIdleTimeout());
+            pool.setTimeBetweenEvictionRunsMillis(config.getIdleTimeout());
+        }
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Borrow a connection from the pool, waiting at most
+     * {@link Config#getMaxWait()} milliseconds if the pool is exhausted.
+     *
+     * @return A connection, which must be closed to return it to the pool
+     *
+     * @throws SQLException if no connection could be obtained
+     */
+    public Connection borrowConnection() throws SQLException {
+        final long start = System.currentTimeMillis();
+        final PooledConnection pooledConnection;
+        try {
+            pooledConnection = pool.borrowObject();
+        } catch(final NoSuchElementException e) {
+            timeouts.incrementAndGet();
+            throw new SQLException("Timed out waiting for a pooled connection to: " + url, e);
+        } catch(final SQLException e) {
+            throw e;
+        } catch(final Exception e) {
+            throw new SQLException("Unable to borrow a pooled connection to: " + url + ": " + e.getMessage(), e);
+        } finally {
+            totalWaitTime.addAndGet(System.currentTimeMillis() - start);
+        }
+
+        borrowed.incrementAndGet();
+        return pooledConnection.lease();
+    }
+
+    void returnConnection(final PooledConnection pooledConnection) {
+        try {
+            pool.returnObject(pooledConnection);
+        } catch(final Exception e) {
+            LOG.warn("Unable to return JDBC Connection to pool: " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    void invalidateConnection(final PooledConnection pooledConnection) {
+        try {
+            pool.invalidateObject(pooledConnection);
+        } catch(final Exception e) {
+            LOG.warn("Unable to invalidate pooled JDBC Connection: " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    void statementCacheHit() {
+        statementCacheHits.incrementAndGet();
+    }
+
+    void statementCacheMiss() {
+        statementCacheMisses.incrementAndGet();
+    }
+
+    Config getConfig() {
+        return config;
+    }
+
+    /**
+     * Closes all idle connections and the pool itself,
+     * borrowed connections are closed when they are returned.
+     */
+    public void close() {
+        try {
+            pool.close();
+        } catch(final Exception e) {
+            LOG.warn("Unable to close JDBC Connection pool: " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    public int getNumActive() {
+        return pool.getNumActive();
+    }
+
+    public int getNumIdle() {
+        return pool.getNumIdle();
+    }
+
+    public long getBorrowedCount() {
+        return borrowed.get();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getDestroyedCount() {
+        return destroyed.get();
+    }
+
+    public long getValidationFailureCount() {
+        return validationFailures.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    public long getTotalWaitTime() {
+        return totalWaitTime.get();
+    }
+
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    private class PooledConnectionFactory extends BasePoolableObjectFactory<PooledConnection> {
+        private final ConnectionFactory connectionFactory;
+
+        PooledConnectionFactory(final ConnectionFactory connectionFactory) {
+            this.connectionFactory = connectionFactory;
+        }
+
+        @Override
+        public PooledConnection makeObject() throws Exception {
+            final Connection connection = connectionFactory.connect();
+            created.incrementAndGet();
+            return new PooledConnection(JDBCConnectionPool.this, connection);
+        }
+
+        @Override
+        public void destroyObject(final PooledConnection pooledConnection) throws Exception {
+            destroyed.incrementAndGet();
+            pooledConnection.closePhysical();
+        }
+
+        @Override
+        public boolean validateObject(final PooledConnection pooledConnection) {
+            try {
+                final Connection connection = pooledConnection.getPhysicalConnection();
+                if(connection.isClosed()) {
+                    validationFailures.incrementAndGet();
+                    return false;
+                }
+                if(config.getValidationTimeout() > 0 && !connection.isValid(config.getValidationTimeout())) {
+                    validationFailures.incrementAndGet();
+                    return false;
+                }
+                return true;
+            } catch(final SQLException | AbstractMethodError e) {
+                // NOTE: AbstractMethodError is thrown by pre JDBC 4 drivers which do not implement isValid
+                validationFailures.incrementAndGet();
+                return false;
+            }
+        }
+
+        @Override
+        public void passivateObject(final PooledConnection pooledConnection) throws Exception {
+            pooledConnection.reset();
+        }
+    }
+
+    /**
+     * Settings for a JDBC Connection pool.
+     */
+    public static class Config {
+        public static final int DEFAULT_MAX_ACTIVE = 8;
+        public static final int DEFAULT_MAX_IDLE = 8;
+        public static final long DEFAULT_MAX_WAIT = 30000;
+        public static final int DEFAULT_VALIDATION_TIMEOUT = 5;
+        public static final long DEFAULT_IDLE_TIMEOUT = 300000;
+        public static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+
+        private final int maxActive;
+        private final int maxIdle;
+        private final long maxWait;
+        private final int validationTimeout;
+        private final long idleTimeout;
+        private final int statementCacheSize;
+
+        public Config() {
+            this(DEFAULT_MAX_ACTIVE, DEFAULT_MAX_IDLE, DEFAULT_MAX_WAIT, DEFAULT_VALIDATION_TIMEOUT, DEFAULT_IDLE_TIMEOUT, DEFAULT_STATEMENT_CACHE_SIZE);
+        }
+
+        /**
+         * @param maxActive the maximum number of connections open at once
+         * @param maxIdle the maximum number of idle connections kept open
+         * @param maxWait the maximum time in milliseconds to wait for a connection when the pool is exhausted
+         * @param validationTimeout the timeout in seconds for {@link Connection#isValid(int)}, or 0 to only check {@link Connection#isClosed()}
+         * @param idleTimeout the time in milliseconds after which an idle connection is closed, or 0 to keep idle connections open
+         * @param statementCacheSize the number of PreparedStatements to cache per connection, or 0 to disable the cache
+         */
+        public Config(final int maxActive, final int maxIdle, final long maxWait, final int validationTimeout, final long idleTimeout, final int statementCacheSize) {
+            this.maxActive = maxActive;
+            this.maxIdle = maxIdle;
+            this.maxWait = maxWait;
+            this.validationTimeout = validationTimeout;
+            this.idleTimeout = idleTimeout;
+            this.statementCacheSize = statementCacheSize;
+        }
+
+        public int getMaxActive() {
+            return maxActive;
+        }
+
+        public int getMaxIdle() {
+            return maxIdle;
+        }
+
+        public long getMaxWait() {
+            return maxWait;
+        }
+
+        public int getValidationTimeout() {
+            return validationTimeout;
+        }
+
+        public long getIdleTimeout() {
+            return idleTimeout;
+        }
+
+        public int getStatementCacheSize() {
+            return statementCacheSize;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *  eXist SQL Module Extension
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.sql;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.exist.storage.BrokerPoolService;
+import org.exist.storage.DBBroker;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maintains the JDBC Connection pools of a database instance.
+ *
+ * There is one {@link JDBCConnectionPool} per distinct connection
+ * (i.e. driver, URL and credentials). The service is registered with
+ * the BrokerPool through <code>META-INF/services</code>, so that all pooled
+ * connections are closed when the database shuts down.
+ */
+public class JDBCConnectionPoolService implements BrokerPoolService {
+
+    private static final Logger LOG = LogManager.getLogger(JDBCConnectionPoolService.class);
+
+    private final Map<String, JDBCConnectionPool> pools = new ConcurrentHashMap<>();
+
+    /**
+     * Borrow a connection from the pool identified by key, creating
+     * the pool if it does not yet exist.
+     *
+     * @param key The key identifying the pool, must include the credentials if any
+     * @param url The JDBC URL of the database
+     * @param config The settings for the pool if it needs to be created
+     * @param connectionFactory Used by the pool to open new physical connections
+     *
+     * @return A connection, which must be closed to return it to the pool
+     *
+     * @throws SQLException if no connection could be obtained
+     */
+    public Connection borrowConnection(final String key, final String url, final JDBCConnectionPool.Config config,
+            final JDBCConnectionPool.ConnectionFactory connectionFactory) throws SQLException {
+        final JDBCConnectionPool pool = pools.computeIfAbsent(key, k -> new JDBCConnectionPool(url, config, connectionFactory));
+        return pool.borrowConnection();
+    }
+
+    public Collection<JDBCConnectionPool> getPools() {
+        return Collections.unmodifiableCollection(pools.values());
+    }
+
+    @Override
+    public void stop(final DBBroker systemBroker) {
+        closePools();
+    }
+
+    @Override
+    public void shutdown() {
+        closePools();
+    }
+
+    private void closePools() {
+        for(final JDBCConnectionPool pool : pools.values()) {
+            if(LOG.isDebugEnabled()) {
+                LOG.debug("Closing JDBC Connection pool: " + pool.getUrl());
+            }
+            pool.close();
+        }
+        pools.clear();
+    }
+}
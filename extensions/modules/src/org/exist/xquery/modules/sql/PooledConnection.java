@@ -0,0 +1,348 @@
+/*
+ *  eXist SQL Module Extension
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.sql;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A physical JDBC Connection held by a {@link JDBCConnectionPool}.
+ *
+ * Each time the connection is borrowed from the pool a new lease
+ * is created, which is a {@link Connection} proxy that is only valid
+ * until it is closed. Calls to {@link Connection#prepareStatement(String)}
+ * through a lease are served from a per-connection LRU cache of
+ * PreparedStatements; closing such a statement returns it to the cache.
+ * Any other statements created through a lease are closed when the
+ * lease is closed.
+ */
+class PooledConnection {
+
+    private static final Logger LOG = LogManager.getLogger(PooledConnection.class);
+
+    // SQLState class for connection exceptions
+    private static final String SQL_STATE_CONNECTION_EXCEPTION = "08";
+
+    private final JDBCConnectionPool pool;
+    private final Connection connection;
+    private final Map<String, CachedStatement> statementCache;
+
+    PooledConnection(final JDBCConnectionPool pool, final Connection connection) {
+        this.pool = pool;
+        this.connection = connection;
+        final int statementCacheSize = pool.getConfig().getStatementCacheSize();
+        @SuppressWarnings("serial")
+        final Map<String, CachedStatement> lruCache = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CachedStatement> eldest) {
+                if(size() > statementCacheSize) {
+                    eldest.getValue().evict();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.statementCache = lruCache;
+    }
+
+    Connection getPhysicalConnection() {
+        return connection;
+    }
+
+    /**
+     * Creates a new lease on this connection.
+     *
+     * @return A connection proxy, closing it returns this connection to the pool
+     */
+    Connection lease() {
+        final Lease lease = new Lease();
+        lease.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, lease);
+        return lease.proxy;
+    }
+
+    /**
+     * Resets the state of the connection before it is returned to the pool.
+     */
+    synchronized void reset() throws SQLException {
+        for(final CachedStatement cachedStatement : statementCache.values()) {
+            cachedStatement.release();
+        }
+
+        if(!connection.getAutoCommit()) {
+            connection.rollback();
+            connection.setAutoCommit(true);
+        }
+        if(connection.isReadOnly()) {
+            connection.setReadOnly(false);
+        }
+        connection.clearWarnings();
+    }
+
+    synchronized void closePhysical() throws SQLException {
+        for(final Iterator<CachedStatement> it = statementCache.values().iterator(); it.hasNext(); ) {
+            it.next().evict();
+            it.remove();
+        }
+        connection.close();
+    }
+
+    private synchronized PreparedStatement prepareCachedStatement(final Lease lease, final String sql) throws SQLException {
+        if(pool.getConfig().getStatementCacheSize() <= 0) {
+            return lease.track(connection.prepareStatement(sql));
+        }
+
+        final CachedStatement cached = statementCache.get(sql);
+        if(cached != null && !cached.inUse) {
+            pool.statementCacheHit();
+            return cached.acquire(lease.proxy);
+        }
+
+        pool.statementCacheMiss();
+        final PreparedStatement stmt = connection.prepareStatement(sql);
+        if(cached != null) {
+            // the cached statement for this SQL is in use, so hand out an uncached one
+            return lease.track(stmt);
+        }
+
+        final CachedStatement newCached = new CachedStatement(stmt);
+        statementCache.put(sql, newCached);
+        return newCached.acquire(lease.proxy);
+    }
+
+    private static Object invoke(final Object target, final Method method, final Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch(final InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * A single lease of the pooled connection.
+     */
+    private class Lease implements InvocationHandler {
+        private Connection proxy;
+        private final List<Statement> statements = new ArrayList<>();
+        private boolean closed = false;
+        private boolean broken = false;
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            switch(method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+
+                case "toString":
+                    return "Pooled connection to: " + pool.getUrl() + (closed ? " (closed)" : "");
+
+                case "close":
+                    close();
+                    return null;
+
+                case "isClosed":
+                    return closed || connection.isClosed();
+            }
+
+            if(closed) {
+                throw new SQLException("Connection is closed");
+            }
+
+            try {
+                if("prepareStatement".equals(method.getName()) && args != null && args.length == 1) {
+                    return prepareCachedStatement(this, (String)args[0]);
+                }
+                final Object result = PooledConnection.invoke(connection, method, args);
+                if(result instanceof Statement) {
+                    // createStatement, prepareCall or an uncached prepareStatement
+                    return track((Statement)result);
+                }
+                return result;
+            } catch(final SQLException e) {
+                if(e.getSQLState() != null && e.getSQLState().startsWith(SQL_STATE_CONNECTION_EXCEPTION)) {
+                    broken = true;
+                }
+                throw e;
+            }
+        }
+
+        private void close() {
+            if(closed) {
+                return;
+            }
+            closed = true;
+
+            closeStatements();
+
+            if(broken) {
+                pool.invalidateConnection(PooledConnection.this);
+            } else {
+                pool.returnConnection(PooledConnection.this);
+            }
+        }
+
+        /**
+         * Records a statement created through this lease, so that it
+         * is closed at the latest when the lease is closed.
+         */
+        private synchronized <T extends Statement> T track(final T stmt) {
+            // forget the statements which have already been closed by the caller
+            for(final Iterator<Statement> it = statements.iterator(); it.hasNext(); ) {
+                final Statement statement = it.next();
+                try {
+                    if(statement.isClosed()) {
+                        it.remove();
+                    }
+                } catch(final SQLException e) {
+                    it.remove();
+                }
+            }
+            statements.add(stmt);
+            return stmt;
+        }
+
+        private synchronized void closeStatements() {
+            for(final Statement statement : statements) {
+                try {
+                    statement.close();
+                } catch(final SQLException e) {
+                    LOG.warn("Unable to close Statement of pooled connection: " + e.getMessage(), e);
+                }
+            }
+            statements.clear();
+        }
+    }
+
+    /**
+     * A PreparedStatement held in the statement cache.
+     */
+    private class CachedStatement implements InvocationHandler {
+        private final PreparedStatement stmt;
+        private PreparedStatement handedOut = null;
+        private Connection leaseProxy;
+        private boolean inUse = false;
+        private boolean evicted = false;
+
+        CachedStatement(final PreparedStatement stmt) {
+            this.stmt = stmt;
+        }
+
+        PreparedStatement acquire(final Connection leaseProxy) {
+            this.inUse = true;
+            this.leaseProxy = leaseProxy;
+            final PreparedStatement proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, this);
+            this.handedOut = proxy;
+            return proxy;
+        }
+
+        /**
+         * Returns the statement to the cache.
+         */
+        void release() {
+            if(!inUse) {
+                return;
+            }
+            inUse = false;
+            handedOut = null;
+            leaseProxy = null;
+            try {
+                stmt.clearParameters();
+            } catch(final SQLException e) {
+                LOG.warn("Unable to clear parameters of cached PreparedStatement: " + e.getMessage(), e);
+            }
+
+            if(evicted) {
+                closeQuietly();
+            }
+        }
+
+        /**
+         * Removes the statement from the cache, it is closed
+         * now or when it is next released.
+         */
+        void evict() {
+            evicted = true;
+            if(!inUse) {
+                closeQuietly();
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                stmt.close();
+            } catch(final SQLException e) {
+                LOG.warn("Unable to close cached PreparedStatement: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final boolean current = proxy == handedOut;
+            switch(method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+
+                case "toString":
+                    return stmt.toString();
+
+                case "close":
+                    if(current) {
+                        synchronized(PooledConnection.this) {
+                            release();
+                        }
+                    }
+                    return null;
+
+                case "isClosed":
+                    return !current || stmt.isClosed();
+
+                case "getConnection":
+                    if(current) {
+                        return leaseProxy;
+                    }
+                    break;
+            }
+
+            if(!current) {
+                throw new SQLException("PreparedStatement is closed");
+            }
+            return PooledConnection.invoke(stmt, method, args);
+        }
+    }
+}
@@ -64,14 +64,73 @@ public class SQLModule extends AbstractInternalModule {
         new FunctionDef(GetJNDIConnectionFunction.signatures[1], GetJNDIConnectionFunction.class),
         new FunctionDef(ExecuteFunction.signatures[0], ExecuteFunction.class),
         new FunctionDef(ExecuteFunction.signatures[1], ExecuteFunction.class),
-        new FunctionDef(PrepareFunction.signatures[0], PrepareFunction.class)
+        new FunctionDef(PrepareFunction.signatures[0], PrepareFunction.class),
+        new FunctionDef(GetPooledConnectionFunction.signatures[0], GetPooledConnectionFunction.class),
+        new FunctionDef(GetPooledConnectionFunction.signatures[1], GetPooledConnectionFunction.class),
+        new FunctionDef(GetPooledConnectionFunction.signatures[2], GetPooledConnectionFunction.class),
+        new FunctionDef(ConnectionPoolStatisticsFunction.signature, ConnectionPoolStatisticsFunction.class),
+        new FunctionDef(StreamingExecuteFunction.signatures[0], StreamingExecuteFunction.class),
+        new FunctionDef(StreamingExecuteFunction.signatures[1], StreamingExecuteFunction.class)
     };
     private static final long currentUID = System.currentTimeMillis();
     public final static String CONNECTIONS_CONTEXTVAR = "_eXist_sql_connections";
     public final static String PREPARED_STATEMENTS_CONTEXTVAR = "_eXist_sql_prepared_statements";
 
+    // module parameters (conf.xml) for the connection pools
+    public final static String POOL_MAX_ACTIVE_PARAM = "pool.maxActive";
+    public final static String POOL_MAX_IDLE_PARAM = "pool.maxIdle";
+    public final static String POOL_MAX_WAIT_PARAM = "pool.maxWait";
+    public final static String POOL_VALIDATION_TIMEOUT_PARAM = "pool.validationTimeout";
+    public final static String POOL_IDLE_TIMEOUT_PARAM = "pool.idleTimeout";
+    public final static String POOL_STATEMENT_CACHE_SIZE_PARAM = "pool.statementCacheSize";
+
+    private final JDBCConnectionPool.Config poolConfig;
+
     public SQLModule(Map<String, List<?>> parameters) {
         super(functions, parameters);
+
+        this.poolConfig = new JDBCConnectionPool.Config(
+                (int)getLongParameter(POOL_MAX_ACTIVE_PARAM, JDBCConnectionPool.Config.DEFAULT_MAX_ACTIVE),
+                (int)getLongParameter(POOL_MAX_IDLE_PARAM, JDBCConnectionPool.Config.DEFAULT_MAX_IDLE),
+                getLongParameter(POOL_MAX_WAIT_PARAM, JDBCConnectionPool.Config.DEFAULT_MAX_WAIT),
+                (int)getLongParameter(POOL_VALIDATION_TIMEOUT_PARAM, JDBCConnectionPool.Config.DEFAULT_VALIDATION_TIMEOUT),
+                getLongParameter(POOL_IDLE_TIMEOUT_PARAM, JDBCConnectionPool.Config.DEFAULT_IDLE_TIMEOUT),
+                (int)getLongParameter(POOL_STATEMENT_CACHE_SIZE_PARAM, JDBCConnectionPool.Config.DEFAULT_STATEMENT_CACHE_SIZE)
+        );
+    }
+
+    private long getLongParameter(final String paramName, final long defaultValue) {
+        final List<?> values = getParameter(paramName);
+        if(values == null || values.isEmpty()) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(values.get(0).toString().trim());
+        } catch(final NumberFormatException e) {
+            LOG.warn("Invalid value for SQL module parameter " + paramName + ": " + values.get(0) + ", using default: " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Get the settings for new JDBC Connection pools.
+     *
+     * @return The pool configuration from the module parameters
+     */
+    public JDBCConnectionPool.Config getPoolConfig() {
+        return poolConfig;
+    }
+
+    /**
+     * Get the JDBC Connection pool service of the database.
+     *
+     * @param   context  The Context of the XQuery
+     *
+     * @return  The pool service, or null if it is not registered
+     */
+    public static JDBCConnectionPoolService getConnectionPoolService(XQueryContext context) {
+        return context.getBroker().getBrokerPool().getService(JDBCConnectionPoolService.class).orElse(null);
     }
 
     @Override
@@ -0,0 +1,196 @@
+/*
+ *  eXist SQL Module Extension
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.sql;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import org.exist.dom.QName;
+import org.exist.dom.memtree.MemTreeBuilder;
+import org.exist.xquery.BasicFunction;
+import org.exist.xquery.Cardinality;
+import org.exist.xquery.FunctionSignature;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.BooleanValue;
+import org.exist.xquery.value.FunctionParameterSequenceType;
+import org.exist.xquery.value.FunctionReference;
+import org.exist.xquery.value.FunctionReturnSequenceType;
+import org.exist.xquery.value.IntegerValue;
+import org.exist.xquery.value.NodeValue;
+import org.exist.xquery.value.Sequence;
+import org.exist.xquery.value.SequenceType;
+import org.exist.xquery.value.Type;
+import org.exist.xquery.value.ValueSequence;
+import org.w3c.dom.Element;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * eXist SQL Module Extension StreamingExecuteFunction.
+ *
+ * <p>Executes a SQL statement and passes each row of the result set to a callback
+ * function as soon as it is read. Unlike sql:execute() the result set is never
+ * held in memory as a whole, only the current row and the results of the callback.</p>
+ *
+ * @see ExecuteFunction
+ */
+public class StreamingExecuteFunction extends BasicFunction {
+
+    private static final Logger LOG = LogManager.getLogger(StreamingExecuteFunction.class);
+
+    private static final FunctionParameterSequenceType CONNECTION_HANDLE_PARAM = new FunctionParameterSequenceType("connection-handle", Type.LONG, Cardinality.EXACTLY_ONE, "The connection handle");
+    private static final FunctionParameterSequenceType MAKE_NODE_FROM_COLUMN_NAME_PARAM = new FunctionParameterSequenceType("make-node-from-column-name", Type.BOOLEAN, Cardinality.EXACTLY_ONE, "The flag that indicates whether the xml nodes should be formed from the column names (in this mode a space in a Column Name will be replaced by an underscore!)");
+    private static final FunctionParameterSequenceType FETCH_SIZE_PARAM = new FunctionParameterSequenceType("fetch-size", Type.INTEGER, Cardinality.ZERO_OR_ONE, "A hint to the JDBC driver for the number of rows to fetch from the database at once, the driver default is used if empty");
+    private static final FunctionParameterSequenceType ROW_FUNCTION_PARAM = new FunctionParameterSequenceType("row-function", Type.FUNCTION_REFERENCE, Cardinality.EXACTLY_ONE, "A function which is called for each row with a single sql:row element, e.g. function($row as element(sql:row)) as item()*");
+    private static final FunctionReturnSequenceType RETURN_TYPE = new FunctionReturnSequenceType(Type.ITEM, Cardinality.ZERO_OR_MORE, "the concatenated results of calling the row function for each row, or the empty sequence if the statement does not return a result set");
+
+    public final static FunctionSignature[] signatures = {
+        new FunctionSignature(
+            new QName("execute-streaming", SQLModule.NAMESPACE_URI, SQLModule.PREFIX),
+            "Executes a SQL statement against a SQL db using the connection indicated by the connection handle, and calls the row function for each row of the result set as it is read.",
+            new SequenceType[] {
+                CONNECTION_HANDLE_PARAM,
+                new FunctionParameterSequenceType("sql-statement", Type.STRING, Cardinality.EXACTLY_ONE, "The SQL statement"),
+                MAKE_NODE_FROM_COLUMN_NAME_PARAM,
+                FETCH_SIZE_PARAM,
+                ROW_FUNCTION_PARAM
+            },
+            RETURN_TYPE
+        ),
+        new FunctionSignature(
+            new QName("execute-streaming", SQLModule.NAMESPACE_URI, SQLModule.PREFIX),
+            "Executes a prepared SQL statement against a SQL db, and calls the row function for each row of the result set as it is read.",
+            new SequenceType[] {
+                CONNECTION_HANDLE_PARAM,
+                new FunctionParameterSequenceType("statement-handle", Type.INTEGER, Cardinality.EXACTLY_ONE, "The prepared statement handle"),
+                new FunctionParameterSequenceType("parameters", Type.ELEMENT, Cardinality.ZERO_OR_ONE, "Parameters for the prepared statement. e.g. <sql:parameters><sql:param sql:type=\"varchar\">value</sql:param></sql:parameters>"),
+                MAKE_NODE_FROM_COLUMN_NAME_PARAM,
+                FETCH_SIZE_PARAM,
+                ROW_FUNCTION_PARAM
+            },
+            RETURN_TYPE
+        )
+    };
+
+    public StreamingExecuteFunction(final XQueryContext context, final FunctionSignature signature) {
+        super(context, signature);
+    }
+
+    @Override
+    public Sequence eval(final Sequence[] args, final Sequence contextSequence) throws XPathException {
+        if(args[0].isEmpty() || args[1].isEmpty()) {
+            return Sequence.EMPTY_SEQUENCE;
+        }
+
+        // get the Connection
+        final long connectionUID = ((IntegerValue) args[0].itemAt(0)).getLong();
+        final Connection con = SQLModule.retrieveConnection(context, connectionUID);
+        if(con == null) {
+            return Sequence.EMPTY_SEQUENCE;
+        }
+
+        final boolean preparedStmt = args.length == 6;
+        final int argOffset = preparedStmt ? 1 : 0;
+        final boolean makeNodeFromColumnName = ((BooleanValue) args[2 + argOffset].itemAt(0)).effectiveBooleanValue();
+        final Sequence fetchSize = args[3 + argOffset];
+
+        try(final FunctionReference rowFunction = (FunctionReference) args[4 + argOffset].itemAt(0)) {
+            String sql = null;
+            Statement stmt = null;
+            ResultSet rs = null;
+            try {
+                final boolean executeResult;
+                if(preparedStmt) {
+                    final long statementUID = ((IntegerValue) args[1].itemAt(0)).getLong();
+                    final PreparedStatementWithSQL stmtWithSQL = SQLModule.retrievePreparedStatement(context, statementUID);
+                    if(stmtWithSQL == null) {
+                        throw new XPathException(this, "sql:execute-streaming() Unknown prepared statement handle: " + statementUID);
+                    }
+                    sql = stmtWithSQL.getSql();
+                    stmt = stmtWithSQL.getStmt();
+                    setFetchSize(stmt, fetchSize);
+
+                    if(!args[2].isEmpty()) {
+                        ExecuteFunction.setParametersOnPreparedStatement(stmt, (Element) args[2].itemAt(0));
+                    }
+                    executeResult = ((PreparedStatement) stmt).execute();
+                } else {
+                    sql = args[1].getStringValue();
+                    stmt = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    setFetchSize(stmt, fetchSize);
+                    executeResult = stmt.execute(sql);
+                }
+
+                if(!executeResult) {
+                    return Sequence.EMPTY_SEQUENCE;
+                }
+
+                rs = stmt.getResultSet();
+                final ResultSetMetaData rsmd = rs.getMetaData();
+                final int iColumns = rsmd.getColumnCount();
+
+                final ValueSequence result = new ValueSequence();
+                while(rs.next()) {
+                    // each row is built in its own small document, so that it can be discarded after the call
+                    final MemTreeBuilder builder = new MemTreeBuilder(context);
+                    builder.startDocument();
+                    ExecuteFunction.addRow(context, builder, rs, rsmd, iColumns, makeNodeFromColumnName);
+                    builder.endDocument();
+
+                    final NodeValue row = (NodeValue) builder.getDocument().getDocumentElement();
+                    result.addAll(rowFunction.evalFunction(contextSequence, null, new Sequence[] { row }));
+                }
+                return result;
+
+            } catch(final SQLException sqle) {
+                LOG.error("sql:execute-streaming() Caught SQLException \"" + sqle.getMessage() + "\" for SQL: \"" + sql + "\"", sqle);
+                throw new XPathException(this, "sql:execute-streaming() " + sqle.getMessage() + " for SQL: " + sql, sqle);
+            } finally {
+                if(rs != null) {
+                    try {
+                        rs.close();
+                    } catch(final SQLException se) {
+                        LOG.warn("Unable to cleanup JDBC results", se);
+                    }
+                }
+
+                if(!preparedStmt && stmt != null) {
+                    try {
+                        stmt.close();
+                    } catch(final SQLException se) {
+                        LOG.warn("Unable to cleanup JDBC results", se);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void setFetchSize(final Statement stmt, final Sequence fetchSize) throws SQLException, XPathException {
+        if(!fetchSize.isEmpty()) {
+            stmt.setFetchSize(((IntegerValue) fetchSize.itemAt(0)).getInt());
+        }
+    }
+}
@@ -1075,6 +1075,8 @@ public void removeXMLResource(final Txn transaction, final DBBroker broker, fina
 
                     trigger.afterDeleteDocument(broker, transaction, doc.getURI());
 
+                    broker.getBrokerPool().getNotificationService().notifyUpdate(doc, UpdateListener.REMOVE);
+
                 } finally {
                     broker.getBrokerPool().getProcessMonitor().endJob();
                 }
@@ -1688,6 +1690,8 @@ public void removeXMLResource(final Txn transaction, final DBBroker broker, fina
                 trigger.afterUpdateDocument(broker, transaction, blob);
             }
 
+            db.getNotificationService().notifyUpdate(blob, (oldDoc == null ? UpdateListener.ADD : UpdateListener.UPDATE));
+
             // NOTE: early release of Collection lock inline with Asymmetrical Locking scheme
             collectionLock.close();
 
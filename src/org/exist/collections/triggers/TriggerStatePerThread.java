@@ -21,6 +21,7 @@
  */
 package org.exist.collections.triggers;
 
+import org.exist.storage.ExecutionContext;
 import org.exist.xmldb.XmldbURI;
 import org.exist.storage.txn.Txn;
 
@@ -39,11 +40,9 @@ public class TriggerStatePerThread {
 	public static final int TRIGGER_RUNNING_PREPARE = (1);
 	public static final int TRIGGER_RUNNING_FINISH = (2);
 	
-	private static ThreadLocal<TriggerState> triggerRunningState = new ThreadLocal<TriggerState>() {
-	    protected synchronized TriggerState initialValue() {
-	        return new TriggerState(NO_TRIGGER_RUNNING);
-	    }
-	};
+	/** held per execution context, so the state follows a request which moves between threads */
+	private static final ExecutionContext.Local<TriggerState> triggerRunningState =
+			new ExecutionContext.Local<>(() -> new TriggerState(NO_TRIGGER_RUNNING));
 
 	/** */
 	public static boolean verifyUniqueTriggerPerThreadBeforePrepare(
@@ -21,15 +21,18 @@ package org.exist.collections.triggers;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
 import org.exist.collections.Collection;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.NodeSet;
@@ -39,9 +42,11 @@ import org.exist.source.DBSource;
 import org.exist.source.Source;
 import org.exist.source.SourceFactory;
 import org.exist.source.StringSource;
+import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
 import org.exist.storage.ProcessMonitor;
 import org.exist.storage.txn.Txn;
+import org.exist.storage.txn.TxnListener;
 import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.*;
 import org.exist.xquery.value.AnyURIValue;
@@ -122,6 +127,13 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
 	public final static QName beforeDeleteDocument = new QName("before-delete-document", NAMESPACE); 
 	public final static QName afterDeleteDocument = new QName("after-delete-document", NAMESPACE); 
 
+	/** the 'after' functions which are called with a sequence of URIs when batching */
+	private final static Set<QName> BATCHED_FUNCTIONS = new HashSet<>(Arrays.asList(
+			afterCreateDocument, afterUpdateDocument, afterDeleteDocument));
+
+	/** pending batches of events, by transaction, collection, query and function */
+	private final static Map<String, Batch> batches = new ConcurrentHashMap<>();
+
 	private Set<TriggerEvents.EVENTS> events;
 	private Collection collection = null;
 	private String strQuery = null;
@@ -132,6 +144,9 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
 	private String bindingPrefix = null;
 	private XQuery service;
 
+	/** deliver the 'after' document events as one sequence when the transaction has committed */
+	private boolean batch = false;
+
     public final static String PREPARE_EXCEPTION_MESSAGE = "Error during trigger prepare";
 	
 	/**
@@ -182,6 +197,11 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
 					strQuery = (String) paramValue;
  				}
 
+ 				//batch the 'after' document events of a transaction (if any)
+ 				else if("batch".equals(paramName)) {
+ 					batch = "true".equals(paramValue) || "yes".equals(paramValue);
+ 				}
+
  				//make any other parameters available as external variables for the query
  				else {
                     //TODO could be enhanced to setup a sequence etc
@@ -247,13 +267,12 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
 		}
 		TriggerStatePerThread.setTransaction(transaction);
 		
-		final XQueryContext context = new XQueryContext(broker.getBrokerPool());
-         //TODO : further initialisations ?
-        CompiledXQuery compiledQuery;
+        CompiledXQuery compiledQuery = null;
         try
         {
-        	//compile the XQuery
-        	compiledQuery = service.compile(broker, context, query);
+        	//compile the XQuery, or reuse a compiled one
+        	compiledQuery = borrowOrCompile(broker, query);
+        	final XQueryContext context = compiledQuery.getContext();
 
         	//declare external variables
         	context.declareVariable(bindingPrefix + "type", EVENT_TYPE_PREPARE);
@@ -293,6 +312,7 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
         } catch(final XPathException | IOException | PermissionDeniedException e) {
     		TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
     		TriggerStatePerThread.setTransaction(null);
+    		returnCompiled(broker, compiledQuery);
         	throw new TriggerException(PREPARE_EXCEPTION_MESSAGE, e);
 	    }
 
@@ -307,6 +327,8 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
     		TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
     		TriggerStatePerThread.setTransaction(null);
         	throw new TriggerException(PREPARE_EXCEPTION_MESSAGE, e);
+        } finally {
+        	returnCompiled(broker, compiledQuery);
         }
     }
     
@@ -321,11 +343,11 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
 		if(!TriggerStatePerThread.verifyUniqueTriggerPerThreadBeforeFinish(this, src))
 			{return;}
 		
-        final XQueryContext context = new XQueryContext(broker.getBrokerPool());
         CompiledXQuery compiledQuery = null;
         try {
-        	//compile the XQuery
-        	compiledQuery = service.compile(broker, context, query);
+        	//compile the XQuery, or reuse a compiled one
+        	compiledQuery = borrowOrCompile(broker, query);
+        	final XQueryContext context = compiledQuery.getContext();
         	
         	//declare external variables
         	context.declareVariable(bindingPrefix + "type", EVENT_TYPE_FINISH);
@@ -378,6 +400,8 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
         } catch (final PermissionDeniedException e) {
         	//Should never be reached
         	LOG.error(e);
+        } finally {
+        	returnCompiled(broker, compiledQuery);
         }
         
 		TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
@@ -386,6 +410,38 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
 		
 	}
 
+	/**
+	 * Borrows the compiled XQuery of the trigger from the XQuery pool,
+	 * or compiles it if the pool holds no valid compiled XQuery for the source.
+	 */
+	private CompiledXQuery borrowOrCompile(final DBBroker broker, final Source query) throws XPathException, IOException, PermissionDeniedException {
+		final CompiledXQuery compiledQuery = broker.getBrokerPool().getXQueryPool().borrowCompiledXQuery(broker, query);
+		if (compiledQuery != null) {
+			compiledQuery.getContext().prepareForReuse();
+			return compiledQuery;
+		}
+
+		final XQueryContext context = new XQueryContext(broker.getBrokerPool());
+		if (query instanceof DBSource) {
+			context.setModuleLoadPath(XmldbURI.EMBEDDED_SERVER_URI_PREFIX + ((DBSource)query).getDocumentPath().removeLastSegment().toString());
+		}
+		return service.compile(broker, context, query);
+	}
+
+	/**
+	 * Returns a compiled XQuery to the XQuery pool, so that the next event can reuse it.
+	 */
+	private void returnCompiled(final DBBroker broker, final CompiledXQuery compiledQuery) {
+		if (compiledQuery == null) {
+			return;
+		}
+		final XQueryContext context = compiledQuery.getContext();
+		context.runCleanupTasks();
+		compiledQuery.reset();
+		context.reset();
+		broker.getBrokerPool().getXQueryPool().returnCompiledXQuery(compiledQuery.getSource(), compiledQuery);
+	}
+
 	private CompiledXQuery getScript(boolean isBefore, DBBroker broker, Txn transaction, XmldbURI src) throws TriggerException {
 		
 		//get the query
@@ -400,69 +456,94 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
 			return null;
 		}
 		TriggerStatePerThread.setTransaction(transaction);
-		
-		final XQueryContext context = new XQueryContext(broker.getBrokerPool());
-        if (query instanceof DBSource) {
-            context.setModuleLoadPath(XmldbURI.EMBEDDED_SERVER_URI_PREFIX + ((DBSource)query).getDocumentPath().removeLastSegment().toString());
-        }
 
-        CompiledXQuery compiledQuery;
-        try {
-        	//compile the XQuery
-        	compiledQuery = service.compile(broker, context, query);
+		try {
+			return prepareScript(broker, query);
+		} catch(final XPathException | IOException | PermissionDeniedException e) {
+			LOG.warn(e.getMessage(), e);
+			TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
+			TriggerStatePerThread.setTransaction(null);
+			throw new TriggerException(PREPARE_EXCEPTION_MESSAGE, e);
+		}
+	}
 
-        	//declare user defined parameters as external variables
-        	for(final Iterator itUserVarName = userDefinedVariables.keySet().iterator(); itUserVarName.hasNext();) {
-        		final String varName = (String)itUserVarName.next();
-        		final String varValue = userDefinedVariables.getProperty(varName);
-        	
-        		context.declareVariable(bindingPrefix + varName, new StringValue(varValue));
-        	}
-        	
-        	//reset & prepareForExecution for execution
-        	compiledQuery.reset();
+	private CompiledXQuery prepareScript(final DBBroker broker, final Source query) throws XPathException, IOException, PermissionDeniedException {
+		//compile the XQuery, or reuse a compiled one
+		final CompiledXQuery compiledQuery = borrowOrCompile(broker, query);
+		final XQueryContext context = compiledQuery.getContext();
+		try {
+			//declare user defined parameters as external variables
+			for(final Iterator itUserVarName = userDefinedVariables.keySet().iterator(); itUserVarName.hasNext();) {
+				final String varName = (String)itUserVarName.next();
+				final String varValue = userDefinedVariables.getProperty(varName);
 
-        	context.getWatchDog().reset();
+				context.declareVariable(bindingPrefix + varName, new StringValue(varValue));
+			}
 
-            //do any preparation before execution
-            context.prepareForExecution();
+			//reset & prepareForExecution for execution
+			compiledQuery.reset();
 
-        	return compiledQuery;
-        } catch(final XPathException | IOException | PermissionDeniedException e) {
-            LOG.warn(e.getMessage(), e);
-    		TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
-    		TriggerStatePerThread.setTransaction(null);
-        	throw new TriggerException(PREPARE_EXCEPTION_MESSAGE, e);
-	    }
-    }
+			context.getWatchDog().reset();
+
+			//do any preparation before execution
+			context.prepareForExecution();
+
+			return compiledQuery;
+		} catch(final XPathException e) {
+			returnCompiled(broker, compiledQuery);
+			throw e;
+		}
+	}
 	
 	private void execute(boolean isBefore, DBBroker broker, Txn transaction, QName functionName, XmldbURI src, XmldbURI dst) throws TriggerException {
+		if (!isBefore && batch && dst == null && transaction != null && BATCHED_FUNCTIONS.contains(functionName)) {
+			addToBatch(broker, transaction, functionName, src);
+			return;
+		}
+
 		final CompiledXQuery compiledQuery = getScript(isBefore, broker, transaction, src);
 		
 		if (compiledQuery == null) {return;}
 		
-		ProcessMonitor pm = null;
-		
 		final XQueryContext context = compiledQuery.getContext();
         //execute the XQuery
         try {
-            int nParams = 1;
-            if (dst != null)
-                nParams = 2;
+            final List<Expression> args = new ArrayList<>(2);
+            if (isBefore) {
+                args.add(new LiteralValue(context, new AnyURIValue(src)));
+                if (dst != null)
+                    args.add(new LiteralValue(context, new AnyURIValue(dst)));
+            } else {
+                if (dst != null)
+                    args.add(new LiteralValue(context, new AnyURIValue(dst)));
+                args.add(new LiteralValue(context, new AnyURIValue(src)));
+            }
+            callFunction(broker, compiledQuery, functionName, args);
+        } catch(final XPathException e) {
+    		TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
+    		TriggerStatePerThread.setTransaction(null);
+        	throw new TriggerException(PREPARE_EXCEPTION_MESSAGE, e);
+        }
 
-            final UserDefinedFunction function = context.resolveFunction(functionName, nParams);
-            if (function != null) {
-                final List<Expression> args = new ArrayList<>(nParams);
-                if (isBefore) {
-                    args.add(new LiteralValue(context, new AnyURIValue(src)));
-                    if (dst != null)
-                        args.add(new LiteralValue(context, new AnyURIValue(dst)));
-                } else {
-                    if (dst != null)
-                        args.add(new LiteralValue(context, new AnyURIValue(dst)));
-                    args.add(new LiteralValue(context, new AnyURIValue(src)));
-                }
+        if (!isBefore) {
+        	TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
+        	TriggerStatePerThread.setTransaction(null);
+        	LOG.debug("Trigger fired 'after'");
+        } else
+        	{LOG.debug("Trigger fired 'before'");}
+	}
+
+	/**
+	 * Calls a function of the trigger's XQuery (if it is declared) and returns
+	 * the compiled XQuery to the XQuery pool.
+	 */
+	private void callFunction(final DBBroker broker, final CompiledXQuery compiledQuery, final QName functionName, final List<Expression> args) throws XPathException {
+		ProcessMonitor pm = null;
 
+		final XQueryContext context = compiledQuery.getContext();
+        try {
+            final UserDefinedFunction function = context.resolveFunction(functionName, args.size());
+            if (function != null) {
 	    		pm = broker.getBrokerPool().getProcessMonitor();
 	    		
 	            context.getProfiler().traceQueryStart();
@@ -481,25 +562,108 @@ public class XQueryTrigger extends SAXTrigger implements DocumentTrigger, Collec
 				}
 	    		call.eval(contextSequence);
     		}
-        } catch(final XPathException e) {
-    		TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
-    		TriggerStatePerThread.setTransaction(null);
-        	throw new TriggerException(PREPARE_EXCEPTION_MESSAGE, e);
         } finally {
         	if (pm != null) {
         		context.getProfiler().traceQueryEnd(context);
         		pm.queryCompleted(context.getWatchDog());
         	}
-    		compiledQuery.reset();
-    		context.reset();
+        	returnCompiled(broker, compiledQuery);
         }
+	}
 
-        if (!isBefore) {
-        	TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
-        	TriggerStatePerThread.setTransaction(null);
-        	LOG.debug("Trigger fired 'after'");
-        } else
-        	{LOG.debug("Trigger fired 'before'");}
+	/**
+	 * Records an 'after' event of a batching trigger; the events are delivered
+	 * to the trigger's XQuery as one sequence of URIs once the transaction has committed.
+	 */
+	private void addToBatch(final DBBroker broker, final Txn transaction, final QName functionName, final XmldbURI src) {
+		final Source query = getQuerySource(broker);
+		if (query == null) {
+			return;
+		}
+
+		// avoid infinite recursion by allowing just one trigger per thread
+		if (!TriggerStatePerThread.verifyUniqueTriggerPerThreadBeforeFinish(this, src)) {
+			return;
+		}
+		TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
+		TriggerStatePerThread.setTransaction(null);
+
+		final String key = transaction.getId() + " " + collection.getURI() + " " + query.getKey() + " " + functionName;
+		batches.computeIfAbsent(key, k -> {
+			final Batch batch = new Batch(k, this, broker.getBrokerPool(), functionName);
+			transaction.registerListener(batch);
+			return batch;
+		}).add(src);
+	}
+
+	private void executeBatch(final DBBroker broker, final QName functionName, final List<XmldbURI> uris) throws TriggerException {
+		final Source query = getQuerySource(broker);
+		if (query == null) {
+			return;
+		}
+
+		// avoid infinite recursion by allowing just one trigger per thread
+		if (TriggerStatePerThread.getTriggerRunningState() != TriggerStatePerThread.NO_TRIGGER_RUNNING) {
+			return;
+		}
+		TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.TRIGGER_RUNNING_FINISH, this, null);
+		try {
+			final CompiledXQuery compiledQuery = prepareScript(broker, query);
+			final XQueryContext context = compiledQuery.getContext();
+			final SequenceConstructor uriSequence = new SequenceConstructor(context);
+			for (final XmldbURI uri : uris) {
+				uriSequence.add(new LiteralValue(context, new AnyURIValue(uri)));
+			}
+			final List<Expression> args = new ArrayList<>(1);
+			args.add(uriSequence);
+			callFunction(broker, compiledQuery, functionName, args);
+			LOG.debug("Trigger fired 'after' for " + uris.size() + " events");
+		} catch(final XPathException | IOException | PermissionDeniedException e) {
+			throw new TriggerException(PREPARE_EXCEPTION_MESSAGE, e);
+		} finally {
+			TriggerStatePerThread.setTriggerRunningState(TriggerStatePerThread.NO_TRIGGER_RUNNING, this, null);
+		}
+	}
+
+	/**
+	 * The 'after' events of a batching trigger within one transaction.
+	 */
+	private static class Batch implements TxnListener {
+		private final String key;
+		private final XQueryTrigger trigger;
+		private final BrokerPool pool;
+		private final QName functionName;
+		private final List<XmldbURI> uris = new ArrayList<>();
+
+		Batch(final String key, final XQueryTrigger trigger, final BrokerPool pool, final QName functionName) {
+			this.key = key;
+			this.trigger = trigger;
+			this.pool = pool;
+			this.functionName = functionName;
+		}
+
+		synchronized void add(final XmldbURI uri) {
+			uris.add(uri);
+		}
+
+		@Override
+		public void commit() {
+		}
+
+		@Override
+		public void afterCommit() {
+			batches.remove(key);
+			try(final DBBroker broker = pool.getBroker()) {
+				trigger.executeBatch(broker, functionName, uris);
+			} catch(final EXistException | TriggerException e) {
+				trigger.LOG.error("Error delivering batched trigger events: " + e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public void abort() {
+			batches.remove(key);
+		}
 	}
 
 //	public void startDocument() throws SAXException
@@ -0,0 +1,326 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.dom.persistent;
+
+import net.jcip.annotations.NotThreadSafe;
+import org.exist.collections.Collection;
+import org.exist.collections.ManagedLocks;
+import org.exist.numbering.NodeId;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.LockManager;
+import org.exist.storage.lock.ManagedDocumentLock;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+
+import java.util.*;
+
+/**
+ * A set of documents keyed by document id.
+ *
+ * Membership is kept in a bitmap of the document ids, so that comparing
+ * two BitmapDocumentSets, or checking the documents of another set against
+ * this one, does not need any lookups or allocations. The documents themselves
+ * are held in pages of {@link #PAGE_SIZE} consecutive document ids, which are
+ * only allocated for the id ranges in use; as document ids are allocated
+ * sequentially, the documents of a collection tend to share a few pages.
+ *
+ * The documents are iterated in document id order, i.e. document order.
+ */
+@NotThreadSafe
+public class BitmapDocumentSet implements MutableDocumentSet {
+
+    private static final int PAGE_BITS = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private final BitSet docIds = new BitSet();
+    private DocumentImpl[][] pages = new DocumentImpl[0][];
+    private int count = 0;
+
+    private final BitSet collectionIds = new BitSet();
+    private final Set<Collection> collections = new LinkedHashSet<>();
+
+    /**
+     * Creates a BitmapDocumentSet containing the documents of another document set.
+     *
+     * @param other the documents to copy
+     * @return the new document set
+     */
+    public static BitmapDocumentSet copyOf(final DocumentSet other) {
+        final BitmapDocumentSet result = new BitmapDocumentSet();
+        result.addAll(other);
+        return result;
+    }
+
+    @Override
+    public void clear() {
+        docIds.clear();
+        pages = new DocumentImpl[0][];
+        count = 0;
+        collectionIds.clear();
+        collections.clear();
+    }
+
+    @Override
+    public void add(final DocumentImpl doc) {
+        add(doc, true);
+    }
+
+    @Override
+    public void add(final DocumentImpl doc, final boolean checkDuplicates) {
+        final int docId = doc.getDocId();
+        final int pageIdx = docId >>> PAGE_BITS;
+        if (pageIdx >= pages.length) {
+            pages = Arrays.copyOf(pages, Math.max(pageIdx + 1, pages.length * 2));
+        }
+        DocumentImpl[] page = pages[pageIdx];
+        if (page == null) {
+            page = new DocumentImpl[PAGE_SIZE];
+            pages[pageIdx] = page;
+        }
+
+        // a document can only be in the set once, whether or not the caller checks for duplicates
+        if (!docIds.get(docId)) {
+            docIds.set(docId);
+            count++;
+        }
+        page[docId & PAGE_MASK] = doc;
+
+        final Collection collection = doc.getCollection();
+        if (collection != null) {
+            addCollection(collection);
+        }
+    }
+
+    @Override
+    public void addAll(final DocumentSet other) {
+        if (other instanceof BitmapDocumentSet) {
+            final BitmapDocumentSet otherBitmap = (BitmapDocumentSet) other;
+            for (int docId = otherBitmap.docIds.nextSetBit(0); docId >= 0; docId = otherBitmap.docIds.nextSetBit(docId + 1)) {
+                add(otherBitmap.getDoc(docId), false);
+            }
+        } else {
+            for (final Iterator<DocumentImpl> i = other.getDocumentIterator(); i.hasNext(); ) {
+                add(i.next(), false);
+            }
+        }
+    }
+
+    @Override
+    public void addCollection(final Collection collection) {
+        if (!collectionIds.get(collection.getId())) {
+            collectionIds.set(collection.getId());
+            collections.add(collection);
+        }
+    }
+
+    @Override
+    public Iterator<DocumentImpl> getDocumentIterator() {
+        return new Iterator<DocumentImpl>() {
+            private int next = docIds.nextSetBit(0);
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public DocumentImpl next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                final DocumentImpl doc = getDoc(next);
+                next = docIds.nextSetBit(next + 1);
+                return doc;
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Collection> getCollectionIterator() {
+        return collections.iterator();
+    }
+
+    @Override
+    public int getDocumentCount() {
+        return count;
+    }
+
+    @Override
+    public DocumentImpl getDoc(final int docId) {
+        if (docId < 0 || !docIds.get(docId)) {
+            return null;
+        }
+        return pages[docId >>> PAGE_BITS][docId & PAGE_MASK];
+    }
+
+    /**
+     * Returns the first document id in the set which is equal to or
+     * greater than the given document id.
+     *
+     * @param fromDocId the document id to start from
+     * @return the next document id, or -1 if there is none
+     */
+    public int nextDocId(final int fromDocId) {
+        return docIds.nextSetBit(fromDocId);
+    }
+
+    /**
+     * Returns the first document id which is equal to or greater than
+     * the given document id and is not in the set.
+     *
+     * @param fromDocId the document id to start from
+     * @return the next document id which is not in the set
+     */
+    public int nextMissingDocId(final int fromDocId) {
+        return docIds.nextClearBit(fromDocId);
+    }
+
+    @Override
+    public XmldbURI[] getNames() {
+        final XmldbURI[] result = new XmldbURI[count];
+        int i = 0;
+        for (final Iterator<DocumentImpl> docs = getDocumentIterator(); docs.hasNext(); ) {
+            result[i++] = docs.next().getFileURI();
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    @Override
+    public DocumentSet intersection(final DocumentSet other) {
+        final BitmapDocumentSet result = new BitmapDocumentSet();
+        if (other instanceof BitmapDocumentSet) {
+            final BitSet common = (BitSet) docIds.clone();
+            common.and(((BitmapDocumentSet) other).docIds);
+            for (int docId = common.nextSetBit(0); docId >= 0; docId = common.nextSetBit(docId + 1)) {
+                result.add(getDoc(docId), false);
+            }
+        } else {
+            for (final Iterator<DocumentImpl> i = other.getDocumentIterator(); i.hasNext(); ) {
+                final DocumentImpl doc = i.next();
+                if (contains(doc.getDocId())) {
+                    result.add(getDoc(doc.getDocId()), false);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean contains(final DocumentSet other) {
+        if (other.getDocumentCount() > count) {
+            return false;
+        }
+
+        if (other instanceof BitmapDocumentSet) {
+            final BitSet otherDocIds = ((BitmapDocumentSet) other).docIds;
+            for (int docId = otherDocIds.nextSetBit(0); docId >= 0; docId = otherDocIds.nextSetBit(docId + 1)) {
+                if (!docIds.get(docId)) {
+                    return false;
+                }
+            }
+        } else {
+            for (final Iterator<DocumentImpl> i = other.getDocumentIterator(); i.hasNext(); ) {
+                if (!contains(i.next().getDocId())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean contains(final int id) {
+        return id >= 0 && docIds.get(id);
+    }
+
+    @Override
+    public NodeSet docsToNodeSet() {
+        final NodeSet result = new NewArrayNodeSet();
+        for (final Iterator<DocumentImpl> i = getDocumentIterator(); i.hasNext(); ) {
+            final DocumentImpl doc = i.next();
+            if (doc.getResourceType() == DocumentImpl.XML_FILE) {  // skip binary resources
+                result.add(new NodeProxy(doc, NodeId.DOCUMENT_NODE));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equalDocs(final DocumentSet other) {
+        if (this == other) {
+            return true;
+        }
+
+        if (count != other.getDocumentCount()) {
+            return false;
+        }
+
+        if (other instanceof BitmapDocumentSet) {
+            return docIds.equals(((BitmapDocumentSet) other).docIds);
+        }
+
+        for (final Iterator<DocumentImpl> i = other.getDocumentIterator(); i.hasNext(); ) {
+            if (!contains(i.next().getDocId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public ManagedLocks<ManagedDocumentLock> lock(final DBBroker broker, final boolean exclusive) throws LockException {
+        final LockManager lockManager = broker.getBrokerPool().getLockManager();
+        final List<ManagedDocumentLock> managedDocumentLocks = new ArrayList<>(count);
+        final Iterator<DocumentImpl> documentIterator = getDocumentIterator();
+        try {
+            while (documentIterator.hasNext()) {
+                final DocumentImpl document = documentIterator.next();
+                final ManagedDocumentLock managedDocumentLock;
+                if (exclusive) {
+                    managedDocumentLock = lockManager.acquireDocumentWriteLock(document.getURI());
+                } else {
+                    managedDocumentLock = lockManager.acquireDocumentReadLock(document.getURI());
+                }
+                managedDocumentLocks.add(managedDocumentLock);
+            }
+            return new ManagedLocks<>(managedDocumentLocks);
+        } catch (final LockException e) {
+            // unlock any previously locked documents
+            if (!managedDocumentLocks.isEmpty()) {
+                new ManagedLocks<>(managedDocumentLocks).close();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder();
+        for (final Iterator<DocumentImpl> i = getDocumentIterator(); i.hasNext(); ) {
+            result.append(i.next());
+            if (i.hasNext()) {
+                result.append(", ");
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,951 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.dom.persistent;
+
+import org.exist.dom.QName;
+import org.exist.numbering.DLNBase;
+import org.exist.numbering.NodeId;
+import org.exist.numbering.NodeIdFactory;
+import org.exist.xquery.Constants;
+import org.exist.xquery.Expression;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.value.Item;
+import org.exist.xquery.value.SequenceIterator;
+import org.exist.xquery.value.Type;
+import org.w3c.dom.Node;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * An immutable node set which keeps its nodes in primitive arrays
+ * instead of one {@link NodeProxy} (plus node id) object per node.
+ *
+ * For every node the document, the serialized node id, the node type
+ * and the internal address are stored column-wise, sorted in document
+ * order. All nodes share the same {@link QName}, which makes this set a
+ * good fit for the results of a structural index lookup by name.
+ *
+ * Node proxies are only created when a node is actually accessed. They
+ * are kept once created, so every access of the same node, whether by a
+ * lookup ({@link #get(DocumentImpl, NodeId)},
+ * {@link #parentWithChild(DocumentImpl, NodeId, boolean, boolean)}, ...)
+ * or by an iterator, returns the same instance, as with the other node
+ * sets, and context or match information added to it is not lost. The
+ * structural joins with
+ * another node set ({@link #selectParentChild(NodeSet, int, int)} and
+ * {@link #selectAncestorDescendant(NodeSet, int, boolean, int, boolean)})
+ * work on the columns and only create proxies for the matching nodes.
+ *
+ * Instances are created by a {@link Builder}.
+ */
+public class ColumnarNodeSet extends AbstractNodeSet {
+
+    private final NodeIdFactory nodeIdFactory;
+    @Nullable private final QName qname;
+
+    private final int size;
+
+    // the nodes of every document, in order of document id
+    private final DocumentImpl[] documents;
+    private final int[] documentOffsets;    // one more than documents, the last one is size
+
+    private final int[] nodeIdOffsets;      // one more than size, the last one is the end of nodeIdData
+    private final int[] nodeIdUnits;
+    private final byte[] nodeIdData;
+    private final long[] addresses;
+    private final short[] nodeTypes;
+
+    private NodeProxy[] lookedUp = null;
+    private NewArrayNodeSet materialized = null;
+    private int indexType = Type.ANY_TYPE;
+
+    private ColumnarNodeSet(final NodeIdFactory nodeIdFactory, @Nullable final QName qname, final int size,
+            final DocumentImpl[] documents, final int[] documentOffsets, final int[] nodeIdOffsets,
+            final int[] nodeIdUnits, final byte[] nodeIdData, final long[] addresses, final short[] nodeTypes) {
+        this.nodeIdFactory = nodeIdFactory;
+        this.qname = qname;
+        this.size = size;
+        this.documents = documents;
+        this.documentOffsets = documentOffsets;
+        this.nodeIdOffsets = nodeIdOffsets;
+        this.nodeIdUnits = nodeIdUnits;
+        this.nodeIdData = nodeIdData;
+        this.addresses = addresses;
+        this.nodeTypes = nodeTypes;
+    }
+
+    /**
+     * @return the name shared by all nodes of this set, or null if the
+     * nodes have no name set
+     */
+    public @Nullable QName getQName() {
+        return qname;
+    }
+
+    @Override
+    public NodeSetIterator iterator() {
+        return new ColumnarIterator();
+    }
+
+    @Override
+    public SequenceIterator iterate() throws XPathException {
+        return new ColumnarIterator();
+    }
+
+    @Override
+    public SequenceIterator unorderedIterator() throws XPathException {
+        return new ColumnarIterator();
+    }
+
+    /**
+     * Nodes can not be added to a columnar node set, use a {@link Builder}.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void add(final NodeProxy proxy) {
+        throw new UnsupportedOperationException("ColumnarNodeSet is immutable");
+    }
+
+    /**
+     * Nodes can not be added to a columnar node set, use a {@link Builder}.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void addAll(final NodeSet other) {
+        throw new UnsupportedOperationException("ColumnarNodeSet is immutable");
+    }
+
+    @Override
+    public int getLength() {
+        return size;
+    }
+
+    @Override
+    public long getItemCountLong() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean hasOne() {
+        return size == 1;
+    }
+
+    @Override
+    public Node item(final int pos) {
+        final NodeProxy p = get(pos);
+        return p == null ? null : p.getNode();
+    }
+
+    @Override
+    public NodeProxy get(final int pos) {
+        if (pos < 0 || pos >= size) {
+            return null;
+        }
+        return lookup(documentIndexOf(pos), pos);
+    }
+
+    @Override
+    public Item itemAt(final int pos) {
+        return get(pos);
+    }
+
+    @Override
+    public NodeProxy get(final NodeProxy p) {
+        return get(p.getOwnerDocument(), p.getNodeId());
+    }
+
+    @Override
+    public NodeProxy get(final DocumentImpl doc, final NodeId nodeId) {
+        final int docIdx = findDocument(doc.getDocId());
+        if (docIdx < 0) {
+            return null;
+        }
+        final int pos = indexOf(docIdx, nodeId);
+        return pos < 0 ? null : lookup(docIdx, pos);
+    }
+
+    @Override
+    public boolean contains(final NodeProxy p) {
+        final int docIdx = findDocument(p.getOwnerDocument().getDocId());
+        return docIdx > -1 && indexOf(docIdx, p.getNodeId()) > -1;
+    }
+
+    @Override
+    public NodeProxy parentWithChild(final DocumentImpl doc, final NodeId nodeId, final boolean directParent,
+            final boolean includeSelf) {
+        final int docIdx = findDocument(doc.getDocId());
+        if (docIdx < 0) {
+            return null;
+        }
+        int pos;
+        if (includeSelf && (pos = indexOf(docIdx, nodeId)) > -1) {
+            return lookup(docIdx, pos);
+        }
+        NodeId parentNodeId = nodeId.getParentId();
+        while (parentNodeId != null) {
+            if ((pos = indexOf(docIdx, parentNodeId)) > -1) {
+                return lookup(docIdx, pos);
+            } else if (directParent) {
+                return null;
+            }
+            parentNodeId = parentNodeId.getParentId();
+        }
+        return null;
+    }
+
+    @Override
+    public int getSizeHint(final DocumentImpl doc) {
+        final int docIdx = findDocument(doc.getDocId());
+        if (docIdx < 0) {
+            return Constants.NO_SIZE_HINT;
+        }
+        return documentOffsets[docIdx + 1] - documentOffsets[docIdx];
+    }
+
+    @Override
+    public DocumentSet getDocumentSet() {
+        final BitmapDocumentSet docs = new BitmapDocumentSet();
+        for (final DocumentImpl doc : documents) {
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    @Override
+    public int getIndexType() {
+        //Is the index type initialized ?
+        if (indexType == Type.ANY_TYPE) {
+            for (final NodeSetIterator i = iterator(); i.hasNext(); ) {
+                final NodeProxy node = i.next();
+                if (node.getOwnerDocument().getCollection().isTempCollection()) {
+                    //Temporary nodes return default values
+                    indexType = Type.ITEM;
+                    break;
+                }
+                final int nodeIndexType = node.getIndexType();
+                if (indexType == Type.ANY_TYPE) {
+                    indexType = nodeIndexType;
+                } else if (indexType != nodeIndexType) {
+                    indexType = Type.ITEM;
+                }
+            }
+        }
+        return indexType;
+    }
+
+    @Override
+    public NodeSet selectParentChild(final NodeSet al, final int mode, final int contextId) {
+        if (al instanceof VirtualNodeSet) {
+            return super.selectParentChild(al, mode, contextId);
+        }
+        return getDescendantsInSet(al, true, false, mode, contextId, true);
+    }
+
+    @Override
+    public NodeSet selectAncestorDescendant(final NodeSet al, final int mode, final boolean includeSelf,
+            final int contextId, final boolean copyMatches) {
+        if (al instanceof VirtualNodeSet) {
+            return super.selectAncestorDescendant(al, mode, includeSelf, contextId, copyMatches);
+        }
+        return getDescendantsInSet(al, false, includeSelf, mode, contextId, copyMatches);
+    }
+
+    @Override
+    public NodeSet selectPrecedingSiblings(final NodeSet siblings, final int contextId) {
+        return materialize().selectPrecedingSiblings(siblings, contextId);
+    }
+
+    @Override
+    public NodeSet selectFollowingSiblings(final NodeSet siblings, final int contextId) {
+        return materialize().selectFollowingSiblings(siblings, contextId);
+    }
+
+    @Override
+    public NodeSet selectPreceding(final NodeSet preceding, final int contextId) throws XPathException {
+        return materialize().selectPreceding(preceding, contextId);
+    }
+
+    @Override
+    public NodeSet selectPreceding(final NodeSet preceding, final int nth, final int contextId)
+            throws XPathException, UnsupportedOperationException {
+        return materialize().selectPreceding(preceding, nth, contextId);
+    }
+
+    @Override
+    public NodeSet selectFollowing(final NodeSet following, final int contextId) throws XPathException {
+        return materialize().selectFollowing(following, contextId);
+    }
+
+    @Override
+    public NodeSet selectFollowing(final NodeSet following, final int position, final int contextId)
+            throws XPathException {
+        return materialize().selectFollowing(following, position, contextId);
+    }
+
+    /**
+     * If both sets are columnar and no node of them has been handed out
+     * by a lookup (and may thus carry a context or matches), the union is
+     * computed on the columns.
+     */
+    @Override
+    public NodeSet union(final NodeSet other) {
+        if (other instanceof ColumnarNodeSet && isPlain() && ((ColumnarNodeSet) other).isPlain()
+                && Objects.equals(qname, ((ColumnarNodeSet) other).qname)) {
+            return merge(this, (ColumnarNodeSet) other, false);
+        }
+        return super.union(other);
+    }
+
+    /**
+     * If both sets are columnar and no node of them has been handed out
+     * by a lookup (and may thus carry a context or matches), the
+     * intersection is computed on the columns.
+     */
+    @Override
+    public NodeSet intersection(final NodeSet other) {
+        if (other instanceof ColumnarNodeSet && isPlain() && ((ColumnarNodeSet) other).isPlain()
+                && Objects.equals(qname, ((ColumnarNodeSet) other).qname)) {
+            return merge(this, (ColumnarNodeSet) other, true);
+        }
+        return super.intersection(other);
+    }
+
+    private boolean isPlain() {
+        return lookedUp == null;
+    }
+
+    /**
+     * Find all nodes of this set which are children or descendants of a
+     * node in the given set. Same semantics as
+     * {@link NewArrayNodeSet#getDescendantsInSet(NodeSet, boolean, boolean, int, int, boolean)},
+     * but both sets are traversed once in document order, keeping the
+     * nodes of the given set which are ancestors of the current node on a
+     * stack (see {@link StructuralJoin}). Runs of nodes without any
+     * ancestor in the given set are skipped by a binary search.
+     */
+    private NodeSet getDescendantsInSet(final NodeSet al, final boolean childOnly, final boolean includeSelf,
+            final int mode, final int contextId, final boolean copyMatches) {
+        final NodeSet result = new NewArrayNodeSet();
+        if (size == 0) {
+            return result;
+        }
+
+        final Iterator<NodeProxy> ancestors = inDocumentOrder(al).iterator();
+        NodeProxy nextAncestor = ancestors.hasNext() ? ancestors.next() : null;
+        byte[] ancestorKey = nextAncestor == null ? null : serialize(nextAncestor.getNodeId());
+        final List<NodeProxy> stack = new ArrayList<>();
+        int stackDocId = -1;
+
+        int docIdx = 0;
+        int pos = 0;
+        while (true) {
+            if (stack.isEmpty()) {
+                if (nextAncestor == null) {
+                    break;  // no ancestors left for any further node
+                }
+                pos = lowerBound(nextAncestor.getOwnerDocument().getDocId(), ancestorKey, pos);
+            }
+            if (pos >= size) {
+                break;
+            }
+            while (documentOffsets[docIdx + 1] <= pos) {
+                docIdx++;
+            }
+            final int docId = documents[docIdx].getDocId();
+            if (docId != stackDocId) {
+                stack.clear();
+                stackDocId = docId;
+            }
+
+            // push the ancestor candidates up to and including the current node
+            while (nextAncestor != null && compare(nextAncestor.getOwnerDocument().getDocId(), ancestorKey, docId, pos) <= 0) {
+                if (nextAncestor.getOwnerDocument().getDocId() == docId) {
+                    StructuralJoin.popUnrelated(stack, nextAncestor.getNodeId());
+                    stack.add(nextAncestor);
+                }
+                nextAncestor = ancestors.hasNext() ? ancestors.next() : null;
+                ancestorKey = nextAncestor == null ? null : serialize(nextAncestor.getNodeId());
+            }
+            if (stack.isEmpty()) {
+                continue;   // skip ahead to the next ancestor
+            }
+
+            final NodeId nodeId = nodeIdAt(pos);
+            StructuralJoin.popUnrelated(stack, nodeId);
+
+            NodeProxy node = null;
+            for (int i = 0; i < stack.size(); i++) {
+                final NodeProxy parent = stack.get(i);
+                final int relation = StructuralJoin.relation(nodeId, parent.getNodeId());
+                final boolean add;
+                if (childOnly) {
+                    add = relation == NodeId.IS_CHILD;
+                } else if (relation == NodeId.IS_SELF) {
+                    add = includeSelf;
+                } else {
+                    add = true;
+                }
+                if (!add) {
+                    continue;
+                }
+                if (node == null) {
+                    node = proxyAt(docIdx, pos, nodeId);
+                }
+                switch (mode) {
+                    case NodeSet.DESCENDANT:
+                        if (Expression.NO_CONTEXT_ID != contextId) {
+                            node.deepCopyContext(parent, contextId);
+                        } else {
+                            node.copyContext(parent);
+                        }
+                        if (copyMatches) {
+                            node.addMatches(parent);
+                        }
+                        break;
+                    case NodeSet.ANCESTOR:
+                        if (Expression.NO_CONTEXT_ID != contextId) {
+                            parent.deepCopyContext(node, contextId);
+                        } else {
+                            parent.copyContext(node);
+                        }
+                        if (copyMatches) {
+                            parent.addMatches(node);
+                        }
+                        result.add(parent, 1);
+                        break;
+                }
+            }
+            if (node != null && mode == NodeSet.DESCENDANT) {
+                result.add(node);
+            }
+            pos++;
+        }
+        return result;
+    }
+
+    private static NodeSet inDocumentOrder(final NodeSet set) {
+        if (StructuralJoin.isDocumentOrdered(set)) {
+            return set;
+        }
+        final NewArrayNodeSet ordered = new NewArrayNodeSet();
+        ordered.addAll(set);
+        return ordered;
+    }
+
+    /**
+     * @return a node set holding the proxy of every node of this set,
+     * which is only built once
+     */
+    private NewArrayNodeSet materialize() {
+        if (materialized == null) {
+            final NewArrayNodeSet set = new NewArrayNodeSet();
+            for (final NodeSetIterator i = iterator(); i.hasNext(); ) {
+                set.add(i.next(), Constants.NO_SIZE_HINT);
+            }
+            materialized = set;
+        }
+        return materialized;
+    }
+
+    /**
+     * Return the proxy for the given node, which is kept for later
+     * accesses of the same node.
+     */
+    private NodeProxy lookup(final int docIdx, final int pos) {
+        return proxyAt(docIdx, pos, null);
+    }
+
+    /**
+     * Return the proxy for the given node: the one handed out by an
+     * earlier access, or a new one, which is kept.
+     *
+     * @param nodeId the id of the node if already known, or null
+     */
+    private NodeProxy proxyAt(final int docIdx, final int pos, @Nullable final NodeId nodeId) {
+        if (lookedUp == null) {
+            lookedUp = new NodeProxy[size];
+        }
+        NodeProxy p = lookedUp[pos];
+        if (p == null) {
+            p = newProxy(docIdx, pos, nodeId == null ? nodeIdAt(pos) : nodeId);
+            lookedUp[pos] = p;
+        }
+        return p;
+    }
+
+    private NodeProxy newProxy(final int docIdx, final int pos, final NodeId nodeId) {
+        final NodeProxy p = new NodeProxy(documents[docIdx], nodeId, nodeTypes[pos], addresses[pos]);
+        if (qname != null) {
+            p.setQName(qname);
+        }
+        return p;
+    }
+
+    private NodeId nodeIdAt(final int pos) {
+        return nodeIdFactory.createFromData(nodeIdUnits[pos], nodeIdData, nodeIdOffsets[pos]);
+    }
+
+    private int documentIndexOf(final int pos) {
+        int low = 0;
+        int high = documents.length - 1;
+        while (low < high) {
+            final int mid = (low + high + 1) >>> 1;
+            if (documentOffsets[mid] <= pos) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private int findDocument(final int docId) {
+        int low = 0;
+        int high = documents.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = Integer.compare(documents[mid].getDocId(), docId);
+            if (cmp == 0) {
+                return mid;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the node in the document's run of nodes,
+     * or -1 if it is not contained
+     */
+    private int indexOf(final int docIdx, final NodeId nodeId) {
+        final byte[] key = serialize(nodeId);
+        int low = documentOffsets[docIdx];
+        int high = documentOffsets[docIdx + 1] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = compareNodeId(mid, key);
+            if (cmp == 0) {
+                return nodeIdUnits[mid] == nodeId.units() ? mid : -1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the first node, starting at from, which does
+     * not precede the given node in document order
+     */
+    private int lowerBound(final int docId, final byte[] key, final int from) {
+        int low = from;
+        int high = size;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compare(docId, key, documents[documentIndexOf(mid)].getDocId(), mid) > 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compare the given node to the node at pos, in document order.
+     */
+    private int compare(final int docId, final byte[] key, final int posDocId, final int pos) {
+        if (docId != posDocId) {
+            return docId < posDocId ? -1 : 1;
+        }
+        return -compareNodeId(pos, key);
+    }
+
+    private int compareNodeId(final int pos, final byte[] key) {
+        return DLNBase.compare(nodeIdData, nodeIdOffsets[pos], nodeIdOffsets[pos + 1] - nodeIdOffsets[pos],
+                key, 0, key.length);
+    }
+
+    private static byte[] serialize(final NodeId nodeId) {
+        final byte[] key = new byte[nodeId.size()];
+        nodeId.serialize(key, 0);
+        final int length = (nodeId.units() + 7) / 8;
+        return length == key.length ? key : Arrays.copyOf(key, length);
+    }
+
+    /**
+     * Merge two columnar sets, keeping either all of their nodes or the
+     * nodes contained in both.
+     */
+    private static ColumnarNodeSet merge(final ColumnarNodeSet a, final ColumnarNodeSet b, final boolean intersect) {
+        final Builder builder = new Builder(a.nodeIdFactory, a.qname);
+        int i = 0;
+        int j = 0;
+        int aDoc = 0;
+        int bDoc = 0;
+        while (i < a.size && j < b.size) {
+            while (a.documentOffsets[aDoc + 1] <= i) {
+                aDoc++;
+            }
+            while (b.documentOffsets[bDoc + 1] <= j) {
+                bDoc++;
+            }
+            final int aDocId = a.documents[aDoc].getDocId();
+            final int bDocId = b.documents[bDoc].getDocId();
+            int cmp = Integer.compare(aDocId, bDocId);
+            if (cmp == 0) {
+                cmp = DLNBase.compare(a.nodeIdData, a.nodeIdOffsets[i], a.nodeIdOffsets[i + 1] - a.nodeIdOffsets[i],
+                        b.nodeIdData, b.nodeIdOffsets[j], b.nodeIdOffsets[j + 1] - b.nodeIdOffsets[j]);
+                if (cmp == 0) {
+                    cmp = a.nodeIdUnits[i] - b.nodeIdUnits[j];
+                }
+            }
+            if (cmp == 0) {
+                a.copyTo(builder, aDoc, i++);
+                j++;
+            } else if (cmp < 0) {
+                if (!intersect) {
+                    a.copyTo(builder, aDoc, i);
+                }
+                i++;
+            } else {
+                if (!intersect) {
+                    b.copyTo(builder, bDoc, j);
+                }
+                j++;
+            }
+        }
+        if (!intersect) {
+            for (; i < a.size; i++) {
+                while (a.documentOffsets[aDoc + 1] <= i) {
+                    aDoc++;
+                }
+                a.copyTo(builder, aDoc, i);
+            }
+            for (; j < b.size; j++) {
+                while (b.documentOffsets[bDoc + 1] <= j) {
+                    bDoc++;
+                }
+                b.copyTo(builder, bDoc, j);
+            }
+        }
+        return builder.build();
+    }
+
+    private void copyTo(final Builder builder, final int docIdx, final int pos) {
+        builder.add(documents[docIdx], nodeIdData, nodeIdOffsets[pos], nodeIdUnits[pos], nodeTypes[pos],
+                addresses[pos]);
+    }
+
+    private class ColumnarIterator implements NodeSetIterator, SequenceIterator {
+        private int pos = 0;
+        private int docIdx = 0;
+
+        @Override
+        public final boolean hasNext() {
+            return pos < size && pos > -1;
+        }
+
+        @Override
+        public final NodeProxy next() {
+            if (pos == size || pos < 0) {
+                pos = -1;
+                throw new NoSuchElementException();
+            }
+            return current(pos++);
+        }
+
+        @Override
+        public long skippable() {
+            if (pos == -1) {
+                return 0;
+            }
+            return size - pos;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final long skip = Math.min(n, pos == -1 ? 0 : size - pos);
+            pos += skip;
+            return skip;
+        }
+
+        @Override
+        public final void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public final NodeProxy peekNode() {
+            if (pos == size || pos < 0) {
+                pos = -1;
+                return null;
+            }
+            return current(pos);
+        }
+
+        @Override
+        public final Item nextItem() {
+            if (pos == size || pos < 0) {
+                pos = -1;
+                return null;
+            }
+            return current(pos++);
+        }
+
+        @Override
+        public void setPosition(final NodeProxy proxy) {
+            final int docIdx = findDocument(proxy.getOwnerDocument().getDocId());
+            if (docIdx > -1) {
+                final int p = indexOf(docIdx, proxy.getNodeId());
+                if (p > -1) {
+                    this.pos = p;
+                    this.docIdx = docIdx;
+                    return;
+                }
+            }
+            pos = -1;
+        }
+
+        private NodeProxy current(final int pos) {
+            if (documentOffsets[docIdx] > pos) {
+                docIdx = 0;
+            }
+            while (documentOffsets[docIdx + 1] <= pos) {
+                docIdx++;
+            }
+            return proxyAt(docIdx, pos, null);
+        }
+    }
+
+    /**
+     * Collects the nodes of a {@link ColumnarNodeSet}.
+     *
+     * Nodes may be added in any order; if they are not added in document
+     * order, they are sorted when the set is built. Duplicate nodes are
+     * only kept once.
+     */
+    public static class Builder {
+        private static final int INITIAL_SIZE = 64;
+
+        private final NodeIdFactory nodeIdFactory;
+        @Nullable private final QName qname;
+
+        private int size = 0;
+        private DocumentImpl[] documents = new DocumentImpl[INITIAL_SIZE];
+        private int[] nodeIdOffsets = new int[INITIAL_SIZE + 1];
+        private int[] nodeIdUnits = new int[INITIAL_SIZE];
+        private byte[] nodeIdData = new byte[INITIAL_SIZE * 4];
+        private long[] addresses = new long[INITIAL_SIZE];
+        private short[] nodeTypes = new short[INITIAL_SIZE];
+        private boolean ordered = true;
+
+        /**
+         * @param nodeIdFactory the factory used to read the node ids back
+         * @param qname         the name shared by all nodes, or null
+         */
+        public Builder(final NodeIdFactory nodeIdFactory, @Nullable final QName qname) {
+            this.nodeIdFactory = nodeIdFactory;
+            this.qname = qname;
+        }
+
+        /**
+         * Add a node.
+         *
+         * @param doc      the document of the node
+         * @param nodeId   the id of the node
+         * @param nodeType the DOM node type of the node
+         * @param address  the internal address of the node
+         * @return this builder
+         */
+        public Builder add(final DocumentImpl doc, final NodeId nodeId, final short nodeType, final long address) {
+            final byte[] key = serialize(nodeId);
+            return add(doc, key, 0, nodeId.units(), nodeType, address);
+        }
+
+        /**
+         * Add a node by its serialized node id, without creating a
+         * {@link NodeId} for it.
+         *
+         * @param doc      the document of the node
+         * @param data     the serialized node id, as written by {@link NodeId#serialize(byte[], int)}
+         * @param offset   the offset of the node id in data
+         * @param units    the number of bits of the node id
+         * @param nodeType the DOM node type of the node
+         * @param address  the internal address of the node
+         * @return this builder
+         */
+        public Builder add(final DocumentImpl doc, final byte[] data, final int offset, final int units,
+                final short nodeType, final long address) {
+            final int length = (units + 7) / 8;
+            if (size > 0 && ordered) {
+                final int cmp = compare(size - 1, doc.getDocId(), data, offset, length, units);
+                if (cmp == 0) {
+                    return this;    // duplicate
+                } else if (cmp > 0) {
+                    ordered = false;
+                }
+            }
+            ensureCapacity(length);
+            final int dataOffset = nodeIdOffsets[size];
+            System.arraycopy(data, offset, nodeIdData, dataOffset, length);
+            nodeIdOffsets[size + 1] = dataOffset + length;
+            documents[size] = doc;
+            nodeIdUnits[size] = units;
+            addresses[size] = address;
+            nodeTypes[size] = nodeType;
+            size++;
+            return this;
+        }
+
+        /**
+         * @return the number of nodes added so far
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Build the node set from the nodes added so far.
+         *
+         * @return the node set
+         */
+        public ColumnarNodeSet build() {
+            if (!ordered) {
+                sort();
+            }
+
+            int documentCount = 0;
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || documents[i].getDocId() != documents[i - 1].getDocId()) {
+                    documentCount++;
+                }
+            }
+            final DocumentImpl[] docs = new DocumentImpl[documentCount];
+            final int[] documentOffsets = new int[documentCount + 1];
+            int docIdx = -1;
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || documents[i].getDocId() != documents[i - 1].getDocId()) {
+                    docs[++docIdx] = documents[i];
+                    documentOffsets[docIdx] = i;
+                }
+            }
+            documentOffsets[documentCount] = size;
+
+            return new ColumnarNodeSet(nodeIdFactory, qname, size, docs, documentOffsets,
+                    Arrays.copyOf(nodeIdOffsets, size + 1), Arrays.copyOf(nodeIdUnits, size),
+                    Arrays.copyOf(nodeIdData, nodeIdOffsets[size]), Arrays.copyOf(addresses, size),
+                    Arrays.copyOf(nodeTypes, size));
+        }
+
+        /**
+         * Sort the nodes into document order, dropping duplicates.
+         */
+        private void sort() {
+            final Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            // a stable sort, so of several duplicates the first one added is kept
+            Arrays.sort(order, (i, j) -> compare(i, j));
+
+            final DocumentImpl[] sortedDocuments = new DocumentImpl[documents.length];
+            final int[] sortedOffsets = new int[nodeIdOffsets.length];
+            final int[] sortedUnits = new int[nodeIdUnits.length];
+            final byte[] sortedData = new byte[nodeIdData.length];
+            final long[] sortedAddresses = new long[addresses.length];
+            final short[] sortedTypes = new short[nodeTypes.length];
+            int count = 0;
+            for (int k = 0; k < size; k++) {
+                final int i = order[k];
+                if (k > 0 && compare(order[k - 1], i) == 0) {
+                    continue;
+                }
+                final int offset = nodeIdOffsets[i];
+                final int length = nodeIdOffsets[i + 1] - offset;
+                System.arraycopy(nodeIdData, offset, sortedData, sortedOffsets[count], length);
+                sortedOffsets[count + 1] = sortedOffsets[count] + length;
+                sortedDocuments[count] = documents[i];
+                sortedUnits[count] = nodeIdUnits[i];
+                sortedAddresses[count] = addresses[i];
+                sortedTypes[count] = nodeTypes[i];
+                count++;
+            }
+
+            documents = sortedDocuments;
+            nodeIdOffsets = sortedOffsets;
+            nodeIdUnits = sortedUnits;
+            nodeIdData = sortedData;
+            addresses = sortedAddresses;
+            nodeTypes = sortedTypes;
+            size = count;
+            ordered = true;
+        }
+
+        private int compare(final int i, final int j) {
+            return compare(i, documents[j].getDocId(), nodeIdData, nodeIdOffsets[j],
+                    nodeIdOffsets[j + 1] - nodeIdOffsets[j], nodeIdUnits[j]);
+        }
+
+        private int compare(final int i, final int docId, final byte[] data, final int offset, final int length,
+                final int units) {
+            final int iDocId = documents[i].getDocId();
+            if (iDocId != docId) {
+                return iDocId < docId ? -1 : 1;
+            }
+            final int cmp = DLNBase.compare(nodeIdData, nodeIdOffsets[i], nodeIdOffsets[i + 1] - nodeIdOffsets[i],
+                    data, offset, length);
+            return cmp != 0 ? cmp : nodeIdUnits[i] - units;
+        }
+
+        private void ensureCapacity(final int length) {
+            if (size == documents.length) {
+                final int capacity = size << 1;
+                documents = Arrays.copyOf(documents, capacity);
+                nodeIdOffsets = Arrays.copyOf(nodeIdOffsets, capacity + 1);
+                nodeIdUnits = Arrays.copyOf(nodeIdUnits, capacity);
+                addresses = Arrays.copyOf(addresses, capacity);
+                nodeTypes = Arrays.copyOf(nodeTypes, capacity);
+            }
+            final int required = nodeIdOffsets[size] + length;
+            if (required > nodeIdData.length) {
+                nodeIdData = Arrays.copyOf(nodeIdData, Math.max(required, nodeIdData.length << 1));
+            }
+        }
+    }
+}
@@ -110,6 +110,13 @@ public class ExtArrayNodeSet extends AbstractArrayNodeSet implements DocumentSet
         keepUnOrdered = flag;
     }
 
+    /**
+     * @return true if the nodes are not sorted into document order
+     */
+    boolean isKeptUnOrdered() {
+        return keepUnOrdered;
+    }
+
     /**
      * The method <code>getPart</code>
      *
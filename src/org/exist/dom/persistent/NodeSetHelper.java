@@ -63,6 +63,41 @@ public final class NodeSetHelper {
     public static NodeSet selectParentChild(final NodeSet dl, final NodeSet al,
             final int mode, final int contextId) {
         final ExtArrayNodeSet result = new ExtArrayNodeSet();
+        if(StructuralJoin.canJoin(al, dl)) {
+            switch(mode) {
+
+                case NodeSet.DESCENDANT:
+                    StructuralJoin.join(al, dl, true, false, false, (parent, child) -> {
+                        if(Expression.NO_CONTEXT_ID != contextId) {
+                            child.deepCopyContext(parent, contextId);
+                        } else {
+                            child.copyContext(parent);
+                        }
+                        result.add(child, dl.getSizeHint(child.getOwnerDocument()));
+                        return true;
+                    });
+                    break;
+
+                case NodeSet.ANCESTOR:
+                    StructuralJoin.join(al, dl, true, false, false, (parent, child) -> {
+                        if(Expression.NO_CONTEXT_ID != contextId) {
+                            parent.deepCopyContext(child, contextId);
+                        } else {
+                            parent.copyContext(child);
+                        }
+                        parent.addMatches(child);
+                        result.add(parent, al.getSizeHint(parent.getOwnerDocument()));
+                        return true;
+                    });
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Bad 'mode' argument");
+            }
+            result.sort();
+            return result;
+        }
+
         DocumentImpl lastDoc = null;
         switch(mode) {
 
@@ -116,6 +151,14 @@ public final class NodeSetHelper {
 
     public static boolean matchParentChild(final NodeSet dl, final NodeSet al,
             final int mode, final int contextId) {
+        if(StructuralJoin.canJoin(al, dl)) {
+            if(mode != NodeSet.DESCENDANT && mode != NodeSet.ANCESTOR) {
+                throw new IllegalArgumentException("Bad 'mode' argument");
+            }
+            // stop at the first parent found
+            return !StructuralJoin.join(al, dl, true, false, false, (parent, child) -> false);
+        }
+
         DocumentImpl lastDoc = null;
         switch(mode) {
 
@@ -176,6 +219,39 @@ public final class NodeSetHelper {
             final NodeSet al, final int mode, final boolean includeSelf,
             final int contextId) {
         final ExtArrayNodeSet result = new ExtArrayNodeSet();
+        if(StructuralJoin.canJoin(al, dl)) {
+            switch(mode) {
+
+                case NodeSet.DESCENDANT:
+                    StructuralJoin.join(al, dl, false, includeSelf, false, (ancestor, descendant) -> {
+                        if(Expression.NO_CONTEXT_ID != contextId) {
+                            descendant.addContextNode(contextId, ancestor);
+                        } else {
+                            descendant.copyContext(ancestor);
+                        }
+                        result.add(descendant, dl.getSizeHint(descendant.getOwnerDocument()));
+                        return true;
+                    });
+                    break;
+
+                case NodeSet.ANCESTOR:
+                    StructuralJoin.join(al, dl, false, includeSelf, false, (ancestor, descendant) -> {
+                        if(Expression.NO_CONTEXT_ID != contextId) {
+                            ancestor.addContextNode(contextId, descendant);
+                        } else {
+                            ancestor.copyContext(descendant);
+                        }
+                        result.add(ancestor, al.getSizeHint(ancestor.getOwnerDocument()));
+                        return true;
+                    });
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Bad 'mode' argument");
+            }
+            return result;
+        }
+
         DocumentImpl lastDoc = null;
         switch(mode) {
 
@@ -229,6 +305,36 @@ public final class NodeSetHelper {
 
     public static boolean matchAncestorDescendant(final NodeSet dl,
             final NodeSet al, final int mode, final boolean includeSelf, final int contextId) {
+        if(StructuralJoin.canJoin(al, dl)) {
+            switch(mode) {
+
+                case NodeSet.DESCENDANT:
+                    // stop at the first match
+                    return !StructuralJoin.join(al, dl, false, includeSelf, false, (ancestor, descendant) -> {
+                        if(Expression.NO_CONTEXT_ID != contextId) {
+                            descendant.addContextNode(contextId, ancestor);
+                        } else {
+                            descendant.copyContext(ancestor);
+                        }
+                        return false;
+                    });
+
+                case NodeSet.ANCESTOR:
+                    // stop at the first match
+                    return !StructuralJoin.join(al, dl, false, includeSelf, false, (ancestor, descendant) -> {
+                        if(Expression.NO_CONTEXT_ID != contextId) {
+                            ancestor.addContextNode(contextId, descendant);
+                        } else {
+                            ancestor.copyContext(descendant);
+                        }
+                        return false;
+                    });
+
+                default:
+                    throw new IllegalArgumentException("Bad 'mode' argument");
+            }
+        }
+
         final ExtArrayNodeSet result = new ExtArrayNodeSet();
         DocumentImpl lastDoc = null;
         switch(mode) {
@@ -300,32 +406,60 @@ public final class NodeSetHelper {
     public static NodeSet selectAncestors(final NodeSet al, final NodeSet dl,
             final boolean includeSelf, final int contextId) {
         final NodeSet result = new NewArrayNodeSet();
+        if(StructuralJoin.canJoin(al, dl)) {
+            StructuralJoin.join(al, dl, false, includeSelf, true, (ancestor, descendant) -> {
+                addAncestor(result, ancestor, descendant, contextId);
+                return true;
+            });
+            return result;
+        }
+
         for(final NodeProxy descendant : dl) {
             final NodeSet ancestors = ancestorsForChild(al, descendant, false, includeSelf);
             for(final NodeProxy ancestor : ancestors) {
                 if(ancestor != null) {
-                    final NodeProxy temp = result.get(ancestor);
-                    if(temp == null) {
-                        if(Expression.IGNORE_CONTEXT != contextId) {
-                            if(Expression.NO_CONTEXT_ID != contextId) {
-                                ancestor.addContextNode(contextId, descendant);
-                            } else {
-                                ancestor.copyContext(descendant);
-                            }
-                        }
-                        ancestor.addMatches(descendant);
-                        result.add(ancestor);
-                    } else if(Expression.NO_CONTEXT_ID != contextId) {
-                        temp.addContextNode(contextId, descendant);
-                    }
+                    addAncestor(result, ancestor, descendant, contextId);
                 }
             }
         }
         return result;
     }
 
+    private static void addAncestor(final NodeSet result, final NodeProxy ancestor,
+            final NodeProxy descendant, final int contextId) {
+        final NodeProxy temp = result.get(ancestor);
+        if(temp == null) {
+            if(Expression.IGNORE_CONTEXT != contextId) {
+                if(Expression.NO_CONTEXT_ID != contextId) {
+                    ancestor.addContextNode(contextId, descendant);
+                } else {
+                    ancestor.copyContext(descendant);
+                }
+            }
+            ancestor.addMatches(descendant);
+            result.add(ancestor);
+        } else if(Expression.NO_CONTEXT_ID != contextId) {
+            temp.addContextNode(contextId, descendant);
+        }
+    }
+
     public static boolean matchAncestors(final NodeSet al, final NodeSet dl,
             final boolean includeSelf, final int contextId) {
+        if(StructuralJoin.canJoin(al, dl)) {
+            // the first ancestor found is a match
+            return !StructuralJoin.join(al, dl, false, includeSelf, true, (ancestor, descendant) -> {
+                if(Expression.IGNORE_CONTEXT != contextId) {
+                    if(Expression.NO_CONTEXT_ID != contextId) {
+                        ancestor.addContextNode(contextId, descendant);
+                    } else {
+                        ancestor.copyContext(descendant);
+                    }
+                }
+                ancestor.addMatches(descendant);
+                return false;
+            });
+        }
+
         final NodeSet result = new NewArrayNodeSet();
         for(final NodeProxy descendant : dl) {
             final NodeSet ancestors = ancestorsForChild(al, descendant, false, includeSelf);
@@ -0,0 +1,199 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.dom.persistent;
+
+import org.exist.numbering.NodeId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Stack based structural join of a set of potential ancestors with a set
+ * of potential descendants.
+ *
+ * Both node sets are traversed once, in document order. The ancestors of
+ * the current descendant node are kept on a stack: an ancestor candidate
+ * is pushed when the traversal reaches it, and popped as soon as the
+ * traversal leaves its subtree. At every descendant node the stack thus
+ * holds exactly those nodes of the ancestor set which are ancestors (or
+ * self) of it, nearest on top.
+ *
+ * This replaces looking up every ancestor level of every descendant node
+ * in the ancestor set, which needs a new node id and a search per level.
+ *
+ * @see NodeSetHelper
+ */
+final class StructuralJoin {
+
+    /**
+     * If the set of ancestors is much larger than the set of descendants,
+     * looking up the few descendants in it is cheaper than traversing it.
+     */
+    private static final int MAX_ANCESTOR_RATIO = 32;
+
+    private StructuralJoin() {
+        //Utility class of static methods
+    }
+
+    /**
+     * Receives the ancestor/descendant pairs found by a join.
+     */
+    @FunctionalInterface
+    interface PairHandler {
+
+        /**
+         * @param ancestor   the node from the ancestor set
+         * @param descendant the node from the descendant set
+         * @return true to continue the join, false to stop it
+         */
+        boolean pair(NodeProxy ancestor, NodeProxy descendant);
+    }
+
+    /**
+     * Check if the given node sets should be joined by
+     * {@link #join(NodeSet, NodeSet, boolean, boolean, boolean, PairHandler)}.
+     *
+     * @param al node set containing potential ancestors
+     * @param dl node set containing potential descendants
+     * @return true if both sets iterate in document order and a join is
+     * cheaper than looking up the ancestors of every descendant
+     */
+    static boolean canJoin(final NodeSet al, final NodeSet dl) {
+        return isDocumentOrdered(al) && isDocumentOrdered(dl)
+                && (long) al.getLength() <= (long) dl.getLength() * MAX_ANCESTOR_RATIO;
+    }
+
+    static boolean isDocumentOrdered(final NodeSet set) {
+        if (set instanceof ExtArrayNodeSet) {
+            return !((ExtArrayNodeSet) set).isKeptUnOrdered();
+        }
+        return set instanceof NewArrayNodeSet || set instanceof AVLTreeNodeSet || set instanceof ColumnarNodeSet
+                || set instanceof NodeProxy;
+    }
+
+    /**
+     * Join the potential ancestors with the potential descendants, passing
+     * every matching pair to the handler.
+     *
+     * The pairs are produced in document order of the descendants. If
+     * allAncestors is true, every matching ancestor of a descendant is
+     * passed, in document order; otherwise only the nearest one, which is
+     * the node {@link NodeSet#parentWithChild(DocumentImpl, NodeId, boolean, boolean)}
+     * would return.
+     *
+     * @param al           node set containing potential ancestors, in document order
+     * @param dl           node set containing potential descendants, in document order
+     * @param directParent only match ancestors which are the parent of the descendant
+     * @param includeSelf  also match a descendant with itself
+     * @param allAncestors pass all ancestors of a descendant, not just the nearest
+     * @param handler      receives the matching pairs
+     * @return false if the handler stopped the join, true otherwise
+     */
+    static boolean join(final NodeSet al, final NodeSet dl, final boolean directParent,
+            final boolean includeSelf, final boolean allAncestors, final PairHandler handler) {
+        final Iterator<NodeProxy> ancestors = al.iterator();
+        NodeProxy nextAncestor = ancestors.hasNext() ? ancestors.next() : null;
+        final List<NodeProxy> stack = new ArrayList<>();
+        int stackDocId = -1;
+
+        for (final Iterator<NodeProxy> descendants = dl.iterator(); descendants.hasNext(); ) {
+            final NodeProxy descendant = descendants.next();
+            final int docId = descendant.getOwnerDocument().getDocId();
+            if (docId != stackDocId) {
+                stack.clear();
+                stackDocId = docId;
+            }
+
+            // push the ancestor candidates up to and including the descendant
+            while (nextAncestor != null && nextAncestor.compareTo(descendant) <= 0) {
+                if (nextAncestor.getOwnerDocument().getDocId() == docId) {
+                    popUnrelated(stack, nextAncestor.getNodeId());
+                    stack.add(nextAncestor);
+                }
+                nextAncestor = ancestors.hasNext() ? ancestors.next() : null;
+            }
+
+            final NodeId descendantId = descendant.getNodeId();
+            popUnrelated(stack, descendantId);
+            if (stack.isEmpty()) {
+                if (nextAncestor == null) {
+                    break;  // no ancestors left for any further descendant
+                }
+                continue;
+            }
+
+            if (allAncestors) {
+                for (int i = 0; i < stack.size(); i++) {
+                    final NodeProxy ancestor = stack.get(i);
+                    if (matches(relation(descendantId, ancestor.getNodeId()), directParent, includeSelf)
+                            && !handler.pair(ancestor, descendant)) {
+                        return false;
+                    }
+                }
+            } else {
+                for (int i = stack.size() - 1; i >= 0; i--) {
+                    final NodeProxy ancestor = stack.get(i);
+                    if (matches(relation(descendantId, ancestor.getNodeId()), directParent, includeSelf)) {
+                        if (!handler.pair(ancestor, descendant)) {
+                            return false;
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(final int relation, final boolean directParent, final boolean includeSelf) {
+        if (relation == NodeId.IS_SELF) {
+            return includeSelf;
+        }
+        return !directParent || relation == NodeId.IS_CHILD;
+    }
+
+    /**
+     * Pop the nodes which are not ancestors (or self) of the given node,
+     * i.e. whose subtree precedes it, off the stack.
+     */
+    static void popUnrelated(final List<NodeProxy> stack, final NodeId nodeId) {
+        for (int i = stack.size() - 1; i >= 0 && relation(nodeId, stack.get(i).getNodeId()) < 0; i--) {
+            stack.remove(i);
+        }
+    }
+
+    /**
+     * Like {@link NodeId#computeRelation(NodeId)}, but also handles
+     * document nodes which are not the {@link NodeId#DOCUMENT_NODE} instance.
+     *
+     * @return the relation of the node to the ancestor, or -1 if the
+     * ancestor is neither an ancestor of the node nor the node itself
+     */
+    static int relation(final NodeId nodeId, final NodeId ancestorId) {
+        if (nodeId.equals(ancestorId)) {
+            return NodeId.IS_SELF;
+        }
+        if (ancestorId.equals(NodeId.DOCUMENT_NODE)) {
+            return nodeId.getTreeLevel() == 1 ? NodeId.IS_CHILD : NodeId.IS_DESCENDANT;
+        }
+        return nodeId.computeRelation(ancestorId);
+    }
+}
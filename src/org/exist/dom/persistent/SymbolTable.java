@@ -32,7 +32,6 @@ import org.exist.storage.io.VariableByteInputStream;
 import org.exist.storage.io.VariableByteOutputStream;
 import org.exist.util.Configuration;
 import org.exist.util.FileUtils;
-import org.exist.util.hashtable.Object2IntHashMap;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -41,7 +40,9 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Maintains a global symbol table shared by a database instance. The symbol
@@ -105,7 +106,7 @@ public class SymbolTable implements BrokerPoolService, Closeable {
     /**
      * set to true if the symbol table needs to be saved
      */
-    private boolean changed = false;
+    private volatile boolean changed = false;
 
     /**
      * the underlying symbols.dbx file
@@ -149,19 +150,22 @@ public class SymbolTable implements BrokerPoolService, Closeable {
     /**
      * Retrieve a shared QName instance from the temporary pool.
      * <p/>
+     * The pool has its own lock, so it does not block symbol lookups.
      * TODO: make the namePool thread-local to avoid synchronization.
      *
      * @param namespaceURI
      * @param localName
      * @param prefix
      */
-    public synchronized QName getQName(final short type, final String namespaceURI, final String localName, final String prefix) {
+    public QName getQName(final short type, final String namespaceURI, final String localName, final String prefix) {
         final byte itype = type == Node.ATTRIBUTE_NODE ? ElementValue.ATTRIBUTE : ElementValue.ELEMENT;
-        QName qn = namePool.get(itype, namespaceURI, localName, prefix);
-        if(qn == null) {
-            qn = namePool.add(itype, namespaceURI, localName, prefix);
+        synchronized(namePool) {
+            QName qn = namePool.get(itype, namespaceURI, localName, prefix);
+            if(qn == null) {
+                qn = namePool.add(itype, namespaceURI, localName, prefix);
+            }
+            return qn;
         }
-        return qn;
     }
 
     /**
@@ -170,7 +174,7 @@ public class SymbolTable implements BrokerPoolService, Closeable {
      * @param element
      */
     //TODO the (short) cast is nasty - should consider using either short or int end to end
-    public synchronized short getSymbol(final Element element) {
+    public short getSymbol(final Element element) {
         return (short) localNameSymbols.getId(element.getLocalName());
     }
 
@@ -180,7 +184,7 @@ public class SymbolTable implements BrokerPoolService, Closeable {
      * @param attr
      */
     //TODO the (short) cast is nasty - should consider using either short or int end to end
-    public synchronized short getSymbol(final Attr attr) {
+    public short getSymbol(final Attr attr) {
         final String key = ATTR_NAME_PREFIX + attr.getLocalName();
         return (short) localNameSymbols.getId(key);
     }
@@ -192,7 +196,7 @@ public class SymbolTable implements BrokerPoolService, Closeable {
      * @param name
      */
     //TODO the (short) cast is nasty - should consider using either short or int end to end
-    public synchronized short getSymbol(final String name) {
+    public short getSymbol(final String name) {
         if(name.length() == 0) {
             throw new IllegalArgumentException("name is empty");
         }
@@ -205,14 +209,14 @@ public class SymbolTable implements BrokerPoolService, Closeable {
      * @param ns
      */
     //TODO the (short) cast is nasty - should consider using either short or int end to end
-    public synchronized short getNSSymbol(final String ns) {
+    public short getNSSymbol(final String ns) {
         if(ns == null || ns.length() == 0) {
             return 0;
         }
         return (short) namespaceSymbols.getId(ns);
     }
 
-    public synchronized int getMimeTypeId(final String mimeType) {
+    public int getMimeTypeId(final String mimeType) {
         return mimeTypeSymbols.getId(mimeType);
     }
 
@@ -220,7 +224,7 @@ public class SymbolTable implements BrokerPoolService, Closeable {
      * Returns true if the symbol table needs to be saved
      * to persistent storage.
      */
-    public synchronized boolean hasChanged() {
+    public boolean hasChanged() {
         return changed;
     }
 
@@ -230,11 +234,11 @@ public class SymbolTable implements BrokerPoolService, Closeable {
      *
      * @param id
      */
-    public synchronized String getName(final short id) {
+    public String getName(final short id) {
         return localNameSymbols.getSymbol(id);
     }
 
-    public synchronized String getMimeType(final int id) {
+    public String getMimeType(final int id) {
         return mimeTypeSymbols.getSymbol(id);
     }
 
@@ -245,7 +249,7 @@ public class SymbolTable implements BrokerPoolService, Closeable {
      *
      * @param id
      */
-    public synchronized String getNamespace(final short id) {
+    public String getNamespace(final short id) {
         return namespaceSymbols.getSymbol(id);
     }
 
@@ -430,6 +434,11 @@ public class SymbolTable implements BrokerPoolService, Closeable {
 
     /**
      * Represents a distinct collection of symbols
+     * <p/>
+     * Lookups do not lock: names are mapped to ids by a concurrent map and ids
+     * to names by an array which is replaced when it has to grow. Only the
+     * registration of a new symbol locks the symbol table, which also serializes
+     * the writes to the .dbx file.
      *
      * @author wolf
      * @author Adam Retter <adam@exist-db.org>
@@ -441,21 +450,22 @@ public class SymbolTable implements BrokerPoolService, Closeable {
         /**
          * Maps mimetype names to an integer id (persisted to disk)
          */
-        private final Object2IntHashMap<String> symbolsByName;
+        private final ConcurrentMap<String, Integer> symbolsByName;
 
         /**
          * Maps int ids to mimetype names (transient map for fast reverse lookup of symbolsByName)
          */
-        private String[] symbolsById;
+        private volatile String[] symbolsById;
 
         /**
-         * contains the offset of the last symbol
+         * contains the offset of the last symbol, written after the symbol
+         * has been added to symbolsById
          */
-        protected short offset = 0;
+        protected volatile short offset = 0;
 
         public SymbolCollection(final SymbolType symbolType, final int initialSize) {
             this.symbolType = symbolType;
-            symbolsByName = new Object2IntHashMap<>(initialSize);
+            symbolsByName = new ConcurrentHashMap<>(initialSize);
             symbolsById = new String[initialSize];
         }
 
@@ -464,16 +474,18 @@ public class SymbolTable implements BrokerPoolService, Closeable {
         }
 
         private int add(final int id, final String name) {
-            symbolsById = ensureCapacity(symbolsById, id);
-            addSymbolById(id, name);
-            addSymbolByName(name, id);
+            final String[] newSymbolsById = ensureCapacity(symbolsById, id);
+            addSymbolById(newSymbolsById, id, name);
+            symbolsById = newSymbolsById;
             if(id > offset) {
                 offset = (short) id;
             }
+            // publish the name last, a reader which finds the id can resolve it
+            addSymbolByName(name, id);
             return id;
         }
 
-        protected void addSymbolById(final int id, final String name) {
+        protected void addSymbolById(final String[] symbolsById, final int id, final String name) {
             symbolsById[id] = name;
         }
 
@@ -494,25 +506,36 @@ public class SymbolTable implements BrokerPoolService, Closeable {
             offset = 0;
         }
 
-        public synchronized String getSymbol(final int id) {
+        public String getSymbol(final int id) {
+            // read offset before symbolsById, see add
             if(id <= 0 || id > offset) {
                 return ""; //TODO : raise an exception ? -pb
             }
             return symbolsById[id];
         }
 
-        public synchronized int getId(final String name) {
-            int id = symbolsByName.get(name);
-            if(id != -1) {
+        public int getId(final String name) {
+            final Integer id = symbolsByName.get(name);
+            if(id != null) {
                 return id;
             }
+            synchronized(SymbolTable.this) {
+                return register(name);
+            }
+        }
+
+        private int register(final String name) {
+            final Integer registered = symbolsByName.get(name);
+            if(registered != null) {
+                return registered;
+            }
             // symbol space exceeded. return -1 to indicate.
             if(offset == Short.MAX_VALUE) {
                 return -1;
             }
 
-            id = add(++offset, name);
-            //we use "++offset" here instead of "offset++", 
+            final int id = add(offset + 1, name);
+            //we use "offset + 1" here instead of "offset",
             //because the system expects id's to start at 1, not 0
             write(id, name);
             changed = true;
@@ -520,9 +543,9 @@ public class SymbolTable implements BrokerPoolService, Closeable {
         }
 
         protected final void write(final VariableByteOutputStream os) throws IOException {
-            for(final Iterator<String> i = symbolsByName.iterator(); i.hasNext(); ) {
-                final String symbol = i.next();
-                final int id = symbolsByName.get(symbol);
+            for(final Map.Entry<String, Integer> entry : symbolsByName.entrySet()) {
+                final String symbol = entry.getKey();
+                final int id = entry.getValue();
                 if(id < 0) {
                     LOG.error("Symbol Table: symbolTypeId=" + getSymbolType() +
                         ", symbol='" + symbol + "', id=" + id);
@@ -578,15 +601,15 @@ public class SymbolTable implements BrokerPoolService, Closeable {
         }
 
         @Override
-        protected void addSymbolById(final int id, final String name) {
+        protected void addSymbolById(final String[] symbolsById, final int id, final String name) {
             /*
              For attributes, Don't store '@' in in-memory mapping of id -> attrName
              enables faster retrieval
              */
             if(name.charAt(0) == ATTR_NAME_PREFIX) {
-                super.addSymbolById(id, name.substring(1));
+                super.addSymbolById(symbolsById, id, name.substring(1));
             } else {
-                super.addSymbolById(id, name);
+                super.addSymbolById(symbolsById, id, name);
             }
         }
     }
@@ -30,6 +30,7 @@ import javax.management.ObjectName;
 
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
+import org.exist.storage.ExecutionContext;
 
 public class Database implements DatabaseMXBean {
 
@@ -87,16 +88,47 @@ public class Database implements DatabaseMXBean {
         return pool.total();
     }
 
+    @Override
+    public long getMaxBrokerWait() {
+        return pool.getMaxBrokerWait();
+    }
+
+    @Override
+    public int getWaitingThreads() {
+        return pool.getLeaseStatistics().getWaiting();
+    }
+
+    @Override
+    public long getBrokerWaitTimeouts() {
+        return pool.getLeaseStatistics().getTimeouts();
+    }
+
+    @Override
+    public Map<String, Long> getBrokerWaitTimes() {
+        return pool.getLeaseStatistics().getWaitTimes();
+    }
+
+    @Override
+    public Map<String, Long> getBrokerLeaseDurations() {
+        return pool.getLeaseStatistics().getLeaseDurations();
+    }
+
+    @Override
+    public Map<String, Long> getNotificationStatistics() {
+        return pool.getNotificationService().getStatistics();
+    }
+
     @Override
     public List<ActiveBroker> getActiveBrokersMap() {
         final List<ActiveBroker> brokersList = new ArrayList<>();
 
-        for (final Map.Entry<Thread, DBBroker> entry : pool.getActiveBrokers().entrySet()) {
-            final Thread thread = entry.getKey();
+        for (final Map.Entry<ExecutionContext, DBBroker> entry : pool.getActiveBrokers().entrySet()) {
+            final Thread thread = entry.getKey().getThread();
             final DBBroker broker = entry.getValue();
-            final String trace = printStackTrace(thread);
+            final String trace = thread == null ? "" : printStackTrace(thread);
             final String watchdogTrace = pool.getWatchdog().map(wd -> wd.get(broker)).orElse(null);
-            brokersList.add(new ActiveBroker(thread.getName(), broker.getReferenceCount(), trace, watchdogTrace));
+            final String owner = thread == null ? entry.getKey().getName() : thread.getName();
+            brokersList.add(new ActiveBroker(owner, broker.getReferenceCount(), trace, watchdogTrace));
         }
         return brokersList;
     }
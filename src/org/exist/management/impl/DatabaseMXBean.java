@@ -1,6 +1,7 @@
 package org.exist.management.impl;
 
 import java.util.List;
+import java.util.Map;
 
 /*
 *  eXist Open Source Native XML Database
@@ -36,6 +37,18 @@ public interface DatabaseMXBean extends PerInstanceMBean {
     int getActiveBrokers();
 
     int getTotalBrokers();
+
+    long getMaxBrokerWait();
+
+    int getWaitingThreads();
+
+    long getBrokerWaitTimeouts();
+
+    Map<String, Long> getBrokerWaitTimes();
+
+    Map<String, Long> getBrokerLeaseDurations();
+
+    Map<String, Long> getNotificationStatistics();
     
     long getReservedMem();
 
@@ -283,13 +283,30 @@ public class DLN extends DLNBase implements NodeId {
         if (other == NodeId.DOCUMENT_NODE) {
             return getLevelCount(0) == 1 ? IS_CHILD : IS_DESCENDANT;
         }
-        
-        if (startsWith(other)) {
-            if (bitIndex == other.bitIndex) {
+        return computeRelation(bits, 0, bitIndex + 1, other.bits, 0, other.bitIndex + 1);
+    }
+
+    /**
+     * Like {@link #computeRelation(NodeId)}, but works on encoded ids in
+     * place, see {@link DLNBase#compare(byte[], int, int, byte[], int, int)}.
+     * The ancestor must not be the {@link NodeId#DOCUMENT_NODE}.
+     *
+     * @param data           array holding the id
+     * @param offset         offset of the id
+     * @param units          number of bits of the id
+     * @param ancestor       array holding the ancestor id
+     * @param ancestorOffset offset of the ancestor id
+     * @param ancestorUnits  number of bits of the ancestor id
+     * @return the relation, see {@link #computeRelation(NodeId)}
+     */
+    public static int computeRelation(final byte[] data, final int offset, final int units,
+            final byte[] ancestor, final int ancestorOffset, final int ancestorUnits) {
+        if (startsWith(data, offset, units, ancestor, ancestorOffset, ancestorUnits)) {
+            if (units == ancestorUnits) {
                 return IS_SELF;
             }
-            if (bitIndex > other.bitIndex && isLevelSeparator(other.bitIndex + 1)) {
-                if (getLevelCount(other.bitIndex + 2) == 1) {
+            if (units > ancestorUnits && isLevelSeparator(data, offset, ancestorUnits)) {
+                if (getLevelCount(data, offset, units, ancestorUnits + 1) == 1) {
                     return IS_CHILD;
                 }
                 return IS_DESCENDANT;
@@ -324,19 +341,7 @@ public class DLN extends DLNBase implements NodeId {
             return 1;
         }
         final DLN other = (DLN) otherId;
-        final int a1len = bits.length;
-        final int a2len = other.bits.length;
-        final int limit = a1len <= a2len ? a1len : a2len;
-        final byte[] obits = other.bits;
-        
-        for(int i = 0; i < limit; i++) {
-            final byte b1 = bits[i];
-            final byte b2 = obits[i];
-            if(b1 != b2) {
-                return (b1 & 0xFF) - (b2 & 0xFF);
-            }
-        }
-        return (a1len - a2len);
+        return compare(bits, 0, bits.length, other.bits, 0, other.bits.length);
     }
 
     @Override
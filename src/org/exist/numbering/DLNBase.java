@@ -290,16 +290,20 @@ public class DLNBase {
         return bits.length;
     }
 
-    private static int unitsUsed(int startBit, final byte[] bits) {
+    private static int unitsUsed(final int startBit, final byte[] bits) {
+        return unitsUsed(bits, 0, startBit);
+    }
+
+    private static int unitsUsed(final byte[] data, final int offset, int startBit) {
         int units = 1;
-        while ((bits[startBit >> UNIT_SHIFT] & (1 << ((7 - startBit++) & 7))) != 0) {
+        while ((data[offset + (startBit >> UNIT_SHIFT)] & (1 << ((7 - startBit++) & 7))) != 0) {
             ++units;
         }
         return units;
     }
 
     public boolean isLevelSeparator(final int index) {
-        return (bits[index >> UNIT_SHIFT] & (1 << ((7 - index) & 7))) == 0;
+        return isLevelSeparator(bits, 0, index);
     }
     
     /**
@@ -309,21 +313,7 @@ public class DLNBase {
      * @return the number of levels in this id
      */
     public int getLevelCount(final int startOffset) {
-        int bit = startOffset;
-        int count = 0;
-        while (bit > -1 && bit <= bitIndex) {
-            final int units = unitsUsed(bit, bits);
-            bit += units;
-            bit += bitWidth(units);
-            if (bit < bitIndex) {
-                if ((bits[bit >> UNIT_SHIFT] & (1 << ((7 - bit++) & 7))) == LEVEL_SEPARATOR) {
-                    ++count;
-                }
-            } else {
-                ++count;
-            }
-        }
-        return count;
+        return getLevelCount(bits, 0, bitIndex + 1, startOffset);
     }
 
     /**
@@ -526,17 +516,133 @@ public class DLNBase {
      * @param other
      */
     public boolean startsWith(final DLNBase other) {
-        if (other.bitIndex > bitIndex) {
+        return startsWith(bits, 0, bitIndex + 1, other.bits, 0, other.bitIndex + 1);
+    }
+
+    /*
+     * The static methods below work on encoded ids, as written by
+     * serialize(byte[], int), in place. They allow to compare ids read
+     * from a page or an index key without creating DLN objects for them.
+     * An encoded id is given by the array holding it, its offset in the
+     * array and its number of bits (units).
+     */
+
+    /**
+     * Compares two encoded ids in document order. The result has the
+     * same sign as comparing the corresponding DLNs with
+     * {@link DLN#compareTo(NodeId)}.
+     *
+     * @param a       array holding the first id
+     * @param aOffset offset of the first id
+     * @param aLength length of the first id in bytes
+     * @param b       array holding the second id
+     * @param bOffset offset of the second id
+     * @param bLength length of the second id in bytes
+     * @return a negative number, zero or a positive number if the first
+     * id is before, equal to or after the second
+     */
+    public static int compare(final byte[] a, final int aOffset, final int aLength,
+            final byte[] b, final int bOffset, final int bLength) {
+        final int i = mismatch(a, aOffset, b, bOffset, Math.min(aLength, bLength));
+        if (i < 0) {
+            return aLength - bLength;
+        }
+        return (a[aOffset + i] & 0xFF) - (b[bOffset + i] & 0xFF);
+    }
+
+    /**
+     * Checks if an encoded id starts with the same bit sequence as
+     * another one, i.e. if it is the other id or an id below it.
+     *
+     * @param data         array holding the id
+     * @param offset       offset of the id
+     * @param units        number of bits of the id
+     * @param prefix       array holding the other id
+     * @param prefixOffset offset of the other id
+     * @param prefixUnits  number of bits of the other id
+     * @return true if the id starts with the other id
+     */
+    public static boolean startsWith(final byte[] data, final int offset, final int units,
+            final byte[] prefix, final int prefixOffset, final int prefixUnits) {
+        if (prefixUnits > units) {
             return false;
         }
-        final int bytes = other.bitIndex / 8;
-        final int remaining = other.bitIndex % 8;
-        for (int i = 0; i < bytes; i++) {
-            if (bits[i] != other.bits[i]) {
-                return false;
+        final int lastBit = prefixUnits - 1;
+        final int bytes = lastBit >> UNIT_SHIFT;
+        final int remaining = lastBit & 7;
+        return mismatch(data, offset, prefix, prefixOffset, bytes) < 0
+                && (data[offset + bytes] & BIT_MASK[remaining]) == (prefix[prefixOffset + bytes] & BIT_MASK[remaining]);
+    }
+
+    /**
+     * @param data   array holding an encoded id
+     * @param offset offset of the id
+     * @param index  index of the bit to check, relative to the start of the id
+     * @return true if the bit is a level separator
+     */
+    public static boolean isLevelSeparator(final byte[] data, final int offset, final int index) {
+        return (data[offset + (index >> UNIT_SHIFT)] & (1 << ((7 - index) & 7))) == 0;
+    }
+
+    /**
+     * Returns the number of levels in an encoded id, starting at the given bit.
+     *
+     * @param data        array holding the id
+     * @param offset      offset of the id
+     * @param units       number of bits of the id
+     * @param startOffset the bit to start counting at
+     * @return the number of levels
+     */
+    public static int getLevelCount(final byte[] data, final int offset, final int units, final int startOffset) {
+        final int lastBit = units - 1;
+        int bit = startOffset;
+        int count = 0;
+        while (bit > -1 && bit <= lastBit) {
+            final int unitsUsed = unitsUsed(data, offset, bit);
+            bit += unitsUsed;
+            bit += bitWidth(unitsUsed);
+            if (bit < lastBit) {
+                if ((data[offset + (bit >> UNIT_SHIFT)] & (1 << ((7 - bit++) & 7))) == LEVEL_SEPARATOR) {
+                    ++count;
+                }
+            } else {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the index of the first byte which differs in the two
+     * ranges, or -1 if they are equal. As ids are stored most
+     * significant bit first, the ranges are compared eight bytes at a
+     * time as big-endian longs.
+     */
+    private static int mismatch(final byte[] a, final int aOffset, final byte[] b, final int bOffset, final int length) {
+        int i = 0;
+        for (; i + 8 <= length; i += 8) {
+            final long diff = getLong(a, aOffset + i) ^ getLong(b, bOffset + i);
+            if (diff != 0) {
+                return i + (Long.numberOfLeadingZeros(diff) >>> 3);
             }
         }
-        return (bits[bytes] & BIT_MASK[remaining]) == (other.bits[bytes] & BIT_MASK[remaining]);
+        for (; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long getLong(final byte[] data, final int offset) {
+        return ((long) data[offset] << 56)
+                | ((data[offset + 1] & 0xFFL) << 48)
+                | ((data[offset + 2] & 0xFFL) << 40)
+                | ((data[offset + 3] & 0xFFL) << 32)
+                | ((data[offset + 4] & 0xFFL) << 24)
+                | ((data[offset + 5] & 0xFFL) << 16)
+                | ((data[offset + 6] & 0xFFL) << 8)
+                | (data[offset + 7] & 0xFFL);
     }
 
     public String debug() {
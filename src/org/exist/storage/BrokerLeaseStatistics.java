@@ -0,0 +1,113 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects statistics about the brokers leased from a {@link BrokerPool}:
+ * the number of threads waiting for a broker, how long they had to wait,
+ * how long the brokers were leased and how often a thread gave up waiting.
+ *
+ * Times are counted in buckets by their order of magnitude.
+ */
+public class BrokerLeaseStatistics {
+
+    private static final long[] BUCKET_LIMITS = { 1, 10, 100, 1000, 10000 };
+    private static final String[] BUCKET_NAMES = { "< 1ms", "< 10ms", "< 100ms", "< 1s", "< 10s", ">= 10s" };
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder timeouts = new LongAdder();
+    private final AtomicLongArray waitTimes = new AtomicLongArray(BUCKET_NAMES.length);
+    private final AtomicLongArray leaseDurations = new AtomicLongArray(BUCKET_NAMES.length);
+
+    void startWaiting() {
+        waiting.incrementAndGet();
+    }
+
+    void endWaiting(final long waitTime, final boolean timedOut) {
+        waiting.decrementAndGet();
+        if (timedOut) {
+            timeouts.increment();
+        } else {
+            waitTimes.incrementAndGet(bucket(waitTime));
+        }
+    }
+
+    /**
+     * Counts a lease which did not have to wait for a broker.
+     */
+    void leased() {
+        waitTimes.incrementAndGet(0);
+    }
+
+    void released(final long leaseDuration) {
+        leaseDurations.incrementAndGet(bucket(leaseDuration));
+    }
+
+    /**
+     * @return the number of threads currently waiting for a broker
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * @return the number of times a thread gave up waiting for a broker
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return the number of leases by the time spent waiting for the broker
+     */
+    public Map<String, Long> getWaitTimes() {
+        return toMap(waitTimes);
+    }
+
+    /**
+     * @return the number of leases by the time until the broker was released
+     */
+    public Map<String, Long> getLeaseDurations() {
+        return toMap(leaseDurations);
+    }
+
+    private static int bucket(final long millis) {
+        for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+            if (millis < BUCKET_LIMITS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_LIMITS.length;
+    }
+
+    private static Map<String, Long> toMap(final AtomicLongArray counts) {
+        final Map<String, Long> map = new LinkedHashMap<>();
+        for (int i = 0; i < BUCKET_NAMES.length; i++) {
+            map.put(BUCKET_NAMES[i], counts.get(i));
+        }
+        return map;
+    }
+}
@@ -81,6 +81,8 @@ import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -203,7 +205,22 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
     /**
      * The number of active brokers for the database instance
      */
-    private final Map<Thread, DBBroker> activeBrokers = new ConcurrentHashMap<>();
+    private final Map<ExecutionContext, DBBroker> activeBrokers = new ConcurrentHashMap<>();
+
+    /**
+     * One permit per broker which may be leased. The semaphore is fair, so threads
+     * waiting for a broker are served in the order in which they started waiting,
+     * and each released broker wakes only the next thread in line
+     */
+    private final Semaphore brokerPermits;
+
+    /**
+     * Delay (in ms) a thread waits for a broker before giving up, -1 waits indefinitely
+     */
+    @ConfigurationFieldAsAttribute("wait-for-broker")
+    private final long maxBrokerWait;
+
+    private final BrokerLeaseStatistics leaseStatistics = new BrokerLeaseStatistics();
 
 
     /**
@@ -388,6 +405,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         this.instanceThreadGroup = new ThreadGroup(nameInstanceThreadGroup(instanceName));
 
         this.maxShutdownWait = conf.getProperty(BrokerPool.PROPERTY_SHUTDOWN_DELAY, DEFAULT_MAX_SHUTDOWN_WAIT);
+        this.maxBrokerWait = conf.getProperty(BrokerPool.PROPERTY_BROKER_WAIT, DEFAULT_MAX_BROKER_WAIT);
         LOG.info("database instance '" + instanceName + "' will wait  " + nf.format(this.maxShutdownWait) + " ms during shutdown");
 
         this.recoveryEnabled = conf.getProperty(PROPERTY_RECOVERY_ENABLED, true);
@@ -395,6 +413,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
         this.minBrokers = conf.getProperty(PROPERTY_MIN_CONNECTIONS, minBrokers);
         this.maxBrokers = conf.getProperty(PROPERTY_MAX_CONNECTIONS, maxBrokers);
+        this.brokerPermits = new Semaphore(this.maxBrokers, true);
         LOG.info("database instance '" + instanceName + "' will have between " + nf.format(this.minBrokers) + " and " + nf.format(this.maxBrokers) + " brokers");
 
         this.majorSyncPeriod = conf.getProperty(PROPERTY_SYNC_PERIOD, DEFAULT_SYNCH_PERIOD);
@@ -500,6 +519,11 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
 
         this.startupTriggersManager = servicesManager.register(new StartupTriggersManager());
 
+        // register any services contributed by extensions through META-INF/services
+        for(final BrokerPoolService extensionService : ServiceLoader.load(BrokerPoolService.class)) {
+            servicesManager.register(extensionService);
+        }
+
         //configure the registered services
         try {
             servicesManager.configureServices(conf);
@@ -835,7 +859,7 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return activeBrokers.size();
     }
 
-    public Map<Thread, DBBroker> getActiveBrokers() {
+    public Map<ExecutionContext, DBBroker> getActiveBrokers() {
         return new HashMap<>(activeBrokers);
     }
 
@@ -861,6 +885,15 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return maxBrokers;
     }
 
+    /**
+     * Returns how long a thread waits for a broker before giving up.
+     *
+     * @return The delay in milliseconds, -1 if threads wait indefinitely
+     */
+    public long getMaxBrokerWait() {
+        return maxBrokerWait;
+    }
+
     public int total() {
         return brokersCount;
     }
@@ -887,6 +920,20 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         return expathRepo;
     }
 
+    /**
+     * Get a registered service by its class.
+     *
+     * This is mainly intended for services contributed by extensions,
+     * which have no dedicated accessor on the BrokerPool.
+     *
+     * @param serviceClass The class (or super-class) of the service
+     *
+     * @return The first registered service which is an instance of serviceClass
+     */
+    public <T extends BrokerPoolService> Optional<T> getService(final Class<T> serviceClass) {
+        return servicesManager.getService(serviceClass);
+    }
+
     //TODO : rename as setShutdwonListener ?
     public void registerShutdownListener(final ShutdownListener listener) {
         //TODO : check that we are not shutting down
@@ -1100,15 +1147,15 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
     public DBBroker getActiveBroker() { //throws EXistException {
         //synchronized(this) {
         //Try to get an active broker
-        final DBBroker broker = activeBrokers.get(Thread.currentThread());
+        final DBBroker broker = activeBrokers.get(ExecutionContext.current());
         if(broker == null) {
             final StringBuilder sb = new StringBuilder();
-            sb.append("Broker was not obtained for thread '");
-            sb.append(Thread.currentThread());
+            sb.append("Broker was not obtained for execution context '");
+            sb.append(ExecutionContext.current());
             sb.append("'.");
             sb.append(System.getProperty("line.separator"));
 
-            for(final Entry<Thread, DBBroker> entry : activeBrokers.entrySet()) {
+            for(final Entry<ExecutionContext, DBBroker> entry : activeBrokers.entrySet()) {
                 sb.append(entry.getKey());
                 sb.append(" = ");
                 sb.append(entry.getValue());
@@ -1160,7 +1207,8 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
         }
 
         //Try to get an active broker
-        DBBroker broker = activeBrokers.get(Thread.currentThread());
+        final ExecutionContext context = ExecutionContext.current();
+        DBBroker broker = activeBrokers.get(context);
         //Use it...
         //TOUNDERSTAND (pb) : why not pop a broker from the inactive ones rather than maintaining reference counters ?
         // WM: a thread may call this more than once in the sequence of operations, i.e. calls to get/release can
@@ -1196,30 +1244,28 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
             }
         }
 
+        //wait until a broker may be leased, after the threads which are already waiting
+        acquireBrokerPermit();
+
         synchronized(this) {
             //Are there any available brokers ?
             if(inactiveBrokers.isEmpty()) {
-                //There are no available brokers. If allowed...
-                if(brokersCount < maxBrokers)
-                //... create one
-                {
+                //There are no available brokers, but we hold a permit, so we may create one
+                try {
                     createBroker();
-                } else
-                    //... or wait until there is one available
-                    while(inactiveBrokers.isEmpty()) {
-                        LOG.debug("waiting for a broker to become available");
-                        try {
-                            this.wait();
-                        } catch(final InterruptedException e) {
-                            //nothing to be done!
-                        }
-                    }
+                } catch(final EXistException | RuntimeException e) {
+                    brokerPermits.release();
+                    throw e;
+                }
             }
             broker = inactiveBrokers.pop();
             broker.prepare();
+            broker.setLeaseStartTime(System.currentTimeMillis());
+            broker.setExecutionContext(context);
+            context.setBroker(broker);
 
             //activate the broker
-            activeBrokers.put(Thread.currentThread(), broker);
+            activeBrokers.put(context, broker);
 
             if(LOG.isTraceEnabled()) {
                 LOG.trace("+++ " + Thread.currentThread() + Stacktrace.top(Thread.currentThread().getStackTrace(), Stacktrace.DEFAULT_STACK_TOP));
@@ -1240,13 +1286,61 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 brokerLeaseChangeTrace.get(broker.getId()).add(TraceableBrokerLeaseChange.get(new TraceableBrokerLeaseChange.BrokerInfo(broker.getId(), broker.getReferenceCount())));
             }
 
-            //Inform the other threads that we have a new-comer
-            // TODO: do they really need to be informed here???????
-            this.notifyAll();
             return broker;
         }
     }
 
+    /**
+     * Wait until a broker may be leased and all threads which started
+     * waiting before the current thread have been served.
+     *
+     * @throws EXistException if no broker became available within {@link #maxBrokerWait},
+     *     or if the thread was interrupted while waiting
+     */
+    private void acquireBrokerPermit() throws EXistException {
+        //only take a free permit if no other thread is waiting, as tryAcquire() does not honour fairness
+        if(!brokerPermits.hasQueuedThreads() && brokerPermits.tryAcquire()) {
+            leaseStatistics.leased();
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        leaseStatistics.startWaiting();
+        boolean acquired = false;
+        try {
+            LOG.debug("waiting for a broker to become available");
+            if(maxBrokerWait > -1) {
+                long wait = maxBrokerWait;
+                while(wait > 0 && !acquired) {
+                    acquired = tryAcquireBrokerPermit(wait);
+                    wait = maxBrokerWait - (System.currentTimeMillis() - start);
+                }
+                if(!acquired) {
+                    throw new EXistException("No broker available for database instance '" + instanceName +
+                            "' after waiting " + maxBrokerWait + " ms. " + brokerPermits.getQueueLength() + " threads are waiting.");
+                }
+            } else {
+                brokerPermits.acquireUninterruptibly();
+                acquired = true;
+            }
+        } finally {
+            leaseStatistics.endWaiting(System.currentTimeMillis() - start, !acquired);
+        }
+    }
+
+    private boolean tryAcquireBrokerPermit(final long wait) throws EXistException {
+        try {
+            return brokerPermits.tryAcquire(wait, TimeUnit.MILLISECONDS);
+        } catch(final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EXistException("Interrupted while waiting for a broker of database instance '" + instanceName + "'", e);
+        }
+    }
+
+    public BrokerLeaseStatistics getLeaseStatistics() {
+        return leaseStatistics;
+    }
+
     /**
      * Releases a broker for the database instance. If it is no more used, make if invactive.
      * If there are pending system maintenance tasks,
@@ -1285,12 +1379,12 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 }
             }
 
-            if(activeBrokers.remove(Thread.currentThread()) == null) {
-                LOG.error("release() has been called from the wrong thread for broker " + broker.getId());
+            if(activeBrokers.remove(ExecutionContext.current()) == null) {
+                LOG.error("release() has been called from the wrong execution context for broker " + broker.getId());
                 // Cleanup the state of activeBrokers
-                for(final Entry<Thread, DBBroker> activeBroker : activeBrokers.entrySet()) {
+                for(final Entry<ExecutionContext, DBBroker> activeBroker : activeBrokers.entrySet()) {
                     if(activeBroker.getValue() == broker) {
-                        final String msg = "release() has been called from '" + Thread.currentThread() + "', but occupied at '" + activeBroker.getKey() + "'.";
+                        final String msg = "release() has been called from '" + ExecutionContext.current() + "', but occupied at '" + activeBroker.getKey() + "'.";
                         final EXistException ex = new EXistException(msg);
                         LOG.error(msg, ex);
                         activeBrokers.remove(activeBroker.getKey());
@@ -1318,7 +1412,14 @@ public class BrokerPool extends BrokerPools implements BrokerPoolConstants, Data
                 }
             }
 
+            final ExecutionContext context = broker.getExecutionContext();
+            if(context != null) {
+                context.setBroker(null);
+            }
+            broker.setExecutionContext(null);
             inactiveBrokers.push(broker);
+            brokerPermits.release();
+            leaseStatistics.released(System.currentTimeMillis() - broker.getLeaseStartTime());
             watchdog.ifPresent(wd -> wd.remove(broker));
 
             if(LOG.isTraceEnabled()) {
@@ -31,6 +31,7 @@ import static org.exist.security.UnixStylePermission.LOG;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 /**
  * This class simply maintains a list of {@link BrokerPoolService}
@@ -112,6 +113,22 @@ class BrokerPoolServicesManager {
         return brokerPoolService;
     }
 
+    /**
+     * Get a registered Service by its class
+     *
+     * @param serviceClass The class (or super-class) of the service
+     *
+     * @return The first registered service which is an instance of serviceClass
+     */
+    <T extends BrokerPoolService> Optional<T> getService(final Class<T> serviceClass) {
+        for(final BrokerPoolService brokerPoolService : brokerPoolServices) {
+            if(serviceClass.isInstance(brokerPoolService)) {
+                return Optional.of(serviceClass.cast(brokerPoolService));
+            }
+        }
+        return Optional.empty();
+    }
+
     /**
      * Configures the Services
      *
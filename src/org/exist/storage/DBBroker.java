@@ -121,6 +121,13 @@ public abstract class DBBroker extends Observable implements AutoCloseable {
 
     private int referenceCount = 0;
 
+    /**
+     * time at which the broker was leased from the pool
+     */
+    private long leaseStartTime;
+
+    private ExecutionContext executionContext;
+
     protected String id;
 
     private final TimestampedReference<IndexController> indexController = new TimestampedReference<>();
@@ -514,6 +521,25 @@ public abstract class DBBroker extends Observable implements AutoCloseable {
     public abstract void reindexCollection(Txn transaction, @EnsureLocked(mode=LockMode.WRITE_LOCK, type=LockType.COLLECTION) XmldbURI collectionUri)
             throws PermissionDeniedException, IOException, LockException;
 
+    /**
+     * Reindex a Collection and its descendants without blocking concurrent updates
+     *
+     * NOTE: Read locks are only held on a Collection while its documents are
+     *     listed. The documents are then reindexed one at a time, each within its
+     *     own transaction and under a write lock, which is held while the old index
+     *     entries of the document are dropped and the new ones are written. Documents
+     *     removed concurrently are skipped and documents added concurrently are
+     *     indexed when they are stored.
+     *
+     * @param collectionUri The URI of the Collection to reindex
+     *
+     * @throws PermissionDeniedException If the current user does not have appropriate permissions
+     * @throws LockException If an exception occurs whilst acquiring locks
+     * @throws IOException If an error occurs whilst reindexing the Collection on disk
+     */
+    public abstract void reindexCollectionOnline(XmldbURI collectionUri)
+            throws PermissionDeniedException, IOException, LockException;
+
     public abstract void reindexXMLResource(final Txn txn,
             @EnsureLocked(mode=LockMode.WRITE_LOCK) final DocumentImpl doc);
 
@@ -902,6 +928,31 @@ public abstract class DBBroker extends Observable implements AutoCloseable {
 		--referenceCount;
 	}
 
+	void setLeaseStartTime(final long leaseStartTime) {
+		this.leaseStartTime = leaseStartTime;
+	}
+
+	long getLeaseStartTime() {
+		return leaseStartTime;
+	}
+
+	void setExecutionContext(final ExecutionContext executionContext) {
+		this.executionContext = executionContext;
+	}
+
+	/**
+	 * Returns the execution context which leased this broker. A request
+	 * which continues on another thread can {@link ExecutionContext#attach()}
+	 * the context there to keep using the broker, as long as the broker
+	 * has no open transaction, since locks are owned by the thread which
+	 * acquired them.
+	 *
+	 * @return the execution context owning the broker, or null if the broker is not leased
+	 */
+	public ExecutionContext getExecutionContext() {
+		return executionContext;
+	}
+
 	public abstract IndexSpec getIndexConfiguration();
 
 	public void setId(String id) {
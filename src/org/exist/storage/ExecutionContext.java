@@ -0,0 +1,197 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * The context in which a request is executed. Brokers leased from the
+ * {@link BrokerPool} and the per-request state of e.g. triggers are
+ * owned by the execution context rather than by a thread.
+ *
+ * By default every thread has its own execution context, which gives
+ * the behaviour of one request per thread. A request which continues on
+ * a different thread, e.g. after waiting for I/O, may take its context
+ * along by calling {@link #attach()} on the new thread.
+ *
+ * An execution context can be attached to only one thread at a time.
+ * Locks are still owned by the thread which acquired them, so a context
+ * may only move to another thread while its broker has no open
+ * transaction, and a lock must be released on the thread which acquired
+ * it before the attachment is closed.
+ */
+public final class ExecutionContext {
+
+    private static final AtomicLong nextId = new AtomicLong();
+
+    private static final ThreadLocal<ExecutionContext> current = new ThreadLocal<>();
+
+    private final long id;
+    private final String name;
+    private final Map<Local<?>, Object> locals = new ConcurrentHashMap<>();
+    private volatile Thread thread;
+    private Thread lastThread;
+    @Nullable private volatile DBBroker broker;
+
+    private ExecutionContext(final String name) {
+        this.id = nextId.getAndIncrement();
+        this.name = name;
+    }
+
+    /**
+     * Creates a new execution context which is not yet attached to any thread.
+     *
+     * @param name the name of the context, used for reporting
+     * @return the new execution context
+     */
+    public static ExecutionContext create(final String name) {
+        return new ExecutionContext(name);
+    }
+
+    /**
+     * Returns the execution context attached to the current thread.
+     * If no context was attached, a new one is created for the thread.
+     *
+     * @return the execution context of the current thread
+     */
+    public static ExecutionContext current() {
+        ExecutionContext context = current.get();
+        if (context == null) {
+            final Thread currentThread = Thread.currentThread();
+            context = new ExecutionContext(currentThread.getName());
+            context.thread = currentThread;
+            context.lastThread = currentThread;
+            current.set(context);
+        }
+        return context;
+    }
+
+    /**
+     * Attaches this execution context to the current thread. Until the
+     * returned attachment is closed, brokers and state owned by this
+     * context are visible to the current thread.
+     *
+     * @return the attachment, which restores the previous context of the thread when closed
+     * @throws IllegalStateException if the context is attached to another thread,
+     *     or if its broker has an open transaction which was begun on another thread
+     */
+    public synchronized Attachment attach() {
+        final Thread currentThread = Thread.currentThread();
+        if (thread != null && thread != currentThread) {
+            throw new IllegalStateException("Execution context '" + name + "' is attached to thread '" + thread + "'");
+        }
+        final DBBroker leased = broker;
+        if (lastThread != null && lastThread != currentThread && leased != null && leased.getCurrentTransaction() != null) {
+            throw new IllegalStateException("Execution context '" + name + "' has an open transaction whose locks are owned by thread '" + lastThread + "'");
+        }
+        final ExecutionContext previous = current.get();
+        final Thread previousThread = thread;
+        thread = currentThread;
+        lastThread = currentThread;
+        current.set(this);
+        return new Attachment(previous, previousThread);
+    }
+
+    private synchronized void detach(@Nullable final ExecutionContext previous, @Nullable final Thread previousThread) {
+        thread = previousThread;
+        if (previous == null) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+
+    void setBroker(@Nullable final DBBroker broker) {
+        this.broker = broker;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the thread this context is attached to, or null if it is not attached
+     */
+    @Nullable
+    public Thread getThread() {
+        return thread;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionContext(" + id + ", " + name + ")";
+    }
+
+    /**
+     * Restores the previous execution context of a thread when closed.
+     */
+    public final class Attachment implements AutoCloseable {
+        @Nullable private final ExecutionContext previous;
+        @Nullable private final Thread previousThread;
+
+        private Attachment(@Nullable final ExecutionContext previous, @Nullable final Thread previousThread) {
+            this.previous = previous;
+            this.previousThread = previousThread;
+        }
+
+        @Override
+        public void close() {
+            detach(previous, previousThread);
+        }
+    }
+
+    /**
+     * A variable with an independent value in each execution context,
+     * the equivalent of a {@link ThreadLocal} for execution contexts.
+     *
+     * @param <T> the type of the value
+     */
+    public static final class Local<T> {
+        private final Supplier<T> initialValue;
+
+        public Local(final Supplier<T> initialValue) {
+            this.initialValue = initialValue;
+        }
+
+        /**
+         * @return the value in the execution context of the current thread
+         */
+        @SuppressWarnings("unchecked")
+        public T get() {
+            return (T) current().locals.computeIfAbsent(this, k -> initialValue.get());
+        }
+
+        public void set(final T value) {
+            current().locals.put(this, value);
+        }
+
+        public void remove() {
+            current().locals.remove(this);
+        }
+    }
+}
@@ -58,6 +58,7 @@ import org.exist.storage.lock.Lock.LockType;
 import org.exist.storage.serializers.NativeSerializer;
 import org.exist.storage.serializers.Serializer;
 import org.exist.storage.sync.Sync;
+import org.exist.storage.txn.TransactionException;
 import org.exist.storage.txn.TransactionManager;
 import org.exist.storage.txn.Txn;
 import org.exist.util.*;
@@ -84,6 +85,12 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.text.NumberFormat;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -142,6 +149,9 @@ public class NativeBroker extends DBBroker {
     public static final String INDEX_DEPTH_ATTRIBUTE = "index-depth";
 
     public static final String PROPERTY_INDEX_DEPTH = "indexer.index-depth";
+
+    public static final String REINDEX_THREADS_ATTRIBUTE = "reindex-threads";
+    public static final String PROPERTY_REINDEX_THREADS = "indexer.reindex-threads";
     private static final byte[] ALL_STORAGE_FILES = {
         COLLECTIONS_DBX_ID, VALUES_DBX_ID, DOM_DBX_ID
     };
@@ -151,6 +161,10 @@ public class NativeBroker extends DBBroker {
 
     public static final String DEFAULT_DATA_DIR = "data";
     public static final int DEFAULT_INDEX_DEPTH = 1;
+    public static final int DEFAULT_REINDEX_THREADS = 1;
+
+    /** number of documents a reindex thread processes with one broker and transaction */
+    private static final int REINDEX_BATCH_SIZE = 64;
 
     /** check available memory after storing DEFAULT_NODES_BEFORE_MEMORY_CHECK nodes */
     public static final int DEFAULT_NODES_BEFORE_MEMORY_CHECK = 500;
@@ -175,6 +189,8 @@ public class NativeBroker extends DBBroker {
 
     private int defaultIndexDepth;
 
+    private int reindexThreads;
+
     private final Serializer xmlSerializer;
 
     /** used to count the nodes inserted after the last memory check */
@@ -247,6 +263,11 @@ public class NativeBroker extends DBBroker {
             defaultIndexDepth = DEFAULT_INDEX_DEPTH;
         }
 
+        reindexThreads = config.getInteger(PROPERTY_REINDEX_THREADS);
+        if(reindexThreads < 1) {
+            reindexThreads = DEFAULT_REINDEX_THREADS;
+        }
+
         final String docIdProp = (String) config.getProperty(BrokerPool.DOC_ID_MODE_PROPERTY);
         if(docIdProp != null) {
             incrementalDocIds = docIdProp.equalsIgnoreCase("incremental");
@@ -2074,9 +2095,20 @@ public class NativeBroker extends DBBroker {
 
             LOG.info("Start indexing collection {}", collection.getURI().toString());
             pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, collection.getURI());
-            reindexCollection(transaction, collection, IndexMode.STORE);
-        } catch(final PermissionDeniedException | IOException e) {
+            // leave at least one broker to other users of the database
+            final int threads = Math.min(reindexThreads, pool.getMax() - 1);
+            if(threads > 1) {
+                try(final ParallelReindex parallelReindex = new ParallelReindex(threads)) {
+                    reindexCollection(transaction, collection, IndexMode.STORE, parallelReindex);
+                }
+            } else {
+                reindexCollection(transaction, collection, IndexMode.STORE, null);
+            }
+        } catch(final PermissionDeniedException e) {
+            LOG.error("An error occurred during reindex: " + e.getMessage(), e);
+        } catch(final IOException e) {
             LOG.error("An error occurred during reindex: " + e.getMessage(), e);
+            throw e;
         } finally {
             pool.getProcessMonitor().endJob();
             LOG.info(String.format("Finished indexing collection %s in %s ms.",
@@ -2084,8 +2116,84 @@ public class NativeBroker extends DBBroker {
         }
     }
 
+    @Override
+    public void reindexCollectionOnline(final XmldbURI collectionUri) throws PermissionDeniedException, IOException, LockException {
+        if(isReadOnly()) {
+            throw new IOException(DATABASE_IS_READ_ONLY);
+        }
+
+        final XmldbURI fqUri = prepend(collectionUri.toCollectionPathURI());
+        final long start = System.currentTimeMillis();
+        final TransactionManager transact = pool.getTransactionManager();
+
+        LOG.info("Start online indexing of collection {}", fqUri);
+        pool.getProcessMonitor().startJob(ProcessMonitor.ACTION_REINDEX_COLLECTION, fqUri);
+        try {
+            final List<XmldbURI> documents = new ArrayList<>();
+            listCollectionDocuments(fqUri, documents);
+
+            int reindexed = 0;
+            for (final XmldbURI docUri : documents) {
+                // the document is only write locked whilst its own index entries are replaced
+                try(final Txn transaction = transact.beginTransaction();
+                        final LockedDocument lockedDoc = getXMLResource(docUri, LockMode.WRITE_LOCK)) {
+                    // skip documents removed in the meantime
+                    if (lockedDoc != null && lockedDoc.getDocument().getResourceType() == DocumentImpl.XML_FILE) {
+                        final DocumentImpl doc = lockedDoc.getDocument();
+                        dropIndex(transaction, doc);
+                        dropDomIndex(transaction, doc);
+                        reindexXMLResource(transaction, doc, IndexMode.STORE);
+                    }
+                    transact.commit(transaction);
+                }
+                pool.getProcessMonitor().updateJob(fqUri + " (" + ++reindexed + " of " + documents.size() + " documents reindexed)");
+            }
+        } catch(final TransactionException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            pool.getProcessMonitor().endJob();
+            LOG.info(String.format("Finished online indexing of collection %s in %s ms.",
+                fqUri, System.currentTimeMillis() - start));
+        }
+    }
+
+    /**
+     * Collect the URIs of the documents of the collection and its descendant
+     * collections. Each collection is only locked while its own documents
+     * are listed.
+     */
+    private void listCollectionDocuments(final XmldbURI collectionUri, final List<XmldbURI> documents)
+            throws PermissionDeniedException, LockException {
+        final List<XmldbURI> children = new ArrayList<>();
+        try(final Collection collection = openCollection(collectionUri, LockMode.READ_LOCK)) {
+            if (collection == null) {
+                LOG.warn("Collection {} not found!", collectionUri);
+                return;
+            }
+            if(!collection.getPermissionsNoLock().validate(getCurrentSubject(), Permission.WRITE)) {
+                throw new PermissionDeniedException("Account " + getCurrentSubject().getName() + " have insufficient privileges on collection " + collection.getURI());
+            }
+            for (final Iterator<DocumentImpl> i = collection.iterator(this); i.hasNext(); ) {
+                documents.add(i.next().getURI());
+            }
+            for (final Iterator<XmldbURI> i = collection.collectionIterator(this); i.hasNext(); ) {
+                children.add(collection.getURI().append(i.next()));
+            }
+        }
+        for (final XmldbURI childUri : children) {
+            listCollectionDocuments(childUri, documents);
+        }
+    }
+
+    /**
+     * Reindex the documents of the collection and its descendant collections.
+     *
+     * @param parallelReindex if not null, the documents of a collection are
+     *     reindexed in parallel by the threads of parallelReindex
+     */
     private void reindexCollection(final Txn transaction,
-            @EnsureLocked(mode=LockMode.READ_LOCK) final Collection collection, final IndexMode mode)
+            @EnsureLocked(mode=LockMode.READ_LOCK) final Collection collection, final IndexMode mode,
+            @Nullable final ParallelReindex parallelReindex)
             throws PermissionDeniedException, IOException, LockException {
         if(!collection.getPermissionsNoLock().validate(getCurrentSubject(), Permission.WRITE)) {
             throw new PermissionDeniedException("Account " + getCurrentSubject().getName() + " have insufficient privileges on collection " + collection.getURI());
@@ -2098,9 +2206,13 @@ public class NativeBroker extends DBBroker {
 
         // reindex documents
         try {
-            for (final Iterator<DocumentImpl> i = collection.iterator(this); i.hasNext(); ) {
-                final DocumentImpl next = i.next();
-                reindexXMLResource(transaction, next, mode);
+            if (parallelReindex != null) {
+                parallelReindex.reindexDocuments(collection, mode);
+            } else {
+                for (final Iterator<DocumentImpl> i = collection.iterator(this); i.hasNext(); ) {
+                    final DocumentImpl next = i.next();
+                    reindexXMLResource(transaction, next, mode);
+                }
             }
         } catch(final LockException e) {
             LOG.error("LockException while reindexing documents of collection '{}'. Skipping...", collection.getURI(), e);
@@ -2115,7 +2227,7 @@ public class NativeBroker extends DBBroker {
                     if (child == null) {
                         throw new IOException("Collection '" + childUri + "' not found");
                     } else {
-                        reindexCollection(transaction, child, mode);
+                        reindexCollection(transaction, child, mode, parallelReindex);
                     }
                 }
             }
@@ -2124,6 +2236,86 @@ public class NativeBroker extends DBBroker {
         }
     }
 
+    /**
+     * Reindexes the documents of a collection with several threads. Every thread
+     * leases its own broker, so each has its own index workers, and reindexes a
+     * batch of documents within its own transaction. The calling thread waits until
+     * all documents of the collection have been reindexed and reports the progress
+     * to the {@link ProcessMonitor}. If a batch fails, the batches which have not
+     * yet started are skipped and the failure is thrown as an {@link IOException}.
+     */
+    private final class ParallelReindex implements AutoCloseable {
+
+        private final ExecutorService executor;
+        private final Subject subject;
+        private final AtomicInteger reindexed = new AtomicInteger();
+
+        ParallelReindex(final int threads) {
+            this.executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory(pool.getThreadGroup(), pool.getId(), "reindex"));
+            this.subject = getCurrentSubject();
+        }
+
+        void reindexDocuments(@EnsureLocked(mode=LockMode.READ_LOCK) final Collection collection, final IndexMode mode)
+                throws PermissionDeniedException, LockException, IOException {
+            final List<Future<?>> batches = new ArrayList<>();
+            List<DocumentImpl> batch = new ArrayList<>(REINDEX_BATCH_SIZE);
+            for (final Iterator<DocumentImpl> i = collection.iterator(NativeBroker.this); i.hasNext(); ) {
+                batch.add(i.next());
+                if (batch.size() == REINDEX_BATCH_SIZE) {
+                    batches.add(submit(batch, mode));
+                    batch = new ArrayList<>(REINDEX_BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) {
+                batches.add(submit(batch, mode));
+            }
+
+            Throwable failure = null;
+            for (final Future<?> future : batches) {
+                try {
+                    future.get();
+                } catch (final ExecutionException e) {
+                    if (failure == null) {
+                        // the batches which have not yet started are skipped
+                        failure = e.getCause();
+                        batches.forEach(batchFuture -> batchFuture.cancel(false));
+                    }
+                } catch (final CancellationException e) {
+                    // skipped after an earlier failure
+                } catch (final InterruptedException e) {
+                    batches.forEach(batchFuture -> batchFuture.cancel(false));
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reindexing collection " + collection.getURI(), e);
+                }
+                pool.getProcessMonitor().updateJob(collection.getURI() + " (" + reindexed.get() + " documents reindexed)");
+            }
+
+            if (failure != null) {
+                throw new IOException("Error while reindexing documents of collection " + collection.getURI() + ": " + failure.getMessage(), failure);
+            }
+        }
+
+        private Future<?> submit(final List<DocumentImpl> documents, final IndexMode mode) {
+            return executor.submit(() -> {
+                final TransactionManager transact = pool.getTransactionManager();
+                try(final DBBroker broker = pool.get(Optional.of(subject));
+                        final Txn transaction = transact.beginTransaction()) {
+                    for (final DocumentImpl doc : documents) {
+                        broker.reindexXMLResource(transaction, doc, mode);
+                        reindexed.incrementAndGet();
+                    }
+                    transact.commit(transaction);
+                }
+                return null;
+            });
+        }
+
+        @Override
+        public void close() {
+            executor.shutdownNow();
+        }
+    }
+
     private void dropCollectionIndex(final Txn transaction,
             @EnsureLocked(mode=LockMode.WRITE_LOCK) final Collection collection)
             throws PermissionDeniedException, IOException, LockException {
@@ -2144,24 +2336,32 @@ public class NativeBroker extends DBBroker {
         for (final Iterator<DocumentImpl> i = collection.iterator(this); i.hasNext(); ) {
             final DocumentImpl doc = i.next();
             LOG.debug("Dropping index for document " + doc.getFileURI());
-            new DOMTransaction(this, domDb, () -> lockManager.acquireBtreeWriteLock(domDb.getLockName())) {
-                @Override
-                public Object start() {
-                    try {
-                        final Value ref = new NodeRef(doc.getDocId());
-                        final IndexQuery query =
-                                new IndexQuery(IndexQuery.TRUNC_RIGHT, ref);
-                        domDb.remove(transaction, query, null);
-                        domDb.flush();
-                    } catch (final TerminatedException | IOException | DBException e) {
-                        LOG.error("Error while removing Document '{}' from Collection index: {}", doc.getURI().lastSegment(), collection.getURI(), e);
-                    }
-                    return null;
-                }
-            }.run();
+            dropDomIndex(transaction, doc);
         }
     }
 
+    /**
+     * Remove the entries of the document from the index of the dom file,
+     * i.e. the addresses of its nodes.
+     */
+    private void dropDomIndex(final Txn transaction, final DocumentImpl doc) {
+        new DOMTransaction(this, domDb, () -> lockManager.acquireBtreeWriteLock(domDb.getLockName())) {
+            @Override
+            public Object start() {
+                try {
+                    final Value ref = new NodeRef(doc.getDocId());
+                    final IndexQuery query =
+                            new IndexQuery(IndexQuery.TRUNC_RIGHT, ref);
+                    domDb.remove(transaction, query, null);
+                    domDb.flush();
+                } catch (final TerminatedException | IOException | DBException e) {
+                    LOG.error("Error while removing Document '{}' from Collection index: {}", doc.getURI().lastSegment(), doc.getCollection().getURI(), e);
+                }
+                return null;
+            }
+        }.run();
+    }
+
     /**
      * Store into the temporary collection of the database a given in-memory Document
      *
@@ -2278,14 +2478,16 @@ public class NativeBroker extends DBBroker {
                 collectionUri = "/db";
             } else {
                 for(final Value collectionDbKey : collectionsDb.getKeys()) {
-                    if(collectionDbKey.data()[0] == CollectionStore.KEY_TYPE_COLLECTION) {
+                    // the keys may be windows onto a shared page buffer
+                    final byte[] data = collectionDbKey.getData();
+                    if(data[0] == CollectionStore.KEY_TYPE_COLLECTION) {
                         //Value collectionDbValue = collectionsDb.get(collectionDbKey);
 
                         final VariableByteInput vbi = collectionsDb.getAsStream(collectionDbKey);
                         final int id = vbi.readInt();
                         //check if the collection id matches (first 4 bytes)
                         if(collectionId == id) {
-                            collectionUri = new String(Arrays.copyOfRange(collectionDbKey.data(), 1, collectionDbKey.data().length));
+                            collectionUri = new String(Arrays.copyOfRange(data, 1, data.length));
                             break;
                         }
                     }
@@ -3924,7 +4126,7 @@ public class NativeBroker extends DBBroker {
         loadIndexModules();
         LOG.info("Reindexing database files ...");
         //Reindex from root collection
-        reindexCollection(null, getCollection(XmldbURI.ROOT_COLLECTION_URI), IndexMode.REPAIR);
+        reindexCollection(null, getCollection(XmldbURI.ROOT_COLLECTION_URI), IndexMode.REPAIR, null);
     }
 
     @Override
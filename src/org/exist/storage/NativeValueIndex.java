@@ -367,6 +367,12 @@ public class NativeValueIndex implements ContentLoadingObserver {
     }
 
     private <T> void flush(final PendingChanges<T> pending, final FunctionE<T, Value, EXistException> dbKeyFn) {
+        if (pending.changes.isEmpty()) {
+            return;
+        }
+
+        // encode all entries first, sorted by their key in the btree, so they can be written in a single pass
+        final SortedMap<Value, byte[]> entries = new TreeMap<>();
         for (final Map.Entry<T, List<NodeId>> entry : pending.changes.entrySet()) {
             final T key = entry.getKey();
 
@@ -399,27 +405,36 @@ public class NativeValueIndex implements ContentLoadingObserver {
 
             //Write (variable) length of node IDs
             os.writeFixedInt(nodeIDsLength, os.position() - nodeIDsLength - LENGTH_NODE_IDS);
-            try(final ManagedLock<ReentrantLock> bfileLock = lockManager.acquireBtreeWriteLock(dbValues.getLockName())) {
-                final Value v = dbKeyFn.apply(key);
-
-                if (dbValues.append(v, os.data()) == BFile.UNKNOWN_ADDRESS) {
-                    LOG.warn("Could not append index data for key '" + key + "'");
-                    //TODO : throw exception ?
-                }
-            } catch (final EXistException | IOException e) {
+            try {
+                // different keys may be stored under the same value: concatenate their entries
+                entries.merge(dbKeyFn.apply(key), os.toByteArray(), (data1, data2) -> {
+                    final byte[] data = Arrays.copyOf(data1, data1.length + data2.length);
+                    System.arraycopy(data2, 0, data, data1.length, data2.length);
+                    return data;
+                });
+            } catch (final EXistException e) {
                 LOG.error(e.getMessage(), e);
-            } catch (final LockException e) {
-                LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(dbValues.getFile()) + "'", e);
-                //TODO : return ?
-            } catch (final ReadOnlyException e) {
-                LOG.warn(e.getMessage(), e);
-
-                //Return without clearing the pending entries
-                return;
             } finally {
                 os.clear();
             }
         }
+
+        try(final ManagedLock<ReentrantLock> bfileLock = lockManager.acquireBtreeWriteLock(dbValues.getLockName())) {
+            final List<ByteArray> data = new ArrayList<>(entries.size());
+            for (final byte[] value : entries.values()) {
+                data.add(new FixedByteArray(value, 0, value.length));
+            }
+            final int failed = dbValues.append(null, new ArrayList<>(entries.keySet()), data);
+            if (failed > 0) {
+                LOG.warn("Could not append index data for " + failed + " keys");
+                //TODO : throw exception ?
+            }
+        } catch (final IOException e) {
+            LOG.error(e.getMessage(), e);
+        } catch (final LockException e) {
+            LOG.warn("Failed to acquire lock for '" + FileUtils.fileName(dbValues.getFile()) + "'", e);
+            //TODO : return ?
+        }
         pending.changes.clear();
     }
 
@@ -21,14 +21,23 @@
  */
 package org.exist.storage;
 
+import net.jcip.annotations.GuardedBy;
 import net.jcip.annotations.ThreadSafe;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.NodeHandle;
 import org.exist.numbering.NodeId;
+import org.exist.util.Configuration;
+import org.exist.util.ThreadUtils;
 
+import java.util.ArrayDeque;
+import java.util.HashMap;
 import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.exist.dom.persistent.IStoredNode;
 
@@ -37,6 +46,14 @@ import org.exist.dom.persistent.IStoredNode;
  * can subscribe to this service to be notified of document modifications,
  * removals or additions.
  *
+ * Listeners subscribed with {@link #subscribe(UpdateListener)} are notified
+ * synchronously by the thread which modified the document. Listeners subscribed
+ * with {@link #subscribeAsynchronous(UpdateListener)} are notified by a thread of
+ * their own: the events are put into a bounded queue, in which the pending events
+ * for the same document are coalesced. Writers never wait for an asynchronous
+ * listener, if its queue is full the pending events are discarded and the listener
+ * is asked to {@link UpdateListener#resync() resync} instead.
+ *
  * @author wolf
  */
 @ThreadSafe
@@ -45,14 +62,41 @@ public class NotificationService implements BrokerPoolService {
     private static final long serialVersionUID = -3629584664969740903L;
     private static final Logger LOG = LogManager.getLogger(NotificationService.class);
 
-    private final Map<UpdateListener, Object> listeners = new IdentityHashMap<>();
+    public static final String CONFIGURATION_ELEMENT_NAME = "notification";
+    public static final String QUEUE_SIZE_ATTRIBUTE = "queue-size";
+    public static final String PROPERTY_QUEUE_SIZE = "db-connection.notification.queue-size";
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+
+    @GuardedBy("this") private final Map<UpdateListener, Object> listeners = new IdentityHashMap<>();
+    @GuardedBy("this") private final Map<UpdateListener, AsyncDelivery> asyncListeners = new IdentityHashMap<>();
+    private volatile AsyncDelivery[] asyncDeliveries = new AsyncDelivery[0];
+
+    private final AtomicInteger deliveryThreadCount = new AtomicInteger();
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+    private BrokerPool brokerPool;
+
+    private final LongAdder queuedEvents = new LongAdder();
+    private final LongAdder coalescedEvents = new LongAdder();
+    private final LongAdder droppedEvents = new LongAdder();
+    private final LongAdder resyncs = new LongAdder();
 
     public NotificationService() {
         super();
     }
 
+    @Override
+    public void configure(final Configuration configuration) {
+        this.queueSize = configuration.getProperty(PROPERTY_QUEUE_SIZE, DEFAULT_QUEUE_SIZE);
+    }
+
+    @Override
+    public void prepare(final BrokerPool brokerPool) {
+        this.brokerPool = brokerPool;
+    }
+
     /**
      * Subscribe an {@link UpdateListener} to receive notifications.
+     * The listener is notified synchronously by the thread which modified the document.
      *
      * @param listener
      */
@@ -60,15 +104,49 @@ public class NotificationService implements BrokerPoolService {
         listeners.put(listener, new Object());
     }
 
+    /**
+     * Subscribe an {@link UpdateListener} to receive notifications asynchronously.
+     *
+     * The listener is notified by a thread of its own, some time after the document
+     * was modified, and multiple updates of the same document may be reported as one.
+     * If the listener falls too far behind, its pending events are replaced by a call
+     * to {@link UpdateListener#resync()}. Only listeners which do not need to observe a
+     * modification before the modifying operation completes, e.g. caches which are
+     * validated on use, should subscribe asynchronously.
+     *
+     * @param listener
+     */
+    public synchronized void subscribeAsynchronous(final UpdateListener listener) {
+        final AsyncDelivery delivery = new AsyncDelivery(listener, queueSize);
+        asyncListeners.put(listener, delivery);
+        asyncDeliveries = asyncListeners.values().toArray(new AsyncDelivery[0]);
+        delivery.start();
+    }
+
     /**
      * Unsubscribe an {@link UpdateListener}.
      *
+     * The pending events of an asynchronous listener are delivered before
+     * it is unsubscribed.
+     *
      * @param listener
      */
-    public synchronized void unsubscribe(final UpdateListener listener) {
-        final Object i = listeners.remove(listener);
-        if (i == null) {
-            throw new RuntimeException(hashCode() + " listener not found: " + listener.hashCode());
+    public void unsubscribe(final UpdateListener listener) {
+        final AsyncDelivery delivery;
+        synchronized (this) {
+            delivery = asyncListeners.remove(listener);
+            if (delivery != null) {
+                asyncDeliveries = asyncListeners.values().toArray(new AsyncDelivery[0]);
+            } else {
+                final Object i = listeners.remove(listener);
+                if (i == null) {
+                    throw new RuntimeException(hashCode() + " listener not found: " + listener.hashCode());
+                }
+            }
+        }
+
+        if (delivery != null) {
+            delivery.stop();
         }
         listener.unsubscribe();
     }
@@ -80,16 +158,26 @@ public class NotificationService implements BrokerPoolService {
      * @param document
      * @param event
      */
-    public synchronized void notifyUpdate(final DocumentImpl document, final int event) {
-        listeners.keySet().forEach(listener -> listener.documentUpdated(document, event));
+    public void notifyUpdate(final DocumentImpl document, final int event) {
+        for (final AsyncDelivery delivery : asyncDeliveries) {
+            delivery.documentUpdated(document, event);
+        }
+        synchronized (this) {
+            listeners.keySet().forEach(listener -> listener.documentUpdated(document, event));
+        }
     }
 
     /**
      * Notify all subscribers that a node has been moved. Nodes may be moved during a
      * defragmentation run.
      */
-    public synchronized void notifyMove(final NodeId oldNodeId, final IStoredNode newNode) {
-        listeners.keySet().forEach(listener -> listener.nodeMoved(oldNodeId, newNode));
+    public void notifyMove(final NodeId oldNodeId, final IStoredNode<?> newNode) {
+        for (final AsyncDelivery delivery : asyncDeliveries) {
+            delivery.nodeMoved(oldNodeId, newNode);
+        }
+        synchronized (this) {
+            listeners.keySet().forEach(listener -> listener.nodeMoved(oldNodeId, newNode));
+        }
     }
 
     public synchronized void debug() {
@@ -97,5 +185,225 @@ public class NotificationService implements BrokerPoolService {
             LOG.debug("Registered UpdateListeners:");
         }
         listeners.keySet().forEach(UpdateListener::debug);
+        asyncListeners.keySet().forEach(UpdateListener::debug);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Asynchronous notifications: " + getStatistics());
+        }
+    }
+
+    /**
+     * Returns statistics about the asynchronous delivery of notifications: the number
+     * of events which are pending, were queued, were coalesced with a pending event and
+     * were discarded because a queue was full, and how often listeners had to resync.
+     *
+     * @return the statistics by name
+     */
+    public Map<String, Long> getStatistics() {
+        long pending = 0;
+        for (final AsyncDelivery delivery : asyncDeliveries) {
+            pending += delivery.size();
+        }
+
+        final Map<String, Long> statistics = new LinkedHashMap<>();
+        statistics.put("pending", pending);
+        statistics.put("queued", queuedEvents.sum());
+        statistics.put("coalesced", coalescedEvents.sum());
+        statistics.put("dropped", droppedEvents.sum());
+        statistics.put("resyncs", resyncs.sum());
+        return statistics;
+    }
+
+    @Override
+    public void shutdown() {
+        final AsyncDelivery[] deliveries;
+        synchronized (this) {
+            deliveries = asyncDeliveries;
+            asyncListeners.clear();
+            asyncDeliveries = new AsyncDelivery[0];
+        }
+        for (final AsyncDelivery delivery : deliveries) {
+            delivery.stop();
+        }
+    }
+
+    /**
+     * Delivers the events for an asynchronous listener from a bounded queue.
+     */
+    private class AsyncDelivery implements Runnable {
+        private final UpdateListener listener;
+        private final int capacity;
+        private final Thread thread;
+
+        @GuardedBy("this") private final ArrayDeque<Object> queue = new ArrayDeque<>();
+        @GuardedBy("this") private final Map<Integer, DocumentEvent> pendingDocuments = new HashMap<>();
+        @GuardedBy("this") private boolean resync = false;
+        @GuardedBy("this") private boolean stopped = false;
+
+        AsyncDelivery(final UpdateListener listener, final int capacity) {
+            this.listener = listener;
+            this.capacity = Math.max(1, capacity);
+            final String name = "notification-service.async-" + deliveryThreadCount.getAndIncrement();
+            this.thread = brokerPool != null ? ThreadUtils.newInstanceThread(brokerPool, name, this) : new Thread(this, name);
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        synchronized int size() {
+            return queue.size();
+        }
+
+        synchronized void documentUpdated(final DocumentImpl document, final int event) {
+            // a remove must be delivered in order, so it is never coalesced
+            final DocumentEvent pending = pendingDocuments.get(document.getDocId());
+            if (pending != null && event != UpdateListener.REMOVE) {
+                pending.coalesce(document, event);
+                coalescedEvents.increment();
+                return;
+            }
+
+            if (!hasCapacity()) {
+                return;
+            }
+            final DocumentEvent documentEvent = new DocumentEvent(document, event);
+            queue.add(documentEvent);
+            if (event == UpdateListener.REMOVE) {
+                pendingDocuments.remove(document.getDocId());
+            } else {
+                pendingDocuments.put(document.getDocId(), documentEvent);
+            }
+            queuedEvents.increment();
+            notifyAll();
+        }
+
+        synchronized void nodeMoved(final NodeId oldNodeId, final NodeHandle newNode) {
+            if (!hasCapacity()) {
+                return;
+            }
+            queue.add(new MoveEvent(oldNodeId, newNode));
+            // later events of the document must not be coalesced with those before the move
+            final DocumentImpl document = newNode.getOwnerDocument();
+            if (document != null) {
+                pendingDocuments.remove(document.getDocId());
+            }
+            queuedEvents.increment();
+            notifyAll();
+        }
+
+        /**
+         * Checks if there is space for another event in the queue. If there is not,
+         * the pending events are discarded and replaced by a resync of the listener,
+         * which also covers the events arriving until the resync is delivered.
+         *
+         * @return true if the event should be queued, false if it was discarded
+         */
+        @GuardedBy("this")
+        private boolean hasCapacity() {
+            if (!resync && queue.size() < capacity) {
+                return true;
+            }
+
+            if (!resync) {
+                LOG.warn("Notification queue of listener " + listener + " is full, discarding " + queue.size() + " pending events");
+                droppedEvents.add(queue.size());
+                queue.clear();
+                pendingDocuments.clear();
+                resync = true;
+                notifyAll();
+            }
+            droppedEvents.increment();
+            return false;
+        }
+
+        void stop() {
+            synchronized (this) {
+                stopped = true;
+                notifyAll();
+            }
+            if (Thread.currentThread() != thread) {
+                try {
+                    thread.join();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Object event;
+                synchronized (this) {
+                    while (queue.isEmpty() && !resync && !stopped) {
+                        try {
+                            wait();
+                        } catch (final InterruptedException e) {
+                            // nothing to be done, the queue is drained when stopped
+                        }
+                    }
+                    if (resync) {
+                        resync = false;
+                        event = null;
+                    } else if (queue.isEmpty()) {
+                        return;
+                    } else {
+                        event = queue.poll();
+                        if (event instanceof DocumentEvent) {
+                            final DocumentEvent documentEvent = (DocumentEvent) event;
+                            pendingDocuments.remove(documentEvent.document.getDocId(), documentEvent);
+                        }
+                    }
+                }
+
+                try {
+                    if (event == null) {
+                        resyncs.increment();
+                        listener.resync();
+                    } else if (event instanceof DocumentEvent) {
+                        final DocumentEvent documentEvent = (DocumentEvent) event;
+                        listener.documentUpdated(documentEvent.document, documentEvent.event);
+                    } else {
+                        final MoveEvent moveEvent = (MoveEvent) event;
+                        listener.nodeMoved(moveEvent.oldNodeId, moveEvent.newNode);
+                    }
+                } catch (final RuntimeException e) {
+                    LOG.error("Error notifying listener " + listener + ": " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A pending document event, later additions and updates of the same document are coalesced into it.
+     */
+    private static class DocumentEvent {
+        private DocumentImpl document;
+        private int event;
+
+        DocumentEvent(final DocumentImpl document, final int event) {
+            this.document = document;
+            this.event = event;
+        }
+
+        void coalesce(final DocumentImpl document, final int event) {
+            this.document = document;
+            if (this.event == UpdateListener.ADD && event == UpdateListener.UPDATE) {
+                // the listener has not seen the document yet
+                return;
+            }
+            this.event = event;
+        }
+    }
+
+    private static class MoveEvent {
+        private final NodeId oldNodeId;
+        private final NodeHandle newNode;
+
+        MoveEvent(final NodeId oldNodeId, final NodeHandle newNode) {
+            this.oldNodeId = oldNodeId;
+            this.newNode = newNode;
+        }
     }
 }
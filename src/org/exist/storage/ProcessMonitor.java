@@ -103,6 +103,19 @@ public class ProcessMonitor implements BrokerPoolService {
         }
     }
 
+    /**
+     * Replaces the additional information of the job started by the current
+     * thread, e.g. to report the progress of a long running job.
+     *
+     * @param addInfo the new additional information
+     */
+    public synchronized void updateJob(Object addInfo) {
+        final JobInfo info = processes.get(Thread.currentThread());
+        if (info != null) {
+            info.setAddInfo(addInfo);
+        }
+    }
+
     public synchronized void endJob() {
         processes.remove(Thread.currentThread());
         notifyAll();
@@ -37,6 +37,14 @@ public interface UpdateListener {
      */
     public void nodeMoved(NodeId oldNodeId, NodeHandle newNode);
 
+    /**
+     * Called instead of the pending events when a listener which is notified
+     * asynchronously fell too far behind and its events were discarded. The
+     * listener must then assume that any document may have been modified.
+     */
+    public default void resync() {
+    }
+
     /**
      * Called when the listener is removed from the notification service
      */
@@ -19,23 +19,58 @@
  */
 package org.exist.storage;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import net.jcip.annotations.ThreadSafe;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
+import org.exist.dom.persistent.BinaryDocument;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.LockedDocument;
+import org.exist.dom.persistent.NodeHandle;
+import org.exist.numbering.NodeId;
 import org.exist.security.Permission;
 import org.exist.security.PermissionDeniedException;
+import org.exist.source.ClassLoaderSource;
+import org.exist.source.DBSource;
+import org.exist.source.FileSource;
 import org.exist.source.Source;
+import org.exist.storage.lock.Lock.LockMode;
 import org.exist.util.Configuration;
+import org.exist.util.NamedThreadFactory;
+import org.exist.xmldb.XmldbURI;
 import org.exist.xquery.*;
+import org.exist.xquery.Module;
 import org.jctools.queues.atomic.MpmcAtomicArrayQueue;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /**
  * Global pool for compiled XQuery expressions.
  *
@@ -48,6 +83,16 @@ import org.jctools.queues.atomic.MpmcAtomicArrayQueue;
  * used for a pre-defined timeout (default is {@link #DEFAULT_TIMEOUT}); these
  * settings can be configured in conf.xml.
  *
+ * The pool records which library modules each pooled XQuery imports. When
+ * a module (or the XQuery itself) is updated in the database, only the
+ * XQuerys which depend on it are removed from the pool, and they are then
+ * recompiled in the background so that they are available again for the
+ * next request.
+ *
+ * The pool may also be warmed up at startup, by compiling the XQuerys
+ * listed in conf.xml, and when warm-up is enabled, the XQuerys which were
+ * in the pool when the database was last shutdown.
+ *
  * @author <a href="mailto:adam@evolvedbinary.com">Adam Retter</a>
  */
 @ThreadSafe
@@ -59,10 +104,22 @@ public class XQueryPool implements BrokerPoolService {
     public static final String MAX_STACK_SIZE_ATTRIBUTE = "max-stack-size";
     public static final String POOL_SIZE_ATTTRIBUTE = "size";
     public static final String TIMEOUT_ATTRIBUTE = "timeout";
+    public static final String WARM_UP_ATTRIBUTE = "warm-up";
+    public static final String WARM_UP_SOURCE_ELEMENT_NAME = "warm-up-source";
+    public static final String WARM_UP_SOURCE_LOCATION_ATTRIBUTE = "location";
+    public static final String WARM_UP_SOURCE_MODULE_LOAD_PATH_ATTRIBUTE = "module-load-path";
 
     public static final String PROPERTY_MAX_STACK_SIZE = "db-connection.query-pool.max-stack-size";
     public static final String PROPERTY_POOL_SIZE = "db-connection.query-pool.size";
     public static final String PROPERTY_TIMEOUT = "db-connection.query-pool.timeout";
+    public static final String PROPERTY_WARM_UP = "db-connection.query-pool.warm-up";
+    public static final String PROPERTY_WARM_UP_SOURCES = "db-connection.query-pool.warm-up-sources";
+
+    /**
+     * The file in the data directory which holds the XQuerys
+     * that were in the pool when the database was shutdown.
+     */
+    private static final String WARM_UP_FILE_NAME = "query-pool.warm-up";
 
     private static final int DEFAULT_MAX_POOL_SIZE = 128;
     private static final int DEFAULT_MAX_QUERY_STACK_SIZE = 64;
@@ -71,10 +128,32 @@ public class XQueryPool implements BrokerPoolService {
     private int maxPoolSize = DEFAULT_MAX_POOL_SIZE;
     private int maxQueryStackSize = DEFAULT_MAX_QUERY_STACK_SIZE;
     private long timeout = DEFAULT_TIMEOUT;
+    private boolean warmUp = false;
+    private List<WarmUpSource> warmUpSources = Collections.emptyList();
 
     private final AtomicBoolean configured = new AtomicBoolean();
     private Cache<Source, Queue<CompiledXQuery>> cache;
 
+    /**
+     * Key of a library module (or of a pooled XQuery itself) -> the sources
+     * of the pooled XQuerys which must be recompiled when it changes.
+     */
+    private final ConcurrentMap<Object, Set<Source>> dependents = new ConcurrentHashMap<>();
+
+    /**
+     * Source of a pooled XQuery -> the module load path it was compiled with.
+     */
+    private final ConcurrentMap<Source, String> moduleLoadPaths = new ConcurrentHashMap<>();
+
+    /**
+     * Sources which are waiting to be recompiled in the background.
+     */
+    private final Set<Source> recompiling = ConcurrentHashMap.newKeySet();
+
+    private BrokerPool brokerPool;
+    private ExecutorService compiler;
+    private final UpdateListener updateListener = new DependentsUpdateListener();
+
     @Override
     public void configure(final Configuration configuration) {
         if(configured.compareAndSet(false, true)) {
@@ -82,6 +161,8 @@ public class XQueryPool implements BrokerPoolService {
             final Integer maxStSz = (Integer) configuration.getProperty(PROPERTY_MAX_STACK_SIZE);
             final Integer maxPoolSz = (Integer) configuration.getProperty(PROPERTY_POOL_SIZE);
             final Long t = (Long) configuration.getProperty(PROPERTY_TIMEOUT);
+            final Boolean w = (Boolean) configuration.getProperty(PROPERTY_WARM_UP);
+            @SuppressWarnings("unchecked") final List<WarmUpSource> ws = (List<WarmUpSource>) configuration.getProperty(PROPERTY_WARM_UP_SOURCES);
             final NumberFormat nf = NumberFormat.getNumberInstance();
 
             if (maxPoolSz != null) {
@@ -102,20 +183,98 @@ public class XQueryPool implements BrokerPoolService {
                 this.timeout = DEFAULT_TIMEOUT;
             }
 
+            this.warmUp = w != null && w;
+            this.warmUpSources = ws != null ? ws : Collections.emptyList();
+
             this.cache = Caffeine.newBuilder()
                     .maximumSize(maxPoolSize)
                     .expireAfterAccess(timeout, TimeUnit.MILLISECONDS)
+                    .executor(Runnable::run)
+                    .removalListener((Source key, Queue<CompiledXQuery> value, RemovalCause cause) -> {
+                        if (cause != RemovalCause.REPLACED) {
+                            forgetDependencies(key);
+                        }
+                    })
                     .build();
 
             LOG.info("QueryPool: " +
             "size = " + nf.format(maxPoolSize) + "; " +
             "maxQueryStackSize = " + nf.format(maxQueryStackSize) + "; " +
-            "timeout = " + nf.format(timeout) + "; ");
+            "timeout = " + nf.format(timeout) + "; " +
+            "warmUp = " + warmUp + "; " +
+            "warmUpSources = " + nf.format(warmUpSources.size()) + "; ");
         } else {
             throw new IllegalStateException("XQuery Pool has already been configured");
         }
     }
 
+    @Override
+    public void startMultiUser(final BrokerPool brokerPool) {
+        this.brokerPool = brokerPool;
+        this.compiler = Executors.newSingleThreadExecutor(new NamedThreadFactory(brokerPool.getThreadGroup(), brokerPool.getId(), "xquery-pool.compile"));
+        // the pooled queries are validated when they are borrowed, so the invalidation may lag behind
+        brokerPool.getNotificationService().subscribeAsynchronous(updateListener);
+
+        // compile the XQuerys configured in conf.xml first, and then those from the last run
+        final Map<String, String> hotSources = new LinkedHashMap<>();
+        for (final WarmUpSource warmUpSource : warmUpSources) {
+            hotSources.putIfAbsent(warmUpSource.getLocation(), warmUpSource.getModuleLoadPath());
+        }
+        if (warmUp) {
+            readWarmUpFile(hotSources);
+        }
+
+        if (!hotSources.isEmpty()) {
+            compiler.submit(() -> {
+                final long start = System.currentTimeMillis();
+                int compiled = 0;
+                for (final Map.Entry<String, String> hotSource : hotSources.entrySet()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                    if (compile(hotSource.getKey(), hotSource.getValue())) {
+                        compiled++;
+                    }
+                }
+                LOG.info("QueryPool: warmed up with " + compiled + " of " + hotSources.size() + " XQuerys in " + (System.currentTimeMillis() - start) + "ms");
+            });
+        }
+    }
+
+    @Override
+    public void stop(final DBBroker systemBroker) {
+        if (brokerPool == null) {
+            return;
+        }
+
+        brokerPool.getNotificationService().unsubscribe(updateListener);
+        shutdownCompiler();
+
+        if (warmUp) {
+            writeWarmUpFile();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        shutdownCompiler();
+    }
+
+    private void shutdownCompiler() {
+        if (compiler == null) {
+            return;
+        }
+
+        compiler.shutdownNow();
+        try {
+            if (!compiler.awaitTermination(10, TimeUnit.SECONDS)) {
+                LOG.warn("QueryPool: timed out whilst waiting for the background compilation to finish");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Returns a compiled XQuery to the XQuery pool.
      *
@@ -127,18 +286,24 @@ public class XQueryPool implements BrokerPoolService {
             return;
         }
 
+        final AtomicBoolean created = new AtomicBoolean();
         cache.asMap().compute(source, (key, value) -> {
             final Queue<CompiledXQuery> queue;
             if (value != null) {
                 queue = value;
             } else {
                 queue = new MpmcAtomicArrayQueue<>(maxQueryStackSize);
+                created.set(true);
             }
 
             queue.offer(compiledXQuery);
 
             return queue;
         });
+
+        if (created.get()) {
+            recordDependencies(source, compiledXQuery);
+        }
     }
 
     /**
@@ -159,39 +324,20 @@ public class XQueryPool implements BrokerPoolService {
             return null;
         }
 
-        // get (compute by checking validity) the stack of compiled XQuerys for the source
-        final Queue<CompiledXQuery> queue = cache.asMap().computeIfPresent(source, (key, value) -> {
-            if(!value.isEmpty()) {
-
-                // remove any stack of compiled queries which are now invalid
-                final CompiledXQuery firstCompiledXQuery = value.peek();
-                final Source cachedSource = firstCompiledXQuery.getSource();
-                Source.Validity validity = cachedSource.isValid(broker);
-                if (validity == Source.Validity.UNKNOWN) {
-                    validity = cachedSource.isValid(source);
-                }
-
-                if (validity == Source.Validity.INVALID || validity == Source.Validity.UNKNOWN) {
-                    if(LOG.isDebugEnabled()) {
-                        LOG.debug(source.getKey() + " is invalid, removing from XQuery Pool...");
-                    }
-                    return null;    // returning null will remove the entry from the cache
-                }
-
-                // the compiled query is no longer valid: one of the imported
-                // modules may have changed
-                if(!firstCompiledXQuery.isValid()) {
-                    return null;    // returning null will remove the entry from the cache
-                }
-            }
-
-            return value;
-        });
-
+        final Queue<CompiledXQuery> queue = cache.getIfPresent(source);
         if(queue == null) {
             return null;
         }
 
+        // the validity is checked outside of the cache, so that other threads
+        // borrowing from the pool are not blocked by the database lookups
+        final CompiledXQuery firstCompiledXQuery = queue.peek();
+        if(firstCompiledXQuery != null && !isValid(broker, source, firstCompiledXQuery)) {
+            // only remove the stack which we checked, it may have already been replaced
+            cache.asMap().remove(source, queue);
+            return null;
+        }
+
         final CompiledXQuery query = queue.poll();
         if(query == null) {
             return null;
@@ -203,10 +349,299 @@ public class XQueryPool implements BrokerPoolService {
         return query;
     }
 
+    private boolean isValid(final DBBroker broker, final Source source, final CompiledXQuery firstCompiledXQuery) {
+        // remove any stack of compiled queries which are now invalid
+        final Source cachedSource = firstCompiledXQuery.getSource();
+        Source.Validity validity = cachedSource.isValid(broker);
+        if (validity == Source.Validity.UNKNOWN) {
+            validity = cachedSource.isValid(source);
+        }
+
+        if (validity == Source.Validity.INVALID || validity == Source.Validity.UNKNOWN) {
+            if(LOG.isDebugEnabled()) {
+                LOG.debug(source.getKey() + " is invalid, removing from XQuery Pool...");
+            }
+            return false;
+        }
+
+        // the compiled query is no longer valid: one of the imported
+        // modules may have changed
+        return firstCompiledXQuery.isValid();
+    }
+
     /**
      * Removes all entries from the XQuery Pool.
      */
     public void clear() {
         cache.invalidateAll();
     }
+
+    /**
+     * Records the library modules imported by a compiled XQuery, so that
+     * it can be recompiled when one of them changes.
+     */
+    private void recordDependencies(final Source source, final CompiledXQuery compiledXQuery) {
+        final XQueryContext context = compiledXQuery.getContext();
+        if (context.getModuleLoadPath() != null) {
+            moduleLoadPaths.put(source, context.getModuleLoadPath());
+        }
+
+        // the XQuery depends on itself
+        dependents.computeIfAbsent(source.getKey(), k -> ConcurrentHashMap.newKeySet()).add(source);
+
+        // NOTE: the root context holds all of the modules, including those imported by other modules
+        for (final Iterator<Module> modules = context.getAllModules(); modules.hasNext(); ) {
+            final Module module = modules.next();
+            if (!module.isInternalModule()) {
+                final Source moduleSource = ((ExternalModule) module).getSource();
+                if (moduleSource != null) {
+                    dependents.computeIfAbsent(moduleSource.getKey(), k -> ConcurrentHashMap.newKeySet()).add(source);
+                }
+            }
+        }
+    }
+
+    private void forgetDependencies(final Source source) {
+        moduleLoadPaths.remove(source);
+        for (final Iterator<Set<Source>> it = dependents.values().iterator(); it.hasNext(); ) {
+            final Set<Source> sources = it.next();
+            sources.remove(source);
+            if (sources.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes the XQuerys which depend on a changed module from the pool,
+     * and schedules them for recompilation.
+     *
+     * @param key The key of the source of the module which has changed.
+     */
+    private void invalidateDependents(final Object key) {
+        final Set<Source> sources = dependents.remove(key);
+        if (sources == null) {
+            return;
+        }
+
+        for (final Source source : sources) {
+            final String moduleLoadPath = moduleLoadPaths.get(source);
+            if (cache.asMap().remove(source) == null) {
+                continue;   // no longer pooled, so not worth recompiling
+            }
+
+            if(LOG.isDebugEnabled()) {
+                LOG.debug(key + " has changed, recompiling " + source.getKey() + " in the background...");
+            }
+
+            final String location = getLocation(source);
+            if (location != null && recompiling.add(source)) {
+                try {
+                    compiler.submit(() -> {
+                        try {
+                            compile(location, moduleLoadPath);
+                        } finally {
+                            recompiling.remove(source);
+                        }
+                    });
+                } catch (final RejectedExecutionException e) {
+                    // the database is shutting down
+                    recompiling.remove(source);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compiles an XQuery as the system subject and adds it to the pool.
+     *
+     * @param location The location of the XQuery, see {@link #getLocation(Source)}.
+     * @param moduleLoadPath The module load path to compile the XQuery with, or null for the default.
+     *
+     * @return true if the XQuery was compiled and added to the pool.
+     */
+    private boolean compile(final String location, final String moduleLoadPath) {
+        try (final DBBroker broker = brokerPool.get(Optional.of(brokerPool.getSecurityManager().getSystemSubject()))) {
+            final Source source = getSource(broker, location);
+            if (source == null) {
+                LOG.warn("QueryPool: unable to find the XQuery: " + location);
+                return false;
+            }
+
+            final XQueryContext context = new XQueryContext(brokerPool);
+            if (moduleLoadPath != null) {
+                context.setModuleLoadPath(moduleLoadPath);
+            }
+            final CompiledXQuery compiled = brokerPool.getXQueryService().compile(broker, context, source);
+
+            // leave the compiled XQuery in the same state as one which has been executed and returned
+            compiled.reset();
+            context.reset();
+
+            returnCompiledXQuery(source, compiled);
+            return true;
+        } catch (final EXistException | XPathException | IOException | PermissionDeniedException | RuntimeException e) {
+            LOG.warn("QueryPool: unable to compile the XQuery: " + location + ": " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Gets a location from which the Source can be re-created by {@link #getSource(DBBroker, String)}.
+     *
+     * @return The location, or null if the Source cannot be re-created, e.g. a dynamic XQuery.
+     */
+    private static String getLocation(final Source source) {
+        if (source instanceof DBSource) {
+            return ((DBSource) source).getDocumentPath().toString();
+        } else if (source instanceof ClassLoaderSource) {
+            final String location = ((ClassLoaderSource) source).getSource();
+            return location.startsWith(ClassLoaderSource.PROTOCOL) ? location : ClassLoaderSource.PROTOCOL + location;
+        } else if (source instanceof FileSource) {
+            return ((FileSource) source).getPath().toAbsolutePath().toUri().toString();
+        } else {
+            return null;
+        }
+    }
+
+    private static Source getSource(final DBBroker broker, final String location) throws IOException, PermissionDeniedException {
+        if (location.startsWith(ClassLoaderSource.PROTOCOL)) {
+            return new ClassLoaderSource(location);
+
+        } else if (location.startsWith("file:")) {
+            final Path path = Paths.get(URI.create(location));
+            return Files.isReadable(path) ? new FileSource(path, true) : null;
+
+        } else {
+            final String path = location.startsWith(XmldbURI.EMBEDDED_SERVER_URI_PREFIX) ? location.substring(XmldbURI.EMBEDDED_SERVER_URI_PREFIX.length()) : location;
+            if (path.startsWith(XmldbURI.ROOT_COLLECTION)) {
+                try (final LockedDocument lockedDoc = broker.getXMLResource(XmldbURI.create(path), LockMode.READ_LOCK)) {
+                    if (lockedDoc != null && lockedDoc.getDocument().getResourceType() == DocumentImpl.BINARY_FILE) {
+                        return new DBSource(broker, (BinaryDocument) lockedDoc.getDocument(), true);
+                    }
+                }
+                return null;
+            }
+
+            final Path file = Paths.get(location);
+            return Files.isReadable(file) ? new FileSource(file, true) : null;
+        }
+    }
+
+    private Path getWarmUpFile() {
+        return brokerPool.getStoragePlace().resolve(WARM_UP_FILE_NAME);
+    }
+
+    /**
+     * Reads the XQuerys which were in the pool when the database was last shutdown.
+     * Each line of the file is the location of an XQuery, optionally followed by a tab
+     * and the module load path.
+     */
+    private void readWarmUpFile(final Map<String, String> hotSources) {
+        final Path warmUpFile = getWarmUpFile();
+        if (!Files.exists(warmUpFile)) {
+            return;
+        }
+
+        try {
+            for (final String line : Files.readAllLines(warmUpFile, UTF_8)) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                final int tab = line.indexOf('\t');
+                if (tab == -1) {
+                    hotSources.putIfAbsent(line, null);
+                } else {
+                    hotSources.putIfAbsent(line.substring(0, tab), line.substring(tab + 1));
+                }
+            }
+        } catch (final IOException e) {
+            LOG.warn("QueryPool: unable to read the warm-up file: " + warmUpFile.toAbsolutePath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the XQuerys in the pool to the warm-up file, the most frequently used first.
+     */
+    private void writeWarmUpFile() {
+        final Path warmUpFile = getWarmUpFile();
+        final Map<Source, Queue<CompiledXQuery>> hottest = cache.policy().eviction()
+                .map(eviction -> eviction.hottest(maxPoolSize))
+                .orElseGet(cache::asMap);
+
+        try (final BufferedWriter writer = Files.newBufferedWriter(warmUpFile, UTF_8)) {
+            for (final Source source : hottest.keySet()) {
+                final String location = getLocation(source);
+                if (location == null) {
+                    continue;
+                }
+                writer.write(location);
+                final String moduleLoadPath = moduleLoadPaths.get(source);
+                if (moduleLoadPath != null) {
+                    writer.write('\t');
+                    writer.write(moduleLoadPath);
+                }
+                writer.newLine();
+            }
+        } catch (final IOException e) {
+            LOG.warn("QueryPool: unable to write the warm-up file: " + warmUpFile.toAbsolutePath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * An XQuery to compile into the pool at startup.
+     */
+    public static class WarmUpSource {
+        private final String location;
+        private final String moduleLoadPath;
+
+        public WarmUpSource(final String location, final String moduleLoadPath) {
+            this.location = location;
+            this.moduleLoadPath = moduleLoadPath;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public String getModuleLoadPath() {
+            return moduleLoadPath;
+        }
+    }
+
+    /**
+     * Invalidates the pooled XQuerys which depend on a document
+     * in the database when the document is updated or removed.
+     */
+    private class DependentsUpdateListener implements UpdateListener {
+        @Override
+        public void documentUpdated(final DocumentImpl document, final int event) {
+            if (event != ADD) {
+                invalidateDependents(document.getURI());
+            }
+        }
+
+        @Override
+        public void nodeMoved(final NodeId oldNodeId, final NodeHandle newNode) {
+        }
+
+        @Override
+        public void resync() {
+            // some updates were missed, so any module may have changed
+            for (final Object key : dependents.keySet()) {
+                invalidateDependents(key);
+            }
+        }
+
+        @Override
+        public void unsubscribe() {
+        }
+
+        @Override
+        public void debug() {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("XQueryPool: " + dependents.size() + " modules with dependents");
+            }
+        }
+    }
 }
@@ -118,6 +118,9 @@ public class BTree extends Paged implements Lockable {
 
     protected final static int MIN_SPACE_PER_KEY = 32;
 
+    /** Max. length of the prefix a leaf key shares with its predecessor, stored as unsigned byte */
+    protected final static int MAX_LEAF_PREFIX_LEN = 0xFF;
+
     /** Log entry type for an insert value operation */
     public final static byte LOG_INSERT_VALUE = 0x20;
     /** Log entry type for creation of a new BTree node */
@@ -350,6 +353,32 @@ public class BTree extends Paged implements Lockable {
         return getRootNode().findValue(value);
     }
 
+    /**
+     * findValues finds several Values in the BTree and returns the associated
+     * pointers. The values have to be sorted in ascending order: the tree is
+     * only descended again if a value is not within the keys of the leaf page
+     * found for the previous value, so a run of values stored on the same
+     * leaf page requires a single descent.
+     *
+     * @param  values              The Values to find, in ascending order
+     * @return                     The pointers associated with the values, in the same
+     *                             order, or {@link #KEY_NOT_FOUND} if a value does not exist
+     * @exception  IOException     Description of the Exception
+     * @exception  BTreeException  Description of the Exception
+     */
+    public long[] findValues(final List<? extends Value> values) throws IOException, BTreeException {
+        final long[] pointers = new long[values.size()];
+        BTreeNode leaf = null;
+        for (int i = 0; i < pointers.length; i++) {
+            final Value value = values.get(i);
+            if (leaf == null || !leaf.isWithinKeys(value)) {
+                leaf = getRootNode().findLeaf(value);
+            }
+            pointers[i] = leaf.findValue(value);
+        }
+        return pointers;
+    }
+
     /**
      * query performs a query against the BTree and performs callback
      * operations to report the search results.
@@ -1088,10 +1117,7 @@ public class BTree extends Paged implements Lockable {
                 if (pageHeader.getStatus() == LEAF && i > 0) {
                     // if this is a leaf page, we use prefix compression to store the keys,
                     // so subtract the size of the prefix
-                    int prefix = keys[i].commonPrefix(keys[i - 1]);
-                    if (prefix < 0 || prefix > Byte.MAX_VALUE) {
-                        prefix = 0;
-                    }
+                    final int prefix = leafPrefixLen(keys[i], keys[i - 1]);
                     currentDataLen += keys[i].getLength() - prefix;
                 } else {
                     currentDataLen += keys[i].getLength();
@@ -1138,11 +1164,21 @@ public class BTree extends Paged implements Lockable {
         }
 
         private int calculatePrefixLen(final int idx0, final int idx1) {
-            int prefix = keys[idx0].commonPrefix(keys[idx1]);
-            if (prefix < 0 || prefix > Byte.MAX_VALUE) {
-                prefix = 0;
+            return leafPrefixLen(keys[idx0], keys[idx1]);
+        }
+
+        /**
+         * Returns the number of leading bytes a key on a leaf page shares with
+         * the previous key. The length is stored in a single unsigned byte, so
+         * longer prefixes are truncated to {@link #MAX_LEAF_PREFIX_LEN} bytes
+         * and the rest of the prefix is stored with the key.
+         */
+        private int leafPrefixLen(final Value key, final Value previous) {
+            final int prefix = key.commonPrefix(previous);
+            if (prefix < 0) {
+                return 0;
             }
-            return prefix;
+            return Math.min(prefix, MAX_LEAF_PREFIX_LEN);
         }
 
         /**
@@ -1161,10 +1197,7 @@ public class BTree extends Paged implements Lockable {
                 if (pageHeader.getStatus() == LEAF && i > 0) {
                     // if this is a leaf page, we use prefix compression to store the keys,
                     // so subtract the size of the prefix
-                    int prefix = keys[i].commonPrefix(keys[i - 1]);
-                    if (prefix < 0 || prefix > Byte.MAX_VALUE) {
-                        prefix = 0;
-                    }
+                    final int prefix = leafPrefixLen(keys[i], keys[i - 1]);
                     currentLen += keys[i].getLength() - prefix;
                 } else {
                     currentLen += keys[i].getLength();
@@ -1183,10 +1216,7 @@ public class BTree extends Paged implements Lockable {
                 if (pageHeader.getStatus() == LEAF && i > 0) {
                     // if this is a leaf page, we use prefix compression to store the keys,
                     // so subtract the size of the prefix
-                    int prefix = keys[i].commonPrefix(keys[i - 1]);
-                    if (prefix < 0 || prefix > Byte.MAX_VALUE) {
-                        prefix = 0;
-                    }
+                    final int prefix = leafPrefixLen(keys[i], keys[i - 1]);
                     totalLen += keys[i].getLength() - prefix;
                 } else {
                     totalLen += keys[i].getLength();
@@ -1225,37 +1255,49 @@ public class BTree extends Paged implements Lockable {
             }
             nKeys = pageHeader.getValueCount();
             keys = new Value[(nKeys * 3) / 2 + 1];
+            // the keys of a leaf page are decompressed into a single buffer shared by all
+            // keys of the page, instead of allocating a separate array for every key
+            final boolean leaf = pageHeader.getStatus() == LEAF;
+            byte[] buf = leaf ? new byte[keyLen < 0 ? data.length : nKeys * keyLen] : null;
+            final int[] offsets = leaf ? new int[nKeys + 1] : null;
             for (int i = 0; i < nKeys; i++) {
                 if (keyLen < 0) {
                     valSize = ByteConversion.byteToShort(data, p);
                     p += 2;
                 }
-                if (pageHeader.getStatus() == LEAF && i > 0) {
+                if (leaf) {
                     // for leaf pages, we use prefix compression to increase the number of
                     // keys that can be stored on one page. Each key is stored as follows:
                     // [valSize, prefixLen, value], where prefixLen specifies the number of
                     // leading bytes the key has in common with the previous key.
-                    final int prefixLen = (data[p++] & 0xFF);
+                    final int prefixLen = i > 0 ? (data[p++] & 0xFF) : 0;
+                    final int bp = offsets[i];
                     try {
-                        final byte[] t = new byte[valSize];
+                        if (bp + valSize > buf.length) {
+                            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, bp + valSize));
+                        }
                         if (prefixLen > 0) {
                             // copy prefixLen leading bytes from the previous key
-                            System.arraycopy(keys[i - 1].data(), keys[i - 1].start(), t, 0, prefixLen);
+                            System.arraycopy(buf, offsets[i - 1], buf, bp, prefixLen);
                         }
                         // read the remaining bytes
-                        System.arraycopy(data, p, t, prefixLen, valSize - prefixLen);
-                        p += valSize - prefixLen;
-                        keys[i] = new Value(t);
+                        System.arraycopy(data, p, buf, bp + prefixLen, valSize - prefixLen);
                     } catch (final Exception e) {
-                        e.printStackTrace();
-                        LOG.error("prefixLen = " + prefixLen + "; i = " + i + "; nKeys = " + nKeys);
+                        LOG.error("prefixLen = " + prefixLen + "; i = " + i + "; nKeys = " + nKeys, e);
                         throw new IOException(e.getMessage());
                     }
+                    p += valSize - prefixLen;
+                    offsets[i + 1] = bp + valSize;
                 } else {
                     keys[i] = new Value(data, p, valSize);
                     p += valSize;
                 }
             }
+            if (leaf) {
+                for (int i = 0; i < nKeys; i++) {
+                    keys[i] = new Value(buf, offsets[i], offsets[i + 1] - offsets[i]);
+                }
+            }
             //	Read in the pointers
             nPtrs = pageHeader.getPointerCount();
             ptrs = new long[(nPtrs * 3) / 2 + 1];
@@ -1298,9 +1340,7 @@ public class BTree extends Paged implements Lockable {
                     // keys that can be stored on one page. Each key is stored as follows:
                     // [valSize, prefixLen, value], where prefixLen specifies the number of
                     // leading bytes the key has in common with the previous key.
-                    int prefixLen = keys[i].commonPrefix(keys[i - 1]); // determine the common prefix
-                    if (prefixLen < 0 || prefixLen > Byte.MAX_VALUE)
-                        {prefixLen = 0;}
+                    final int prefixLen = leafPrefixLen(keys[i], keys[i - 1]); // determine the common prefix
                     // store the length of the prefix
                     temp[p++] = (byte) prefixLen;
                     // copy the remaining bytes, starting at prefixLen
@@ -1506,7 +1546,10 @@ public class BTree extends Paged implements Lockable {
                     System.arraycopy(ptrs, 0, leftPtrs, 0, leftPtrs.length);
                     System.arraycopy(keys, leftVals.length, rightVals, 0, rightVals.length);
                     System.arraycopy(ptrs, leftPtrs.length, rightPtrs, 0, rightPtrs.length);
-                    separator = keys[leftVals.length];
+                    // the parent only needs a key which is greater than all keys in the left
+                    // node and not greater than the first key in the right node. Promote the
+                    // shortest such key to keep the branch pages small.
+                    separator = leftVals[leftVals.length - 1].getSeparator(rightVals[0]);
                     break;
 
                 default :
@@ -1620,6 +1663,38 @@ public class BTree extends Paged implements Lockable {
             }
         }
 
+        /**
+         * Locate the leaf page which would contain the given value.
+         */
+        private BTreeNode findLeaf(final Value value) throws IOException, BTreeException {
+            switch (pageHeader.getStatus()) {
+
+                case BRANCH :
+                    int idx = searchKey(value);
+                    idx = idx < 0 ? - (idx + 1) : idx + 1;
+                    final BTreeNode child = getChildNode(idx);
+                    if (child == null) {throw new BTreeException("Unexpected " + idx + ", " +
+                            page.getPageNum() + ": value '" + value.toString() + "' doesn't exist");
+                    }
+                    return child.findLeaf(value);
+
+                case LEAF :
+                    return this;
+
+                default :
+                    throw new BTreeException("Invalid Page Type In findLeaf");
+            }
+        }
+
+        /**
+         * Returns true if this is a leaf page and the given value is between its
+         * first and last key, i.e. the value can only be stored on this page.
+         */
+        private boolean isWithinKeys(final Value value) {
+            return pageHeader.getStatus() == LEAF && nKeys > 0 &&
+                keys[0].compareTo(value) <= 0 && keys[nKeys - 1].compareTo(value) >= 0;
+        }
+
         /**
          * Locate the given value in the keys and return the
          * associated pointer.
@@ -2510,7 +2585,8 @@ public class BTree extends Paged implements Lockable {
         /**
          * Search for the given key in the keys of this node.
          */
-        private int searchKey(Value key) {
+        private int searchKey(final Value key) {
+            int offset = 0;
             if (pageHeader.getStatus() == BRANCH && prefix != null && prefix.getLength() > 0) {
                 // if this is a leaf page, check the common prefix first
                 if (key.getLength() < prefix.getLength()) {
@@ -2523,15 +2599,15 @@ public class BTree extends Paged implements Lockable {
                 if (pfxCmp > 0) {
                     return -(nKeys + 1);
                 }
-                key = new Value(key.data(), key.start() + prefix.getLength(), 
-                    key.getLength() - prefix.getLength());
+                offset = prefix.getLength();
             }
+            // compare the keys in place to the part of the search key following the prefix
             int low = 0;
             int high = nKeys - 1;
             while (low <= high) {
                 final int mid = (low + high) >> 1;
                 final Value  midVal = keys[mid];
-                final int cmp = midVal.compareTo(key);
+                final int cmp = midVal.compareTo(key, offset);
                 if (cmp < 0) {
                     low = mid + 1;
                 } else if (cmp > 0) {
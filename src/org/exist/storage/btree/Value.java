@@ -175,6 +175,32 @@ public class Value implements Comparable<Object> {
             {return len > value.len ? stop + 1 : - (stop + 1);}
     }
 
+    /**
+     * Compares this value to the bytes of the specified value
+     * following its first offset bytes, without copying them.
+     *
+     * @param value the value to compare to
+     * @param offset the number of leading bytes of value to skip
+     * @return the comparison result, see {@link #compareTo(Value)}
+     */
+    public final int compareTo(Value value, int offset) {
+        final int otherLen = value.len - offset;
+        final int stop = len > otherLen ? otherLen : len;
+        for (int i = 0; i < stop; i++) {
+            final byte b1 = data[pos + i];
+            final byte b2 = value.data[value.pos + offset + i];
+            if (b1 != b2){
+                final short s1 = (short) (b1 & 0xFF);
+                final short s2 = (short) (b2 & 0xFF);
+                return s1 > s2 ? (i + 1) : - (i + 1);
+            }
+        }
+        if (len == otherLen)
+            {return 0;}
+        else
+            {return len > otherLen ? stop + 1 : - (stop + 1);}
+    }
+
     public final int compareTo(Object obj) {
         if (obj instanceof Value)
             {return compareTo((Value) obj);}
@@ -267,10 +293,18 @@ public class Value implements Comparable<Object> {
         return l;
     }
 
+    /**
+     * Returns the shortest prefix of the specified other value, which is
+     * still greater than this value. The other value has to be greater than
+     * this value.
+     *
+     * @param other a value greater than this value
+     * @return the shortest separator between this value and other
+     */
     public Value getSeparator(Value other) {
-        final int offset = commonPrefix(other) + 1;
-        final byte[] data = new byte[Math.abs(offset)];
-        System.arraycopy(other.getData(), 0, data, 0, data.length);
+        final int length = Math.min(commonPrefix(other) + 1, other.len);
+        final byte[] data = new byte[length];
+        System.arraycopy(other.data, other.pos, data, 0, length);
         return new Value(data);
     }
 
@@ -59,6 +59,7 @@ import java.nio.file.Path;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
@@ -204,52 +205,98 @@ public class BFile extends BTree {
 
         try {
             // check if key exists already
-            long p = findValue(key);
+            final long p = findValue(key);
             if (p == KEY_NOT_FOUND) {
                 // key does not exist:
-                p = storeValue(transaction, value);
-                addValue(transaction, key, p);
-                return p;
-            }
-            // key exists: get old data
-            final long pnum = StorageAddress.pageFromPointer(p);
-            final short tid = StorageAddress.tidFromPointer(p);
-            final DataPage page = getDataPage(pnum);
-            if (page instanceof OverflowPage) {
-                ((OverflowPage) page).append(transaction, value);
-            } else {
-                final int valueLen = value.size();
-                final byte[] data = page.getData();
-                final int offset = page.findValuePosition(tid);
-                if (offset < 0) {
-                    throw new IOException("tid " + tid + " not found on page " + pnum);
-                }
-                if (offset + 4 > data.length) {
-                    LOG.error("found invalid pointer in file " + FileUtils.fileName(getFile()) +
-                            " for page" + page.getPageInfo() + " : " +
-                            "tid = " + tid + "; offset = " + offset);
-                    return UNKNOWN_ADDRESS;
-                }
-                final int l = ByteConversion.byteToInt(data, offset);
-                //TOUNDERSTAND : unless l can be negative, we should never get there -pb
-                if (offset + 4 + l > data.length) {
-                    LOG.error("found invalid data record in file " + FileUtils.fileName(getFile()) +
-                            " for page" + page.getPageInfo() + " : " +
-                            "length = " + data.length + "; required = " + (offset + 4 + l));
-                    return UNKNOWN_ADDRESS;
-                }
-                final byte[] newData = new byte[l + valueLen];
-                System.arraycopy(data, offset + 4, newData, 0, l);
-                value.copyTo(newData, l);
-                p = update(transaction, p, page, key, new FixedByteArray(newData, 0, newData.length));
+                final long np = storeValue(transaction, value);
+                addValue(transaction, key, np);
+                return np;
             }
-            return p;
+            return append(transaction, p, key, value);
         } catch (final BTreeException bte) {
             LOG.warn("btree exception while appending value", bte);
         }
         return UNKNOWN_ADDRESS;
     }
 
+    /**
+     * Append the given data fragments to the values associated
+     * with the keys, like {@link #append(Txn, Value, ByteArray)}
+     * does for a single key. The keys are looked up with a single
+     * pass over the btree, see {@link BTree#findValues(List)}.
+     *
+     * @param transaction the transaction
+     * @param keys the keys, distinct and sorted in ascending order
+     * @param values the data fragments, in the same order as the keys
+     * @return the number of keys whose data could not be appended
+     *
+     * @throws IOException
+     */
+    public int append(final Txn transaction, final List<Value> keys, final List<? extends ByteArray> values)
+            throws IOException {
+        int failed = 0;
+        try {
+            final long[] pointers = findValues(keys);
+            for (int i = 0; i < pointers.length; i++) {
+                final Value key = keys.get(i);
+                if (key.getLength() > fileHeader.getMaxKeySize()) {
+                    //TODO : throw an exception ? -pb
+                    LOG.warn("Key length exceeds page size! Skipping key ...");
+                    failed++;
+                } else if (pointers[i] == KEY_NOT_FOUND) {
+                    // key does not exist:
+                    final long p = storeValue(transaction, values.get(i));
+                    addValue(transaction, key, p);
+                } else if (append(transaction, pointers[i], key, values.get(i)) == UNKNOWN_ADDRESS) {
+                    failed++;
+                }
+            }
+        } catch (final BTreeException bte) {
+            LOG.warn("btree exception while appending values", bte);
+            return keys.size();
+        }
+        return failed;
+    }
+
+    /**
+     * Append the given data fragment to the existing value with
+     * logical address p.
+     */
+    private long append(final Txn transaction, final long p, final Value key, final ByteArray value)
+            throws BTreeException, IOException {
+        final long pnum = StorageAddress.pageFromPointer(p);
+        final short tid = StorageAddress.tidFromPointer(p);
+        final DataPage page = getDataPage(pnum);
+        if (page instanceof OverflowPage) {
+            ((OverflowPage) page).append(transaction, value);
+            return p;
+        }
+        final int valueLen = value.size();
+        final byte[] data = page.getData();
+        final int offset = page.findValuePosition(tid);
+        if (offset < 0) {
+            throw new IOException("tid " + tid + " not found on page " + pnum);
+        }
+        if (offset + 4 > data.length) {
+            LOG.error("found invalid pointer in file " + FileUtils.fileName(getFile()) +
+                    " for page" + page.getPageInfo() + " : " +
+                    "tid = " + tid + "; offset = " + offset);
+            return UNKNOWN_ADDRESS;
+        }
+        final int l = ByteConversion.byteToInt(data, offset);
+        //TOUNDERSTAND : unless l can be negative, we should never get there -pb
+        if (offset + 4 + l > data.length) {
+            LOG.error("found invalid data record in file " + FileUtils.fileName(getFile()) +
+                    " for page" + page.getPageInfo() + " : " +
+                    "length = " + data.length + "; required = " + (offset + 4 + l));
+            return UNKNOWN_ADDRESS;
+        }
+        final byte[] newData = new byte[l + valueLen];
+        System.arraycopy(data, offset + 4, newData, 0, l);
+        value.copyTo(newData, l);
+        return update(transaction, p, page, key, new FixedByteArray(newData, 0, newData.length));
+    }
+
     /**
      * Check, if key is contained in BFile.
      * 
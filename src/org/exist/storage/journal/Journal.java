@@ -424,6 +424,28 @@ public final class Journal {
         }
     }
 
+    /**
+     * Flush the current buffer to disk, but only if the entry with the given
+     * LSN has not yet been written by a previous flush. The commit records which
+     * concurrent committers enqueued before a flush are thus written (and synced)
+     * together by whichever of them gets here first, the others find their
+     * records already written.
+     *
+     * @param lsn   the LSN of the entry which has to be written
+     * @param fsync forces all changes to disk if true and syncMode is set to SYNC_ON_COMMIT.
+     */
+    public synchronized void flushToLog(final long lsn, final boolean fsync) {
+        if (inRecovery) {
+            return;
+        }
+        if (lsn > lastLsnWritten) {
+            flushToLog(fsync, false);
+        } else if (fsync && syncOnCommit && lsn > lastSyncLsn) {
+            fileSyncRunnable.triggerSync();
+            lastSyncLsn = lastLsnWritten;
+        }
+    }
+
     /**
      * Flush the buffer to disk.
      */
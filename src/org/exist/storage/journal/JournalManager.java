@@ -104,6 +104,26 @@ public class JournalManager implements BrokerPoolService {
         }
     }
 
+    /**
+     * Make sure an entry previously written by {@link #journal(Loggable)} has
+     * reached the journal file, as {@link #journalGroup(Loggable)} would have done.
+     *
+     * Unlike the other methods this does not synchronize on the manager, but the
+     * journal itself is locked while its buffer is written, so no entries can be
+     * enqueued during the write. The entries enqueued before it are all written
+     * together, and a caller whose entry was already written by an earlier flush
+     * returns without writing again. The fsync is left to the journal's sync thread.
+     *
+     * @see Journal#flushToLog(long, boolean)
+     *
+     * @param loggable The entry which has been written to the journal
+     */
+    public void flushGroup(final Loggable loggable) {
+        if(!journallingDisabled && !groupCommits) {
+            journal.flushToLog(loggable.getLsn(), true);
+        }
+    }
+
     /**
      * @see Journal#checkpoint(long, boolean)
      *
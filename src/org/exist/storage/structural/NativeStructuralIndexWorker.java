@@ -26,6 +26,8 @@ import org.exist.dom.persistent.AttrImpl;
 import org.exist.dom.persistent.NodeProxy;
 import org.exist.dom.QName;
 import org.exist.dom.persistent.ElementImpl;
+import org.exist.dom.persistent.BitmapDocumentSet;
+import org.exist.dom.persistent.ColumnarNodeSet;
 import org.exist.dom.persistent.DocumentSet;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.IStoredNode;
@@ -36,6 +38,7 @@ import org.exist.dom.persistent.NodeSet;
 import org.exist.collections.Collection;
 import org.exist.indexing.*;
 import org.exist.indexing.StreamListener.ReindexMode;
+import org.exist.numbering.DLN;
 import org.exist.numbering.NodeId;
 import org.exist.storage.*;
 import org.exist.storage.btree.BTree;
@@ -126,7 +129,7 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                 NativeStructuralIndex.LOG.error("Error while searching structural index: " + e.getMessage(), e);
             }
         }
-        return result;
+        return selector == null ? callback.columns.build() : result;
     }
 
     /**
@@ -137,6 +140,19 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
      */
     List<Range> getDocIdRanges(final DocumentSet docs) {
         final List<Range> ranges = new ArrayList<>();
+        if (docs instanceof BitmapDocumentSet) {
+            // the runs of set bits are the ranges
+            final BitmapDocumentSet bitmap = (BitmapDocumentSet) docs;
+            for (int start = bitmap.nextDocId(0); start >= 0; ) {
+                final int end = bitmap.nextMissingDocId(start) - 1;
+                final Range range = new Range(start);
+                range.end = end;
+                ranges.add(range);
+                start = bitmap.nextDocId(end + 1);
+            }
+            return ranges;
+        }
+
         Range next = null;
         for (final Iterator<DocumentImpl> i = docs.getDocumentIterator(); i.hasNext(); ) {
             final DocumentImpl doc = i.next();
@@ -296,6 +312,8 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         NewArrayNodeSet result;
         NodeSelector selector;
         Expression parent;
+        // without a selector, the nodes are not filtered and are kept column-wise
+        ColumnarNodeSet.Builder columns;
 
         FindElementsCallback(byte type, QName qname, NewArrayNodeSet result, DocumentSet docs, NodeSelector selector, Expression parent) {
             this.type = type;
@@ -308,6 +326,9 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
             } else {
                 this.qname = qname;
             }
+            if (selector == null) {
+                this.columns = new ColumnarNodeSet.Builder(index.getBrokerPool().getNodeFactory(), this.qname);
+            }
         }
 
         public boolean indexInfo(Value value, long pointer) throws TerminatedException {
@@ -315,17 +336,14 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
                 parent.getContext().proceed(parent);
             }
             final byte[] key = value.getData();
-            final NodeId nodeId = readNodeId(key, pointer);
             final DocumentImpl doc = docs.getDoc(readDocId(key));
             if (doc != null) {
                 if (selector == null) {
-                    final NodeProxy storedNode = new NodeProxy(doc, nodeId,
+                    // the node id is copied as is, without creating a NodeId for it
+                    columns.add(doc, key, 9, readNodeIdUnits(key, pointer),
                         type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE, pointer);
-                    if (qname != null) {
-                        storedNode.setQName(qname);
-                    }
-                    result.add(storedNode);
                 } else {
+                    final NodeId nodeId = readNodeId(key, pointer);
                     final NodeProxy storedNode = selector.match(doc, nodeId);
                     if (storedNode != null) {
                         storedNode.setNodeType(type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE);
@@ -346,6 +364,9 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         byte type;
         QName qname;
         NodeProxy ancestor;
+        // the encoded id of the ancestor, null for the document node
+        byte[] ancestorData;
+        int ancestorUnits;
         DocumentImpl doc;
         int contextId;
         NewArrayNodeSet result;
@@ -373,21 +394,40 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
         void setAncestor(DocumentImpl doc, NodeProxy ancestor) {
             this.doc = doc;
             this.ancestor = ancestor;
+            final NodeId ancestorId = ancestor.getNodeId();
+            if (ancestorId == NodeId.DOCUMENT_NODE) {
+                this.ancestorData = null;
+            } else {
+                this.ancestorData = new byte[ancestorId.size()];
+                ancestorId.serialize(ancestorData, 0);
+                this.ancestorUnits = ancestorId.units();
+            }
         }
 
         public boolean indexInfo(Value value, long pointer) throws TerminatedException {
             if (parent != null) {
                 parent.getContext().proceed(parent);
             }
-            final NodeId nodeId = readNodeId(value.getData(), pointer);
+            final byte[] key = value.getData();
+            NodeId nodeId = null;
 
             boolean match = axis == Constants.DESCENDANT_SELF_AXIS || axis == Constants.DESCENDANT_ATTRIBUTE_AXIS;
             if (!match) {
-                final int relation = nodeId.computeRelation(ancestor.getNodeId());
+                final int relation;
+                if (ancestorData == null) {
+                    nodeId = readNodeId(key, pointer);
+                    relation = nodeId.computeRelation(ancestor.getNodeId());
+                } else {
+                    // compare the key in place, most keys in the range do not match on the child axis
+                    relation = DLN.computeRelation(key, 9, readNodeIdUnits(key, pointer), ancestorData, 0, ancestorUnits);
+                }
                 match = (((axis == Constants.CHILD_AXIS) || (axis == Constants.ATTRIBUTE_AXIS)) && (relation == NodeId.IS_CHILD)) ||
                     ((axis == Constants.DESCENDANT_AXIS) && ((relation == NodeId.IS_DESCENDANT) || (relation == NodeId.IS_CHILD)));
             }
             if (match) {
+                if (nodeId == null) {
+                    nodeId = readNodeId(key, pointer);
+                }
                 final NodeProxy storedNode =
                     new NodeProxy(doc, nodeId, type == ElementValue.ATTRIBUTE ? Node.ATTRIBUTE_NODE : Node.ELEMENT_NODE, pointer);
                 if (qname != null) {
@@ -762,13 +802,16 @@ public class NativeStructuralIndexWorker implements IndexWorker, StructuralIndex
     }
 
     private NodeId readNodeId(byte[] key, long value) {
+        return index.getBrokerPool().getNodeFactory().createFromData(readNodeIdUnits(key, value), key, 9);
+    }
+
+    private int readNodeIdUnits(byte[] key, long value) {
         // extra number of bits of the node id is encoded in the long address
         short bits = (short)((value >>> 24) & 0xFFL);
         if (bits == 0)
             {bits = 8;}
         // compute total number of bits for node id
-        final int units = (key.length - 10) * 8 + bits;
-        return index.getBrokerPool().getNodeFactory().createFromData(units, key, 9);
+        return (key.length - 10) * 8 + bits;
     }
 
     private QName readQName(byte[] key) {
@@ -131,23 +131,43 @@ public class TransactionManager implements BrokerPoolService {
             return;
         }
 
-        withLock(broker -> {
+        // only enqueue the commit record while the locks are held, writing it
+        // out to the journal file is done once they have been released
+        final TxnCommit commitRecord = withLock(broker -> {
+            TxnCommit record = null;
             if(journalManager.isPresent()) {
                 try {
-                    journalManager.get().journalGroup(new TxnCommit(txn.getId()));
+                    record = new TxnCommit(txn.getId());
+                    journalManager.get().journal(record);
                 } catch(final JournalException e) {
+                    record = null;
                     LOG.error("Failed to write commit record to journal: " + e.getMessage());
                 }
             }
 
-            txn.signalCommit();
+            try {
+                txn.signalCommit();
+            } finally {
+                // the committed transaction can no longer be continued, so detach it from the broker,
+                // system tasks and after-commit listeners may need to begin a transaction of their own
+                broker.setCurrentTransaction(null);
+            }
             txn.releaseAll();
             transactions.remove(txn.getId());
             processSystemTasks();
             if(LOG.isDebugEnabled()) {
                 LOG.debug("Committed transaction: " + txn.getId());
             }
+            return record;
         });
+
+        if(commitRecord != null) {
+            journalManager.get().flushGroup(commitRecord);
+        }
+
+        if(txn.getState() == Txn.State.COMMITTED) {
+            txn.signalAfterCommit();
+        }
     }
 	
     public void abort(final Txn txn) {
@@ -194,11 +214,14 @@ public class TransactionManager implements BrokerPoolService {
                 abort(txn);
             }
 
-            try(final DBBroker broker = pool.getBroker()) {
-                broker.setCurrentTransaction(null);
-            } catch(final EXistException ee) {
-                LOG.fatal(ee.getMessage(), ee);
-                throw new RuntimeException(ee);
+            // a committed transaction has already been detached from the broker
+            if(txn.getState() != Txn.State.COMMITTED) {
+                try(final DBBroker broker = pool.getBroker()) {
+                    broker.setCurrentTransaction(null);
+                } catch(final EXistException ee) {
+                    LOG.fatal(ee.getMessage(), ee);
+                    throw new RuntimeException(ee);
+                }
             }
 
         } finally {
@@ -43,6 +43,8 @@ import org.exist.xmldb.XmldbURI;
  */
 public class Txn implements Transaction {
 
+    private final static Logger LOG = LogManager.getLogger(Txn.class);
+
     public enum State { STARTED, ABORTED, COMMITTED, CLOSED }
 
     private final TransactionManager tm;
@@ -111,14 +113,35 @@ public class Txn implements Transaction {
     protected void signalAbort() {
         state = State.ABORTED;
         for (int i = 0; i < listeners.size(); i++) {
-            listeners.get(i).abort();
+            final TxnListener listener = listeners.get(i);
+            try {
+                listener.abort();
+            } catch (final RuntimeException e) {
+                LOG.error("Transaction listener " + listener + " failed on abort of transaction " + id, e);
+            }
         }
     }
 
     protected void signalCommit() {
         state = State.COMMITTED;
         for (int i = 0; i < listeners.size(); i++) {
-            listeners.get(i).commit();
+            final TxnListener listener = listeners.get(i);
+            try {
+                listener.commit();
+            } catch (final RuntimeException e) {
+                LOG.error("Transaction listener " + listener + " failed on commit of transaction " + id, e);
+            }
+        }
+    }
+
+    protected void signalAfterCommit() {
+        for (int i = 0; i < listeners.size(); i++) {
+            final TxnListener listener = listeners.get(i);
+            try {
+                listener.afterCommit();
+            } catch (final RuntimeException e) {
+                LOG.error("Transaction listener " + listener + " failed after commit of transaction " + id, e);
+            }
         }
     }
 
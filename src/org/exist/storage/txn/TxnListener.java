@@ -5,4 +5,12 @@ public interface TxnListener {
     public void commit();
 
     public void abort();
+
+    /**
+     * Called once a committed transaction has released its locks.
+     * Unlike {@link #commit()} the transaction manager is not locked,
+     * so the listener may start new transactions.
+     */
+    default void afterCommit() {
+    }
 }
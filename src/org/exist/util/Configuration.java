@@ -50,6 +50,7 @@ import org.exist.storage.DefaultCacheManager;
 import org.exist.storage.IndexSpec;
 import org.exist.storage.NativeBroker;
 import org.exist.storage.NativeValueIndex;
+import org.exist.storage.NotificationService;
 import org.exist.storage.XQueryPool;
 import org.exist.storage.journal.Journal;
 import org.exist.storage.serializers.CustomMatchListenerFactory;
@@ -1102,6 +1103,12 @@ public class Configuration implements ErrorHandler
             configureXQueryPool( (Element)queryPoolConf.item( 0 ) );
         }
 
+        final NodeList notificationConf = con.getElementsByTagName( NotificationService.CONFIGURATION_ELEMENT_NAME );
+
+        if( notificationConf.getLength() > 0 ) {
+            configureNotificationService( (Element)notificationConf.item( 0 ) );
+        }
+
         final NodeList watchConf = con.getElementsByTagName( XQueryWatchDog.CONFIGURATION_ELEMENT_NAME );
 
         if( watchConf.getLength() > 0 ) {
@@ -1215,6 +1222,23 @@ public class Configuration implements ErrorHandler
     }
 
 
+    private void configureNotificationService( final Element notification )
+    {
+        final String queueSize = getConfigAttributeValue( notification, NotificationService.QUEUE_SIZE_ATTRIBUTE );
+
+        if( queueSize != null ) {
+
+            try {
+                config.put( NotificationService.PROPERTY_QUEUE_SIZE, Integer.valueOf(queueSize) );
+                LOG.debug( NotificationService.PROPERTY_QUEUE_SIZE + ": " + config.get( NotificationService.PROPERTY_QUEUE_SIZE ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+    }
+
+
     /**
      * DOCUMENT ME!
      *
@@ -1260,6 +1284,29 @@ public class Configuration implements ErrorHandler
                 LOG.warn( e );
             }
         }
+
+        final String warmUp = getConfigAttributeValue( queryPool, XQueryPool.WARM_UP_ATTRIBUTE );
+        config.put( XQueryPool.PROPERTY_WARM_UP, parseBoolean( warmUp, false ) );
+        LOG.debug( XQueryPool.PROPERTY_WARM_UP + ": " + config.get( XQueryPool.PROPERTY_WARM_UP ) );
+
+        final NodeList warmUpSourceElems = queryPool.getElementsByTagName( XQueryPool.WARM_UP_SOURCE_ELEMENT_NAME );
+        final List<XQueryPool.WarmUpSource> warmUpSources = new ArrayList<>();
+
+        for( int i = 0; i < warmUpSourceElems.getLength(); i++ ) {
+            final Element warmUpSourceElem = (Element)warmUpSourceElems.item( i );
+            final String location = getConfigAttributeValue( warmUpSourceElem, XQueryPool.WARM_UP_SOURCE_LOCATION_ATTRIBUTE );
+
+            if( location == null || location.isEmpty() ) {
+                LOG.warn( "Ignoring " + XQueryPool.WARM_UP_SOURCE_ELEMENT_NAME + " without a " + XQueryPool.WARM_UP_SOURCE_LOCATION_ATTRIBUTE + " attribute" );
+                continue;
+            }
+
+            final String moduleLoadPath = getConfigAttributeValue( warmUpSourceElem, XQueryPool.WARM_UP_SOURCE_MODULE_LOAD_PATH_ATTRIBUTE );
+            warmUpSources.add( new XQueryPool.WarmUpSource( location, moduleLoadPath == null || moduleLoadPath.isEmpty() ? null : moduleLoadPath ) );
+        }
+
+        config.put( XQueryPool.PROPERTY_WARM_UP_SOURCES, warmUpSources );
+        LOG.debug( XQueryPool.PROPERTY_WARM_UP_SOURCES + ": " + warmUpSources.size() );
     }
     
     public static class StartupTriggerConfig {
@@ -1404,6 +1451,19 @@ public class Configuration implements ErrorHandler
                 LOG.warn( e );
             }
         }
+
+        final String maxBrokerWait = getConfigAttributeValue( pool, BrokerPool.BROKER_WAIT_ATTRIBUTE );
+
+        if( maxBrokerWait != null ) {
+
+            try {
+                config.put( BrokerPool.PROPERTY_BROKER_WAIT, Long.valueOf(maxBrokerWait) );
+                LOG.debug( BrokerPool.PROPERTY_BROKER_WAIT + ": " + config.get( BrokerPool.PROPERTY_BROKER_WAIT ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
     }
 
 
@@ -1436,6 +1496,19 @@ public class Configuration implements ErrorHandler
             }
         }
 
+        final String reindexThreads = getConfigAttributeValue( indexer, NativeBroker.REINDEX_THREADS_ATTRIBUTE );
+
+        if( reindexThreads != null ) {
+
+            try {
+                config.put( NativeBroker.PROPERTY_REINDEX_THREADS, Integer.valueOf( reindexThreads ) );
+                LOG.debug( NativeBroker.PROPERTY_REINDEX_THREADS + ": " + config.get( NativeBroker.PROPERTY_REINDEX_THREADS ) );
+            }
+            catch( final NumberFormatException e ) {
+                LOG.warn( e );
+            }
+        }
+
         final String suppressWS = getConfigAttributeValue( indexer, Indexer.SUPPRESS_WHITESPACE_ATTRIBUTE );
 
         if( suppressWS != null ) {
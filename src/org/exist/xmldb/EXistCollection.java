@@ -22,6 +22,7 @@
 package org.exist.xmldb;
 
 import java.util.Date;
+import java.util.List;
 
 import org.xmldb.api.base.Collection;
 import org.xmldb.api.base.Resource;
@@ -46,6 +47,15 @@ public interface EXistCollection extends Collection {
 
     void storeResource(Resource res, Date a, Date b) throws XMLDBException;
 
+    /**
+     * Stores many resources in the collection, which is
+     * more efficient than storing each resource in turn.
+     *
+     * The resources are not stored atomically, if a resource cannot be
+     * stored some of the preceding resources may have been stored.
+     */
+    void storeResources(List<? extends Resource> resources) throws XMLDBException;
+
     XmldbURI getPathURI();
 
     void setTriggersEnabled(boolean triggersEnabled) throws XMLDBException;
@@ -19,20 +19,32 @@
  */
 package org.exist.xmldb;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.StringReader;
 import java.net.URISyntaxException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.xml.transform.OutputKeys;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.exist.EXistException;
+import org.exist.Namespaces;
 import org.exist.collections.Collection;
+import org.exist.collections.CollectionConfiguration;
 import org.exist.collections.IndexInfo;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.memtree.SAXAdapter;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.LockToken;
 import org.exist.dom.persistent.LockedDocument;
 import org.exist.security.Account;
 import org.exist.security.Permission;
+import org.exist.security.PermissionDeniedException;
 import org.exist.security.Subject;
 import org.exist.storage.BrokerPool;
 import org.exist.storage.DBBroker;
@@ -42,11 +54,18 @@ import org.exist.storage.serializers.EXistOutputKeys;
 import org.exist.storage.sync.Sync;
 import org.exist.storage.txn.Txn;
 import org.exist.util.HtmlToXmlParser;
+import org.exist.util.LockException;
+import org.exist.util.NamedThreadFactory;
+import org.exist.util.XMLReaderObjectFactory;
+import org.exist.util.XMLReaderPool;
 import com.evolvedbinary.j8fu.Either;
 import com.evolvedbinary.j8fu.function.FunctionE;
 import org.exist.xmldb.function.LocalXmldbCollectionFunction;
+import org.w3c.dom.Node;
+import org.xml.sax.ErrorHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
 import org.xmldb.api.base.ErrorCodes;
 import org.xmldb.api.base.Resource;
@@ -78,6 +97,20 @@ public class LocalCollection extends AbstractLocal implements EXistCollection {
      */
     public final static String NORMALIZE_HTML = "normalize-html";
 
+    /**
+     * Property to be passed to {@link #setProperty(String, String)}.
+     * The number of resources that {@link #storeResources(List)} stores
+     * in each transaction.
+     */
+    public final static String BATCH_SIZE = "batch-size";
+
+    /**
+     * Property to be passed to {@link #setProperty(String, String)}.
+     * The number of threads that {@link #storeResources(List)} uses to
+     * parse the XML resources, defaults to the number of processors.
+     */
+    public final static String BATCH_PARSER_THREADS = "batch-parser-threads";
+
     private final static Properties defaultProperties = new Properties();
     static {
         defaultProperties.setProperty(OutputKeys.ENCODING, "UTF-8");
@@ -85,6 +118,7 @@ public class LocalCollection extends AbstractLocal implements EXistCollection {
         defaultProperties.setProperty(EXistOutputKeys.EXPAND_XINCLUDES, "yes");
         defaultProperties.setProperty(EXistOutputKeys.PROCESS_XSL_PI, "no");
         defaultProperties.setProperty(NORMALIZE_HTML, "no");
+        defaultProperties.setProperty(BATCH_SIZE, "100");
     }
 
     private final XmldbURI path;
@@ -578,75 +612,39 @@ public class LocalCollection extends AbstractLocal implements EXistCollection {
     }
 
     private void storeBinaryResource(final LocalBinaryResource res) throws XMLDBException {
-        final XmldbURI resURI;
-        try {
-            resURI = XmldbURI.xmldbUriFor(res.getId());
-        } catch(final URISyntaxException e) {
-            throw new XMLDBException(ErrorCodes.INVALID_URI,e);
-        }
+        final XmldbURI resURI = getResourceURI(res);
 
         modify().apply((collection, broker, transaction) -> {
-            try {
-                final long conLength = res.getStreamLength();
-                if (conLength != -1) {
-                    try (InputStream is = res.getStreamContent(broker, transaction)) {
-                        collection.addBinaryResource(transaction, broker, resURI, is, res.getMimeType(broker, transaction), conLength, res.datecreated, res.datemodified);
-                    }
-                } else {
-                    collection.addBinaryResource(transaction, broker, resURI, (byte[]) res.getContent(broker, transaction), res.getMimeType(broker, transaction), res.datecreated, res.datemodified);
-                }
-            } catch(final EXistException e) {
-                throw new XMLDBException(ErrorCodes.VENDOR_ERROR, e.getMessage(), e);
-            }
+            storeBinaryResource(collection, broker, transaction, resURI, res);
             return null;
         });
     }
 
-    private void storeXMLResource(final LocalXMLResource res) throws XMLDBException {
-        final XmldbURI resURI;
+    private void storeBinaryResource(final Collection collection, final DBBroker broker, final Txn transaction, final XmldbURI resURI, final LocalBinaryResource res) throws XMLDBException, PermissionDeniedException, LockException, TriggerException, IOException {
         try {
-            resURI = XmldbURI.xmldbUriFor(res.getId());
-        } catch(final URISyntaxException e) {
-            throw new XMLDBException(ErrorCodes.INVALID_URI,e);
+            final long conLength = res.getStreamLength();
+            if (conLength != -1) {
+                try (InputStream is = res.getStreamContent(broker, transaction)) {
+                    collection.addBinaryResource(transaction, broker, resURI, is, res.getMimeType(broker, transaction), conLength, res.datecreated, res.datemodified);
+                }
+            } else {
+                collection.addBinaryResource(transaction, broker, resURI, (byte[]) res.getContent(broker, transaction), res.getMimeType(broker, transaction), res.datecreated, res.datemodified);
+            }
+        } catch(final EXistException e) {
+            throw new XMLDBException(ErrorCodes.VENDOR_ERROR, e.getMessage(), e);
         }
+    }
 
-        modify().apply((collection, broker, transaction) -> {
-            String uri = null;
-            if(res.file != null) {
-                uri = res.file.toUri().toASCIIString();
-            }
+    private void storeXMLResource(final LocalXMLResource res) throws XMLDBException {
+        final XmldbURI resURI = getResourceURI(res);
 
+        modify().apply((collection, broker, transaction) -> {
 //          for(final Observer observer : observers) {
 //              collection.addObserver(observer);
 //          }
 
             try(final ManagedDocumentLock documentLock = broker.getBrokerPool().getLockManager().acquireDocumentWriteLock(collection.getURI().append(resURI))) {
-                final IndexInfo info;
-                if (uri != null || res.inputSource != null) {
-                    setupParser(broker, transaction, collection, res);
-                    info = collection.validateXMLResource(transaction, broker, resURI, (uri != null) ? new InputSource(uri) : res.inputSource);
-                } else if (res.root != null) {
-                    info = collection.validateXMLResource(transaction, broker, resURI, res.root);
-                } else {
-                    info = collection.validateXMLResource(transaction, broker, resURI, res.content);
-                }
-                //Notice : the document should now have a LockMode.WRITE_LOCK update lock
-                //TODO : check that no exception occurs in order to allow it to be released
-                info.getDocument().getMetadata().setMimeType(res.getMimeType(broker, transaction));
-                if (res.datecreated != null) {
-                    info.getDocument().getMetadata().setCreated(res.datecreated.getTime());
-                }
-                if (res.datemodified != null) {
-                    info.getDocument().getMetadata().setLastModified(res.datemodified.getTime());
-                }
-
-                if (uri != null || res.inputSource != null) {
-                    collection.store(transaction, broker, info, (uri != null) ? new InputSource(uri) : res.inputSource);
-                } else if (res.root != null) {
-                    collection.store(transaction, broker, info, res.root);
-                } else {
-                    collection.store(transaction, broker, info, res.content);
-                }
+                storeXMLResource(collection, broker, transaction, resURI, res, null);
 
                 // NOTE: early release of Collection lock inline with Asymmetrical Locking scheme
                 collection.close();
@@ -664,6 +662,298 @@ public class LocalCollection extends AbstractLocal implements EXistCollection {
         });
     }
 
+    /**
+     * Stores an XML resource, the caller must hold the write lock for the document.
+     *
+     * @param parsed The content of the resource if it has already been parsed, or null to parse it
+     */
+    private void storeXMLResource(final Collection collection, final DBBroker broker, final Txn transaction, final XmldbURI resURI, final LocalXMLResource res, final Node parsed) throws XMLDBException, EXistException, SAXException, PermissionDeniedException, LockException, TriggerException, IOException {
+        String uri = null;
+        if(res.file != null) {
+            uri = res.file.toUri().toASCIIString();
+        }
+
+        final IndexInfo info;
+        if (parsed != null) {
+            info = collection.validateXMLResource(transaction, broker, resURI, parsed);
+        } else if (uri != null || res.inputSource != null) {
+            setupParser(broker, transaction, collection, res);
+            info = collection.validateXMLResource(transaction, broker, resURI, (uri != null) ? new InputSource(uri) : res.inputSource);
+        } else if (res.root != null) {
+            info = collection.validateXMLResource(transaction, broker, resURI, res.root);
+        } else {
+            info = collection.validateXMLResource(transaction, broker, resURI, res.content);
+        }
+        //Notice : the document should now have a LockMode.WRITE_LOCK update lock
+        //TODO : check that no exception occurs in order to allow it to be released
+        info.getDocument().getMetadata().setMimeType(res.getMimeType(broker, transaction));
+        if (res.datecreated != null) {
+            info.getDocument().getMetadata().setCreated(res.datecreated.getTime());
+        }
+        if (res.datemodified != null) {
+            info.getDocument().getMetadata().setLastModified(res.datemodified.getTime());
+        }
+
+        if (parsed != null) {
+            collection.store(transaction, broker, info, parsed);
+        } else if (uri != null || res.inputSource != null) {
+            collection.store(transaction, broker, info, (uri != null) ? new InputSource(uri) : res.inputSource);
+        } else if (res.root != null) {
+            collection.store(transaction, broker, info, res.root);
+        } else {
+            collection.store(transaction, broker, info, res.content);
+        }
+    }
+
+    private static XmldbURI getResourceURI(final Resource res) throws XMLDBException {
+        try {
+            return XmldbURI.xmldbUriFor(res.getId());
+        } catch(final URISyntaxException e) {
+            throw new XMLDBException(ErrorCodes.INVALID_URI,e);
+        }
+    }
+
+    /**
+     * Stores many resources in this collection.
+     *
+     * The XML resources are parsed in parallel by pooled parsers, and
+     * the resources are then stored by a single broker in transactions of
+     * {@link #BATCH_SIZE} resources, whilst the next batch is being parsed.
+     * The write lock of the collection is acquired once for all of the
+     * resources.
+     *
+     * All of the resources of a batch are parsed before any of them is
+     * stored, so a batch which contains a resource that is not well-formed
+     * stores nothing. The resources are not stored atomically though, if a
+     * resource cannot be stored for any other reason, the resources which
+     * precede it, in its batch and in the previous batches, remain stored.
+     *
+     * @param resources The resources to store
+     *
+     * @throws XMLDBException if a resource cannot be parsed or stored
+     */
+    @Override
+    public void storeResources(final List<? extends Resource> resources) throws XMLDBException {
+        if (resources.isEmpty()) {
+            return;
+        }
+
+        final int batchSize = Math.max(1, Integer.parseInt(properties.getProperty(BATCH_SIZE, "100")));
+        final int parserThreads = Math.max(1, Integer.parseInt(properties.getProperty(BATCH_PARSER_THREADS, String.valueOf(Runtime.getRuntime().availableProcessors()))));
+        final ExecutorService parsers = Executors.newFixedThreadPool(parserThreads, new NamedThreadFactory(brokerPool.getThreadGroup(), brokerPool.getId(), "xmldb.batch-store.parser"));
+
+        try (final DBBroker broker = brokerPool.get(Optional.ofNullable(user));
+                final Collection collection = broker.openCollection(path, LockMode.WRITE_LOCK)) {
+            if (collection == null) {
+                throw new XMLDBException(ErrorCodes.INVALID_COLLECTION, "Collection " + path + " not found");
+            }
+            collection.setReader(userReader);
+
+            final Optional<XMLReaderObjectFactory.VALIDATION_SETTING> validationMode = Optional.ofNullable(collection.getConfiguration(broker))
+                    .map(CollectionConfiguration::getValidationMode);
+
+            // parse the next batch whilst the current batch is stored
+            List<Future<Node>> batch = parseBatch(broker, collection, resources, 0, batchSize, parsers, validationMode);
+            for (int start = 0; start < resources.size(); start += batchSize) {
+                final List<Future<Node>> current = batch;
+                batch = parseBatch(broker, collection, resources, start + batchSize, batchSize, parsers, validationMode);
+
+                final List<Node> parsed = new ArrayList<>(current.size());
+                for (final Future<Node> document : current) {
+                    parsed.add(getParsed(document));
+                }
+
+                final List<? extends Resource> batchResources = resources.subList(start, start + parsed.size());
+                withDb((batchBroker, transaction) -> {
+                    storeBatch(collection, batchBroker, transaction, batchResources, parsed);
+                    return null;
+                });
+            }
+
+            this.needsSync = true;
+
+        } catch (final IOException e) {
+            throw new XMLDBException(ErrorCodes.UNKNOWN_ERROR, e.getMessage(), e);
+        } catch (final EXistException | SAXException e) {
+            throw new XMLDBException(ErrorCodes.VENDOR_ERROR, e.getMessage(), e);
+        } catch (final PermissionDeniedException e) {
+            throw new XMLDBException(ErrorCodes.PERMISSION_DENIED, e.getMessage(), e);
+        } finally {
+            parsers.shutdownNow();
+        }
+    }
+
+    private void storeBatch(final Collection collection, final DBBroker broker, final Txn transaction, final List<? extends Resource> resources, final List<Node> parsed) throws XMLDBException, EXistException, PermissionDeniedException, IOException {
+        try {
+            for (int i = 0; i < resources.size(); i++) {
+                storeResource(collection, broker, transaction, resources.get(i), parsed.get(i));
+            }
+        } catch (final TriggerException e) {
+            throw new XMLDBException(ErrorCodes.UNKNOWN_ERROR, e.getMessage(), e);
+        } catch (final SAXException e) {
+            throw new XMLDBException(ErrorCodes.VENDOR_ERROR, e.getMessage(), e);
+        } catch (final LockException e) {
+            throw new XMLDBException(ErrorCodes.COLLECTION_CLOSED, e.getMessage(), e);
+        }
+    }
+
+    private void storeResource(final Collection collection, final DBBroker broker, final Txn transaction, final Resource resource, final Node parsed) throws XMLDBException, EXistException, SAXException, PermissionDeniedException, LockException, TriggerException, IOException {
+        final XmldbURI resURI = getResourceURI(resource);
+        if (resource.getResourceType().equals(XMLResource.RESOURCE_TYPE)) {
+            final LocalXMLResource res = (LocalXMLResource) resource;
+            res.datecreated = null;
+            res.datemodified = null;
+            try(final ManagedDocumentLock documentLock = broker.getBrokerPool().getLockManager().acquireDocumentWriteLock(collection.getURI().append(resURI))) {
+                storeXMLResource(collection, broker, transaction, resURI, res, parsed);
+            }
+
+        } else if (resource.getResourceType().equals(BinaryResource.RESOURCE_TYPE)) {
+            final LocalBinaryResource res = (LocalBinaryResource) resource;
+            res.datecreated = null;
+            res.datemodified = null;
+            storeBinaryResource(collection, broker, transaction, resURI, res);
+
+        } else {
+            throw new XMLDBException(ErrorCodes.UNKNOWN_RESOURCE_TYPE, "unknown resource type: " + resource.getResourceType());
+        }
+
+        ((AbstractEXistResource)resource).isNewResource = false;
+    }
+
+    /**
+     * Starts parsing a batch of resources.
+     *
+     * @return A future for each resource in the batch, which provides the parsed
+     *     document, or null if the resource is not parsed in advance.
+     */
+    private List<Future<Node>> parseBatch(final DBBroker broker, final Collection collection, final List<? extends Resource> resources,
+            final int start, final int batchSize, final ExecutorService parsers,
+            final Optional<XMLReaderObjectFactory.VALIDATION_SETTING> validationMode) throws XMLDBException {
+        final int end = Math.min(resources.size(), start + batchSize);
+        final List<Future<Node>> batch = new ArrayList<>(Math.max(0, end - start));
+        for (int i = start; i < end; i++) {
+            final Resource resource = resources.get(i);
+            final InputSource source = resource.getResourceType().equals(XMLResource.RESOURCE_TYPE) ? getParseableSource(broker, collection, (LocalXMLResource) resource) : null;
+            if (source == null) {
+                batch.add(CompletableFuture.completedFuture(null));
+            } else {
+                batch.add(parsers.submit(() -> parse(source, validationMode)));
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Gets the source of an XML resource which can be parsed in advance.
+     *
+     * @return The source, or null if the resource has to be parsed whilst it is stored
+     */
+    private InputSource getParseableSource(final DBBroker broker, final Collection collection, final LocalXMLResource res) throws XMLDBException {
+        if (userReader != null) {
+            return null;
+        }
+
+        final String normalize = properties.getProperty(NORMALIZE_HTML, "no");
+        if ((normalize.equalsIgnoreCase("yes") || normalize.equalsIgnoreCase("true")) &&
+                ("text/html".equals(res.getMimeType(broker, null)) || res.getId().endsWith(".htm") ||
+                    res.getId().endsWith(".html"))) {
+            return null;
+        }
+
+        // NOTE: an InputSource is not parsed in advance, as its stream cannot be read again if the parsed document is not used
+        if (res.file != null) {
+            return new InputSource(res.file.toUri().toASCIIString());
+        } else if (res.inputSource == null && res.root == null && res.content != null) {
+            return new InputSource(new StringReader(res.content));
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Parses an XML resource into an in-memory document, using a parser from
+     * the {@link XMLReaderPool} configured as it would be to store the resource.
+     *
+     * @return The in-memory document, or null if the resource declares a DTD, as
+     *     the in-memory document cannot hold its document type declaration
+     */
+    private Node parse(final InputSource source, final Optional<XMLReaderObjectFactory.VALIDATION_SETTING> validationMode) throws SAXException, IOException {
+        final XMLReaderPool parserPool = brokerPool.getParserPool();
+        final XMLReader reader = parserPool.borrowXMLReader();
+        try {
+            if (validationMode.isPresent()) {
+                XMLReaderObjectFactory.setReaderValidationMode(validationMode.get(), reader);
+            }
+
+            final DTDAwareSAXAdapter adapter = new DTDAwareSAXAdapter();
+            reader.setContentHandler(adapter);
+            reader.setProperty(Namespaces.SAX_LEXICAL_HANDLER, adapter);
+            reader.setErrorHandler(THROWING_ERROR_HANDLER);
+            reader.parse(source);
+
+            return adapter.hasDTD() ? null : adapter.getDocument();
+        } finally {
+            if (validationMode.isPresent()) {
+                // reset the validation mode from the static configuration
+                final String optionValue = (String) brokerPool.getConfiguration().getProperty(XMLReaderObjectFactory.PROPERTY_VALIDATION_MODE);
+                XMLReaderObjectFactory.setReaderValidationMode(XMLReaderObjectFactory.convertValidationMode(optionValue), reader);
+            }
+            parserPool.returnXMLReader(reader);
+        }
+    }
+
+    private static Node getParsed(final Future<Node> parsed) throws XMLDBException, SAXException, IOException {
+        try {
+            return parsed.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XMLDBException(ErrorCodes.VENDOR_ERROR, "Interrupted whilst parsing the resources", e);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else {
+                throw new XMLDBException(ErrorCodes.VENDOR_ERROR, cause.getMessage(), cause);
+            }
+        }
+    }
+
+    private static final ErrorHandler THROWING_ERROR_HANDLER = new ErrorHandler() {
+        @Override
+        public void warning(final SAXParseException e) throws SAXException {
+            throw new SAXException("warning at (" + e.getLineNumber() + "," + e.getColumnNumber() + ") : " + e.getMessage(), e);
+        }
+
+        @Override
+        public void error(final SAXParseException e) throws SAXException {
+            throw new SAXException("error at (" + e.getLineNumber() + "," + e.getColumnNumber() + ") : " + e.getMessage(), e);
+        }
+
+        @Override
+        public void fatalError(final SAXParseException e) throws SAXException {
+            throw new SAXException("fatal error at (" + e.getLineNumber() + "," + e.getColumnNumber() + ") : " + e.getMessage(), e);
+        }
+    };
+
+    /**
+     * Records whether the parsed document declared a DTD.
+     */
+    private static class DTDAwareSAXAdapter extends SAXAdapter {
+        private boolean dtd = false;
+
+        @Override
+        public void startDTD(final String name, final String publicId, final String systemId) throws SAXException {
+            dtd = true;
+            super.startDTD(name, publicId, systemId);
+        }
+
+        public boolean hasDTD() {
+            return dtd;
+        }
+    }
+
     private void setupParser(final DBBroker broker, final Txn transaction, final Collection collection, final LocalXMLResource res) throws XMLDBException {
         final String normalize = properties.getProperty(NORMALIZE_HTML, "no");
         if((normalize.equalsIgnoreCase("yes") || normalize.equalsIgnoreCase("true")) &&
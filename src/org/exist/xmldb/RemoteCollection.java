@@ -471,6 +471,13 @@ public class RemoteCollection extends AbstractRemote implements EXistCollection
         storeResource(res, null, null);
     }
 
+    @Override
+    public void storeResources(final List<? extends Resource> resources) throws XMLDBException {
+        for (final Resource resource : resources) {
+            storeResource(resource);
+        }
+    }
+
     @Override
     public void storeResource(final Resource res, final Date a, final Date b) throws XMLDBException {
         final Object content = (res instanceof ExtendedResource) ? ((ExtendedResource) res).getExtendedContent() : res.getContent();
@@ -58,6 +58,10 @@ public class ForExpr extends BindingExpression {
         positionalVariable = var;
     }
 
+    public String getPositionalVariable() {
+        return positionalVariable;
+    }
+
 	/* (non-Javadoc)
      * @see org.exist.xquery.Expression#analyze(org.exist.xquery.Expression)
      */
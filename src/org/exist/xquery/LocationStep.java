@@ -23,6 +23,7 @@ package org.exist.xquery;
 
 import org.exist.dom.persistent.NodeProxy;
 import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.BitmapDocumentSet;
 import org.exist.dom.persistent.DocumentSet;
 import org.exist.dom.persistent.VirtualNodeSet;
 import org.exist.dom.persistent.ExtNodeSet;
@@ -156,11 +157,26 @@ public class LocationStep extends Step {
      */
     public void setPreloadedData(final DocumentSet docs, final NodeSet nodes) {
         this.preloadedData = true;
-        this.currentDocs = docs;
+        this.currentDocs = snapshot(docs);
         this.currentSet = nodes;
         this.optimized = true;
     }
 
+    /**
+     * Keeps the documents the cached node set was computed for as a bitmap,
+     * so that checking them against the documents of the next call does not
+     * need a lookup per document.
+     *
+     * @param docs the documents of the cached node set
+     * @return the documents as a bitmap document set
+     */
+    private static DocumentSet snapshot(final DocumentSet docs) {
+        if (docs instanceof BitmapDocumentSet) {
+            return docs;
+        }
+        return BitmapDocumentSet.copyOf(docs);
+    }
+
     /**
      * The method <code>applyPredicate</code>
      *
@@ -589,8 +605,7 @@ public class LocationStep extends Step {
             synchronized (context) {
                 if (currentSet == null
                         || currentDocs == null
-                        || (!optimized && !(docs == currentDocs || docs
-                        .equalDocs(currentDocs)))) {
+                        || (!optimized && !(docs == currentDocs || currentDocs.equalDocs(docs)))) {
                     final StructuralIndex index = context.getBroker().getStructuralIndex();
                     if (context.getProfiler().isEnabled()) {
                         context.getProfiler().message(
@@ -602,7 +617,7 @@ public class LocationStep extends Step {
                     }
                     // TODO : why a null selector here ? We have one below !
                     currentSet = index.findElementsByTagName(ElementValue.ATTRIBUTE, docs, test.getName(), null, this);
-                    currentDocs = docs;
+                    currentDocs = snapshot(docs);
                     registerUpdateListener();
                 }
                 switch (axis) {
@@ -679,8 +694,7 @@ public class LocationStep extends Step {
                 // ones
                 if (currentSet == null
                         || currentDocs == null
-                        || (!optimized && !(docs == currentDocs || docs
-                        .equalDocs(currentDocs)))) {
+                        || (!optimized && !(docs == currentDocs || currentDocs.equalDocs(docs)))) {
                     final StructuralIndex index = context.getBroker().getStructuralIndex();
                     if (context.getProfiler().isEnabled()) {
                         context.getProfiler().message(
@@ -691,7 +705,7 @@ public class LocationStep extends Step {
                                         + "'");
                     }
                     currentSet = index.findElementsByTagName(ElementValue.ELEMENT, docs, test.getName(), null, this);
-                    currentDocs = docs;
+                    currentDocs = snapshot(docs);
                     registerUpdateListener();
                 }
                 return currentSet.selectParentChild(contextSet, NodeSet.DESCENDANT, contextId);
@@ -742,8 +756,7 @@ public class LocationStep extends Step {
                 // ones
                 if (currentSet == null
                         || currentDocs == null
-                        || (!optimized && !(docs == currentDocs || docs
-                        .equalDocs(currentDocs)))) {
+                        || (!optimized && !(docs == currentDocs || currentDocs.equalDocs(docs)))) {
                     final StructuralIndex index = context.getBroker().getStructuralIndex();
                     if (context.getProfiler().isEnabled()) {
                         context.getProfiler().message(
@@ -754,7 +767,7 @@ public class LocationStep extends Step {
                                         + "'");
                     }
                     currentSet = index.findElementsByTagName(ElementValue.ELEMENT, docs, test.getName(), null, this);
-                    currentDocs = docs;
+                    currentDocs = snapshot(docs);
                     registerUpdateListener();
                 }
 
@@ -865,7 +878,7 @@ public class LocationStep extends Step {
             // TODO : no test on preloaded data ?
             final DocumentSet docs = getDocumentSet(contextSet);
             synchronized (context) {
-                if (currentSet == null || currentDocs == null || !(docs.equalDocs(currentDocs))) {
+                if (currentSet == null || currentDocs == null || !(docs == currentDocs || currentDocs.equalDocs(docs))) {
                     final StructuralIndex index = context.getBroker().getStructuralIndex();
                     if (context.getProfiler().isEnabled()) {
                         context.getProfiler().message(
@@ -876,7 +889,7 @@ public class LocationStep extends Step {
                                         + "'");
                     }
                     currentSet = index.findElementsByTagName(ElementValue.ELEMENT, docs, test.getName(), null, this);
-                    currentDocs = docs;
+                    currentDocs = snapshot(docs);
                     registerUpdateListener();
                 }
                 switch (axis) {
@@ -963,14 +976,14 @@ public class LocationStep extends Step {
             // TODO : no test on preloaded data ?
             final DocumentSet docs = getDocumentSet(contextSet);
             synchronized (context) {
-                if (currentSet == null || currentDocs == null || !(docs.equalDocs(currentDocs))) {
+                if (currentSet == null || currentDocs == null || !(docs == currentDocs || currentDocs.equalDocs(docs))) {
                     final StructuralIndex index = context.getBroker().getStructuralIndex();
                     if (context.getProfiler().isEnabled()) {
                         context.getProfiler().message(this, Profiler.OPTIMIZATIONS, "OPTIMIZATION",
                                 "Using structural index '" + index.toString() + "'");
                     }
                     currentSet = index.findElementsByTagName(ElementValue.ELEMENT, docs, test.getName(), null, this);
-                    currentDocs = docs;
+                    currentDocs = snapshot(docs);
                     registerUpdateListener();
                 }
 
@@ -1069,7 +1082,7 @@ public class LocationStep extends Step {
         } else if (hasPreloadedData()) {
             final DocumentSet docs = getDocumentSet(contextSet);
             synchronized (context) {
-                if (currentSet == null || currentDocs == null || (!optimized && !(docs == currentDocs || docs.equalDocs(currentDocs)))) {
+                if (currentSet == null || currentDocs == null || (!optimized && !(docs == currentDocs || currentDocs.equalDocs(docs)))) {
                     final StructuralIndex index = context.getBroker().getStructuralIndex();
                     if (context.getProfiler().isEnabled()) {
                         context.getProfiler().message(
@@ -1080,7 +1093,7 @@ public class LocationStep extends Step {
                                         + "'");
                     }
                     currentSet = index.findElementsByTagName(ElementValue.ELEMENT, docs, test.getName(), null, this);
-                    currentDocs = docs;
+                    currentDocs = snapshot(docs);
                     registerUpdateListener();
                 }
                 switch (axis) {
@@ -1133,7 +1146,7 @@ public class LocationStep extends Step {
         } else if (hasPreloadedData()) {
             final DocumentSet docs = getDocumentSet(contextSet);
             synchronized (context) {
-                if (currentSet == null || currentDocs == null || (!optimized && !(docs == currentDocs || docs.equalDocs(currentDocs)))) {
+                if (currentSet == null || currentDocs == null || (!optimized && !(docs == currentDocs || currentDocs.equalDocs(docs)))) {
                     final StructuralIndex index = context.getBroker().getStructuralIndex();
                     if (context.getProfiler().isEnabled()) {
                         context.getProfiler().message(
@@ -1144,7 +1157,7 @@ public class LocationStep extends Step {
                                         + "'");
                     }
                     currentSet = index.findElementsByTagName(ElementValue.ELEMENT, docs, test.getName(), null, this);
-                    currentDocs = docs;
+                    currentDocs = snapshot(docs);
                     registerUpdateListener();
                 }
                 return contextSet.selectParentChild(currentSet, NodeSet.ANCESTOR);
@@ -1746,7 +1759,7 @@ public class LocationStep extends Step {
         if (hasPreloadedData()) {
             final DocumentSet docs = getDocumentSet(contextSet);
             synchronized (context) {
-                if (currentSet == null || currentDocs == null || (!optimized && !(docs == currentDocs || docs.equalDocs(currentDocs)))) {
+                if (currentSet == null || currentDocs == null || (!optimized && !(docs == currentDocs || currentDocs.equalDocs(docs)))) {
                     final StructuralIndex index = context.getBroker().getStructuralIndex();
                     if (context.getProfiler().isEnabled()) {
                         context.getProfiler().message(
@@ -1758,7 +1771,7 @@ public class LocationStep extends Step {
                     }
                     // TODO : why a null selector here ? We have one below !
                     currentSet = index.findElementsByTagName(ElementValue.ATTRIBUTE, docs, test.getName(), null, this);
-                    currentDocs = docs;
+                    currentDocs = snapshot(docs);
                     registerUpdateListener();
                 }
 
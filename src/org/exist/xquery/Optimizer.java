@@ -180,9 +180,38 @@ public class Optimizer extends DefaultExpressionVisitor {
         }
     }
 
+    @Override
+    public void visitOrderByClause(OrderByClause orderBy) {
+        super.visitOrderByClause(orderBy);
+
+        // check query rewriters if they want to rewrite the order specs
+        for (final QueryRewriter rewriter : rewriters) {
+            try {
+                if (rewriter.rewriteOrderByClause(orderBy)) {
+                    hasOptimized = true;
+                    break;
+                }
+            } catch (final XPathException e) {
+                LOG.warn("Exception called while rewriting order by clause: " + e.getMessage(), e);
+            }
+        }
+    }
+
     public void visitFilteredExpr(FilteredExpression filtered) {
         super.visitFilteredExpr(filtered);
 
+        // check query rewriters if they want to rewrite the filtered expression
+        for (final QueryRewriter rewriter : rewriters) {
+            try {
+                if (rewriter.rewriteFilteredExpr(filtered)) {
+                    hasOptimized = true;
+                    break;
+                }
+            } catch (final XPathException e) {
+                LOG.warn("Exception called while rewriting filtered expression: " + e.getMessage(), e);
+            }
+        }
+
         // check if filtered expression can be simplified:
         // handles expressions like //foo/(baz)[...]
         if (filtered.getExpression() instanceof LocationStep) {
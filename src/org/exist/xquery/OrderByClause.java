@@ -99,6 +99,9 @@ public class OrderByClause extends AbstractFLWORClause {
     @Override
     public void resetState(boolean postOptimization) {
         super.resetState(postOptimization);
+        for (OrderSpec spec: orderSpecs) {
+            spec.resetState(postOptimization);
+        }
         returnExpr.resetState(postOptimization);
         stack.clear();
     }
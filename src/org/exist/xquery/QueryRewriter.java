@@ -48,6 +48,30 @@ public class QueryRewriter {
         return null;
     }
 
+    /**
+     * Rewrite a filtered expression, e.g. a FLWOR expression followed by a positional
+     * predicate, to make use of indexes.
+     *
+     * @param filtered
+     * @return true if the expression was rewritten
+     * @throws XPathException
+     */
+    public boolean rewriteFilteredExpr(FilteredExpression filtered) throws XPathException {
+        return false;
+    }
+
+    /**
+     * Rewrite the order specs of an "order by" clause to make use of indexes,
+     * e.g. to read the sort keys from an index instead of the nodes.
+     *
+     * @param orderBy
+     * @return true if the clause was rewritten
+     * @throws XPathException
+     */
+    public boolean rewriteOrderByClause(OrderByClause orderBy) throws XPathException {
+        return false;
+    }
+
     protected XQueryContext getContext() {
         return context;
     }
@@ -1069,7 +1069,7 @@ public class XQueryContext implements BinaryValueManager, Context {
             staticDocuments = protectedDocuments.toDocumentSet();
             return staticDocuments;
         }
-        final MutableDocumentSet ndocs = new DefaultDocumentSet(40);
+        final MutableDocumentSet ndocs = new BitmapDocumentSet();
 
         if (staticDocumentPaths == null) {
 
@@ -25,7 +25,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import org.exist.collections.Collection;
-import org.exist.dom.persistent.DefaultDocumentSet;
+import org.exist.dom.persistent.BitmapDocumentSet;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.DocumentSet;
 import org.exist.dom.persistent.MutableDocumentSet;
@@ -115,7 +115,7 @@ public class ExtCollection extends Function {
                 if (dynamicCollection != null) {
                     result = dynamicCollection;
                 } else {
-                    final MutableDocumentSet ndocs = new DefaultDocumentSet();
+                    final MutableDocumentSet ndocs = new BitmapDocumentSet();
                     for (final String next : args) {
                         final XmldbURI uri = new AnyURIValue(next).toXmldbURI();
                         try (final Collection coll = context.getBroker().openCollection(uri, Lock.LockMode.READ_LOCK)) {
@@ -96,6 +96,7 @@ public class XMLDBModule extends AbstractInternalModule {
             new FunctionDef(FunXCollection.signature, FunXCollection.class),
             new FunctionDef(XMLDBReindex.FNS_REINDEX_COLLECTION, XMLDBReindex.class),
             new FunctionDef(XMLDBReindex.FNS_REINDEX_DOCUMENT, XMLDBReindex.class),
+            new FunctionDef(XMLDBReindex.FNS_REINDEX_ONLINE, XMLDBReindex.class),
             new FunctionDef(XMLDBDefragment.signatures[0], XMLDBDefragment.class),
             new FunctionDef(XMLDBDefragment.signatures[1], XMLDBDefragment.class),
             new FunctionDef(FindLastModified.signatures[0], FindLastModified.class),
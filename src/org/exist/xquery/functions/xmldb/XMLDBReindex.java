@@ -23,9 +23,18 @@ package org.exist.xquery.functions.xmldb;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.exist.EXistException;
 import org.exist.dom.QName;
+import org.exist.security.PermissionDeniedException;
+import org.exist.security.Subject;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.util.LockException;
+import org.exist.util.ThreadUtils;
+import org.exist.xmldb.XmldbURI;
 import org.exist.xmldb.IndexQueryService;
 import org.exist.xquery.Cardinality;
+import org.exist.xquery.ErrorCodes;
 import org.exist.xquery.FunctionSignature;
 import org.exist.xquery.XPathException;
 import org.exist.xquery.XQueryContext;
@@ -38,6 +47,10 @@ import org.exist.xquery.value.Type;
 import org.xmldb.api.base.Collection;
 import org.xmldb.api.base.XMLDBException;
 
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Optional;
+
 /**
  *  Reindex a collection in the database.
  * 
@@ -72,6 +85,20 @@ public class XMLDBReindex extends XMLDBAbstractCollectionManipulator {
             new FunctionReturnSequenceType(Type.BOOLEAN, Cardinality.EXACTLY_ONE, "true() if successfully reindexed, false() otherwise")
     );
 
+    public final static FunctionSignature FNS_REINDEX_ONLINE = new FunctionSignature(
+            new QName("reindex-online", XMLDBModule.NAMESPACE_URI, XMLDBModule.PREFIX),
+            "Reindex collection $collection-uri in the background. Unlike xmldb:reindex, " +
+            "each document is only locked while its own index entries are rebuilt, so " +
+            "documents can be stored and updated while the index is built. The function " +
+            "returns immediately, the progress is reported as a running job. " +
+            XMLDBModule.COLLECTION_URI + " " +
+            XMLDBModule.NEED_PRIV_USER,
+            new SequenceType[] {
+                new FunctionParameterSequenceType("collection-uri", Type.STRING, Cardinality.EXACTLY_ONE, "The collection URI")
+            },
+            new FunctionReturnSequenceType(Type.BOOLEAN, Cardinality.EXACTLY_ONE, "true() if reindexing was started, false() otherwise")
+    );
+
     /**
      * @param context
      */
@@ -95,6 +122,10 @@ public class XMLDBReindex extends XMLDBAbstractCollectionManipulator {
             return BooleanValue.FALSE;
         }
 
+        if (isCalledAs("reindex-online")) {
+            return reindexOnline(collection);
+        }
+
         try {
             final IndexQueryService iqs = (IndexQueryService) collection.getService("IndexQueryService", "1.0");
             if(args.length == 2) {
@@ -111,4 +142,25 @@ public class XMLDBReindex extends XMLDBAbstractCollectionManipulator {
 
         return BooleanValue.TRUE;
     }
+
+    private Sequence reindexOnline(final Collection collection) throws XPathException {
+        final XmldbURI collectionUri;
+        try {
+            collectionUri = XmldbURI.xmldbUriFor(collection.getName());
+        } catch (final XMLDBException | URISyntaxException e) {
+            throw new XPathException(this, ErrorCodes.FORG0002, "Invalid collection URI: " + e.getMessage(), null, e);
+        }
+
+        final BrokerPool pool = context.getBroker().getBrokerPool();
+        final Subject subject = context.getSubject();
+        ThreadUtils.newInstanceThread(pool, "reindex.online", () -> {
+            try(final DBBroker broker = pool.get(Optional.of(subject))) {
+                broker.reindexCollectionOnline(collectionUri);
+            } catch (final EXistException | PermissionDeniedException | IOException | LockException e) {
+                logger.error("Unable to reindex collection " + collectionUri, e);
+            }
+        }).start();
+
+        return BooleanValue.TRUE;
+    }
 }
@@ -69,6 +69,19 @@ public class XQueryTriggerTest {
 		"  </exist:triggers>" +
         "</exist:collection>";    
 
+    private final static String BATCH_COLLECTION_CONFIG =
+    	"<exist:collection xmlns:exist='http://exist-db.org/collection-config/1.0'>" +
+	    "  <exist:triggers>" +
+		"     <exist:trigger class='org.exist.collections.triggers.XQueryTrigger'>" +
+		"	     <exist:parameter " +
+		"			name='url' " +
+		"			value='" +XmldbURI.LOCAL_DB +  "/" + TEST_COLLECTION + "/" + MODULE_NAME + "' " +
+		"        />" +
+		"	     <exist:parameter name='batch' value='true'/>" +
+		"     </exist:trigger>" +
+		"  </exist:triggers>" +
+        "</exist:collection>";
+
     private final static String EMPTY_COLLECTION_CONFIG =
     	"<exist:collection xmlns:exist='http://exist-db.org/collection-config/1.0'>" +
         "</exist:collection>";    
@@ -316,6 +329,37 @@ public class XQueryTriggerTest {
 //	        assertXMLEqual(DOCUMENT_CONTENT, ((XMLResource)result.getResource(0)).getContent().toString());
     }
 
+    /** test a batching trigger fired by storing new Documents */
+    @Test
+    public void documentCreate_batched() throws XMLDBException {
+        // configure the Collection with the trigger under test
+        final IndexQueryService idxConf = (IndexQueryService)
+        testCollection.getService("IndexQueryService", "1.0");
+        idxConf.configureCollection(BATCH_COLLECTION_CONFIG);
+
+        // this will fire the trigger, the compiled trigger is reused for the second document
+        for (final String documentName : new String[] { DOCUMENT_NAME, "test2.xml" }) {
+            final XMLResource doc = (XMLResource) testCollection.createResource(documentName, "XMLResource" );
+            doc.setContent(DOCUMENT_CONTENT);
+            testCollection.storeResource(doc);
+        }
+
+        // remove the trigger for the Collection under test
+        idxConf.configureCollection(EMPTY_COLLECTION_CONFIG);
+
+        final XPathQueryService service = (XPathQueryService) testCollection.getService("XPathQueryService", "1.0");
+
+        ResourceSet result = service.query(BEFORE+CREATE+DOCUMENT);
+        assertEquals(2, result.getSize());
+
+        // the 'after' events are delivered once the storing transaction has committed
+        result = service.query(AFTER+CREATE+DOCUMENT+documentURI);
+        assertEquals(1, result.getSize());
+
+        result = service.query(AFTER+CREATE+DOCUMENT);
+        assertEquals(2, result.getSize());
+    }
+
     /** test a trigger fired by a Document Update */
     @Test
     public void documentUpdate() throws XMLDBException {
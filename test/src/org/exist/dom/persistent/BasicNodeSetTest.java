@@ -352,6 +352,26 @@ public class BasicNodeSetTest {
         }
     }
 
+    @Test
+    public void structuralJoin_nested() throws XPathException, SAXException, PermissionDeniedException, EXistException {
+        try(final DBBroker broker = existEmbeddedServer.getBrokerPool().get(Optional.of(existEmbeddedServer.getBrokerPool().getSecurityManager().getSystemSubject()))) {
+            NodeSet nestedSet = executeQuery(broker, "//section[@n = ('1.1', '1.1.1')]", 2, null).toNodeSet();
+            NameTest test = new NameTest(Type.ELEMENT, new QName("para", ""));
+            NodeSet paras = broker.getStructuralIndex().findElementsByTagName(ElementValue.ELEMENT, docs, test.getName(), null);
+            test = new NameTest(Type.ELEMENT, new QName("section", ""));
+            NodeSet sections = broker.getStructuralIndex().findElementsByTagName(ElementValue.ELEMENT, docs, test.getName(), null);
+
+            // both sets are in document order, so these are evaluated by a stack based join
+            assertEquals(3, NodeSetHelper.selectParentChild(paras, nestedSet, NodeSet.DESCENDANT, -1).getLength());
+            assertEquals(1, NodeSetHelper.selectParentChild(paras, nestedSet, NodeSet.ANCESTOR, -1).getLength());
+            assertEquals(4, NodeSetHelper.selectAncestorDescendant(paras, nestedSet, NodeSet.DESCENDANT, false, -1).getLength());
+            assertEquals(3, NodeSetHelper.selectAncestorDescendant(sections, nestedSet, NodeSet.DESCENDANT, true, -1).getLength());
+            assertEquals(1, NodeSetHelper.selectAncestorDescendant(nestedSet, nestedSet, NodeSet.DESCENDANT, false, -1).getLength());
+            assertEquals(5, NodeSetHelper.selectAncestors(sections, paras, false, -1).getLength());
+            assertEquals(true, NodeSetHelper.matchAncestorDescendant(paras, nestedSet, NodeSet.DESCENDANT, false, -1));
+        }
+    }
+
     @Test
     public void testOptimizations() throws XPathException, SAXException, PermissionDeniedException, EXistException, LockException {
         try(final DBBroker broker = existEmbeddedServer.getBrokerPool().get(Optional.of(existEmbeddedServer.getBrokerPool().getSecurityManager().getSystemSubject()))) {
@@ -0,0 +1,152 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.dom.persistent;
+
+import com.googlecode.junittoolbox.ParallelRunner;
+import org.exist.collections.Collection;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Iterator;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.*;
+
+@RunWith(ParallelRunner.class)
+public class BitmapDocumentSetTest {
+
+    @Test
+    public void iteratesInDocumentIdOrder() {
+        final Collection col = mockCollection(1);
+
+        final DocumentImpl doc3000 = mockDoc(col, 3000);
+        final DocumentImpl doc1 = mockDoc(col, 1);
+        final DocumentImpl doc34 = mockDoc(col, 34);
+
+        replay(col, doc3000, doc1, doc34);
+
+        final BitmapDocumentSet set = new BitmapDocumentSet();
+        set.add(doc3000);
+        set.add(doc1);
+        set.add(doc34);
+        set.add(doc1);
+
+        assertEquals(3, set.getDocumentCount());
+
+        final Iterator<DocumentImpl> it = set.getDocumentIterator();
+        assertSame(doc1, it.next());
+        assertSame(doc34, it.next());
+        assertSame(doc3000, it.next());
+        assertFalse(it.hasNext());
+
+        assertSame(doc3000, set.getDoc(3000));
+        assertNull(set.getDoc(2999));
+        assertNull(set.getDoc(100000));
+
+        verify(col, doc3000, doc1, doc34);
+    }
+
+    @Test
+    public void equalDocs() {
+        final Collection col = mockCollection(1);
+
+        final DocumentImpl doc1 = mockDoc(col, 1);
+        final DocumentImpl doc6 = mockDoc(col, 6);
+        final DocumentImpl doc2048 = mockDoc(col, 2048);
+
+        replay(col, doc1, doc6, doc2048);
+
+        final BitmapDocumentSet set1 = new BitmapDocumentSet();
+        set1.add(doc1);
+        set1.add(doc6);
+        set1.add(doc2048);
+
+        final DefaultDocumentSet set2 = new DefaultDocumentSet();
+        set2.add(doc2048);
+        set2.add(doc6);
+        set2.add(doc1);
+
+        final BitmapDocumentSet set3 = BitmapDocumentSet.copyOf(set2);
+
+        final BitmapDocumentSet set4 = new BitmapDocumentSet();
+        set4.add(doc1);
+        set4.add(doc6);
+
+        // functions under test
+        assertTrue(set1.equalDocs(set2));
+        assertTrue(set1.equalDocs(set3));
+        assertTrue(set3.equalDocs(set1));
+        assertFalse(set1.equalDocs(set4));
+        assertFalse(set4.equalDocs(set1));
+
+        verify(col, doc1, doc6, doc2048);
+    }
+
+    @Test
+    public void containsAndIntersection() {
+        final Collection col = mockCollection(1);
+
+        final DocumentImpl doc1 = mockDoc(col, 1);
+        final DocumentImpl doc6 = mockDoc(col, 6);
+        final DocumentImpl doc9 = mockDoc(col, 9);
+        final DocumentImpl doc1500 = mockDoc(col, 1500);
+
+        replay(col, doc1, doc6, doc9, doc1500);
+
+        final BitmapDocumentSet set1 = new BitmapDocumentSet();
+        set1.add(doc1);
+        set1.add(doc6);
+        set1.add(doc9);
+        set1.add(doc1500);
+
+        final BitmapDocumentSet set2 = new BitmapDocumentSet();
+        set2.add(doc6);
+        set2.add(doc1500);
+
+        // functions under test
+        assertTrue(set1.contains(set2));
+        assertFalse(set2.contains(set1));
+        assertTrue(set1.contains(9));
+        assertFalse(set2.contains(9));
+
+        final DocumentSet intersection = set1.intersection(set2);
+        assertEquals(2, intersection.getDocumentCount());
+        assertTrue(intersection.equalDocs(set2));
+
+        verify(col, doc1, doc6, doc9, doc1500);
+    }
+
+    private Collection mockCollection(final int collectionId) {
+        final Collection collection = createMock(Collection.class);
+        expect(collection.getId()).andReturn(collectionId).anyTimes();
+        return collection;
+    }
+
+    private DocumentImpl mockDoc(final Collection collection, final int docId) {
+        final DocumentImpl doc = createMock(DocumentImpl.class);
+        expect(doc.getCollection()).andReturn(collection).anyTimes();
+        expect(doc.getDocId()).andReturn(docId).anyTimes();
+        return doc;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.dom.persistent;
+
+import com.googlecode.junittoolbox.ParallelRunner;
+import org.exist.numbering.DLN;
+import org.exist.numbering.DLNFactory;
+import org.exist.xquery.Expression;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.w3c.dom.Node;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.*;
+
+@RunWith(ParallelRunner.class)
+public class ColumnarNodeSetTest {
+
+    @Test
+    public void buildSortsAndRemovesDuplicates() {
+        final DocumentImpl doc1 = mockDoc(1);
+        final DocumentImpl doc2 = mockDoc(2);
+        replay(doc1, doc2);
+
+        final ColumnarNodeSet set = new ColumnarNodeSet.Builder(new DLNFactory(), null)
+                .add(doc2, new DLN("1.1"), Node.ELEMENT_NODE, 20)
+                .add(doc1, new DLN("1.2"), Node.ELEMENT_NODE, 12)
+                .add(doc1, new DLN("1.1.7"), Node.ELEMENT_NODE, 117)
+                .add(doc1, new DLN("1.2"), Node.ELEMENT_NODE, 12)
+                .add(doc1, new DLN("1.1"), Node.ELEMENT_NODE, 11)
+                .build();
+
+        assertEquals(4, set.getLength());
+        assertEquals("1.1", set.get(0).getNodeId().toString());
+        assertEquals("1.1.7", set.get(1).getNodeId().toString());
+        assertEquals("1.2", set.get(2).getNodeId().toString());
+        assertSame(doc2, set.get(3).getOwnerDocument());
+        assertEquals(117, set.get(1).getInternalAddress());
+
+        // lookups return the same instance
+        assertSame(set.get(1), set.get(doc1, new DLN("1.1.7")));
+        assertSame(set.get(1), set.parentWithChild(doc1, new DLN("1.1.7.3"), false, false));
+        assertSame(set.get(0), set.parentWithChild(doc1, new DLN("1.1.5"), true, false));
+        assertNull(set.get(doc2, new DLN("1.2")));
+        assertEquals(3, set.getSizeHint(doc1));
+
+        verify(doc1, doc2);
+    }
+
+    @Test
+    public void unionAndIntersection() {
+        final DocumentImpl doc1 = mockDoc(1);
+        final DocumentImpl doc2 = mockDoc(2);
+        replay(doc1, doc2);
+
+        final ColumnarNodeSet set1 = new ColumnarNodeSet.Builder(new DLNFactory(), null)
+                .add(doc1, new DLN("1.1"), Node.ELEMENT_NODE, 0)
+                .add(doc1, new DLN("1.3"), Node.ELEMENT_NODE, 0)
+                .add(doc2, new DLN("1.1"), Node.ELEMENT_NODE, 0)
+                .build();
+        final ColumnarNodeSet set2 = new ColumnarNodeSet.Builder(new DLNFactory(), null)
+                .add(doc1, new DLN("1.2"), Node.ELEMENT_NODE, 0)
+                .add(doc1, new DLN("1.3"), Node.ELEMENT_NODE, 0)
+                .build();
+
+        final NodeSet union = set1.union(set2);
+        assertEquals(4, union.getLength());
+        assertEquals("1.2", union.get(1).getNodeId().toString());
+
+        final NodeSet intersection = set1.intersection(set2);
+        assertEquals(1, intersection.getLength());
+        assertEquals("1.3", intersection.get(0).getNodeId().toString());
+
+        verify(doc1, doc2);
+    }
+
+    @Test
+    public void selectDescendants() {
+        final DocumentImpl doc1 = mockDoc(1);
+        final DocumentImpl doc2 = mockDoc(2);
+        replay(doc1, doc2);
+
+        final ColumnarNodeSet set = new ColumnarNodeSet.Builder(new DLNFactory(), null)
+                .add(doc1, new DLN("1.1"), Node.ELEMENT_NODE, 0)
+                .add(doc1, new DLN("1.1.2"), Node.ELEMENT_NODE, 0)
+                .add(doc1, new DLN("1.1.2.1"), Node.ELEMENT_NODE, 0)
+                .add(doc1, new DLN("1.4"), Node.ELEMENT_NODE, 0)
+                .add(doc2, new DLN("1.1.1"), Node.ELEMENT_NODE, 0)
+                .build();
+
+        final NewArrayNodeSet parents = new NewArrayNodeSet();
+        parents.add(new NodeProxy(doc1, new DLN("1.1")));
+        parents.add(new NodeProxy(doc1, new DLN("1.1.2")));
+        parents.add(new NodeProxy(doc2, new DLN("1")));
+
+        assertEquals(2, set.selectParentChild(parents, NodeSet.DESCENDANT, Expression.NO_CONTEXT_ID).getLength());
+        assertEquals(3, set.selectAncestorDescendant(parents, NodeSet.DESCENDANT, false,
+                Expression.NO_CONTEXT_ID, true).getLength());
+        assertEquals(4, set.selectAncestorDescendant(parents, NodeSet.DESCENDANT, true,
+                Expression.NO_CONTEXT_ID, true).getLength());
+        assertEquals(2, set.selectParentChild(parents, NodeSet.ANCESTOR, Expression.NO_CONTEXT_ID).getLength());
+
+        verify(doc1, doc2);
+    }
+
+    @Test
+    public void iteratorReturnsKeptProxies() {
+        final DocumentImpl doc1 = mockDoc(1);
+        replay(doc1);
+
+        final ColumnarNodeSet set = new ColumnarNodeSet.Builder(new DLNFactory(), null)
+                .add(doc1, new DLN("1.1"), Node.ELEMENT_NODE, 0)
+                .add(doc1, new DLN("1.2"), Node.ELEMENT_NODE, 0)
+                .build();
+
+        final NodeProxy first = set.iterator().next();
+        first.addContextNode(1, first);
+
+        final NodeSetIterator i = set.iterator();
+        assertSame(first, i.next());
+        assertNotNull(i.next().getNodeId());
+        assertSame(first, set.get(0));
+        assertNotNull(set.get(0).getContext());
+
+        verify(doc1);
+    }
+
+    private DocumentImpl mockDoc(final int docId) {
+        final DocumentImpl doc = createMock(DocumentImpl.class);
+        expect(doc.getDocId()).andReturn(docId).anyTimes();
+        return doc;
+    }
+}
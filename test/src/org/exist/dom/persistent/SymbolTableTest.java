@@ -10,12 +10,19 @@ import org.exist.storage.io.VariableByteOutputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.exist.util.Configuration;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import static org.easymock.EasyMock.*;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -202,6 +209,39 @@ public class SymbolTableTest {
         symbolTable.close();
     }
 
+    @Test
+    public void concurrent_lookups_return_same_ids() throws IOException, BrokerPoolServiceException, InterruptedException, ExecutionException {
+        final SymbolTable symbolTable = createSymbolTable(createTempDir());
+        final int threads = 8;
+        final int names = 1000;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<short[]>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(() -> {
+                    final short[] ids = new short[names];
+                    for (int i = 0; i < names; i++) {
+                        ids[i] = symbolTable.getSymbol("name" + i);
+                        assertEquals("name" + i, symbolTable.getName(ids[i]));
+                    }
+                    return ids;
+                }));
+            }
+
+            final short[] expected = results.get(0).get();
+            for (final Future<short[]> result : results) {
+                assertArrayEquals(expected, result.get());
+            }
+            for (int i = 0; i < names; i++) {
+                assertEquals("name" + i, symbolTable.getName(expected[i]));
+            }
+        } finally {
+            executor.shutdownNow();
+            symbolTable.close();
+        }
+    }
+
     private static Path createTempDir() throws IOException {
         return Files.createTempDirectory("exist-symbolTableTest");
     }
@@ -247,6 +247,50 @@ public class DLNTest {
         assertTrue(id0.isSiblingOf(id3));
     }
 
+    @Test
+    public void encodedRelations() {
+        final Random rand = new Random(42);
+        final DLN[] ids = new DLN[200];
+        for (int i = 0; i < ids.length; i++) {
+            // deep ids to exercise the comparison of eight bytes at a time
+            final StringBuilder buf = new StringBuilder("1");
+            final int levels = 1 + rand.nextInt(i % 2 == 0 ? 4 : 30);
+            for (int j = 0; j < levels; j++) {
+                buf.append(rand.nextInt(8) == 0 ? '/' : '.').append(1 + rand.nextInt(j % 3 == 0 ? 3 : 800));
+            }
+            ids[i] = new DLN(buf.toString());
+        }
+        // add ancestors of some of the ids, so that prefixes are common
+        for (int i = 0; i < ids.length; i += 5) {
+            NodeId parent = ids[i + 1].getParentId();
+            if (parent != NodeId.DOCUMENT_NODE) {
+                ids[i] = (DLN) parent;
+            }
+        }
+
+        for (final DLN a : ids) {
+            final byte[] aData = encode(a, 3);
+            assertEquals(a.getTreeLevel(), DLNBase.getLevelCount(aData, 3, a.units(), 0));
+            for (final DLN b : ids) {
+                final byte[] bData = encode(b, 5);
+                assertEquals(a + " : " + b, Integer.signum(a.compareTo(b)),
+                        Integer.signum(DLNBase.compare(aData, 3, a.size(), bData, 5, b.size())));
+                assertEquals(a + " : " + b, a.startsWith(b),
+                        DLNBase.startsWith(aData, 3, a.units(), bData, 5, b.units()));
+                assertEquals(a + " : " + b, a.computeRelation(b),
+                        DLN.computeRelation(aData, 3, a.units(), bData, 5, b.units()));
+            }
+        }
+    }
+
+    private static byte[] encode(final DLN id, final int offset) {
+        // surround the id with other data, which must not be read
+        final byte[] data = new byte[offset + id.size() + 8];
+        Arrays.fill(data, (byte) 0xFF);
+        id.serialize(data, offset);
+        return data;
+    }
+
     @Test
     public void insertion() {
         DLN left = new DLN("1.1"); 
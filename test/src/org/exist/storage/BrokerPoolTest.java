@@ -21,17 +21,23 @@ package org.exist.storage;
 
 import org.exist.EXistException;
 import org.exist.security.Subject;
+import org.exist.storage.txn.Txn;
 import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.DatabaseConfigurationException;
 import org.exist.xmldb.LocalCollection;
 import org.exist.xmldb.XmldbURI;
 import org.junit.Rule;
 import org.junit.Test;
 import org.xmldb.api.base.XMLDBException;
 
+import java.io.IOException;
 import java.util.Optional;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static junit.framework.TestCase.assertTrue;
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
@@ -185,6 +191,214 @@ public class BrokerPoolTest {
         }
     }
 
+    /**
+     * Checks that when all broker leases are taken,
+     * a released broker is leased by the thread which
+     * has been waiting longest.
+     */
+    @Test
+    public void releasedBrokerServesLongestWaiting() throws InterruptedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final int maxBrokers = pool.getMax();
+
+        final CountDownLatch firstBrokerReleaseLatch = new CountDownLatch(1);
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        try {
+
+            // lease all brokers
+            final CountDownLatch acquiredLatch = new CountDownLatch(maxBrokers);
+            final Thread firstBrokerUser = new Thread(new BrokerUser(pool, acquiredLatch, firstBrokerReleaseLatch), "first-brokerUser");
+            firstBrokerUser.start();
+            for (int i = 1; i < maxBrokers; i++) {
+                new Thread(new BrokerUser(pool, acquiredLatch, releaseLatch)).start();
+            }
+            acquiredLatch.await();
+
+            // queue two more threads, one after the other
+            final CountDownLatch secondInLineAcquiredLatch = new CountDownLatch(1);
+            final Thread secondInLine = new Thread(new BrokerUser(pool, secondInLineAcquiredLatch, releaseLatch), "secondInLine-brokerUser");
+            secondInLine.start();
+            awaitWaiting(secondInLine);
+
+            final CountDownLatch thirdInLineAcquiredLatch = new CountDownLatch(1);
+            final Thread thirdInLine = new Thread(new BrokerUser(pool, thirdInLineAcquiredLatch, releaseLatch), "thirdInLine-brokerUser");
+            thirdInLine.start();
+            awaitWaiting(thirdInLine);
+
+            // releasing one broker only serves the thread which has been waiting longest
+            firstBrokerReleaseLatch.countDown();
+            assertTrue(secondInLineAcquiredLatch.await(1, TimeUnit.MINUTES));
+            Thread.sleep(500);  // just to ensure the other thread has done something
+            assertEquals(1, thirdInLineAcquiredLatch.getCount());
+
+        } finally {
+            // release all brokers from brokerUsers
+            firstBrokerReleaseLatch.countDown();
+            releaseLatch.countDown();
+        }
+    }
+
+    private static void awaitWaiting(final Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Checks that when all broker leases are taken,
+     * a lease fails once the configured wait has elapsed.
+     */
+    @Test
+    public void waitForBrokerTimesOut() throws EXistException, DatabaseConfigurationException, IOException, InterruptedException {
+        final ExistEmbeddedServer waitingServer = newWaitingServer(500);
+        waitingServer.startDb();
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        try {
+            final BrokerPool pool = waitingServer.getBrokerPool();
+            final int maxBrokers = pool.getMax();
+            final CountDownLatch acquiredLatch = new CountDownLatch(maxBrokers);
+            for (int i = 0; i < maxBrokers; i++) {
+                new Thread(new BrokerUser(pool, acquiredLatch, releaseLatch)).start();
+            }
+            acquiredLatch.await();
+
+            final long start = System.currentTimeMillis();
+            try (final DBBroker broker = pool.getBroker()) {
+                fail("Expected no broker to be available");
+            } catch (final EXistException e) {
+                assertTrue(System.currentTimeMillis() - start >= 500);
+            }
+        } finally {
+            releaseLatch.countDown();
+            waitingServer.stopDb();
+        }
+    }
+
+    /**
+     * Checks that a thread which is interrupted while waiting
+     * for a broker fails the lease and keeps its interrupt status.
+     */
+    @Test
+    public void interruptedWaitForBroker() throws EXistException, DatabaseConfigurationException, IOException, InterruptedException {
+        final ExistEmbeddedServer waitingServer = newWaitingServer(60_000);
+        waitingServer.startDb();
+        final CountDownLatch releaseLatch = new CountDownLatch(1);
+        try {
+            final BrokerPool pool = waitingServer.getBrokerPool();
+            final int maxBrokers = pool.getMax();
+            final CountDownLatch acquiredLatch = new CountDownLatch(maxBrokers);
+            for (int i = 0; i < maxBrokers; i++) {
+                new Thread(new BrokerUser(pool, acquiredLatch, releaseLatch)).start();
+            }
+            acquiredLatch.await();
+
+            final AtomicReference<Throwable> failure = new AtomicReference<>();
+            final AtomicBoolean interrupted = new AtomicBoolean();
+            final Thread waiting = new Thread(() -> {
+                try (final DBBroker broker = pool.getBroker()) {
+                    // not expected
+                } catch (final EXistException e) {
+                    failure.set(e);
+                    interrupted.set(Thread.currentThread().isInterrupted());
+                }
+            }, "interrupted-brokerUser");
+            waiting.start();
+            while (waiting.getState() != Thread.State.TIMED_WAITING) {
+                Thread.sleep(10);
+            }
+            waiting.interrupt();
+            waiting.join();
+
+            assertTrue(failure.get() instanceof EXistException);
+            assertTrue(interrupted.get());
+        } finally {
+            releaseLatch.countDown();
+            waitingServer.stopDb();
+        }
+    }
+
+    private static ExistEmbeddedServer newWaitingServer(final long maxBrokerWait) {
+        return new ExistEmbeddedServer("wait-for-broker", null,
+                propertiesBuilder()
+                    .put(BrokerPool.PROPERTY_BROKER_WAIT, maxBrokerWait)
+                    .build(),
+                true,
+                true);
+    }
+
+    /**
+     * Checks that a broker lease follows its execution context
+     * when the context is attached to another thread.
+     */
+    @Test
+    public void leaseFollowsExecutionContext() throws InterruptedException, ExecutionException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final ExecutionContext context = ExecutionContext.create("leaseFollowsExecutionContext");
+        final int activeBrokers = pool.countActiveBrokers();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<DBBroker> leased = executor.submit(() -> {
+                try (final ExecutionContext.Attachment attachment = context.attach()) {
+                    final DBBroker broker = pool.getBroker();
+                    assertEquals(context, broker.getExecutionContext());
+                    return broker;
+                }
+            });
+            final DBBroker broker = leased.get();
+            assertEquals(activeBrokers + 1, pool.countActiveBrokers());
+
+            final Future<DBBroker> active = executor.submit(() -> {
+                try (final ExecutionContext.Attachment attachment = context.attach()) {
+                    final DBBroker activeBroker = pool.getActiveBroker();
+                    activeBroker.close();
+                    return activeBroker;
+                }
+            });
+            assertEquals(broker, active.get());
+            assertEquals(activeBrokers, pool.countActiveBrokers());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void executionContextWithOpenTransactionStaysOnThread() throws InterruptedException, ExecutionException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final ExecutionContext context = ExecutionContext.create("executionContextWithOpenTransactionStaysOnThread");
+        final ExecutorService owner = Executors.newSingleThreadExecutor();
+        final ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Txn> begun = owner.submit(() -> {
+                try (final ExecutionContext.Attachment attachment = context.attach()) {
+                    pool.getBroker();
+                    return pool.getTransactionManager().beginTransaction();
+                }
+            });
+            final Txn transaction = begun.get();
+
+            final Future<?> moved = other.submit(() -> context.attach());
+            try {
+                moved.get();
+                fail("Expected the context to be refused on another thread");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+
+            owner.submit(() -> {
+                try (final ExecutionContext.Attachment attachment = context.attach()) {
+                    final DBBroker broker = pool.getActiveBroker();
+                    transaction.commit();
+                    transaction.close();
+                    broker.close();
+                }
+                return null;
+            }).get();
+        } finally {
+            owner.shutdownNow();
+            other.shutdownNow();
+        }
+    }
+
     public static class BrokerUser implements Runnable {
 
         final BrokerPool brokerPool;
@@ -0,0 +1,88 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class GetResourceByIdTest {
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.create("/db/get-resource-by-id-test");
+    private static final XmldbURI DOC_NAME = XmldbURI.create("d.xml");
+    private static final int COLLECTIONS = 10;
+
+    @Rule
+    public final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    /**
+     * The collection keys are read back from the pages of the collections store
+     * after a restart, rather than from the keys which were stored.
+     */
+    @Test
+    public void getResourceByIdAfterRestart() throws EXistException, PermissionDeniedException, IOException, SAXException, LockException, DatabaseConfigurationException {
+        final List<int[]> ids = new ArrayList<>();
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+            final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+
+            for (int i = 0; i < COLLECTIONS; i++) {
+                final Collection collection = broker.getOrCreateCollection(transaction, TEST_COLLECTION.append("coll" + i));
+                broker.saveCollection(transaction, collection);
+
+                final String xml = "<d>" + i + "</d>";
+                final IndexInfo info = collection.validateXMLResource(transaction, broker, DOC_NAME, xml);
+                collection.store(transaction, broker, info, xml);
+                ids.add(new int[] { collection.getId(), info.getDocument().getDocId() });
+            }
+
+            transaction.commit();
+        }
+
+        existEmbeddedServer.restart();
+
+        final BrokerPool restartedPool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = restartedPool.get(Optional.of(restartedPool.getSecurityManager().getSystemSubject()))) {
+            for (int i = 0; i < COLLECTIONS; i++) {
+                final DocumentImpl doc = broker.getResourceById(ids.get(i)[0], DocumentImpl.XML_FILE, ids.get(i)[1]);
+                assertNotNull(doc);
+                assertEquals(TEST_COLLECTION.append("coll" + i).append(DOC_NAME), doc.getURI());
+            }
+        }
+    }
+}
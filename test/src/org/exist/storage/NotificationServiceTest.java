@@ -0,0 +1,209 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.storage;
+
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.dom.persistent.IStoredNode;
+import org.exist.dom.persistent.NodeHandle;
+import org.exist.numbering.NodeId;
+import org.exist.util.Configuration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+
+public class NotificationServiceTest {
+
+    @Test
+    public void asynchronousEventsAreCoalesced() throws InterruptedException {
+        final DocumentImpl doc1 = mockDoc(1);
+        final DocumentImpl doc2 = mockDoc(2);
+        replay(doc1, doc2);
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+        final UpdateListener listener = new UpdateListener() {
+            @Override
+            public void documentUpdated(final DocumentImpl document, final int event) {
+                events.add(document.getDocId() + ":" + event);
+                started.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void nodeMoved(final NodeId oldNodeId, final NodeHandle newNode) {
+            }
+
+            @Override
+            public void unsubscribe() {
+            }
+
+            @Override
+            public void debug() {
+            }
+        };
+
+        final NotificationService service = new NotificationService();
+        service.subscribeAsynchronous(listener);
+
+        // the listener is busy with the first event...
+        service.notifyUpdate(doc1, UpdateListener.ADD);
+        started.await();
+
+        // ...while the updates of the second document are combined
+        service.notifyUpdate(doc2, UpdateListener.ADD);
+        service.notifyUpdate(doc2, UpdateListener.UPDATE);
+        service.notifyUpdate(doc2, UpdateListener.UPDATE);
+
+        release.countDown();
+        service.unsubscribe(listener);
+
+        assertEquals(Arrays.asList("1:" + UpdateListener.ADD, "2:" + UpdateListener.ADD), events);
+        assertEquals(2L, (long) service.getStatistics().get("queued"));
+        assertEquals(2L, (long) service.getStatistics().get("coalesced"));
+        assertEquals(0L, (long) service.getStatistics().get("pending"));
+    }
+
+    @Test(timeout = 60000)
+    public void fullQueueResyncsListenerWithoutBlocking() throws InterruptedException {
+        final DocumentImpl doc1 = mockDoc(1);
+        final DocumentImpl doc2 = mockDoc(2);
+        final DocumentImpl doc3 = mockDoc(3);
+        final DocumentImpl doc4 = mockDoc(4);
+        final DocumentImpl doc5 = mockDoc(5);
+        final Configuration configuration = createMock(Configuration.class);
+        expect(configuration.getProperty(NotificationService.PROPERTY_QUEUE_SIZE, NotificationService.DEFAULT_QUEUE_SIZE)).andReturn(2);
+        replay(doc1, doc2, doc3, doc4, doc5, configuration);
+
+        final RecordingListener listener = new RecordingListener();
+        final NotificationService service = new NotificationService();
+        service.configure(configuration);
+        service.subscribeAsynchronous(listener);
+
+        // the listener is busy with the first event...
+        service.notifyUpdate(doc1, UpdateListener.ADD);
+        listener.started.await();
+
+        // ...so the queue fills up, and then the pending events are replaced by a resync
+        service.notifyUpdate(doc2, UpdateListener.ADD);
+        service.notifyUpdate(doc3, UpdateListener.ADD);
+        service.notifyUpdate(doc4, UpdateListener.ADD);
+        service.notifyUpdate(doc5, UpdateListener.ADD);
+
+        listener.release.countDown();
+        service.unsubscribe(listener);
+
+        assertEquals(Arrays.asList("1:" + UpdateListener.ADD, "resync"), listener.events);
+        assertEquals(4L, (long) service.getStatistics().get("dropped"));
+        assertEquals(1L, (long) service.getStatistics().get("resyncs"));
+        assertEquals(0L, (long) service.getStatistics().get("pending"));
+    }
+
+    @Test
+    public void removesAndMovesAreNotCoalesced() throws InterruptedException {
+        final DocumentImpl doc1 = mockDoc(1);
+        final DocumentImpl doc2 = mockDoc(2);
+        final IStoredNode<?> node = createMock(IStoredNode.class);
+        expect(node.getOwnerDocument()).andReturn(doc2).anyTimes();
+        replay(doc1, doc2, node);
+
+        final RecordingListener listener = new RecordingListener();
+        final NotificationService service = new NotificationService();
+        service.subscribeAsynchronous(listener);
+
+        // the listener is busy with the first event...
+        service.notifyUpdate(doc1, UpdateListener.ADD);
+        listener.started.await();
+
+        // ...while only the updates between the remove and the move are combined
+        service.notifyUpdate(doc2, UpdateListener.UPDATE);
+        service.notifyUpdate(doc2, UpdateListener.REMOVE);
+        service.notifyUpdate(doc2, UpdateListener.ADD);
+        service.notifyUpdate(doc2, UpdateListener.UPDATE);
+        service.notifyMove(null, node);
+        service.notifyUpdate(doc2, UpdateListener.UPDATE);
+
+        listener.release.countDown();
+        service.unsubscribe(listener);
+
+        assertEquals(Arrays.asList("1:" + UpdateListener.ADD, "2:" + UpdateListener.UPDATE, "2:" + UpdateListener.REMOVE,
+                "2:" + UpdateListener.ADD, "moved", "2:" + UpdateListener.UPDATE), listener.events);
+        assertEquals(1L, (long) service.getStatistics().get("coalesced"));
+    }
+
+    private static DocumentImpl mockDoc(final int docId) {
+        final DocumentImpl doc = createMock(DocumentImpl.class);
+        expect(doc.getDocId()).andReturn(docId).anyTimes();
+        return doc;
+    }
+
+    private static class RecordingListener implements UpdateListener {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void documentUpdated(final DocumentImpl document, final int event) {
+            record(document.getDocId() + ":" + event);
+        }
+
+        @Override
+        public void nodeMoved(final NodeId oldNodeId, final NodeHandle newNode) {
+            record("moved");
+        }
+
+        @Override
+        public void resync() {
+            record("resync");
+        }
+
+        private void record(final String event) {
+            events.add(event);
+            started.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void unsubscribe() {
+        }
+
+        @Override
+        public void debug() {
+        }
+    }
+}
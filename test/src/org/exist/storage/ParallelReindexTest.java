@@ -0,0 +1,224 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.storage.btree.DBException;
+import org.exist.collections.Collection;
+import org.exist.collections.IndexInfo;
+import org.exist.dom.persistent.DocumentImpl;
+import org.exist.indexing.AbstractIndex;
+import org.exist.indexing.IndexWorker;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.util.LockException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.value.Sequence;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Optional;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelReindexTest {
+
+    @ClassRule
+    public static ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder()
+                .put(NativeBroker.PROPERTY_REINDEX_THREADS, 4)
+                .build(),
+            true,
+            true);
+
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.create("/db/parallel-reindex-test");
+    private static final XmldbURI TEST_SUB_COLLECTION = TEST_COLLECTION.append("sub");
+    private static final XmldbURI TEST_FAILING_COLLECTION = XmldbURI.create("/db/parallel-reindex-failure-test");
+    private static final XmldbURI FAILING_DOC = XmldbURI.create("failing.xml");
+
+    private static final int DOCUMENT_COUNT = 200;
+
+    @Test
+    public void reindex() throws EXistException, PermissionDeniedException, IOException, LockException, XPathException {
+        checkIndex();
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+            final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            broker.reindexCollection(transaction, TEST_COLLECTION);
+            transaction.commit();
+        }
+
+        checkIndex();
+    }
+
+    @Test
+    public void reindexFailsForFailingDocument() throws EXistException, PermissionDeniedException, LockException, DatabaseConfigurationException, DBException {
+        final IndexWorker worker = createNiceMock(IndexWorker.class);
+        expect(worker.getIndexId()).andStubReturn(FailingIndex.ID);
+        expect(worker.getIndexName()).andStubReturn(FailingIndex.ID);
+        worker.setDocument(anyObject(DocumentImpl.class));
+        expectLastCall().andStubAnswer(() -> {
+            final DocumentImpl doc = (DocumentImpl) getCurrentArguments()[0];
+            if (doc != null && FAILING_DOC.equals(doc.getFileURI())) {
+                throw new IllegalStateException("Failed to index " + doc.getURI());
+            }
+            return null;
+        });
+        replay(worker);
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final FailingIndex index = new FailingIndex(worker);
+        pool.getIndexManager().registerIndex(index);
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+            final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            try {
+                broker.reindexCollection(transaction, TEST_FAILING_COLLECTION);
+                fail("Expected the reindex to fail");
+            } catch (final IOException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            transaction.abort();
+        } finally {
+            pool.getIndexManager().unregisterIndex(index);
+        }
+    }
+
+    private void checkIndex() throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            final XQuery xquery = pool.getXQueryService();
+            Sequence result = xquery.execute(broker, "count(collection('" + TEST_COLLECTION + "')//item)", null);
+            assertEquals(String.valueOf(2 * DOCUMENT_COUNT), result.getStringValue());
+
+            result = xquery.execute(broker, "count(collection('" + TEST_COLLECTION + "')//item[name = 'item 42'])", null);
+            assertEquals("2", result.getStringValue());
+        }
+    }
+
+    private static void storeDocuments(final XmldbURI collectionUri)
+            throws PermissionDeniedException, IOException, SAXException, EXistException, LockException {
+        storeDocuments(collectionUri, null);
+    }
+
+    private static void storeDocuments(final XmldbURI collectionUri, @Nullable final XmldbURI lastDocName)
+            throws PermissionDeniedException, IOException, SAXException, EXistException, LockException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+            final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+
+            final Collection collection = broker.getOrCreateCollection(transaction, collectionUri);
+            assertNotNull(collection);
+            broker.saveCollection(transaction, collection);
+
+            for (int i = 0; i < DOCUMENT_COUNT; i++) {
+                final String doc = "<item id='" + i + "'><name>item " + i + "</name></item>";
+                final XmldbURI docName = XmldbURI.create("item" + i + ".xml");
+                final IndexInfo info = collection.validateXMLResource(transaction, broker, docName, doc);
+                assertNotNull(info);
+                collection.store(transaction, broker, info, doc);
+            }
+
+            if (lastDocName != null) {
+                final String doc = "<item id='last'><name>last item</name></item>";
+                final IndexInfo info = collection.validateXMLResource(transaction, broker, lastDocName, doc);
+                assertNotNull(info);
+                collection.store(transaction, broker, info, doc);
+            }
+
+            transaction.commit();
+        }
+    }
+
+    @BeforeClass
+    public static void setup() throws LockException, SAXException, PermissionDeniedException, EXistException, IOException {
+        storeDocuments(TEST_COLLECTION);
+        storeDocuments(TEST_SUB_COLLECTION);
+        storeDocuments(TEST_FAILING_COLLECTION, FAILING_DOC);
+    }
+
+    /**
+     * An index whose worker fails when it is given the {@link #FAILING_DOC}.
+     */
+    private static class FailingIndex extends AbstractIndex {
+        static final String ID = "FailingIndex";
+
+        private final IndexWorker worker;
+
+        FailingIndex(final IndexWorker worker) {
+            this.worker = worker;
+        }
+
+        @Override
+        public String getIndexId() {
+            return ID;
+        }
+
+        @Override
+        public String getIndexName() {
+            return ID;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void sync() {
+        }
+
+        @Override
+        public void remove() {
+        }
+
+        @Override
+        public IndexWorker getWorker(final DBBroker broker) {
+            return worker;
+        }
+
+        @Override
+        public boolean checkIndex(final DBBroker broker) {
+            return false;
+        }
+    }
+}
@@ -88,6 +88,18 @@ public class ReindexTest {
         reindexElementChildren_checkNodes();
     }
 
+    @Test
+    public void reindexOnline() throws EXistException, PermissionDeniedException, IOException, LockException {
+        reindexDocumentChildNodes_checkNodes();
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            broker.reindexCollectionOnline(DOCUMENT_WITH_CHILD_NODES_COLLECTION);
+        }
+
+        reindexDocumentChildNodes_checkNodes();
+    }
+
     private void reindexDocumentChildNodes_checkNodes() throws EXistException, PermissionDeniedException {
         final BrokerPool pool = existEmbeddedServer.getBrokerPool();
         try(final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
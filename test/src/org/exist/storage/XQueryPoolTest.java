@@ -0,0 +1,158 @@
+/*
+ * eXist Open Source Native XML Database
+ * Copyright (C) 2001-2018 The eXist Project
+ * http://exist-db.org
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.storage;
+
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.persistent.BinaryDocument;
+import org.exist.dom.persistent.LockedDocument;
+import org.exist.security.PermissionDeniedException;
+import org.exist.source.DBSource;
+import org.exist.source.Source;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.LockException;
+import org.exist.util.io.FastByteArrayInputStream;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.CompiledXQuery;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQuery;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.Sequence;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class XQueryPoolTest {
+
+    private static final XmldbURI TEST_COLLECTION_URI = XmldbURI.create("/db/xquery-pool-test");
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(true, true);
+
+    @Test
+    public void changedModuleRecompilesDependents() throws EXistException, PermissionDeniedException, IOException, TriggerException, LockException, XPathException, InterruptedException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQueryPool xqueryPool = pool.getXQueryPool();
+
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            storeQuery(broker, "mod.xqm", "module namespace mod = 'http://mod'; declare function mod:value() { 'one' };");
+            storeQuery(broker, "main.xq", "import module namespace mod = 'http://mod' at 'xmldb:exist://" + TEST_COLLECTION_URI + "/mod.xqm'; mod:value()");
+            storeQuery(broker, "other.xq", "'other'");
+
+            final Source main = getSource(broker, "main.xq");
+            final Source other = getSource(broker, "other.xq");
+            assertEquals("one", execute(broker, xqueryPool, main));
+            assertEquals("other", execute(broker, xqueryPool, other));
+
+            // update the module, only main.xq depends on it
+            storeQuery(broker, "mod.xqm", "module namespace mod = 'http://mod'; declare function mod:value() { 'two' };");
+
+            final CompiledXQuery otherCompiled = xqueryPool.borrowCompiledXQuery(broker, other);
+            assertNotNull(otherCompiled);
+            xqueryPool.returnCompiledXQuery(other, otherCompiled);
+
+            // main.xq is recompiled in the background
+            final Source newMain = getSource(broker, "main.xq");
+            CompiledXQuery mainCompiled = null;
+            for (int i = 0; i < 100 && mainCompiled == null; i++) {
+                mainCompiled = xqueryPool.borrowCompiledXQuery(broker, newMain);
+                if (mainCompiled == null) {
+                    Thread.sleep(100);
+                }
+            }
+            assertNotNull(mainCompiled);
+            xqueryPool.returnCompiledXQuery(newMain, mainCompiled);
+
+            assertEquals("two", execute(broker, xqueryPool, newMain));
+        }
+    }
+
+    @Test
+    public void removedQueryIsNotRecompiled() throws EXistException, PermissionDeniedException, IOException, TriggerException, LockException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        final XQueryPool xqueryPool = pool.getXQueryPool();
+
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            storeQuery(broker, "removed.xq", "'removed'");
+
+            final Source removed = getSource(broker, "removed.xq");
+            assertEquals("removed", execute(broker, xqueryPool, removed));
+
+            try (final Txn transaction = pool.getTransactionManager().beginTransaction();
+                    final Collection collection = broker.openCollection(TEST_COLLECTION_URI, LockMode.WRITE_LOCK)) {
+                collection.removeBinaryResource(transaction, broker, XmldbURI.create("removed.xq"));
+                transaction.commit();
+            }
+
+            assertNull(xqueryPool.borrowCompiledXQuery(broker, removed));
+        }
+    }
+
+    private static String execute(final DBBroker broker, final XQueryPool xqueryPool, final Source source) throws XPathException, PermissionDeniedException, IOException {
+        final XQuery xquery = broker.getBrokerPool().getXQueryService();
+        CompiledXQuery compiled = xqueryPool.borrowCompiledXQuery(broker, source);
+        final XQueryContext context;
+        if (compiled == null) {
+            context = new XQueryContext(broker.getBrokerPool());
+            compiled = xquery.compile(broker, context, source);
+        } else {
+            context = compiled.getContext();
+            context.prepareForReuse();
+        }
+
+        try {
+            final Sequence result = xquery.execute(broker, compiled, null);
+            return result.getStringValue();
+        } finally {
+            context.runCleanupTasks();
+            xqueryPool.returnCompiledXQuery(source, compiled);
+        }
+    }
+
+    private static void storeQuery(final DBBroker broker, final String name, final String query) throws EXistException, PermissionDeniedException, IOException, TriggerException, LockException {
+        final BrokerPool pool = broker.getBrokerPool();
+        final byte[] data = query.getBytes(UTF_8);
+        try (final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, TEST_COLLECTION_URI);
+            broker.saveCollection(transaction, collection);
+            try (final InputStream is = new FastByteArrayInputStream(data)) {
+                collection.addBinaryResource(transaction, broker, XmldbURI.create(name), is, "application/xquery", data.length);
+            }
+            transaction.commit();
+        }
+    }
+
+    private static Source getSource(final DBBroker broker, final String name) throws PermissionDeniedException {
+        try (final LockedDocument lockedDoc = broker.getXMLResource(TEST_COLLECTION_URI.append(name), LockMode.READ_LOCK)) {
+            return new DBSource(broker, (BinaryDocument) lockedDoc.getDocument(), true);
+        }
+    }
+}
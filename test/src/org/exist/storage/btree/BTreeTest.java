@@ -17,6 +17,7 @@ import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.Random;
 import java.util.TreeMap;
@@ -125,6 +126,40 @@ public class BTreeTest {
         }
     }
 
+    @Test
+    public void findSortedValues() throws DBException, IOException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            btree.create((short) -1);
+
+            String prefixStr = "F";
+            for (int i = 1; i <= COUNT; i += 2) {
+                btree.addValue(new Value(prefixStr + Integer.toString(i)), i);
+            }
+            btree.flush();
+
+            // every odd key exists, every even key is missing
+            final TreeMap<Value, Integer> keys = new TreeMap<>();
+            for (int i = 0; i <= COUNT + 1; i++) {
+                keys.put(new Value(prefixStr + Integer.toString(i)), i);
+            }
+            final long[] pointers = btree.findValues(new ArrayList<>(keys.keySet()));
+            assertEquals(keys.size(), pointers.length);
+
+            int i = 0;
+            for (final Map.Entry<Value, Integer> entry : keys.entrySet()) {
+                final int n = entry.getValue();
+                if (n % 2 == 1 && n <= COUNT) {
+                    assertEquals(n, pointers[i]);
+                } else {
+                    assertEquals(BTree.KEY_NOT_FOUND, pointers[i]);
+                }
+                assertEquals(btree.findValue(entry.getKey()), pointers[i]);
+                i++;
+            }
+        }
+    }
+
     @Test
     public void longStrings() throws DBException, IOException {
         // Test storage of long keys up to half of the page size (4k)
@@ -163,6 +198,37 @@ public class BTreeTest {
         }
     }
 
+    @Test
+    public void longCommonPrefix() throws DBException, IOException, TerminatedException {
+        // keys sharing a prefix longer than Byte.MAX_VALUE, read back from disk
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            buf.append('p');
+        }
+        final String prefixStr = buf.toString();
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try(final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            btree.create((short) -1);
+            for (int i = 1; i <= COUNT; i++) {
+                btree.addValue(new Value(prefixStr + Integer.toString(i)), i);
+            }
+            btree.flush();
+        }
+
+        try(final BTree btree = new BTree(pool, BTREE_TEST_FILE_ID, BTREE_TEST_FILE_VERSION, false, pool.getCacheManager(), file)) {
+            assertTrue(btree.open(BTREE_TEST_FILE_VERSION));
+            for (int i = 1; i <= COUNT; i++) {
+                long p = btree.findValue(new Value(prefixStr + Integer.toString(i)));
+                assertEquals(i, p);
+            }
+
+            IndexQuery query = new IndexQuery(IndexQuery.TRUNC_RIGHT, new Value(prefixStr + "1"));
+            btree.query(query, new StringIndexCallback());
+            assertEquals(1111, count);
+        }
+    }
+
     @Test
     public void stringsTruncated() throws DBException, IOException, TerminatedException {
         final BrokerPool pool = existEmbeddedServer.getBrokerPool();
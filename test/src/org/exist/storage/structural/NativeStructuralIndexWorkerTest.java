@@ -2,6 +2,7 @@ package org.exist.storage.structural;
 
 import com.googlecode.junittoolbox.ParallelRunner;
 import org.easymock.EasyMock;
+import org.exist.dom.persistent.BitmapDocumentSet;
 import org.exist.dom.persistent.DocumentImpl;
 import org.exist.dom.persistent.DocumentSet;
 import org.junit.Test;
@@ -131,6 +132,36 @@ public class NativeStructuralIndexWorkerTest {
         assertEquals(24, ranges.get(3).end);
     }
 
+    @Test
+    public void getDocIdRanges_bitmap() {
+        final NativeStructuralIndexWorker indexWorker = new NativeStructuralIndexWorker(null);
+
+        final BitmapDocumentSet docs = new BitmapDocumentSet();
+        for (final int id : Arrays.asList(6574, 11,12,13,14,15, 200, 1023,1024,1025)) {
+            final DocumentImpl mockDocument = createMock(DocumentImpl.class);
+            expect(mockDocument.getDocId()).andReturn(id).anyTimes();
+            expect(mockDocument.getCollection()).andReturn(null).anyTimes();
+            replay(mockDocument);
+            docs.add(mockDocument);
+        }
+
+        final List<NativeStructuralIndexWorker.Range> ranges = indexWorker.getDocIdRanges(docs);
+
+        assertEquals(4, ranges.size());
+
+        assertEquals(11, ranges.get(0).start);
+        assertEquals(15, ranges.get(0).end);
+
+        assertEquals(200, ranges.get(1).start);
+        assertEquals(200, ranges.get(1).end);
+
+        assertEquals(1023, ranges.get(2).start);
+        assertEquals(1025, ranges.get(2).end);
+
+        assertEquals(6574, ranges.get(3).start);
+        assertEquals(6574, ranges.get(3).end);
+    }
+
     private DocumentSet documentIdSet(final List<Integer> documentIds) {
         final DocumentSet mockDocumentSet = createMock(DocumentSet.class);
 
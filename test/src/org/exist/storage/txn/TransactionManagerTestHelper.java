@@ -19,6 +19,10 @@ public class TransactionManagerTestHelper {
     NativeBroker mockBroker = null;
 
     protected TransactionManager createTestableTransactionManager() throws NoSuchFieldException, IllegalAccessException, EXistException {
+        return createTestableTransactionManager(createMock(JournalManager.class));
+    }
+
+    protected TransactionManager createTestableTransactionManager(final JournalManager mockJournalManager) throws NoSuchFieldException, IllegalAccessException, EXistException {
         mockBrokerPool = createMock(BrokerPool.class);
         mockBroker = createMock(NativeBroker.class);
         expect(mockBrokerPool.getBroker()).andReturn(mockBroker).atLeastOnce();
@@ -27,7 +31,6 @@ public class TransactionManagerTestHelper {
         mockBroker.close();
         expectLastCall().atLeastOnce();
 
-        final JournalManager mockJournalManager = createMock(JournalManager.class);
         final SystemTaskManager mockTaskManager = createMock(SystemTaskManager.class);
 
         replay(mockBrokerPool, mockBroker);
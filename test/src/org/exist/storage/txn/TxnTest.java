@@ -2,9 +2,12 @@ package org.exist.storage.txn;
 
 import com.googlecode.junittoolbox.ParallelRunner;
 import org.exist.EXistException;
+import org.exist.storage.journal.JournalException;
+import org.exist.storage.journal.JournalManager;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import static org.easymock.EasyMock.*;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -34,6 +37,77 @@ public class TxnTest {
         helper.verifyMocks();
     }
 
+    @Test
+    public void failingListenerDoesNotStopCommit() throws NoSuchFieldException, IllegalAccessException, EXistException {
+        final TransactionManager transact = helper.createTestableTransactionManager();
+
+        final Txn transaction = transact.beginTransaction();
+
+        transaction.registerListener(new FailingTxnListener());
+        final CountingTxnListener listener = new CountingTxnListener();
+        transaction.registerListener(listener);
+
+        transaction.commit();
+
+        assertEquals(Txn.State.COMMITTED, transaction.getState());
+
+        assertEquals(1, listener.getCommit());
+        assertEquals(0, listener.getAbort());
+
+        helper.verifyMocks();
+    }
+
+    @Test
+    public void failingListenerDoesNotStopAbort() throws NoSuchFieldException, IllegalAccessException, EXistException {
+        final TransactionManager transact = helper.createTestableTransactionManager();
+
+        final Txn transaction = transact.beginTransaction();
+
+        transaction.registerListener(new FailingTxnListener());
+        final CountingTxnListener listener = new CountingTxnListener();
+        transaction.registerListener(listener);
+
+        transaction.abort();
+
+        assertEquals(Txn.State.ABORTED, transaction.getState());
+
+        assertEquals(0, listener.getCommit());
+        assertEquals(1, listener.getAbort());
+
+        helper.verifyMocks();
+    }
+
+    @Test
+    public void commitRecordIsFlushedAfterLocksAreReleased() throws NoSuchFieldException, IllegalAccessException, EXistException, JournalException {
+        final JournalManager mockJournalManager = createStrictMock(JournalManager.class);
+        final TransactionManager transact = helper.createTestableTransactionManager(mockJournalManager);
+        final CountingTxnListener listener = new CountingTxnListener();
+
+        mockJournalManager.journal(isA(TxnStart.class));
+        mockJournalManager.journal(isA(TxnCommit.class));
+        expectLastCall().andAnswer(() -> {
+            assertEquals(0, listener.getCommit());
+            return null;
+        });
+        mockJournalManager.flushGroup(isA(TxnCommit.class));
+        expectLastCall().andAnswer(() -> {
+            // the transaction has already been committed and its locks released
+            assertEquals(1, listener.getCommit());
+            return null;
+        });
+        replay(mockJournalManager);
+
+        final Txn transaction = transact.beginTransaction();
+        transaction.registerListener(listener);
+
+        transaction.commit();
+
+        assertEquals(Txn.State.COMMITTED, transaction.getState());
+
+        verify(mockJournalManager);
+        helper.verifyMocks();
+    }
+
     @Test
     public void commitAndCloseTransaction() throws NoSuchFieldException, IllegalAccessException, EXistException {
         final TransactionManager transact = helper.createTestableTransactionManager();
@@ -155,4 +229,21 @@ public class TxnTest {
 
         helper.verifyMocks();
     }
+
+    private static class FailingTxnListener implements TxnListener {
+        @Override
+        public void commit() {
+            throw new IllegalStateException("commit");
+        }
+
+        @Override
+        public void abort() {
+            throw new IllegalStateException("abort");
+        }
+
+        @Override
+        public void afterCommit() {
+            throw new IllegalStateException("afterCommit");
+        }
+    }
 }
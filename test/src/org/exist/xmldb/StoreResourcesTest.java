@@ -0,0 +1,106 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist-db Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License
+ *  along with this program; if not, write to the Free Software Foundation
+ *  Inc., 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301, USA.
+ */
+package org.exist.xmldb;
+
+import org.exist.test.ExistXmldbEmbeddedServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.xmldb.api.base.Resource;
+import org.xmldb.api.base.XMLDBException;
+import org.xmldb.api.modules.BinaryResource;
+import org.xmldb.api.modules.CollectionManagementService;
+import org.xmldb.api.modules.XMLResource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class StoreResourcesTest {
+
+    @ClassRule
+    public static final ExistXmldbEmbeddedServer existEmbeddedServer = new ExistXmldbEmbeddedServer(false, true);
+
+    private static final String TEST_COLLECTION = "storeResourcesTest";
+
+    private EXistCollection testCollection;
+
+    @Before
+    public void setup() throws XMLDBException {
+        final CollectionManagementService service = (CollectionManagementService)existEmbeddedServer.getRoot().getService("CollectionManagementService", "1.0");
+        testCollection = (EXistCollection) service.createCollection(TEST_COLLECTION);
+    }
+
+    @After
+    public void cleanup() throws XMLDBException {
+        final CollectionManagementService service = (CollectionManagementService)existEmbeddedServer.getRoot().getService("CollectionManagementService", "1.0");
+        service.removeCollection(TEST_COLLECTION);
+    }
+
+    @Test
+    public void storeResources() throws XMLDBException {
+        // more resources than a single batch
+        testCollection.setProperty(LocalCollection.BATCH_SIZE, "7");
+
+        final List<Resource> resources = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final XMLResource resource = (XMLResource) testCollection.createResource("doc" + i + ".xml", XMLResource.RESOURCE_TYPE);
+            resource.setContent("<doc n='" + i + "'><!-- comment --><title>Doc " + i + "</title></doc>");
+            resources.add(resource);
+        }
+        final BinaryResource binary = (BinaryResource) testCollection.createResource("data.bin", BinaryResource.RESOURCE_TYPE);
+        binary.setContent(new byte[] { 1, 2, 3 });
+        resources.add(binary);
+
+        testCollection.storeResources(resources);
+
+        assertEquals(21, testCollection.getResourceCount());
+        final XMLResource doc = (XMLResource) testCollection.getResource("doc13.xml");
+        assertNotNull(doc);
+        assertEquals("<doc n=\"13\"><!-- comment --><title>Doc 13</title></doc>", doc.getContent().toString().replaceAll(">\\s+<", "><"));
+        assertEquals(3, ((byte[]) testCollection.getResource("data.bin").getContent()).length);
+    }
+
+    @Test
+    public void storeResourcesNotWellFormed() throws XMLDBException {
+        testCollection.setProperty(LocalCollection.BATCH_SIZE, "2");
+
+        final List<Resource> resources = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final XMLResource resource = (XMLResource) testCollection.createResource("doc" + i + ".xml", XMLResource.RESOURCE_TYPE);
+            resource.setContent(i == 3 ? "<doc>" : "<doc/>");
+            resources.add(resource);
+        }
+
+        try {
+            testCollection.storeResources(resources);
+            fail("Expected XMLDBException for a resource which is not well-formed");
+        } catch (final XMLDBException e) {
+            // the first batch was stored, the second batch was not parsed completely so none of it was stored
+            assertNotNull(testCollection.getResource("doc1.xml"));
+            assertNull(testCollection.getResource("doc2.xml"));
+        }
+    }
+}
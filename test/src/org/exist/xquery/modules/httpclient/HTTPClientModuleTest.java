@@ -0,0 +1,229 @@
+/*
+ *  eXist Open Source Native XML Database
+ *  Copyright (C) 2001-2018 The eXist Project
+ *  http://exist-db.org
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public License
+ *  as published by the Free Software Foundation; either version 2
+ *  of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public
+ *  License along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.exist.xquery.modules.httpclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.exist.EXistException;
+import org.exist.collections.Collection;
+import org.exist.collections.triggers.TriggerException;
+import org.exist.dom.persistent.BinaryDocument;
+import org.exist.dom.persistent.LockedDocument;
+import org.exist.security.PermissionDeniedException;
+import org.exist.storage.BrokerPool;
+import org.exist.storage.DBBroker;
+import org.exist.storage.lock.Lock.LockMode;
+import org.exist.storage.txn.Txn;
+import org.exist.test.ExistEmbeddedServer;
+import org.exist.util.DatabaseConfigurationException;
+import org.exist.xmldb.XmldbURI;
+import org.exist.xquery.XPathException;
+import org.exist.xquery.XQueryContext;
+import org.exist.xquery.value.Sequence;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.exist.util.PropertiesBuilder.propertiesBuilder;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for httpclient:send-all and httpclient:get-to-document against a local HTTP server.
+ */
+public class HTTPClientModuleTest {
+
+    private static final int SEND_ALL_TIMEOUT = 1000;
+    private static final XmldbURI TEST_COLLECTION = XmldbURI.create("/db/httpclient-test");
+    private static final byte[] BINARY_CONTENT = { 0, 1, 2, (byte) 0xfe, (byte) 0xff, '\n', 'x' };
+
+    @ClassRule
+    public static final ExistEmbeddedServer existEmbeddedServer = new ExistEmbeddedServer(
+            propertiesBuilder().put(XQueryContext.PROPERTY_MODULE_PARAMETERS, sendAllTimeoutParameters()).build(),
+            true, true);
+
+    private static HttpServer httpServer;
+    private static final CountDownLatch stalled = new CountDownLatch(1);
+
+    @BeforeClass
+    public static void startHttpServer() throws IOException, EXistException, PermissionDeniedException, TriggerException {
+        httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        httpServer.createContext("/xml/", exchange -> {
+            final String path = exchange.getRequestURI().getPath();
+            final String[] segments = path.substring("/xml/".length()).split("/");
+            sleep(Long.parseLong(segments[1]));
+            respond(exchange, "application/xml", ("<response>" + segments[0] + "</response>").getBytes(StandardCharsets.UTF_8));
+        });
+        httpServer.createContext("/stalled", exchange -> {
+            try {
+                stalled.await(30, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, "application/xml", "<response>too late</response>".getBytes(StandardCharsets.UTF_8));
+        });
+        httpServer.createContext("/binary", exchange -> respond(exchange, "application/octet-stream", BINARY_CONTENT));
+        httpServer.setExecutor(Executors.newCachedThreadPool());
+        httpServer.start();
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final Txn transaction = pool.getTransactionManager().beginTransaction()) {
+            final Collection collection = broker.getOrCreateCollection(transaction, TEST_COLLECTION);
+            broker.saveCollection(transaction, collection);
+            transaction.commit();
+        }
+    }
+
+    @AfterClass
+    public static void stopHttpServer() {
+        stalled.countDown();
+        httpServer.stop(0);
+    }
+
+    @Test
+    public void sendAllReturnsResponsesInRequestOrder() throws EXistException, PermissionDeniedException, XPathException {
+        // the first request completes last
+        final Sequence result = execute(
+                "declare namespace httpclient = 'http://exist-db.org/xquery/httpclient';\n" +
+                "for $response in httpclient:send-all((\n" +
+                "    <httpclient:request href='" + url("/xml/first/500") + "'/>,\n" +
+                "    <httpclient:request method='GET' href='" + url("/xml/second/0") + "'/>,\n" +
+                "    <httpclient:request href='" + url("/xml/third/200") + "'/>\n" +
+                "), false())\n" +
+                "return $response/@statusCode || ':' || string($response/httpclient:body)");
+
+        assertEquals(3, result.getItemCount());
+        assertEquals("200:first", result.itemAt(0).getStringValue());
+        assertEquals("200:second", result.itemAt(1).getStringValue());
+        assertEquals("200:third", result.itemAt(2).getStringValue());
+    }
+
+    @Test
+    public void sendAllCancelsRequestsAfterTimeout() throws EXistException, PermissionDeniedException, XPathException {
+        final long start = System.nanoTime();
+        final Sequence result = execute(
+                "declare namespace httpclient = 'http://exist-db.org/xquery/httpclient';\n" +
+                "for $response in httpclient:send-all((\n" +
+                "    <httpclient:request href='" + url("/stalled") + "'/>,\n" +
+                "    <httpclient:request href='" + url("/xml/fast/0") + "'/>\n" +
+                "), false())\n" +
+                "return $response/@statusCode || ':' || string($response/httpclient:body)");
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(2, result.getItemCount());
+        assertTrue(result.itemAt(0).getStringValue(), result.itemAt(0).getStringValue().startsWith("500:"));
+        assertTrue(result.itemAt(0).getStringValue(), result.itemAt(0).getStringValue().contains(SEND_ALL_TIMEOUT + "ms"));
+        assertEquals("200:fast", result.itemAt(1).getStringValue());
+        assertTrue("send-all waited for " + elapsed + "ms", elapsed < SEND_ALL_TIMEOUT * 10);
+    }
+
+    @Test
+    public void getToDocumentStoresBinaryDocument() throws EXistException, PermissionDeniedException, XPathException, IOException {
+        final Sequence result = execute(
+                "declare namespace httpclient = 'http://exist-db.org/xquery/httpclient';\n" +
+                "let $response := httpclient:get-to-document(xs:anyURI('" + url("/binary") + "'), false(), (), '" + TEST_COLLECTION + "', 'data.bin')\n" +
+                "return ($response/@statusCode/string(), $response/httpclient:body/@type/string(), $response/httpclient:body/@href/string())");
+
+        assertEquals(3, result.getItemCount());
+        assertEquals("200", result.itemAt(0).getStringValue());
+        assertEquals("stored", result.itemAt(1).getStringValue());
+        assertEquals(TEST_COLLECTION.append("data.bin").toString(), result.itemAt(2).getStringValue());
+
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()));
+             final LockedDocument lockedDoc = broker.getXMLResource(TEST_COLLECTION.append("data.bin"), LockMode.READ_LOCK)) {
+            assertNotNull(lockedDoc);
+            assertTrue(lockedDoc.getDocument() instanceof BinaryDocument);
+            final BinaryDocument binDoc = (BinaryDocument) lockedDoc.getDocument();
+            assertEquals("application/octet-stream", binDoc.getMetadata().getMimeType());
+
+            final byte[] data = new byte[(int) broker.getBinaryResourceSize(binDoc)];
+            try (final InputStream is = broker.getBinaryResource(binDoc)) {
+                int offset = 0;
+                int read;
+                while (offset < data.length && (read = is.read(data, offset, data.length - offset)) != -1) {
+                    offset += read;
+                }
+            }
+            assertArrayEquals(BINARY_CONTENT, data);
+        }
+    }
+
+    @Test
+    public void serviceIsShutDownWithDatabase() throws EXistException, IOException, DatabaseConfigurationException {
+        final ExistEmbeddedServer server = new ExistEmbeddedServer("httpclient-shutdown", null, null, true, true);
+        server.startDb();
+        final HTTPClientService clientService;
+        try {
+            clientService = server.getBrokerPool().getService(HTTPClientService.class).orElse(null);
+            assertNotNull(clientService);
+            assertFalse(clientService.getRequestExecutor().isShutdown());
+        } finally {
+            server.stopDb();
+        }
+        assertTrue(clientService.getRequestExecutor().isShutdown());
+    }
+
+    private static Sequence execute(final String query) throws EXistException, PermissionDeniedException, XPathException {
+        final BrokerPool pool = existEmbeddedServer.getBrokerPool();
+        try (final DBBroker broker = pool.get(Optional.of(pool.getSecurityManager().getSystemSubject()))) {
+            return pool.getXQueryService().execute(broker, query, null);
+        }
+    }
+
+    private static String url(final String path) {
+        return "http://localhost:" + httpServer.getAddress().getPort() + path;
+    }
+
+    private static Map<String, Map<String, List<?>>> sendAllTimeoutParameters() {
+        final Map<String, List<?>> parameters = new HashMap<>();
+        parameters.put(HTTPClientModule.SEND_ALL_TIMEOUT_PARAM, Collections.singletonList(String.valueOf(SEND_ALL_TIMEOUT)));
+        final Map<String, Map<String, List<?>>> moduleParameters = new HashMap<>();
+        moduleParameters.put(HTTPClientModule.NAMESPACE_URI, parameters);
+        return moduleParameters;
+    }
+
+    private static void respond(final HttpExchange exchange, final String contentType, final byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+        try (final OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.exist.xquery.modules.sql;
+
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.niceMock;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.*;
+
+/**
+ * Unit Tests for the pooled connections of sql:get-pooled-connection
+ */
+public class JDBCConnectionPoolTest {
+
+    private static final String URL = "jdbc:test:pool";
+
+    @Test
+    public void connectionIsReused() throws SQLException {
+        final AtomicInteger connects = new AtomicInteger();
+        final JDBCConnectionPool pool = new JDBCConnectionPool(URL, new JDBCConnectionPool.Config(), () -> {
+            connects.incrementAndGet();
+            return validConnection();
+        });
+
+        try {
+            final Connection first = pool.borrowConnection();
+            first.close();
+            assertTrue(first.isClosed());
+
+            final Connection second = pool.borrowConnection();
+            assertFalse(second.isClosed());
+            second.close();
+
+            assertEquals(1, connects.get());
+            assertEquals(2, pool.getBorrowedCount());
+            assertEquals(0, pool.getNumActive());
+            assertEquals(1, pool.getNumIdle());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test(expected = SQLException.class)
+    public void closedConnectionIsUnusable() throws SQLException {
+        final JDBCConnectionPool pool = new JDBCConnectionPool(URL, new JDBCConnectionPool.Config(), this::validConnection);
+        try {
+            final Connection con = pool.borrowConnection();
+            con.close();
+            con.createStatement();
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void preparedStatementsAreCached() throws SQLException {
+        final String sql = "SELECT NAME FROM BLA WHERE ID = ?";
+
+        final PreparedStatement stmt = niceMock(PreparedStatement.class);
+        stmt.clearParameters();
+        final Connection connection = niceMock(Connection.class);
+        expect(connection.isValid(anyInt())).andStubReturn(true);
+        expect(connection.getAutoCommit()).andStubReturn(true);
+        expect(connection.prepareStatement(sql)).andReturn(stmt).once();
+        replay(stmt, connection);
+
+        final JDBCConnectionPool pool = new JDBCConnectionPool(URL, new JDBCConnectionPool.Config(), () -> connection);
+        try {
+            final Connection con = pool.borrowConnection();
+
+            final PreparedStatement first = con.prepareStatement(sql);
+            first.close();
+            assertTrue(first.isClosed());
+
+            final PreparedStatement second = con.prepareStatement(sql);
+            assertFalse(second.isClosed());
+            assertSame(con, second.getConnection());
+            con.close();
+
+            // the statement is released with the connection
+            assertTrue(second.isClosed());
+
+            assertEquals(1, pool.getStatementCacheHits());
+            assertEquals(1, pool.getStatementCacheMisses());
+        } finally {
+            pool.close();
+        }
+
+        verify(connection);
+    }
+
+    @Test
+    public void statementsAreClosedWithConnection() throws SQLException {
+        final Statement closedByCaller = niceMock(Statement.class);
+        expect(closedByCaller.isClosed()).andStubReturn(true);
+        final Statement open = niceMock(Statement.class);
+        open.close();
+        final Connection connection = niceMock(Connection.class);
+        expect(connection.isValid(anyInt())).andStubReturn(true);
+        expect(connection.getAutoCommit()).andStubReturn(true);
+        expect(connection.createStatement()).andReturn(closedByCaller).andReturn(open);
+        replay(closedByCaller, open, connection);
+
+        final JDBCConnectionPool pool = new JDBCConnectionPool(URL, new JDBCConnectionPool.Config(), () -> connection);
+        try {
+            final Connection con = pool.borrowConnection();
+            con.createStatement().close();
+            assertSame(open, con.createStatement());
+
+            // the statement which was left open is closed with the connection
+            con.close();
+            verify(open);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void exhaustedPoolTimesOut() throws SQLException {
+        final JDBCConnectionPool pool = new JDBCConnectionPool(URL, new JDBCConnectionPool.Config(1, 1, 10, 5, 0, 0), this::validConnection);
+        try {
+            final Connection con = pool.borrowConnection();
+            try {
+                pool.borrowConnection();
+                fail("Expected the pool to be exhausted");
+            } catch(final SQLException e) {
+                assertEquals(1, pool.getTimeoutCount());
+            } finally {
+                con.close();
+            }
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void invalidConnectionIsReplaced() throws SQLException {
+        final Connection invalid = niceMock(Connection.class);
+        expect(invalid.isValid(anyInt())).andReturn(true).andReturn(false);
+        expect(invalid.getAutoCommit()).andStubReturn(true);
+        invalid.close();
+        replay(invalid);
+
+        final AtomicInteger connects = new AtomicInteger();
+        final JDBCConnectionPool pool = new JDBCConnectionPool(URL, new JDBCConnectionPool.Config(), () ->
+                connects.getAndIncrement() == 0 ? invalid : validConnection());
+        try {
+            pool.borrowConnection().close();
+            pool.borrowConnection().close();
+
+            assertEquals(2, connects.get());
+            assertEquals(1, pool.getValidationFailureCount());
+            assertEquals(1, pool.getDestroyedCount());
+        } finally {
+            pool.close();
+        }
+
+        verify(invalid);
+    }
+
+    private Connection validConnection() throws SQLException {
+        final Connection connection = niceMock(Connection.class);
+        expect(connection.isValid(anyInt())).andStubReturn(true);
+        expect(connection.getAutoCommit()).andStubReturn(true);
+        replay(connection);
+        return connection;
+    }
+}